@@ -20,6 +20,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.hawkular.apm.api.internal.actions.helpers.JSON;
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.model.Severity;
 import org.hawkular.apm.api.model.config.Direction;
 import org.hawkular.apm.api.model.config.txn.ConfigMessage;
 import org.hawkular.apm.api.model.config.txn.Expression;
@@ -29,6 +31,9 @@ import org.hawkular.apm.api.model.config.txn.ProcessorAction;
 import org.hawkular.apm.api.model.trace.Node;
 import org.hawkular.apm.api.model.trace.Trace;
 
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+
 /**
  * This class provides the JSON expression handler implementation.
  *
@@ -36,6 +41,10 @@ import org.hawkular.apm.api.model.trace.Trace;
  */
 public class JSONExpressionHandler extends DataExpressionHandler {
 
+    private static final Logger log = Logger.getLogger(JSONExpressionHandler.class.getName());
+
+    private JsonPath compiledJsonpath;
+
     /**
      * @param expression
      */
@@ -45,12 +54,37 @@ public class JSONExpressionHandler extends DataExpressionHandler {
 
     @Override
     public List<ConfigMessage> init(Processor processor, ProcessorAction action, boolean predicate) {
-        return super.init(processor, action, predicate);
+        List<ConfigMessage> configMessages = super.init(processor, action, predicate);
+
+        String jsonpath = ((JSONExpression)getExpression()).getJsonpath();
+
+        if (jsonpath != null && !jsonpath.trim().isEmpty()) {
+            try {
+                compiledJsonpath = JsonPath.compile(jsonpath);
+            } catch (InvalidPathException e) {
+                String message = "Invalid jsonpath expression '" + jsonpath + "': " + e.getMessage();
+                String processorDescription = (processor == null ? null : processor.getDescription());
+                String actionDescription = (action == null ? null : action.getDescription());
+                log.severe(processorDescription + ":" + actionDescription + ":" + message);
+                ConfigMessage configMessage = new ConfigMessage();
+                configMessage.setSeverity(Severity.Error);
+                configMessage.setMessage(message);
+                configMessage.setField("jsonpath");
+                configMessage.setProcessor(processorDescription);
+                configMessage.setAction(actionDescription);
+                configMessages.add(0, configMessage);
+            }
+        }
+
+        return configMessages;
     }
 
     @Override
     public boolean test(Trace trace, Node node, Direction direction, Map<String, ?> headers,
             Object[] values) {
+        if (compiledJsonpath != null) {
+            return JSON.predicate(compiledJsonpath, getDataValue(trace, node, direction, headers, values));
+        }
         return JSON.predicate(((JSONExpression)getExpression()).getJsonpath(),
                             getDataValue(trace, node, direction, headers, values));
     }
@@ -58,6 +92,9 @@ public class JSONExpressionHandler extends DataExpressionHandler {
     @Override
     public String evaluate(Trace trace, Node node, Direction direction, Map<String, ?> headers,
             Object[] values) {
+        if (compiledJsonpath != null) {
+            return JSON.evaluate(compiledJsonpath, getDataValue(trace, node, direction, headers, values));
+        }
         return JSON.evaluate(((JSONExpression)getExpression()).getJsonpath(),
                             getDataValue(trace, node, direction, headers, values));
     }
@@ -19,7 +19,11 @@ package org.hawkular.apm.api.internal.actions;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.xpath.XPathExpressionException;
+
 import org.hawkular.apm.api.internal.actions.helpers.XML;
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.model.Severity;
 import org.hawkular.apm.api.model.config.Direction;
 import org.hawkular.apm.api.model.config.txn.ConfigMessage;
 import org.hawkular.apm.api.model.config.txn.Expression;
@@ -36,6 +40,10 @@ import org.hawkular.apm.api.model.trace.Trace;
  */
 public class XMLExpressionHandler extends DataExpressionHandler {
 
+    private static final Logger log = Logger.getLogger(XMLExpressionHandler.class.getName());
+
+    private String xpath;
+
     /**
      * @param expression
      */
@@ -45,22 +53,43 @@ public class XMLExpressionHandler extends DataExpressionHandler {
 
     @Override
     public List<ConfigMessage> init(Processor processor, ProcessorAction action, boolean predicate) {
-        return super.init(processor, action, predicate);
+        List<ConfigMessage> configMessages = super.init(processor, action, predicate);
+
+        xpath = ((XMLExpression) getExpression()).getXpath();
+
+        // Compile the expression, to validate it and cache the result for the current thread
+        if (xpath != null && !xpath.trim().isEmpty()) {
+            try {
+                XML.compile(xpath);
+            } catch (XPathExpressionException e) {
+                String message = "Invalid xpath expression '" + xpath + "': " + e.getMessage();
+                String processorDescription = (processor == null ? null : processor.getDescription());
+                String actionDescription = (action == null ? null : action.getDescription());
+                log.severe(processorDescription + ":" + actionDescription + ":" + message);
+                ConfigMessage configMessage = new ConfigMessage();
+                configMessage.setSeverity(Severity.Error);
+                configMessage.setMessage(message);
+                configMessage.setField("xpath");
+                configMessage.setProcessor(processorDescription);
+                configMessage.setAction(actionDescription);
+                configMessages.add(0, configMessage);
+            }
+        }
 
-        // TODO: Expression validation
+        return configMessages;
     }
 
     @Override
     public boolean test(Trace trace, Node node, Direction direction, Map<String, ?> headers,
             Object[] values) {
-        return XML.predicate(((XMLExpression) getExpression()).getXpath(),
+        return XML.predicate(xpath,
                 getDataValue(trace, node, direction, headers, values));
     }
 
     @Override
     public String evaluate(Trace trace, Node node, Direction direction, Map<String, ?> headers,
             Object[] values) {
-        return XML.evaluate(((XMLExpression) getExpression()).getXpath(),
+        return XML.evaluate(xpath,
                 getDataValue(trace, node, direction, headers, values));
     }
 
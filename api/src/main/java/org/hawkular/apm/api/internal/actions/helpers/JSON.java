@@ -16,11 +16,15 @@
  */
 package org.hawkular.apm.api.internal.actions.helpers;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 
 import net.minidev.json.JSONArray;
@@ -34,6 +38,9 @@ public class JSON {
 
     private static ObjectMapper mapper = new ObjectMapper();
 
+    /* The documents parsed within the current scope, keyed by the (identity of the) data */
+    private static final ThreadLocal<ParseScope> scopes = new ThreadLocal<ParseScope>();
+
     /**
      * This method serializes the supplied object to a JSON document.
      *
@@ -80,17 +87,29 @@ public class JSON {
             return false;
         }
 
-        String json = serialize(data);
-        if (json != null) {
-            Object result = JsonPath.parse(json).read(jsonpath);
-            if (result != null) {
-                if (result.getClass() == Boolean.class) {
-                    return (Boolean)result;
-                } else if (result.getClass() == String.class) {
-                    return Boolean.valueOf((String)result);
-                } else if (result.getClass() == JSONArray.class) {
-                    return !((JSONArray) result).isEmpty();
-                }
+        return isTrue(read(data, jsonpath, null));
+    }
+
+    /**
+     * This method evaluates the predicate based on the compiled jsonpath
+     * expression on the supplied node.
+     *
+     * @param jsonpath The compiled jsonpath expression
+     * @param data The json data
+     * @return The result, or false if the data was invalid
+     */
+    public static boolean predicate(JsonPath jsonpath, Object data) {
+        return isTrue(read(data, null, jsonpath));
+    }
+
+    private static boolean isTrue(Object result) {
+        if (result != null) {
+            if (result.getClass() == Boolean.class) {
+                return (Boolean)result;
+            } else if (result.getClass() == String.class) {
+                return Boolean.valueOf((String)result);
+            } else if (result.getClass() == JSONArray.class) {
+                return !((JSONArray) result).isEmpty();
             }
         }
         return false;
@@ -105,28 +124,115 @@ public class JSON {
      * @return The result, or null if not found (which may be due to an expression error)
      */
     public static String evaluate(String jsonpath, Object data) {
-        String json = serialize(data);
-
         // No jsonpath means return serialized form
         if (jsonpath == null || jsonpath.trim().isEmpty()) {
-            return json;
+            return serialize(data);
         }
 
-        if (json != null) {
-            Object result = JsonPath.parse(json).read(jsonpath);
-            if (result != null) {
-                if (result.getClass() == JSONArray.class) {
-                    JSONArray arr=(JSONArray)result;
-                    if (arr.isEmpty()) {
-                        result = null;
-                    } else if (arr.size() == 1) {
-                        result = arr.get(0);
-                    }
+        return toText(read(data, jsonpath, null));
+    }
+
+    /**
+     * This method evaluates the compiled jsonpath expression on the supplied
+     * node.
+     *
+     * @param jsonpath The compiled jsonpath expression
+     * @param data The json data
+     * @return The result, or null if not found (which may be due to an expression error)
+     */
+    public static String evaluate(JsonPath jsonpath, Object data) {
+        return toText(read(data, null, jsonpath));
+    }
+
+    private static String toText(Object result) {
+        if (result != null) {
+            if (result.getClass() == JSONArray.class) {
+                JSONArray arr=(JSONArray)result;
+                if (arr.isEmpty()) {
+                    result = null;
+                } else if (arr.size() == 1) {
+                    result = arr.get(0);
                 }
-                return serialize(result);
             }
+            return serialize(result);
         }
         return null;
     }
 
+    /**
+     * This method reads the value identified by the jsonpath expression, supplied
+     * either in textual or compiled form, from the data.
+     *
+     * @param data The json data
+     * @param jsonpath The textual jsonpath expression, or null if compiled
+     * @param compiled The compiled jsonpath expression, or null if textual
+     * @return The value, or null if the data was invalid
+     */
+    private static Object read(Object data, String jsonpath, JsonPath compiled) {
+        DocumentContext document = parse(data);
+        if (document == null) {
+            return null;
+        }
+        return (compiled == null ? document.read(jsonpath) : document.read(compiled));
+    }
+
+    /**
+     * This method parses the supplied data. If called within a parse scope, the
+     * parsed document is retained for the remainder of the scope, so that subsequent
+     * expressions evaluated against the same data do not need to parse it again.
+     *
+     * @param data The json data
+     * @return The parsed document, or null if the data could not be serialized
+     */
+    protected static DocumentContext parse(Object data) {
+        ParseScope scope = scopes.get();
+        DocumentContext ret = (scope == null || data == null ? null : scope.documents.get(data));
+
+        if (ret == null) {
+            String json = serialize(data);
+            if (json != null) {
+                ret = JsonPath.parse(json);
+                if (scope != null) {
+                    scope.documents.put(data, ret);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * This method begins a parse scope for the current thread, within which
+     * each data value is only parsed once. It is used when the same data values
+     * (e.g. the content of a message) will be evaluated by a number of expressions,
+     * and must be followed by a call to {@link #endScope()}. Scopes can be nested,
+     * in which case the documents are retained until the outermost scope ends.
+     */
+    public static void beginScope() {
+        ParseScope scope = scopes.get();
+        if (scope == null) {
+            scope = new ParseScope();
+            scopes.set(scope);
+        }
+        scope.depth++;
+    }
+
+    /**
+     * This method ends the parse scope for the current thread.
+     */
+    public static void endScope() {
+        ParseScope scope = scopes.get();
+        if (scope != null && --scope.depth == 0) {
+            scopes.remove();
+        }
+    }
+
+    /**
+     * This class represents the documents parsed within a scope.
+     */
+    private static final class ParseScope {
+
+        private final Map<Object, DocumentContext> documents = new IdentityHashMap<Object, DocumentContext>();
+        private int depth = 0;
+    }
+
 }
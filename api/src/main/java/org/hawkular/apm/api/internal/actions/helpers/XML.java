@@ -18,6 +18,8 @@ package org.hawkular.apm.api.internal.actions.helpers;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -28,6 +30,7 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -46,6 +49,22 @@ public class XML {
     private static final String DEFAULT_INDENT = "yes";
     private static final String DEFAULT_ENCODING = "UTF-8";
 
+    private static final int MAX_CACHED_EXPRESSIONS = 100;
+
+    /* Compiled xpath expressions are not thread safe, so are cached per thread */
+    private static final ThreadLocal<XPath> xpaths = ThreadLocal.withInitial(
+            () -> XPathFactory.newInstance().newXPath());
+
+    private static final ThreadLocal<Map<String, XPathExpression>> compiledExpressions = ThreadLocal.withInitial(
+            () -> new LinkedHashMap<String, XPathExpression>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+                    return size() > MAX_CACHED_EXPRESSIONS;
+                }
+            });
+
     /**
      * This method serializes the supplied XML object to a string.
      *
@@ -95,11 +114,8 @@ public class XML {
             return false;
         }
 
-        // TODO: HWKBTM-104 Investigate caching compiled xpath expressions
         try {
-            xpath = getExpression(xpath);
-            XPath xp = XPathFactory.newInstance().newXPath();
-            Boolean result = (Boolean) xp.evaluate(xpath, domNode, XPathConstants.BOOLEAN);
+            Boolean result = (Boolean) compile(xpath).evaluate(domNode, XPathConstants.BOOLEAN);
 
             if (result != null) {
                 return result;
@@ -134,11 +150,8 @@ public class XML {
             return serialize(node);
         }
 
-        // TODO: HWKBTM-104 Investigate caching compiled xpath expressions
         try {
-            xpath = getExpression(xpath);
-            XPath xp = XPathFactory.newInstance().newXPath();
-            Node result = (Node) xp.evaluate(xpath, domNode, XPathConstants.NODE);
+            Node result = (Node) compile(xpath).evaluate(domNode, XPathConstants.NODE);
 
             if (result != null) {
                 if (result.getNodeType() == Node.TEXT_NODE) {
@@ -155,6 +168,26 @@ public class XML {
         return null;
     }
 
+    /**
+     * This method returns the compiled form of the supplied xpath expression. As
+     * compiled expressions are not thread safe, the result must only be used by
+     * the calling thread. The most recently used expressions are cached for each
+     * thread, so they only need to be compiled once.
+     *
+     * @param xpath The xpath expression
+     * @return The compiled expression
+     * @throws XPathExpressionException Failed to compile the expression
+     */
+    public static XPathExpression compile(String xpath) throws XPathExpressionException {
+        Map<String, XPathExpression> cache = compiledExpressions.get();
+        XPathExpression ret = cache.get(xpath);
+        if (ret == null) {
+            ret = xpaths.get().compile(getExpression(xpath));
+            cache.put(xpath, ret);
+        }
+        return ret;
+    }
+
     /**
      * This method transforms the XPath expression to replace XPath 2.0
      * namespace wildcards with use of the local-name() function.
@@ -270,11 +303,8 @@ public class XML {
             return null;
         }
 
-        // TODO: HWKBTM-104 Investigate caching compiled xpath expressions
         try {
-            xpath = getExpression(xpath);
-            XPath xp = XPathFactory.newInstance().newXPath();
-            return (Node) xp.evaluate(xpath, domNode, XPathConstants.NODE);
+            return (Node) compile(xpath).evaluate(domNode, XPathConstants.NODE);
         } catch (XPathExpressionException e) {
             log.log(Level.SEVERE, "Failed to select node for xpath '" + xpath + "'", e);
         }
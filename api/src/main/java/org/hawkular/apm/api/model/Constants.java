@@ -87,6 +87,13 @@ public class Constants {
      */
     public static final String PROP_HTTP_URL_TEMPLATE = "http.url_template";
 
+    /**
+     * Property key indicating that the captured message content was truncated,
+     * with the direction (In or Out) of the message as its value
+     * {@link org.hawkular.apm.api.model.Property#name}
+     */
+    public static final String PROP_CONTENT_TRUNCATED = "content.truncated";
+
     /**
      * Represents database component type of
      * {@link org.hawkular.apm.api.model.trace.Component#componentType}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.model.config.txn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * This class represents the tail sampling policy for a transaction. The decision whether
+ * to report a trace fragment is made once the fragment has completed. Fragments that are
+ * slow, contain a fault or match a property are always reported, and only the configured
+ * percentage of the remaining fragments.
+ *
+ * @author gbrown
+ */
+public class TailSampling {
+
+    @JsonInclude
+    private long durationThreshold = 0;
+
+    @JsonInclude
+    private boolean faults = true;
+
+    @JsonInclude
+    private Map<String, String> properties = new HashMap<String, String>();
+
+    @JsonInclude
+    private int percentage = 10;
+
+    /**
+     * @return The duration (in milliseconds) of the fragment's root node at or above
+     *              which the fragment is reported, or 0 if not applicable
+     */
+    public long getDurationThreshold() {
+        return durationThreshold;
+    }
+
+    /**
+     * @param durationThreshold The duration (in milliseconds) of the fragment's root node at
+     *              or above which the fragment is reported, or 0 if not applicable
+     */
+    public void setDurationThreshold(long durationThreshold) {
+        this.durationThreshold = durationThreshold;
+    }
+
+    /**
+     * @return Whether fragments containing a fault are reported
+     */
+    public boolean isFaults() {
+        return faults;
+    }
+
+    /**
+     * @param faults Whether fragments containing a fault are reported
+     */
+    public void setFaults(boolean faults) {
+        this.faults = faults;
+    }
+
+    /**
+     * @return The property names, and optional regular expressions for their values,
+     *              that cause a fragment to be reported
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @param properties The property names, and optional regular expressions for their values,
+     *              that cause a fragment to be reported
+     */
+    public void setProperties(Map<String, String> properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return The percentage of the remaining fragments to report
+     */
+    public int getPercentage() {
+        return percentage;
+    }
+
+    /**
+     * @param percentage The percentage of the remaining fragments to report
+     */
+    public void setPercentage(int percentage) {
+        this.percentage = percentage;
+    }
+
+    @Override
+    public String toString() {
+        return "TailSampling [durationThreshold=" + durationThreshold + ", faults=" + faults
+                + ", properties=" + properties + ", percentage=" + percentage + "]";
+    }
+
+}
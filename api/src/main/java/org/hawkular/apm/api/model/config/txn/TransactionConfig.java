@@ -43,6 +43,9 @@ public class TransactionConfig {
     @JsonInclude
     private List<Processor> processors = new ArrayList<Processor>();
 
+    @JsonInclude(Include.NON_NULL)
+    private TailSampling tailSampling;
+
     /**
      * Last updated in microseconds
      */
@@ -108,6 +111,20 @@ public class TransactionConfig {
         this.processors = processors;
     }
 
+    /**
+     * @return the tail sampling policy, or null if fragments are not tail sampled
+     */
+    public TailSampling getTailSampling() {
+        return tailSampling;
+    }
+
+    /**
+     * @param tailSampling the tail sampling policy to set
+     */
+    public void setTailSampling(TailSampling tailSampling) {
+        this.tailSampling = tailSampling;
+    }
+
     /**
      * @return the lastUpdated
      */
@@ -139,7 +156,7 @@ public class TransactionConfig {
     @Override
     public String toString() {
         return "BusinessTxnConfig [level=" + level + ", description=" + description + ", filter=" + filter
-                + ", processors=" + processors + ", lastUpdated=" + lastUpdated + ", deleted=" + deleted + "]";
+                + ", processors=" + processors + ", tailSampling=" + tailSampling + ", lastUpdated=" + lastUpdated + ", deleted=" + deleted + "]";
     }
 
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.services;
+
+/**
+ * This exception indicates that the recipient has rejected the information being
+ * published, and therefore publishing the same information again would also fail.
+ *
+ * @author gbrown
+ */
+public class RejectedException extends Exception {
+
+    private static final long serialVersionUID = 6021871357302766912L;
+
+    /**
+     * This constructor initialises the exception message.
+     *
+     * @param mesg The message
+     */
+    public RejectedException(String mesg) {
+        super(mesg);
+    }
+
+    /**
+     * This constructor initialises the exception message.
+     *
+     * @param mesg The message
+     * @param t The associated exception
+     */
+    public RejectedException(String mesg, Throwable t) {
+        super(mesg, t);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.utils;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class provides a bounded, lock-free, multi-producer/single-consumer ring buffer.
+ * Producers claim a slot using a CAS on the tail sequence and then publish the element
+ * into the preallocated slot. The single consumer drains published elements in order,
+ * stopping at the first slot that has been claimed but not yet published.
+ *
+ * @author gbrown
+ *
+ * @param <T> The element type
+ */
+public class MpscRingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The constructor.
+     *
+     * @param capacity The minimum capacity, rounded up to the next power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * This method returns the capacity of the ring buffer.
+     *
+     * @return The capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * This method offers an element to the ring buffer. It may be called
+     * concurrently by any number of producers.
+     *
+     * @param element The element
+     * @return The number of elements in the buffer after adding, or -1 if the buffer was full
+     */
+    public long offer(T element) {
+        if (element == null) {
+            throw new NullPointerException("Element must not be null");
+        }
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head.get() > mask) {
+                return -1;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        slots.lazySet((int) seq & mask, element);
+
+        return seq + 1 - head.get();
+    }
+
+    /**
+     * This method removes up to the specified number of elements from the ring
+     * buffer, adding them to the supplied collection. It must only be called by
+     * a single consumer thread.
+     *
+     * @param to The collection to add the elements to
+     * @param max The maximum number of elements to drain
+     * @return The number of elements drained
+     */
+    public int drain(Collection<? super T> to, int max) {
+        long seq = head.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) seq & mask;
+            T element = slots.get(index);
+            if (element == null) {
+                // Either empty, or the producer has claimed but not yet published the slot
+                break;
+            }
+            slots.lazySet(index, null);
+            to.add(element);
+            seq++;
+            count++;
+        }
+        if (count > 0) {
+            head.lazySet(seq);
+        }
+        return count;
+    }
+
+    /**
+     * This method returns the approximate number of elements in the ring buffer.
+     *
+     * @return The size
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * This method determines whether the ring buffer is empty.
+     *
+     * @return Whether empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+}
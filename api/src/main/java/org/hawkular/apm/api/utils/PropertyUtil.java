@@ -65,6 +65,40 @@ public class PropertyUtil {
      */
     public static final String HAWKULAR_APM_URI_PUBLISHER = "HAWKULAR_APM_URI_PUBLISHER";
 
+    /**
+     * Client side boolean property to indicate whether trace fragments should be compressed when
+     * published, if the server advertises support for compressed requests. Default is true.
+     */
+    public static final String HAWKULAR_APM_PUBLISHER_COMPRESSION = "HAWKULAR_APM_PUBLISHER_COMPRESSION";
+
+    /**
+     * Client side property to define the wire format (json or smile) used to publish trace fragments,
+     * if the server advertises support for it. Default is smile.
+     */
+    public static final String HAWKULAR_APM_PUBLISHER_FORMAT = "HAWKULAR_APM_PUBLISHER_FORMAT";
+
+    /**
+     * Client side property defining the maximum number of concurrent HTTP connections used
+     * by the REST clients to publish information. Default is 5.
+     */
+    public static final String HAWKULAR_APM_HTTP_MAXCONNECTIONS = "HAWKULAR_APM_HTTP_MAXCONNECTIONS";
+
+    /**
+     * Client side property defining the maximum number of concurrent HTTP connections used
+     * by the REST clients for control requests, such as retrieving the configuration. Default is 2.
+     */
+    public static final String HAWKULAR_APM_HTTP_MAXCONTROLCONNECTIONS = "HAWKULAR_APM_HTTP_MAXCONTROLCONNECTIONS";
+
+    /**
+     * Client side property defining the HTTP connect timeout (in milliseconds). Default is 10000.
+     */
+    public static final String HAWKULAR_APM_HTTP_CONNECTTIMEOUT = "HAWKULAR_APM_HTTP_CONNECTTIMEOUT";
+
+    /**
+     * Client side property defining the HTTP read timeout (in milliseconds). Default is 30000.
+     */
+    public static final String HAWKULAR_APM_HTTP_READTIMEOUT = "HAWKULAR_APM_HTTP_READTIMEOUT";
+
     /**
      * The username to use for accessing the APM server.
      */
@@ -110,11 +144,88 @@ public class PropertyUtil {
      */
     public static final String HAWKULAR_APM_COLLECTOR_BATCHTHREADS = "HAWKULAR_APM_COLLECTOR_BATCHTHREADS";
 
+    /**
+     * Client side boolean property to indicate whether the trace recorder should use a lock-free
+     * ring buffer, drained by a single flusher thread, instead of a lock protected batch.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_LOCKFREE = "HAWKULAR_APM_COLLECTOR_LOCKFREE";
+
+    /**
+     * The maximum estimated memory (in megabytes) used by trace fragments waiting to be published.
+     * The memory budget is disabled by default, or if the value is 0.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_MEMORYBUDGET = "HAWKULAR_APM_COLLECTOR_MEMORYBUDGET";
+
+    /**
+     * The policy applied when the memory budget is exceeded: DropNewest, DropOldest or Degrade.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_OVERFLOWPOLICY = "HAWKULAR_APM_COLLECTOR_OVERFLOWPOLICY";
+
+    /**
+     * The directory used to journal batches of traces that could not be published, so they
+     * can be replayed when the publisher recovers. If not defined, failed batches are discarded.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_JOURNAL_DIR = "HAWKULAR_APM_COLLECTOR_JOURNAL_DIR";
+
+    /**
+     * The maximum disk space (in megabytes) used by the trace journal.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_JOURNAL_MAXSIZE = "HAWKULAR_APM_COLLECTOR_JOURNAL_MAXSIZE";
+
+    /**
+     * The maximum number of endpoints for which the transaction filter result is cached.
+     * A value of 0 disables the cache.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_FILTERCACHESIZE = "HAWKULAR_APM_COLLECTOR_FILTERCACHESIZE";
+
+    /**
+     * The maximum size (in bytes) of message content captured for processing. Content
+     * beyond this size is discarded, and the node marked with the 'content.truncated' property.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_CONTENT_MAXSIZE = "HAWKULAR_APM_COLLECTOR_CONTENT_MAXSIZE";
+
+    /**
+     * The time (in seconds) after which a correlation that has not been completed expires,
+     * releasing the associated trace fragment. A value of 0 disables expiry.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_CORRELATION_TIMEOUT = "HAWKULAR_APM_COLLECTOR_CORRELATION_TIMEOUT";
+
+    /**
+     * The maximum number of uncompleted correlations. A value of 0 means unbounded.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_CORRELATION_MAXSIZE = "HAWKULAR_APM_COLLECTOR_CORRELATION_MAXSIZE";
+
+    /**
+     * Client side boolean property to indicate whether the partial trace fragment, associated
+     * with an expired correlation, should be recorded. By default the fragment is discarded.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_CORRELATION_FLUSH = "HAWKULAR_APM_COLLECTOR_CORRELATION_FLUSH";
+
+    /**
+     * The time (in milliseconds) that completed trace fragments, for transactions with a tail
+     * sampling policy, are held pending the sampling decision for their trace.
+     */
+    public static final String HAWKULAR_APM_COLLECTOR_TAILSAMPLING_HOLDTIME =
+            "HAWKULAR_APM_COLLECTOR_TAILSAMPLING_HOLDTIME";
+
+    /**
+     * Client side boolean property to indicate whether the OpenTracing tracer should make the sampling
+     * decision when a trace is started. Spans for unsampled traces then only propagate the trace
+     * context, rather than building a trace fragment that is discarded on completion.
+     */
+    public static final String HAWKULAR_APM_OPENTRACING_HEADSAMPLING = "HAWKULAR_APM_OPENTRACING_HEADSAMPLING";
+
     /**
      * The time interval (in milliseconds) between checks for expired trace states in the agent.
      */
     public static final String HAWKULAR_APM_AGENT_STATE_EXPIRY_INTERVAL = "HAWKULAR_APM_AGENT_STATE_EXPIRY_INTERVAL";
 
+    /**
+     * The maximum number of suspended trace states retained by the agent, beyond which
+     * the oldest is discarded. The default is 10000.
+     */
+    public static final String HAWKULAR_APM_AGENT_STATE_MAXSIZE = "HAWKULAR_APM_AGENT_STATE_MAXSIZE";
+
     /**
      * Comma separated list of whitelisted file extensions. All others will be ignored by the agent.
      */
@@ -125,6 +236,21 @@ public class PropertyUtil {
      */
     public static final String HAWKULAR_APM_PROCESSOR_MAX_RETRY_COUNT = "HAWKULAR_APM_PROCESSOR_MAX_RETRY_COUNT";
 
+    /**
+     * Server side property to define the maximum number of events, awaiting a retry, that can
+     * be held in memory by each MDB instance. Once reached, further retries are resubmitted via
+     * the JMS destinations. A value of 0 means all retries are resubmitted via the JMS destinations.
+     * Default is 1000.
+     */
+    public static final String HAWKULAR_APM_PROCESSOR_RETRY_MAXITEMS = "HAWKULAR_APM_PROCESSOR_RETRY_MAXITEMS";
+
+    /**
+     * Server side property to define the minimum number of events in a batch, for the events to be
+     * processed concurrently by processors that support it. A value of 0 means events are always
+     * processed sequentially. Default is 256.
+     */
+    public static final String HAWKULAR_APM_PROCESSOR_PARALLEL_THRESHOLD = "HAWKULAR_APM_PROCESSOR_PARALLEL_THRESHOLD";
+
     /**
      * The interval between retrying the processing of a batch of failed events.
      */
@@ -136,6 +262,33 @@ public class PropertyUtil {
      */
     public static final String HAWKULAR_APM_PROCESSOR_LAST_RETRY_DELAY = "HAWKULAR_APM_PROCESSOR_LAST_RETRY_DELAY";
 
+    /**
+     * Server side property to define the wire format (json or smile) used for events published
+     * to the JMS destinations. Default is smile.
+     */
+    public static final String HAWKULAR_APM_PROCESSOR_FORMAT = "HAWKULAR_APM_PROCESSOR_FORMAT";
+
+    /**
+     * Server side boolean property to indicate whether trace fragments published to the Traces
+     * topic should be consumed once, by a single fused subscriber that deserializes each batch and
+     * dispatches it to all of the trace processors in parallel, rather than by each processor's
+     * own subscriber. Retries continue to be handled by the individual subscribers.
+     */
+    public static final String HAWKULAR_APM_PROCESSOR_TRACES_FUSED = "HAWKULAR_APM_PROCESSOR_TRACES_FUSED";
+
+    /**
+     * Server side boolean property to indicate whether published trace fragments should be
+     * processed by an in-VM pipeline, passing events between the processors using bounded
+     * ring buffers, rather than via the JMS destinations.
+     */
+    public static final String HAWKULAR_APM_PROCESSOR_INVM = "HAWKULAR_APM_PROCESSOR_INVM";
+
+    /**
+     * Server side property to define the number of worker threads used by each processor
+     * in the in-VM pipeline. Default is 1.
+     */
+    public static final String HAWKULAR_APM_PROCESSOR_INVM_WORKERS = "HAWKULAR_APM_PROCESSOR_INVM_WORKERS";
+
     /**
      * The standard polling interval (in milliseconds) used by processors.
      */
@@ -151,6 +304,23 @@ public class PropertyUtil {
      */
     public static final String HAWKULAR_APM_KAFKA_PRODUCER_RETRIES = "HAWKULAR_APM_KAFKA_PRODUCER_RETRIES";
 
+    /**
+     * The wire format (json or smile) used for records published to Kafka topics. Default is json.
+     */
+    public static final String HAWKULAR_APM_KAFKA_PRODUCER_FORMAT = "HAWKULAR_APM_KAFKA_PRODUCER_FORMAT";
+
+    /**
+     * Boolean property indicating whether records published to Kafka topics should be keyed
+     * (e.g. trace fragments by trace id), so that related records are assigned to the same
+     * partition. Default is true.
+     */
+    public static final String HAWKULAR_APM_KAFKA_PRODUCER_KEYED = "HAWKULAR_APM_KAFKA_PRODUCER_KEYED";
+
+    /**
+     * The compression type (none, gzip, snappy or lz4) used by the Kafka producer. Default is gzip.
+     */
+    public static final String HAWKULAR_APM_KAFKA_PRODUCER_COMPRESSION = "HAWKULAR_APM_KAFKA_PRODUCER_COMPRESSION";
+
     /**
      * The interval (in milliseconds) between consumer auto commits.
      */
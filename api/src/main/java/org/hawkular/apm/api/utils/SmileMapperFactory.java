@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * This class creates the object mapper for the {@link WireFormat#Smile} format. It is
+ * the only class that references the Smile library, so that the library is only required
+ * on the classpath when the Smile format is used.
+ *
+ * @author gbrown
+ */
+final class SmileMapperFactory {
+
+    private SmileMapperFactory() {
+    }
+
+    /**
+     * @return The object mapper for the Smile format
+     */
+    static ObjectMapper createMapper() {
+        return new ObjectMapper(new SmileFactory()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES));
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.utils;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This enumerated type represents the wire formats that can be used to exchange
+ * trace fragments and derived events (e.g. node details, communication details,
+ * completion times and spans) between the client and server, and between the
+ * server side processors.
+ *
+ * @author gbrown
+ */
+public enum WireFormat {
+
+    /* Textual JSON */
+    Json("application/json") {
+        @Override
+        protected ObjectMapper createMapper() {
+            return new ObjectMapper();
+        }
+    },
+
+    /* Binary JSON, using the Smile format, which also shares repeated names and
+     * (short) string values, such as the URIs and operations found in trace fragments */
+    Smile("application/x-jackson-smile") {
+        @Override
+        protected ObjectMapper createMapper() {
+            return SmileMapperFactory.createMapper();
+        }
+    };
+
+    private final String contentType;
+    private volatile ObjectMapper mapper;
+
+    WireFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * This method creates the object mapper. The mapper is created on first use, so that
+     * the binary format libraries are only required if the associated format is used.
+     * The binary format classes must only be referenced from a separate class, as the
+     * bytecode verifier may otherwise load them when this enum is initialised.
+     *
+     * @return The object mapper
+     */
+    protected abstract ObjectMapper createMapper();
+
+    /**
+     * @return The content (media) type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return The object mapper for this format
+     */
+    public ObjectMapper getMapper() {
+        if (mapper == null) {
+            synchronized (this) {
+                if (mapper == null) {
+                    mapper = createMapper();
+                }
+            }
+        }
+        return mapper;
+    }
+
+    /**
+     * @return Whether the format is binary
+     */
+    public boolean isBinary() {
+        return this != Json;
+    }
+
+    /**
+     * This method serializes the supplied value.
+     *
+     * @param value The value
+     * @return The serialized value
+     * @throws IOException Failed to serialize the value
+     */
+    public byte[] serialize(Object value) throws IOException {
+        return getMapper().writeValueAsBytes(value);
+    }
+
+    /**
+     * This method deserializes the supplied data.
+     *
+     * @param data The serialized data
+     * @param typeReference The type to deserialize
+     * @return The value
+     * @throws IOException Failed to deserialize the data
+     */
+    public <T> T deserialize(byte[] data, TypeReference<T> typeReference) throws IOException {
+        return getMapper().readValue(data, typeReference);
+    }
+
+    /**
+     * This method returns the wire format associated with the supplied content type.
+     * Any parameters (e.g. charset) associated with the content type are ignored.
+     *
+     * @param contentType The content type
+     * @return The wire format, or null if not known
+     */
+    public static WireFormat fromContentType(String contentType) {
+        if (contentType != null) {
+            int index = contentType.indexOf(';');
+            if (index != -1) {
+                contentType = contentType.substring(0, index);
+            }
+            contentType = contentType.trim();
+            for (WireFormat format : values()) {
+                if (format.contentType.equalsIgnoreCase(contentType)) {
+                    return format;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method returns the wire format identified by the supplied property,
+     * which can be the name of the format (case insensitive) or its content type.
+     *
+     * @param property The property name
+     * @param defaultFormat The format to use if the property is not defined or invalid
+     * @return The wire format
+     */
+    public static WireFormat fromProperty(String property, WireFormat defaultFormat) {
+        String value = PropertyUtil.getProperty(property);
+        if (value != null) {
+            for (WireFormat format : values()) {
+                if (format.name().equalsIgnoreCase(value.trim())) {
+                    return format;
+                }
+            }
+            WireFormat format = fromContentType(value);
+            if (format != null) {
+                return format;
+            }
+        }
+        return defaultFormat;
+    }
+
+}
@@ -22,9 +22,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.hawkular.apm.api.model.config.Direction;
+import org.hawkular.apm.api.model.config.txn.ConfigMessage;
 import org.hawkular.apm.api.model.config.txn.DataSource;
 import org.hawkular.apm.api.model.config.txn.XMLExpression;
 import org.junit.Test;
@@ -156,4 +158,18 @@ public class XMLExpressionHandlerTest {
         assertEquals("hello", result);
     }
 
+    @Test
+    public void testInitInvalidXpath() {
+        XMLExpression xml = new XMLExpression();
+        xml.setSource(DataSource.Content);
+        xml.setKey("0");
+        xml.setXpath("/doc/[");
+
+        XMLExpressionHandler handler = new XMLExpressionHandler(xml);
+        List<ConfigMessage> messages = handler.init(null, null, true);
+
+        assertEquals(1, messages.size());
+        assertEquals("xpath", messages.get(0).getField());
+    }
+
 }
@@ -22,6 +22,8 @@ import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import com.jayway.jsonpath.JsonPath;
+
 /**
  * @author gbrown
  */
@@ -38,6 +40,34 @@ public class JSONTest {
         assertEquals("1", result);
     }
 
+    @Test
+    public void testEvaluateCompiled() {
+        String json = "{ \"order\": { \"orderId\": \"1\", \"express\": true } }";
+
+        assertEquals("1", JSON.evaluate(JsonPath.compile("$.order.orderId"), json));
+        assertTrue(JSON.predicate(JsonPath.compile("$.order.express"), json));
+    }
+
+    @Test
+    public void testParsedOnceInScope() {
+        Order order = new Order();
+        order.setOrderId("1");
+        String expr = "$.orderId";
+
+        JSON.beginScope();
+        try {
+            assertEquals("1", JSON.evaluate(expr, order));
+
+            // Same data instance, so document should be reused
+            order.setOrderId("2");
+            assertEquals("1", JSON.evaluate(expr, order));
+        } finally {
+            JSON.endScope();
+        }
+
+        assertEquals("2", JSON.evaluate(expr, order));
+    }
+
     @Test
     public void testEvaluateStringToElement() {
         String json = "{ \"order\": { \"orderId\": \"1\" } }";
@@ -19,8 +19,16 @@ package org.hawkular.apm.api.internal.actions.helpers;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 
 import org.junit.Test;
 import org.w3c.dom.Node;
@@ -212,4 +220,26 @@ public class XMLTest {
         assertEquals("order", result.getLocalName());
     }
 
+    @Test
+    public void testCompileCachedPerThread() throws Exception {
+        XPathExpression expr = XML.compile("/*:order/id");
+
+        assertSame(expr, XML.compile("/*:order/id"));
+        assertNotSame(expr, XML.compile("/*:order/item"));
+
+        AtomicReference<XPathExpression> other = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                other.set(XML.compile("/*:order/id"));
+            } catch (XPathExpressionException e) {
+                fail(e.getMessage());
+            }
+        });
+        t.start();
+        t.join();
+
+        assertNotNull(other.get());
+        assertNotSame(expr, other.get());
+    }
+
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class MpscRingBufferTest {
+
+    @Test
+    public void testCapacityRoundedToPowerOfTwo() {
+        assertEquals(8, new MpscRingBuffer<String>(5).capacity());
+        assertEquals(8, new MpscRingBuffer<String>(8).capacity());
+    }
+
+    @Test
+    public void testOfferAndDrainInOrder() {
+        MpscRingBuffer<String> rb = new MpscRingBuffer<>(4);
+        assertEquals(1, rb.offer("a"));
+        assertEquals(2, rb.offer("b"));
+        assertEquals(3, rb.offer("c"));
+
+        List<String> result = new ArrayList<>();
+        assertEquals(2, rb.drain(result, 2));
+        assertEquals(1, rb.size());
+
+        assertEquals(1, rb.drain(result, 10));
+        assertTrue(rb.isEmpty());
+
+        assertEquals(3, result.size());
+        assertEquals("a", result.get(0));
+        assertEquals("b", result.get(1));
+        assertEquals("c", result.get(2));
+    }
+
+    @Test
+    public void testOfferWhenFull() {
+        MpscRingBuffer<String> rb = new MpscRingBuffer<>(2);
+        assertEquals(1, rb.offer("a"));
+        assertEquals(2, rb.offer("b"));
+        assertEquals(-1, rb.offer("c"));
+
+        List<String> result = new ArrayList<>();
+        assertEquals(1, rb.drain(result, 1));
+
+        // Slot has been freed so wrap around
+        assertEquals(2, rb.offer("c"));
+        assertEquals(2, rb.drain(result, 10));
+        assertEquals("c", result.get(2));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 8;
+        final int perProducer = 10000;
+        MpscRingBuffer<Integer> rb = new MpscRingBuffer<>(1024);
+        CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (rb.offer(base + i) == -1) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        Set<Integer> result = new HashSet<>();
+        List<Integer> batch = new ArrayList<>();
+        while (result.size() < producers * perProducer) {
+            batch.clear();
+            if (rb.drain(batch, 100) == 0) {
+                Thread.yield();
+            }
+            result.addAll(batch);
+        }
+        done.await();
+
+        assertEquals(producers * perProducer, result.size());
+        assertTrue(rb.isEmpty());
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.api.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.apm.api.model.Property;
+import org.hawkular.apm.api.model.events.CompletionTime;
+import org.hawkular.apm.api.model.events.NodeDetails;
+import org.hawkular.apm.api.model.trace.Component;
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * @author gbrown
+ */
+public class WireFormatTest {
+
+    @Test
+    public void testFromContentType() {
+        assertEquals(WireFormat.Json, WireFormat.fromContentType("application/json; charset=UTF-8"));
+        assertEquals(WireFormat.Smile, WireFormat.fromContentType("application/x-jackson-smile"));
+        assertNull(WireFormat.fromContentType("text/plain"));
+        assertNull(WireFormat.fromContentType(null));
+    }
+
+    @Test
+    public void testTraceRoundTrip() throws Exception {
+        Trace trace = createTrace();
+
+        for (WireFormat format : WireFormat.values()) {
+            byte[] data = format.serialize(Collections.singletonList(trace));
+            List<Trace> result = format.deserialize(data, new TypeReference<List<Trace>>() {
+            });
+            assertEquals(1, result.size());
+            assertEquals(trace, result.get(0));
+            assertEquals(trace.getNodes().get(0).getProperties(), result.get(0).getNodes().get(0).getProperties());
+        }
+    }
+
+    @Test
+    public void testSmileSmallerThanJson() throws Exception {
+        Trace trace = createTrace();
+
+        assertTrue(WireFormat.Smile.serialize(trace).length < WireFormat.Json.serialize(trace).length);
+    }
+
+    @Test
+    public void testEventRoundTrip() throws Exception {
+        NodeDetails nd = new NodeDetails();
+        nd.setId("nd1");
+        nd.setUri("/hello");
+        nd.setElapsed(100);
+        nd.setProperties(Collections.singleton(new Property("prop1", "value1")));
+
+        CompletionTime ct = new CompletionTime();
+        ct.setId("ct1");
+        ct.setUri("/hello");
+        ct.setDuration(200);
+
+        byte[] data = WireFormat.Smile.serialize(Collections.singletonList(nd));
+        List<NodeDetails> nds = WireFormat.Smile.deserialize(data, new TypeReference<List<NodeDetails>>() {
+        });
+        assertEquals(nd, nds.get(0));
+
+        data = WireFormat.Smile.serialize(Collections.singletonList(ct));
+        List<CompletionTime> cts = WireFormat.Smile.deserialize(data, new TypeReference<List<CompletionTime>>() {
+        });
+        assertEquals("ct1", cts.get(0).getId());
+        assertEquals(200, cts.get(0).getDuration());
+    }
+
+    @Test
+    public void testJsonWithoutSmile() throws Exception {
+        ClassLoader cl = new NoSmileClassLoader(WireFormatTest.class.getClassLoader());
+
+        Class<?> wireFormat = cl.loadClass(WireFormat.class.getName());
+        assertTrue(wireFormat != WireFormat.class);
+
+        Object json = wireFormat.getMethod("valueOf", String.class).invoke(null, "Json");
+        byte[] data = (byte[]) wireFormat.getMethod("serialize", Object.class).invoke(json,
+                Collections.singletonList("hello"));
+        assertEquals("[\"hello\"]", new String(data, "UTF-8"));
+
+        Object smile = wireFormat.getMethod("valueOf", String.class).invoke(null, "Smile");
+        try {
+            wireFormat.getMethod("getMapper").invoke(smile);
+            fail("Smile mapper should not be available");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+    }
+
+    protected static Trace createTrace() {
+        Trace trace = new Trace();
+        trace.setTraceId("trace1");
+        trace.setFragmentId("frag1");
+        trace.setTransaction("txn1");
+        trace.setTimestamp(1000);
+
+        Consumer consumer = new Consumer("/hello", "HTTP");
+        consumer.getProperties().add(new Property("prop1", "value1"));
+        trace.getNodes().add(consumer);
+
+        for (int i = 0; i < 5; i++) {
+            Component component = new Component("jdbc:h2:mem", "Database");
+            component.setOperation("SELECT");
+            consumer.getNodes().add(component);
+        }
+        return trace;
+    }
+
+    /**
+     * This class loader defines the APM API classes itself, so that they are linked against
+     * a classpath without the Smile library.
+     */
+    private static class NoSmileClassLoader extends ClassLoader {
+
+        NoSmileClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                if (name.startsWith("com.fasterxml.jackson.dataformat.smile.")) {
+                    throw new ClassNotFoundException(name);
+                }
+                if (!name.startsWith("org.hawkular.apm.api.")) {
+                    return super.loadClass(name, resolve);
+                }
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try (InputStream is = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        if (is == null) {
+                            throw new ClassNotFoundException(name);
+                        }
+                        ByteArrayOutputStream os = new ByteArrayOutputStream();
+                        byte[] buf = new byte[4096];
+                        for (int len = is.read(buf); len != -1; len = is.read(buf)) {
+                            os.write(buf, 0, len);
+                        }
+                        c = defineClass(name, os.toByteArray(), 0, os.size());
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+}
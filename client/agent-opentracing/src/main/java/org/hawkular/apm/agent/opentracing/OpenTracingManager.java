@@ -20,13 +20,11 @@ import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
@@ -55,11 +53,12 @@ public class OpenTracingManager extends Helper {
 
     private static final ThreadLocal<TraceState> traceState = new ThreadLocal<>();
 
-    private static final Map<String, TraceState> suspendedState = new HashMap<>();
-    private static final ReentrantLock suspendedStateLock = new ReentrantLock();
+    private static final int DEFAULT_MAX_SUSPENDED_STATES = 10000;
 
     private static long expiryInterval = 60000;
 
+    private static final SuspendedStateRegistry<TraceState> suspendedState;
+
     // allow access from test
     protected static Set<String> fileExtensionWhitelist = new HashSet<>();
 
@@ -79,6 +78,12 @@ public class OpenTracingManager extends Helper {
             expiryInterval = Long.parseLong(time);
         }
 
+        suspendedState = new SuspendedStateRegistry<>(PropertyUtil.getPropertyAsInteger(
+                PropertyUtil.HAWKULAR_APM_AGENT_STATE_MAXSIZE, DEFAULT_MAX_SUSPENDED_STATES), expiryInterval);
+
+        // Check more frequently than the expiry interval, as checking only examines the oldest states
+        long checkInterval = Math.max(1, expiryInterval / 4);
+
         // Create scheduled task
         Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
             @Override
@@ -92,7 +97,7 @@ public class OpenTracingManager extends Helper {
             public void run() {
                 cleanup();
             }
-        }, expiryInterval, expiryInterval, TimeUnit.MILLISECONDS);
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
     }
 
     public OpenTracingManager(Rule rule) {
@@ -345,21 +350,15 @@ public class OpenTracingManager extends Helper {
         if (ts != null) {
             setExpire(ts);
 
-            try {
-                suspendedStateLock.lock();
+            TraceState previous = suspendedState.suspend(id, ts);
 
-                // Check if id already used
-                if (suspendedState.containsKey(id) && log.isLoggable(Level.FINEST)) {
-                    log.finest("WARNING: Overwriting previous suspended trace state = " + suspendedState.get(id)
-                            + " id = " + id);
-                }
-
-                suspendedState.put(id, ts);
-
-                traceState.remove();
-            } finally {
-                suspendedStateLock.unlock();
+            // Check if id already used
+            if (previous != null && log.isLoggable(Level.FINEST)) {
+                log.finest("WARNING: Overwriting previous suspended trace state = " + previous
+                        + " id = " + id);
             }
+
+            traceState.remove();
         }
     }
 
@@ -371,38 +370,36 @@ public class OpenTracingManager extends Helper {
      * @param id The id of the trace state to resume
      */
     public void resume(String id) {
-        try {
-            suspendedStateLock.lock();
-
-            TraceState ts = suspendedState.get(id);
-
-            if (ts != null) {
-                clearExpire(ts);
-
-                // Log after finding trace state, otherwise may generate alot of logging
-                if (log.isLoggable(Level.FINEST)) {
-                    log.finest("Resume trace state = " + ts + " id = " + id);
-                }
+        TraceState ts = suspendedState.resume(id);
 
-                // Check if thread already used
-                if (traceState.get() != null && log.isLoggable(Level.FINEST)) {
-                    log.finest("WARNING: Overwriting previous trace state = " + traceState.get());
-                }
+        if (ts != null) {
+            clearExpire(ts);
 
-                traceState.set(ts);
+            // Log after finding trace state, otherwise may generate alot of logging
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Resume trace state = " + ts + " id = " + id);
+            }
 
-                suspendedState.remove(id);
+            // Check if thread already used
+            if (traceState.get() != null && log.isLoggable(Level.FINEST)) {
+                log.finest("WARNING: Overwriting previous trace state = " + traceState.get());
             }
-        } finally {
-            suspendedStateLock.unlock();
+
+            traceState.set(ts);
         }
     }
 
+    /**
+     * This method returns the registry of suspended trace states, providing access
+     * to the number of states suspended, resumed, expired and evicted.
+     *
+     * @return The suspended trace states
+     */
+    public static SuspendedStateRegistry<TraceState> getSuspendedStates() {
+        return suspendedState;
+    }
+
     private static void setExpire(TraceState ts) {
-        // If too inefficient getting timestamp each time, could have a set
-        // of used trace states, and when schedule does its cycle, it could
-        // assign a single timestamp to all the trace states that have been
-        // accessed during that cycle
         ts.setExpire(System.currentTimeMillis() + expiryInterval);
     }
 
@@ -412,23 +409,9 @@ public class OpenTracingManager extends Helper {
 
     private static void cleanup() {
         try {
-            suspendedStateLock.lock();
-
-            long timestamp = System.currentTimeMillis();
-            Iterator<Map.Entry<String, TraceState>> iter = suspendedState.entrySet().iterator();
-
-            while (iter.hasNext()) {
-                Map.Entry<String, TraceState> entry = iter.next();
-                TraceState ts = entry.getValue();
-                if (ts.getExpire() > 0 && ts.getExpire() < timestamp) {
-                    if (log.isLoggable(Level.FINEST)) {
-                        log.finest("Expired trace state = " + ts + " id = " + entry.getKey());
-                    }
-                    iter.remove();
-                }
-            }
-        } finally {
-            suspendedStateLock.unlock();
+            suspendedState.expire(System.currentTimeMillis());
+        } catch (Throwable t) {
+            log.log(Level.SEVERE, "Failed to expire suspended trace states", t);
         }
     }
 
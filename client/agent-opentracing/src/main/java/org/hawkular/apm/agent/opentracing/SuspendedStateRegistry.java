@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.agent.opentracing;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.logging.Logger.Level;
+
+/**
+ * This class maintains the trace states that have been suspended, by a thread handing
+ * over to an asynchronous activity, until they are resumed by the thread performing
+ * that activity. The number of suspended states is bounded, and each state expires if
+ * not resumed within a timeout, so that states that are never resumed do not retain
+ * their spans indefinitely.
+ *
+ * As all states are suspended with the same timeout, their expiry order is the order
+ * in which they were suspended. Therefore expiry only needs to examine the head of a
+ * queue, and when the maximum number of states is reached, the oldest state is evicted.
+ * Resumed (or replaced) states are removed from the queue when they reach its head, or
+ * when the queue is compacted, which occurs once the number of these stale queue entries
+ * exceeds the maximum number of states (or, if unbounded, the number currently suspended).
+ * This prevents the queue from growing in proportion to the timeout and suspension rate.
+ *
+ * @author gbrown
+ *
+ * @param <T> The trace state type
+ */
+public class SuspendedStateRegistry<T> {
+
+    private static final Logger log = Logger.getLogger(SuspendedStateRegistry.class.getName());
+
+    private final Map<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+    private final Queue<Entry<T>> queue = new ConcurrentLinkedQueue<Entry<T>>();
+
+    /* The approximate number of queue entries whose state has been resumed or replaced */
+    private final AtomicInteger staleCount = new AtomicInteger();
+
+    private final int maxSize;
+    private final long timeout;
+
+    private final AtomicLong suspendedCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * This constructor initialises the registry.
+     *
+     * @param maxSize The maximum number of suspended states, or 0 if unbounded
+     * @param timeout The time (in milliseconds) after which a suspended state expires
+     */
+    public SuspendedStateRegistry(int maxSize, long timeout) {
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+    }
+
+    /**
+     * This method suspends the trace state, associating it with the supplied id.
+     *
+     * @param id The id
+     * @param state The trace state
+     * @return The trace state previously suspended with the same id, or null
+     */
+    public T suspend(String id, T state) {
+        if (maxSize > 0 && entries.size() >= maxSize && !entries.containsKey(id)) {
+            evictOldest();
+        }
+
+        Entry<T> entry = new Entry<T>(id, state, System.currentTimeMillis() + timeout);
+        Entry<T> previous = entries.put(id, entry);
+        queue.offer(entry);
+        suspendedCount.incrementAndGet();
+
+        if (previous == null) {
+            return null;
+        }
+        T ret = previous.release();
+        stale();
+        return ret;
+    }
+
+    /**
+     * This method resumes the trace state associated with the supplied id.
+     *
+     * @param id The id
+     * @return The trace state, or null if not found
+     */
+    public T resume(String id) {
+        Entry<T> entry = entries.remove(id);
+        if (entry != null) {
+            resumedCount.incrementAndGet();
+            T ret = entry.release();
+            stale();
+            return ret;
+        }
+        return null;
+    }
+
+    /**
+     * This method records that a queue entry has become stale, compacting the
+     * queue if too many stale entries are retained.
+     */
+    protected void stale() {
+        int threshold = (maxSize > 0 ? maxSize : entries.size());
+        if (staleCount.incrementAndGet() > threshold) {
+            compact();
+        }
+    }
+
+    /**
+     * This method removes the stale entries from the queue.
+     */
+    protected void compact() {
+        synchronized (queue) {
+            if (staleCount.getAndSet(0) > 0) {
+                queue.removeIf(entry -> entry.state == null);
+            }
+        }
+    }
+
+    /**
+     * This method expires the trace states that have not been resumed before
+     * the supplied time.
+     *
+     * @param now The current time (in milliseconds)
+     * @return The number of expired trace states
+     */
+    public int expire(long now) {
+        int count = 0;
+        synchronized (queue) {
+            for (Entry<T> entry = queue.peek(); entry != null
+                    && (entry.state == null || entry.deadline <= now); entry = queue.peek()) {
+                queue.poll();
+
+                if (entries.remove(entry.id, entry)) {
+                    entry.release();
+                    count++;
+
+                    if (log.isLoggable(Level.FINEST)) {
+                        log.finest("Expired trace state id = " + entry.id);
+                    }
+                } else {
+                    staleCount.decrementAndGet();
+                }
+            }
+        }
+        if (count > 0) {
+            expiredCount.addAndGet(count);
+
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Expired " + count + " suspended trace state(s): suspended=" + entries.size());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method evicts the oldest suspended trace state, to make room for another.
+     */
+    protected void evictOldest() {
+        synchronized (queue) {
+            for (Entry<T> entry = queue.poll(); entry != null; entry = queue.poll()) {
+                if (entries.remove(entry.id, entry)) {
+                    entry.release();
+                    if (evictedCount.incrementAndGet() == 1 || log.isLoggable(Level.FINEST)) {
+                        log.warning("Maximum number of suspended trace states (" + maxSize
+                                + ") reached, so evicting oldest id = " + entry.id);
+                    }
+                    return;
+                }
+                staleCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * This method removes all suspended trace states.
+     */
+    public void clear() {
+        synchronized (queue) {
+            entries.clear();
+            queue.clear();
+            staleCount.set(0);
+        }
+    }
+
+    /**
+     * @return The number of trace states currently suspended
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of entries in the expiry queue, including stale entries
+     */
+    protected int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of trace states that have been suspended
+     */
+    public long getSuspendedCount() {
+        return suspendedCount.get();
+    }
+
+    /**
+     * @return The number of trace states that have been resumed
+     */
+    public long getResumedCount() {
+        return resumedCount.get();
+    }
+
+    /**
+     * @return The number of trace states that expired before being resumed
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return The number of trace states evicted due to the maximum size
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SuspendedStateRegistry [suspended=" + entries.size() + ", suspendedCount=" + suspendedCount.get()
+                + ", resumedCount=" + resumedCount.get() + ", expiredCount=" + expiredCount.get()
+                + ", evictedCount=" + evictedCount.get() + "]";
+    }
+
+    /**
+     * This class represents a suspended trace state.
+     */
+    private static final class Entry<T> {
+
+        private final String id;
+        private final long deadline;
+        private volatile T state;
+
+        private Entry(String id, T state, long deadline) {
+            this.id = id;
+            this.state = state;
+            this.deadline = deadline;
+        }
+
+        /**
+         * This method releases the trace state, so that it is no longer retained
+         * by the queue. It is only called by the thread that removed the entry.
+         *
+         * @return The trace state
+         */
+        private T release() {
+            T ret = state;
+            state = null;
+            return ret;
+        }
+    }
+
+}
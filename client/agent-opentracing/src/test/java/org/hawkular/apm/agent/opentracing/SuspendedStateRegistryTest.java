@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.agent.opentracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class SuspendedStateRegistryTest {
+
+    @Test
+    public void testSuspendResume() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(10, 60000);
+
+        assertNull(registry.suspend("1", "state1"));
+        assertEquals(1, registry.size());
+
+        assertEquals("state1", registry.resume("1"));
+        assertNull(registry.resume("1"));
+
+        assertEquals(0, registry.size());
+        assertEquals(1, registry.getSuspendedCount());
+        assertEquals(1, registry.getResumedCount());
+    }
+
+    @Test
+    public void testSuspendReplaced() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(10, 60000);
+
+        registry.suspend("1", "state1");
+        assertEquals("state1", registry.suspend("1", "state2"));
+
+        assertEquals(1, registry.size());
+        assertEquals("state2", registry.resume("1"));
+    }
+
+    @Test
+    public void testExpire() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(10, 1000);
+
+        registry.suspend("1", "state1");
+        registry.suspend("2", "state2");
+        registry.resume("1");
+
+        long now = System.currentTimeMillis();
+        assertEquals(0, registry.expire(now));
+        assertEquals(1, registry.size());
+
+        assertEquals(1, registry.expire(now + 2000));
+        assertEquals(0, registry.size());
+        assertEquals(1, registry.getExpiredCount());
+        assertNull(registry.resume("2"));
+    }
+
+    @Test
+    public void testResumedEntriesCompacted() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(10, 60000);
+
+        registry.suspend("live", "state");
+        for (int i = 0; i < 1000; i++) {
+            registry.suspend("id" + i, "state" + i);
+            assertEquals("state" + i, registry.resume("id" + i));
+        }
+
+        assertEquals(1, registry.size());
+        assertTrue("Queue size was " + registry.getQueueSize(), registry.getQueueSize() <= 11);
+        assertEquals("state", registry.resume("live"));
+    }
+
+    @Test
+    public void testReplacedEntriesCompactedWhenUnbounded() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(0, 60000);
+
+        for (int i = 0; i < 1000; i++) {
+            registry.suspend("1", "state" + i);
+        }
+
+        assertEquals(1, registry.size());
+        assertTrue("Queue size was " + registry.getQueueSize(), registry.getQueueSize() <= 3);
+        assertEquals("state999", registry.resume("1"));
+    }
+
+    @Test
+    public void testExpireReplaced() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(10, 1000);
+
+        registry.suspend("1", "state1");
+        registry.suspend("1", "state2");
+
+        assertEquals(1, registry.expire(System.currentTimeMillis() + 2000));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testEvictOldestWhenFull() {
+        SuspendedStateRegistry<String> registry = new SuspendedStateRegistry<>(2, 60000);
+
+        registry.suspend("1", "state1");
+        registry.suspend("2", "state2");
+        registry.suspend("3", "state3");
+
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getEvictedCount());
+        assertNull(registry.resume("1"));
+        assertEquals("state2", registry.resume("2"));
+        assertEquals("state3", registry.resume("3"));
+    }
+
+}
@@ -17,25 +17,49 @@
 
 package org.hawkular.apm.client.api.recorder;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
 import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.RejectedException;
 import org.hawkular.apm.api.services.ServiceResolver;
 import org.hawkular.apm.api.services.TracePublisher;
+import org.hawkular.apm.api.utils.MpscRingBuffer;
 import org.hawkular.apm.api.utils.PropertyUtil;
 
 /**
  * This class is responsible for managing a set of traces and
  * reporting them to the server.
  *
+ * By default the traces are accumulated in a lock protected list. If the recorder
+ * is configured to be lock-free, the traces are instead offered to a bounded ring
+ * buffer that is drained by a single flusher thread.
+ *
+ * If a journal directory is configured, batches that fail to be published are
+ * spilled to a {@link TraceJournal} and replayed, with backoff, once the publisher
+ * recovers.
+ *
+ * If a memory budget is configured, the estimated memory used by traces that have been
+ * recorded, but not yet published, is bounded by the budget. When the budget would be
+ * exceeded, the configured {@link OverflowPolicy} is applied. The budget is disabled by
+ * default, so that the size of each trace is only estimated when it is required.
+ *
  * @author gbrown
  */
 public class BatchTraceRecorder implements TraceRecorder {
@@ -44,6 +68,14 @@ public class BatchTraceRecorder implements TraceRecorder {
     private static final int DEFAULT_BATCH_THREAD_POOL_SIZE = 5;
     private static final int DEFAULT_BATCH_TIME = 500;
     private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int RING_BUFFER_BATCHES = 4;
+    private static final long DEFAULT_JOURNAL_MAX_SIZE = 100 * 1024 * 1024;
+    private static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long MIN_REPLAY_DELAY = 500;
+    private static final long MAX_REPLAY_DELAY = 60000;
+    private static final int MAX_REPLAY_ATTEMPTS = 10;
+    private static final long DEFAULT_MEMORY_BUDGET = 0;
+    private static final int DEGRADE_THRESHOLD_PERCENT = 80;
     private static final String HAWKULAR_APM_TENANT_ID = "HAWKULAR_APM_TENANT_ID";
 
     private TracePublisher tracePublisher;
@@ -53,7 +85,22 @@ public class BatchTraceRecorder implements TraceRecorder {
     private String tenantId;
 
     private ExecutorService executor;
+    private final BlockingQueue<Runnable> publishQueue = new LinkedBlockingQueue<>();
     private final ReentrantLock lock = new ReentrantLock();
+    private long batchBytes = 0;
+
+    private long memoryBudget;
+    private OverflowPolicy overflowPolicy;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final AtomicLong degradedTraces = new AtomicLong();
+
+    private MpscRingBuffer<ReservedTrace> ringBuffer;
+    private Thread flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong droppedTraces = new AtomicLong();
+
+    private TraceJournal journal;
+    private JournalReplayer replayer;
 
     public BatchTraceRecorder() {
         this(BatchTraceRecorderBuilder.fromEnvProperties());
@@ -67,32 +114,44 @@ public class BatchTraceRecorder implements TraceRecorder {
         this.tracePublisher = builder.tracePublisher;
         this.tenantId = builder.tenantId;
         this.batchSize = builder.batchSize;
+        this.memoryBudget = builder.memoryBudget;
+        this.overflowPolicy = builder.overflowPolicy;
         this.traces = new ArrayList<>(batchSize + 1);
 
-        // Create scheduled task
-        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-            public Thread newThread(Runnable r) {
-                Thread t = Executors.defaultThreadFactory().newThread(r);
-                t.setDaemon(true);
-                return t;
-            }
-        }).scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                // Initial check, to avoid doing too much work if no
-                // traces reported
-                if (!traces.isEmpty()) {
-                    try {
-                        lock.lock();
-                        submitTraces();
-                    } finally {
-                        lock.unlock();
+        if (builder.lockFree) {
+            ringBuffer = new MpscRingBuffer<>(batchSize * RING_BUFFER_BATCHES);
+
+            flusher = Executors.defaultThreadFactory().newThread(
+                    new RingBufferFlusher(TimeUnit.MILLISECONDS.toNanos(builder.batchTime)));
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            // Create scheduled task
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setDaemon(true);
+                    return t;
+                }
+            }).scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    // Initial check, to avoid doing too much work if no
+                    // traces reported
+                    if (!traces.isEmpty()) {
+                        try {
+                            lock.lock();
+                            submitTraces();
+                        } finally {
+                            lock.unlock();
+                        }
                     }
                 }
-            }
-        }, builder.batchTime, builder.batchTime, TimeUnit.MILLISECONDS);
+            }, builder.batchTime, builder.batchTime, TimeUnit.MILLISECONDS);
+        }
 
-        executor = Executors.newFixedThreadPool(builder.threadPoolSize,
+        executor = new ThreadPoolExecutor(builder.threadPoolSize, builder.threadPoolSize,
+                0L, TimeUnit.MILLISECONDS, publishQueue,
                 new ThreadFactory() {
                     public Thread newThread(Runnable r) {
                         Thread t = Executors.defaultThreadFactory().newThread(r);
@@ -100,6 +159,22 @@ public class BatchTraceRecorder implements TraceRecorder {
                         return t;
                     }
                 });
+
+        // Without a publisher, traces are not recorded, and retained batches could not be replayed
+        if (builder.journalDirectory != null && tracePublisher != null) {
+            try {
+                journal = new TraceJournal(new File(builder.journalDirectory), builder.journalMaxSize,
+                        DEFAULT_JOURNAL_SEGMENT_SIZE);
+                replayer = new JournalReplayer();
+
+                // Replay any batches retained from a previous run
+                if (!journal.isEmpty()) {
+                    replayer.schedule();
+                }
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Failed to open trace journal, failed batches will be discarded", e);
+            }
+        }
     }
 
     /**
@@ -109,6 +184,78 @@ public class BatchTraceRecorder implements TraceRecorder {
         return tracePublisher != null;
     }
 
+    /**
+     * @return Whether the recorder is using the lock-free ring buffer
+     */
+    public boolean isLockFree() {
+        return ringBuffer != null;
+    }
+
+    /**
+     * This method returns the number of traces that have been dropped
+     * because the ring buffer was full or the memory budget was exceeded.
+     *
+     * @return The number of dropped traces
+     */
+    public long getDroppedTraces() {
+        return droppedTraces.get();
+    }
+
+    /**
+     * @return The estimated memory (in bytes) used by traces waiting to be published
+     */
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /**
+     * @return The memory budget (in bytes), or 0 if not bounded
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return The policy applied when the memory budget is exceeded
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * This method determines whether new traces should be degraded to
+     * {@link org.hawkular.apm.api.model.config.ReportingLevel#None}, because
+     * the {@link OverflowPolicy#Degrade} policy is in effect and the in-flight
+     * traces are approaching the memory budget.
+     *
+     * @return Whether new traces should be degraded
+     */
+    public boolean isDegraded() {
+        return overflowPolicy == OverflowPolicy.Degrade && memoryBudget > 0
+                && inFlightBytes.get() >= memoryBudget / 100 * DEGRADE_THRESHOLD_PERCENT;
+    }
+
+    /**
+     * This method notifies the recorder that a new trace has been degraded.
+     */
+    public void traceDegraded() {
+        degradedTraces.incrementAndGet();
+    }
+
+    /**
+     * @return The number of new traces that have been degraded
+     */
+    public long getDegradedTraces() {
+        return degradedTraces.get();
+    }
+
+    /**
+     * @return The journal used to retain failed batches, or null if not configured
+     */
+    public TraceJournal getJournal() {
+        return journal;
+    }
+
     /**
      * @return the tenantId
      */
@@ -125,10 +272,37 @@ public class BatchTraceRecorder implements TraceRecorder {
 
     @Override
     public void record(Trace trace) {
-        if (tracePublisher != null) {
+        if (tracePublisher == null) {
+            log.warning("Trace publisher is not available!");
+            return;
+        }
+
+        long bytes = 0;
+        if (memoryBudget > 0) {
+            bytes = TraceSizeEstimator.estimate(trace);
+            if (!reserve(trace, bytes)) {
+                return;
+            }
+        }
+
+        if (ringBuffer != null) {
+            long size = ringBuffer.offer(new ReservedTrace(trace, bytes));
+            if (size == -1) {
+                inFlightBytes.addAndGet(-bytes);
+                droppedTraces.incrementAndGet();
+                if (log.isLoggable(Level.FINEST)) {
+                    log.finest("Ring buffer full, dropping trace: " + trace.getFragmentId());
+                }
+            } else if (size >= batchSize && !flushRequested.get() && flushRequested.compareAndSet(false, true)) {
+                // Concurrent producers may take the size past the batch size without either
+                // observing it exactly, so wake the flusher once until it has drained
+                LockSupport.unpark(flusher);
+            }
+        } else {
             try {
                 lock.lock();
                 traces.add(trace);
+                batchBytes += bytes;
 
                 if (traces.size() >= batchSize) {
                     submitTraces();
@@ -136,11 +310,45 @@ public class BatchTraceRecorder implements TraceRecorder {
             } finally {
                 lock.unlock();
             }
-        } else {
-            log.warning("Trace publisher is not available!");
         }
     }
 
+    /**
+     * This method reserves the estimated memory for the supplied trace, applying
+     * the overflow policy if the memory budget would be exceeded.
+     *
+     * @param trace The trace
+     * @param bytes The estimated size of the trace
+     * @return Whether the trace should be recorded
+     */
+    protected boolean reserve(Trace trace, long bytes) {
+        if (inFlightBytes.addAndGet(bytes) <= memoryBudget) {
+            return true;
+        }
+
+        if (overflowPolicy == OverflowPolicy.DropOldest) {
+            // Discard the oldest batches waiting to be published until the trace fits
+            Runnable task;
+            while (inFlightBytes.get() > memoryBudget && (task = publishQueue.poll()) != null) {
+                PublishTask dropped = (PublishTask) task;
+                inFlightBytes.addAndGet(-dropped.bytes);
+                droppedTraces.addAndGet(dropped.traces.size());
+            }
+            if (inFlightBytes.get() <= memoryBudget) {
+                return true;
+            }
+        }
+
+        inFlightBytes.addAndGet(-bytes);
+        droppedTraces.incrementAndGet();
+
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Memory budget exceeded (policy=" + overflowPolicy + "), dropping trace: "
+                    + trace.getFragmentId());
+        }
+        return false;
+    }
+
     /**
      * This method submits the current list of traces
      */
@@ -150,28 +358,227 @@ public class BatchTraceRecorder implements TraceRecorder {
             List<Trace> toSend = traces;
             traces = new ArrayList<>(batchSize + 1);
 
-            executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        tracePublisher.publish(tenantId, toSend);
-                    } catch (Exception e) {
-                        // TODO: Retain for retry
-                        log.log(Level.SEVERE, "Failed to publish traces", e);
+            publishTraces(toSend, batchBytes);
+            batchBytes = 0;
+        }
+    }
+
+    /**
+     * This method drains up to the specified number of traces from the
+     * ring buffer and submits them for publishing.
+     *
+     * @param max The maximum number of traces to submit
+     * @return The number of traces submitted
+     */
+    protected int submitRingBuffer(int max) {
+        List<ReservedTrace> drained = new ArrayList<>(max);
+        int count = ringBuffer.drain(drained, max);
+        if (count > 0) {
+            // Release exactly the memory reserved when the traces were recorded
+            List<Trace> toSend = new ArrayList<>(count);
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                ReservedTrace reserved = drained.get(i);
+                toSend.add(reserved.trace);
+                bytes += reserved.bytes;
+            }
+            publishTraces(toSend, bytes);
+        }
+        return count;
+    }
+
+    /**
+     * This method publishes the supplied list of traces using the
+     * executor.
+     *
+     * @param toSend The traces to publish
+     * @param bytes The estimated size of the traces
+     */
+    protected void publishTraces(List<Trace> toSend, long bytes) {
+        executor.execute(new PublishTask(toSend, bytes));
+    }
+
+    /**
+     * This class represents a trace in the ring buffer, along with the memory
+     * reserved for it when recorded.
+     */
+    private static final class ReservedTrace {
+
+        private final Trace trace;
+        private final long bytes;
+
+        ReservedTrace(Trace trace, long bytes) {
+            this.trace = trace;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * This class publishes a batch of traces, and releases their estimated
+     * memory once published or retained in the journal.
+     */
+    private class PublishTask implements Runnable {
+
+        private final List<Trace> traces;
+        private final long bytes;
+
+        PublishTask(List<Trace> traces, long bytes) {
+            this.traces = traces;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            try {
+                tracePublisher.publish(tenantId, traces);
+            } catch (Exception e) {
+                if (journal == null) {
+                    log.log(Level.SEVERE, "Failed to publish traces", e);
+                } else {
+                    if (log.isLoggable(Level.FINER)) {
+                        log.finer("Failed to publish traces, retaining in journal: " + e);
+                    }
+                    if (journal.append(traces)) {
+                        replayer.schedule();
                     }
                 }
-            });
+            } finally {
+                inFlightBytes.addAndGet(-bytes);
+            }
         }
     }
 
     public String toString() {
-        return "BatchTraceRecorder batchSize=" + batchSize + " [" + this.tracePublisher.toString() + "]";
+        return "BatchTraceRecorder batchSize=" + batchSize + " lockFree=" + isLockFree()
+                + " [" + this.tracePublisher.toString() + "]";
+    }
+
+    /**
+     * This class replays the batches retained in the journal. If the publisher
+     * fails, the replay is rescheduled with an exponentially increasing delay.
+     *
+     * A batch that is rejected, or fails with an unchecked exception, is discarded
+     * immediately, as replaying it again would also fail. If the publisher cannot
+     * connect to the server (i.e. fails with an {@link IOException}), the batch is
+     * retried indefinitely. Otherwise the batch is discarded after a maximum number
+     * of attempts, so that it does not prevent subsequent batches being replayed.
+     */
+    private class JournalReplayer implements Runnable {
+
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = Executors.defaultThreadFactory().newThread(r);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private long delay = MIN_REPLAY_DELAY;
+        private int attempts = 0;
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Trace> batch;
+            while ((batch = journal.peek()) != null) {
+                try {
+                    tracePublisher.publish(tenantId, batch);
+                    journal.remove();
+                    attempts = 0;
+                } catch (RejectedException | RuntimeException e) {
+                    log.warning("Discarding batch of " + batch.size() + " traces from journal, as rejected: " + e);
+                    journal.discard();
+                    attempts = 0;
+                } catch (Exception e) {
+                    if (!(e instanceof IOException) && ++attempts >= MAX_REPLAY_ATTEMPTS) {
+                        log.warning("Discarding batch of " + batch.size() + " traces from journal, after "
+                                + attempts + " attempts: " + e);
+                        journal.discard();
+                        attempts = 0;
+                        continue;
+                    }
+                    delay = Math.min(delay * 2, MAX_REPLAY_DELAY);
+                    if (log.isLoggable(Level.FINER)) {
+                        log.finer("Failed to replay traces from journal, retry in " + delay + "ms: " + e);
+                    }
+                    scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            delay = MIN_REPLAY_DELAY;
+            scheduled.set(false);
+
+            // Check whether a batch was appended after the journal was found to be empty
+            if (!journal.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * This class drains the ring buffer when either a full batch is available,
+     * or the batch time has expired.
+     */
+    private class RingBufferFlusher implements Runnable {
+
+        private final long batchTimeNanos;
+
+        RingBufferFlusher(long batchTimeNanos) {
+            this.batchTimeNanos = batchTimeNanos;
+        }
+
+        @Override
+        public void run() {
+            long deadline = System.nanoTime() + batchTimeNanos;
+
+            while (!Thread.currentThread().isInterrupted()) {
+                // Cleared before draining, so a producer that subsequently fills a batch wakes the flusher
+                flushRequested.set(false);
+
+                // Submit full batches
+                while (ringBuffer.size() >= batchSize) {
+                    if (submitRingBuffer(batchSize) == 0) {
+                        break;
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    // Batch time has expired, so submit what is currently available. The
+                    // size is captured first so that concurrent producers cannot keep the
+                    // flusher busy sending small batches.
+                    int remaining = ringBuffer.size();
+                    while (remaining > 0) {
+                        int count = submitRingBuffer(Math.min(remaining, batchSize));
+                        if (count == 0) {
+                            // Slot claimed but not yet published, so leave for next time
+                            break;
+                        }
+                        remaining -= count;
+                    }
+                    deadline = now + batchTimeNanos;
+                }
+
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            }
+        }
     }
 
     public static class BatchTraceRecorderBuilder {
         private int batchSize = DEFAULT_BATCH_SIZE;
         private int batchTime = DEFAULT_BATCH_TIME;
         private int threadPoolSize = DEFAULT_BATCH_THREAD_POOL_SIZE;
+        private boolean lockFree = false;
+        private String journalDirectory;
+        private long journalMaxSize = DEFAULT_JOURNAL_MAX_SIZE;
+        private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DropNewest;
         private String tenantId;
 
         private TracePublisher tracePublisher;
@@ -200,6 +607,31 @@ public class BatchTraceRecorder implements TraceRecorder {
             return this;
         }
 
+        public BatchTraceRecorderBuilder withLockFree(boolean lockFree) {
+            this.lockFree = lockFree;
+            return this;
+        }
+
+        public BatchTraceRecorderBuilder withJournalDirectory(String journalDirectory) {
+            this.journalDirectory = journalDirectory;
+            return this;
+        }
+
+        public BatchTraceRecorderBuilder withJournalMaxSize(long journalMaxSizeBytes) {
+            this.journalMaxSize = journalMaxSizeBytes;
+            return this;
+        }
+
+        public BatchTraceRecorderBuilder withMemoryBudget(long memoryBudgetBytes) {
+            this.memoryBudget = memoryBudgetBytes;
+            return this;
+        }
+
+        public BatchTraceRecorderBuilder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
         public BatchTraceRecorderBuilder withTenantId(String tenantId) {
             this.tenantId = tenantId;
             return this;
@@ -226,6 +658,29 @@ public class BatchTraceRecorder implements TraceRecorder {
                 builder.withBatchPoolSize(Integer.parseInt(threadPoolSize));
             }
 
+            builder.withLockFree(PropertyUtil.getPropertyAsBoolean(PropertyUtil.HAWKULAR_APM_COLLECTOR_LOCKFREE));
+
+            Integer memoryBudget = PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_COLLECTOR_MEMORYBUDGET);
+            if (memoryBudget != null) {
+                builder.withMemoryBudget(memoryBudget * 1024L * 1024L);
+            }
+            String overflowPolicy = PropertyUtil.getProperty(PropertyUtil.HAWKULAR_APM_COLLECTOR_OVERFLOWPOLICY);
+            if (overflowPolicy != null) {
+                try {
+                    builder.withOverflowPolicy(OverflowPolicy.valueOf(overflowPolicy));
+                } catch (IllegalArgumentException e) {
+                    log.warning("Unknown overflow policy '" + overflowPolicy + "', using "
+                            + OverflowPolicy.DropNewest);
+                }
+            }
+
+            builder.withJournalDirectory(PropertyUtil.getProperty(PropertyUtil.HAWKULAR_APM_COLLECTOR_JOURNAL_DIR));
+            Integer journalMaxSize = PropertyUtil.getPropertyAsInteger(
+                    PropertyUtil.HAWKULAR_APM_COLLECTOR_JOURNAL_MAXSIZE);
+            if (journalMaxSize != null) {
+                builder.withJournalMaxSize(journalMaxSize * 1024L * 1024L);
+            }
+
             builder.withTenantId(PropertyUtil.getProperty(HAWKULAR_APM_TENANT_ID, null));
 
             return builder;
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+/**
+ * This enumerated type defines the policies that can be applied when the
+ * memory budget for in-flight trace fragments is exceeded.
+ *
+ * @author gbrown
+ */
+public enum OverflowPolicy {
+
+    /* Drop the trace fragment being recorded */
+    DropNewest,
+
+    /* Drop the oldest batch of trace fragments waiting to be published,
+     * falling back to dropping the newest if no batch is waiting */
+    DropOldest,
+
+    /* Stop reporting new traces (i.e. treat them as ReportingLevel.None)
+     * until the in-flight fragments have been published */
+    Degrade
+
+}
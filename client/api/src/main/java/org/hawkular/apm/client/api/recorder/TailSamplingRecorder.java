@@ -0,0 +1,353 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.logging.Logger.Level;
+import org.hawkular.apm.api.model.Constants;
+import org.hawkular.apm.api.model.Property;
+import org.hawkular.apm.api.model.config.txn.TailSampling;
+import org.hawkular.apm.api.model.config.txn.TransactionConfig;
+import org.hawkular.apm.api.model.trace.Trace;
+
+/**
+ * This recorder applies tail sampling to completed trace fragments, based on the
+ * {@link TailSampling} policy of the fragment's transaction. Fragments for transactions
+ * without a policy are passed directly to the delegate recorder.
+ *
+ * A fragment that is slow, contains a fault or matches a configured property is
+ * reported immediately. Other fragments are held briefly, keyed by their trace id, so
+ * that they can still be reported if another fragment of the same trace, completed in
+ * this process, is reported. Once the hold time has elapsed without any further fragments
+ * for the trace, the held fragments are reported if the trace id falls within the
+ * policy's percentage. As this decision is derived from the trace id, it is consistent
+ * for all fragments of the trace.
+ *
+ * @author gbrown
+ */
+public class TailSamplingRecorder implements TraceRecorder {
+
+    private static final Logger log = Logger.getLogger(TailSamplingRecorder.class.getName());
+
+    /** The maximum number of traces with held fragments, beyond which the decision is made immediately */
+    private static final int MAX_PENDING = 10000;
+
+    private TraceRecorder recorder;
+    private final long holdTime;
+
+    private final Map<String, Policy> policies = new ConcurrentHashMap<String, Policy>();
+    private final Map<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final AtomicLong reported = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * This constructor initialises the recorder.
+     *
+     * @param holdTime The time (in milliseconds) to hold fragments pending the decision
+     *                  for their trace
+     */
+    public TailSamplingRecorder(long holdTime) {
+        this.holdTime = holdTime;
+    }
+
+    /**
+     * @param recorder The recorder that will report the sampled fragments
+     */
+    public void setRecorder(TraceRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * This method initialises the policies from the supplied transaction configurations,
+     * replacing any existing policies.
+     *
+     * @param transactions The transaction configurations
+     */
+    public void setPolicies(Map<String, TransactionConfig> transactions) {
+        policies.clear();
+        for (Map.Entry<String, TransactionConfig> entry : transactions.entrySet()) {
+            setPolicy(entry.getKey(), entry.getValue().getTailSampling());
+        }
+    }
+
+    /**
+     * This method sets the tail sampling policy for a transaction.
+     *
+     * @param transaction The transaction name
+     * @param tailSampling The policy, or null to remove the policy
+     */
+    public void setPolicy(String transaction, TailSampling tailSampling) {
+        if (tailSampling == null) {
+            policies.remove(transaction);
+        } else {
+            if (log.isLoggable(Level.FINER)) {
+                log.finer("Tail sampling policy for transaction '" + transaction + "' = " + tailSampling);
+            }
+            policies.put(transaction, new Policy(tailSampling));
+
+            if (!started.get() && started.compareAndSet(false, true)) {
+                start();
+            }
+        }
+    }
+
+    /**
+     * @return The number of tail sampled fragments that have been reported
+     */
+    public long getReportedCount() {
+        return reported.get();
+    }
+
+    /**
+     * @return The number of tail sampled fragments that have been discarded
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    @Override
+    public void record(Trace trace) {
+        Policy policy = (trace.getTransaction() == null ? null : policies.get(trace.getTransaction()));
+
+        if (policy == null) {
+            recorder.record(trace);
+            return;
+        }
+
+        boolean matched = policy.matches(trace);
+
+        if (trace.getTraceId() == null || (pending.size() >= MAX_PENDING
+                && !pending.containsKey(trace.getTraceId()))) {
+            if (matched || policy.isSampled(trace.getTraceId())) {
+                report(Collections.singletonList(trace));
+            } else {
+                discarded.incrementAndGet();
+            }
+            return;
+        }
+
+        List<Trace> toReport = new ArrayList<Trace>();
+        long deadline = currentTimeMillis() + holdTime;
+
+        pending.compute(trace.getTraceId(), (id, p) -> {
+            if (p == null) {
+                p = new Pending(policy);
+            }
+            p.deadline = deadline;
+
+            if (p.report) {
+                toReport.add(trace);
+            } else if (matched) {
+                p.report = true;
+                toReport.addAll(p.fragments);
+                p.fragments.clear();
+                toReport.add(trace);
+            } else {
+                p.fragments.add(trace);
+            }
+            return p;
+        });
+
+        if (!toReport.isEmpty()) {
+            report(toReport);
+        }
+    }
+
+    /**
+     * This method starts the daemon thread that decides which held fragments to report
+     * once their hold time has elapsed.
+     */
+    protected void start() {
+        long interval = Math.max(10, holdTime / 4);
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        }).scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expire(currentTimeMillis());
+                } catch (Throwable t) {
+                    log.log(Level.SEVERE, "Failed to process held trace fragments", t);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method decides whether to report the held fragments of traces whose
+     * hold time has elapsed.
+     *
+     * @param now The current time (in milliseconds)
+     */
+    protected void expire(long now) {
+        Iterator<Map.Entry<String, Pending>> iter = pending.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Pending> entry = iter.next();
+
+            // Remove atomically, in case another fragment has been added concurrently
+            Pending[] expired = new Pending[1];
+            pending.computeIfPresent(entry.getKey(), (id, p) -> {
+                if (p.deadline > now) {
+                    return p;
+                }
+                expired[0] = p;
+                return null;
+            });
+
+            Pending p = expired[0];
+            if (p != null && !p.fragments.isEmpty()) {
+                if (p.policy.isSampled(entry.getKey())) {
+                    report(p.fragments);
+                } else {
+                    discarded.addAndGet(p.fragments.size());
+
+                    if (log.isLoggable(Level.FINEST)) {
+                        log.finest("Tail sampling discarded " + p.fragments.size()
+                                + " fragment(s) for trace id '" + entry.getKey() + "'");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method reports the supplied fragments using the delegate recorder.
+     *
+     * @param traces The trace fragments
+     */
+    protected void report(List<Trace> traces) {
+        reported.addAndGet(traces.size());
+        for (int i = 0; i < traces.size(); i++) {
+            recorder.record(traces.get(i));
+        }
+    }
+
+    /**
+     * @return The current time (in milliseconds)
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * This class represents the compiled tail sampling policy.
+     */
+    protected static class Policy {
+
+        private final long durationThreshold;
+        private final boolean faults;
+        private final Map<String, Pattern> properties = new HashMap<String, Pattern>();
+        private final List<String> propertyNames = new ArrayList<String>();
+        private final int percentage;
+
+        protected Policy(TailSampling tailSampling) {
+            durationThreshold = TimeUnit.MILLISECONDS.toMicros(tailSampling.getDurationThreshold());
+            faults = tailSampling.isFaults();
+            percentage = tailSampling.getPercentage();
+            if (tailSampling.getProperties() != null) {
+                for (Map.Entry<String, String> entry : tailSampling.getProperties().entrySet()) {
+                    if (entry.getValue() == null || entry.getValue().isEmpty()) {
+                        propertyNames.add(entry.getKey());
+                    } else {
+                        properties.put(entry.getKey(), Pattern.compile(entry.getValue()));
+                    }
+                }
+            }
+        }
+
+        /**
+         * This method determines whether the completed fragment should always be reported.
+         *
+         * @param trace The trace fragment
+         * @return Whether the fragment matches the policy
+         */
+        protected boolean matches(Trace trace) {
+            if (durationThreshold > 0 && !trace.getNodes().isEmpty()
+                    && trace.getNodes().get(0).getDuration() >= durationThreshold) {
+                return true;
+            }
+            if (faults && trace.hasProperty(Constants.PROP_FAULT)) {
+                return true;
+            }
+            for (int i = 0; i < propertyNames.size(); i++) {
+                if (trace.hasProperty(propertyNames.get(i))) {
+                    return true;
+                }
+            }
+            for (Map.Entry<String, Pattern> entry : properties.entrySet()) {
+                for (Property property : trace.getProperties(entry.getKey())) {
+                    if (property.getValue() != null && entry.getValue().matcher(property.getValue()).matches()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * This method determines whether a trace, that does not match the policy,
+         * should be reported, based on its id.
+         *
+         * @param traceId The trace id
+         * @return Whether the trace is sampled
+         */
+        protected boolean isSampled(String traceId) {
+            if (percentage >= 100) {
+                return true;
+            } else if (percentage <= 0 || traceId == null) {
+                return false;
+            }
+            return (traceId.hashCode() & Integer.MAX_VALUE) % 100 < percentage;
+        }
+    }
+
+    /**
+     * This class represents the fragments held for a trace.
+     */
+    private static final class Pending {
+
+        private final Policy policy;
+        private final List<Trace> fragments = new ArrayList<Trace>();
+        private long deadline;
+        private boolean report;
+
+        private Pending(Policy policy) {
+            this.policy = policy;
+        }
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.logging.Logger.Level;
+import org.hawkular.apm.api.model.trace.Trace;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This class provides a durable, append-only journal for batches of traces that
+ * could not be published. The journal is stored as a sequence of memory-mapped
+ * segment files in a directory. Each record is stored as a length followed by the
+ * JSON representation of the batch. When a record has been replayed, its length is
+ * negated so that it will be skipped if the journal is reopened, and segments are
+ * deleted once all of their records have been replayed.
+ *
+ * A batch is forced to the storage device before {@link #append(List)} returns, so
+ * a batch reported as spilled survives a crash of the process or host. Replayed records
+ * are not forced, so following a crash a batch may be replayed more than once.
+ *
+ * @author gbrown
+ */
+public class TraceJournal {
+    private static final Logger log = Logger.getLogger(TraceJournal.class.getName());
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_SIZE = 4;
+
+    private static final TypeReference<List<Trace>> TRACE_LIST = new TypeReference<List<Trace>>() {
+    };
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final File directory;
+    private final long maxSize;
+    private final int segmentSize;
+
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private long nextSegmentId = 0;
+    private long totalSize = 0;
+
+    private final AtomicLong spilledBatches = new AtomicLong();
+    private final AtomicLong replayedBatches = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+
+    /**
+     * The constructor. Any existing segments in the directory will be opened
+     * so that their outstanding batches can be replayed.
+     *
+     * @param directory The directory containing the journal segments
+     * @param maxSize The maximum disk space (in bytes) used by the journal
+     * @param segmentSize The size (in bytes) of each segment
+     * @throws IOException Failed to open the journal
+     */
+    public TraceJournal(File directory, long maxSize, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory: " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Segment segment = Segment.open(file);
+                if (segment.isConsumed()) {
+                    segment.delete();
+                } else {
+                    segments.add(segment);
+                    totalSize += segment.size;
+                }
+                nextSegmentId = Math.max(nextSegmentId, segmentId(file) + 1);
+            }
+        }
+
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Opened trace journal in " + directory + " with " + segments.size() + " segments");
+        }
+    }
+
+    /**
+     * This method appends the supplied batch of traces to the journal, returning once the
+     * batch has been written to the storage device. If appending the batch would exceed the
+     * maximum size of the journal, then it will be dropped.
+     *
+     * @param traces The traces
+     * @return Whether the batch was appended
+     */
+    public synchronized boolean append(List<Trace> traces) {
+        try {
+            byte[] data = mapper.writeValueAsBytes(traces);
+            int required = HEADER_SIZE + data.length;
+
+            Segment current = segments.peekLast();
+            if (current == null || !current.hasCapacity(required)) {
+                int size = Math.max(segmentSize, required);
+                if (totalSize + size > maxSize) {
+                    droppedBatches.incrementAndGet();
+                    if (log.isLoggable(Level.FINER)) {
+                        log.finer("Trace journal full, dropping batch of " + traces.size() + " traces");
+                    }
+                    return false;
+                }
+                current = Segment.create(new File(directory, segmentName(nextSegmentId++)), size);
+                segments.add(current);
+                totalSize += size;
+            }
+
+            current.write(data);
+            spilledBatches.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            droppedBatches.incrementAndGet();
+            log.log(Level.SEVERE, "Failed to append traces to journal", e);
+        }
+        return false;
+    }
+
+    /**
+     * This method returns the oldest batch of traces that has not yet been
+     * replayed, without removing it from the journal.
+     *
+     * @return The batch of traces, or null if the journal is empty
+     */
+    public synchronized List<Trace> peek() {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            byte[] data = segment.peek();
+            if (data != null) {
+                try {
+                    return mapper.readValue(data, TRACE_LIST);
+                } catch (IOException e) {
+                    log.log(Level.SEVERE, "Failed to read traces from journal, discarding", e);
+                    segment.remove();
+                    droppedBatches.incrementAndGet();
+                }
+            } else {
+                // Segment has been completely replayed. If it is the current
+                // segment, then a new one will be created by the next append.
+                segments.removeFirst();
+                totalSize -= segment.size;
+                segment.delete();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method removes the oldest batch of traces, once it has been
+     * successfully replayed.
+     */
+    public synchronized void remove() {
+        Segment segment = segments.peekFirst();
+        if (segment != null && segment.peek() != null) {
+            segment.remove();
+            replayedBatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * This method discards the oldest batch of traces, as it cannot be replayed.
+     */
+    public synchronized void discard() {
+        Segment segment = segments.peekFirst();
+        if (segment != null && segment.peek() != null) {
+            segment.remove();
+            droppedBatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * This method determines whether the journal has any outstanding batches.
+     *
+     * @return Whether the journal is empty
+     */
+    public synchronized boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (!segment.isConsumed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The disk space (in bytes) currently allocated to the journal
+     */
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return The number of batches spilled to the journal
+     */
+    public long getSpilledBatches() {
+        return spilledBatches.get();
+    }
+
+    /**
+     * @return The number of batches replayed from the journal
+     */
+    public long getReplayedBatches() {
+        return replayedBatches.get();
+    }
+
+    /**
+     * @return The number of batches dropped due to the journal being full or unreadable,
+     *              or the batch being rejected when replayed
+     */
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TraceJournal [directory=" + directory + ", maxSize=" + maxSize + ", segmentSize=" + segmentSize
+                + ", spilled=" + getSpilledBatches() + ", replayed=" + getReplayedBatches()
+                + ", dropped=" + getDroppedBatches() + "]";
+    }
+
+    protected static String segmentName(long id) {
+        return String.format("%016d%s", id, SEGMENT_SUFFIX);
+    }
+
+    protected static long segmentId(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * This class represents a memory-mapped segment of the journal.
+     */
+    private static class Segment {
+
+        private final File file;
+        private final int size;
+        private MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(File file, int size) throws IOException {
+            this.file = file;
+            this.size = size;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        static Segment create(File file, int size) throws IOException {
+            return new Segment(file, size);
+        }
+
+        static Segment open(File file) throws IOException {
+            Segment segment = new Segment(file, (int) file.length());
+
+            // Find the first outstanding record and the end of the written records
+            int pos = 0;
+            int first = -1;
+            while (pos + HEADER_SIZE <= segment.size) {
+                int length = segment.buffer.getInt(pos);
+                if (length == 0 || pos + HEADER_SIZE + Math.abs(length) > segment.size) {
+                    break;
+                }
+                if (length > 0 && first == -1) {
+                    first = pos;
+                }
+                pos += HEADER_SIZE + Math.abs(length);
+            }
+            segment.writePosition = pos;
+            segment.readPosition = (first == -1 ? pos : first);
+            return segment;
+        }
+
+        boolean hasCapacity(int required) {
+            return writePosition + required <= size;
+        }
+
+        void write(byte[] data) {
+            // Write the payload before the length, so a partially written
+            // record is treated as the end of the segment
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(writePosition + HEADER_SIZE);
+            dup.put(data);
+            buffer.putInt(writePosition, data.length);
+            writePosition += HEADER_SIZE + data.length;
+            buffer.force();
+        }
+
+        byte[] peek() {
+            if (isConsumed()) {
+                return null;
+            }
+            int length = buffer.getInt(readPosition);
+            byte[] data = new byte[length];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(readPosition + HEADER_SIZE);
+            dup.get(data);
+            return data;
+        }
+
+        void remove() {
+            int length = buffer.getInt(readPosition);
+            buffer.putInt(readPosition, -length);
+            readPosition += HEADER_SIZE + length;
+        }
+
+        boolean isConsumed() {
+            return readPosition >= writePosition;
+        }
+
+        void delete() {
+            buffer = null;
+            if (!file.delete() && log.isLoggable(Level.FINER)) {
+                log.finer("Failed to delete journal segment: " + file);
+            }
+        }
+    }
+}
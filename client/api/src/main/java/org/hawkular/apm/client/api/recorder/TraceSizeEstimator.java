@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.apm.api.model.Property;
+import org.hawkular.apm.api.model.trace.ContainerNode;
+import org.hawkular.apm.api.model.trace.Content;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier;
+import org.hawkular.apm.api.model.trace.InteractionNode;
+import org.hawkular.apm.api.model.trace.Message;
+import org.hawkular.apm.api.model.trace.Node;
+import org.hawkular.apm.api.model.trace.Trace;
+
+/**
+ * This class provides a cheap estimate of the heap space retained by a trace
+ * fragment. The estimate is based on the string lengths and a fixed overhead
+ * per object, rather than an exact measurement.
+ *
+ * @author gbrown
+ */
+public class TraceSizeEstimator {
+
+    private static final int TRACE_OVERHEAD = 128;
+    private static final int NODE_OVERHEAD = 160;
+    private static final int ENTRY_OVERHEAD = 48;
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * This method estimates the size of the supplied trace.
+     *
+     * @param trace The trace
+     * @return The estimated size in bytes
+     */
+    public static long estimate(Trace trace) {
+        long size = TRACE_OVERHEAD
+                + size(trace.getTraceId())
+                + size(trace.getFragmentId())
+                + size(trace.getTransaction())
+                + size(trace.getHostName())
+                + size(trace.getHostAddress());
+        return size + estimate(trace.getNodes());
+    }
+
+    /**
+     * This method estimates the size of the supplied list of traces.
+     *
+     * @param traces The traces
+     * @return The estimated size in bytes
+     */
+    public static long estimateAll(List<Trace> traces) {
+        long size = 0;
+        for (int i = 0; i < traces.size(); i++) {
+            size += estimate(traces.get(i));
+        }
+        return size;
+    }
+
+    protected static long estimate(List<Node> nodes) {
+        long size = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            size += NODE_OVERHEAD + size(node.getUri()) + size(node.getOperation());
+
+            for (Property property : node.getProperties()) {
+                size += ENTRY_OVERHEAD + size(property.getName()) + size(property.getValue());
+            }
+            for (CorrelationIdentifier cid : node.getCorrelationIds()) {
+                size += ENTRY_OVERHEAD + size(cid.getValue());
+            }
+
+            if (node instanceof InteractionNode) {
+                size += estimate(((InteractionNode) node).getIn());
+                size += estimate(((InteractionNode) node).getOut());
+            }
+            if (node instanceof ContainerNode) {
+                size += estimate(((ContainerNode) node).getNodes());
+            }
+        }
+        return size;
+    }
+
+    protected static long estimate(Message message) {
+        if (message == null) {
+            return 0;
+        }
+        long size = ENTRY_OVERHEAD;
+        for (Map.Entry<String, String> header : message.getHeaders().entrySet()) {
+            size += ENTRY_OVERHEAD + size(header.getKey()) + size(header.getValue());
+        }
+        for (Map.Entry<String, Content> content : message.getContent().entrySet()) {
+            size += ENTRY_OVERHEAD + size(content.getKey())
+                    + size(content.getValue().getType()) + size(content.getValue().getValue());
+        }
+        return size;
+    }
+
+    protected static long size(String str) {
+        return str == null ? 0 : STRING_OVERHEAD + (str.length() << 1);
+    }
+
+}
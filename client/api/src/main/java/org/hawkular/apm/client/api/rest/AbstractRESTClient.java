@@ -29,11 +29,13 @@ import java.net.URLEncoder;
 import java.util.Base64;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.services.Criteria;
 import org.hawkular.apm.api.services.ServiceStatus;
 import org.hawkular.apm.api.utils.PropertyUtil;
+import org.hawkular.apm.api.utils.WireFormat;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -48,12 +50,17 @@ public class AbstractRESTClient implements ServiceStatus {
     private static final Logger log = Logger.getLogger(AbstractRESTClient.class.getName());
 
     private static final String HAWKULAR_TENANT = "Hawkular-Tenant";
+    protected static final String CONTENT_ENCODING = "Content-Encoding";
+    protected static final String ACCEPT_ENCODING = "Accept-Encoding";
+    protected static final String ACCEPT_POST = "Accept-Post";
+    protected static final String GZIP = "gzip";
     protected static final ObjectMapper mapper = new ObjectMapper();
     private static final Base64.Encoder encoder = Base64.getEncoder();
 
     private String username;
     private String authorization;
     private String uri;
+    private HttpTransport transport = HttpTransport.getDefault();
 
     /**
      * By default rest client tries to find username and password in environmental variables.
@@ -85,6 +92,27 @@ public class AbstractRESTClient implements ServiceStatus {
         this.authorization = basicAuthorization(username, password);
     }
 
+    /**
+     * @return The HTTP transport
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @param transport The HTTP transport
+     */
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return The pool of connections used by this client
+     */
+    protected HttpTransport.Pool getPool() {
+        return HttpTransport.Pool.Control;
+    }
+
     /**
      * Add the header values to the supplied connection.
      *
@@ -120,15 +148,19 @@ public class AbstractRESTClient implements ServiceStatus {
 
     public <T> T withContext(String tenantId, URL url, Function<HttpURLConnection, T> function) {
         HttpURLConnection connection = null;
+        boolean completed = false;
         try {
             connection = getConnectionForGetRequest(tenantId, url);
-            return function.apply(connection);
+            T result = function.apply(connection);
+            completed = true;
+            return result;
         } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
         } finally {
             if (connection != null) {
-                connection.disconnect();
+                // Release, rather than disconnect, so that the connection can be kept alive
+                transport.release(connection, getPool(), completed);
             }
         }
     }
@@ -183,13 +215,20 @@ public class AbstractRESTClient implements ServiceStatus {
         return getConnectionForRequest(tenantId, url, "GET");
     }
 
+    /**
+     * This method obtains a connection from the transport. The connection must
+     * be released back to the transport once the response has been processed.
+     *
+     * @param tenantId The optional tenant id
+     * @param url The URL
+     * @param method The HTTP method
+     * @return The connection
+     * @throws IOException Failed to obtain the connection
+     */
     public HttpURLConnection getConnectionForRequest(String tenantId, URL url, String method) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection = transport.open(url, method, getPool());
 
-        connection.setRequestMethod(method);
         connection.setDoOutput(true);
-        connection.setUseCaches(false);
-        connection.setAllowUserInteraction(false);
         addHeaders(connection, tenantId);
         return connection;
     }
@@ -217,18 +256,59 @@ public class AbstractRESTClient implements ServiceStatus {
     }
 
     public <T> T withJsonPayloadAndResults(String method, String tenantId, URL url, Object toSerialize, Function<HttpURLConnection, T> function) {
+        return withJsonPayloadAndResults(method, tenantId, url, toSerialize, null, function);
+    }
+
+    /**
+     * This method sends the supplied object, serialized as JSON, and optionally
+     * compressed using the supplied content encoding.
+     *
+     * @param method The HTTP method
+     * @param tenantId The optional tenant id
+     * @param url The URL
+     * @param toSerialize The object to serialize
+     * @param contentEncoding The optional content encoding (only gzip is supported)
+     * @param function The function to process the response
+     * @return The result of the function
+     */
+    public <T> T withJsonPayloadAndResults(String method, String tenantId, URL url, Object toSerialize,
+            String contentEncoding, Function<HttpURLConnection, T> function) {
+        return withPayloadAndResults(method, tenantId, url, toSerialize, WireFormat.Json, contentEncoding, function);
+    }
+
+    /**
+     * This method sends the supplied object, serialized using the supplied wire format,
+     * and optionally compressed using the supplied content encoding.
+     *
+     * @param method The HTTP method
+     * @param tenantId The optional tenant id
+     * @param url The URL
+     * @param toSerialize The object to serialize
+     * @param format The wire format
+     * @param contentEncoding The optional content encoding (only gzip is supported)
+     * @param function The function to process the response
+     * @return The result of the function
+     */
+    public <T> T withPayloadAndResults(String method, String tenantId, URL url, Object toSerialize,
+            WireFormat format, String contentEncoding, Function<HttpURLConnection, T> function) {
         return withContext(tenantId, url, (connection) -> {
             try {
                 connection.setRequestMethod(method);
 
                 connection.setDoOutput(true);
                 connection.setDoInput(true);
-                connection.setUseCaches(false);
-                connection.setAllowUserInteraction(false);
-                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setRequestProperty("Content-Type", format.getContentType());
+
+                boolean gzip = GZIP.equals(contentEncoding);
+                if (gzip) {
+                    connection.setRequestProperty(CONTENT_ENCODING, GZIP);
+                }
 
                 OutputStream os = connection.getOutputStream();
-                os.write(mapper.writeValueAsBytes(toSerialize));
+                if (gzip) {
+                    os = new GZIPOutputStream(os);
+                }
+                os.write(format.serialize(toSerialize));
                 os.flush();
                 os.close();
 
@@ -241,6 +321,45 @@ public class AbstractRESTClient implements ServiceStatus {
         });
     }
 
+    /**
+     * This method determines whether the response indicates that the server
+     * accepts requests with the supplied content encoding.
+     *
+     * @param connection The connection
+     * @param encoding The content encoding
+     * @return Whether the encoding is accepted
+     */
+    public static boolean isEncodingAccepted(HttpURLConnection connection, String encoding) {
+        return isAccepted(connection.getHeaderField(ACCEPT_ENCODING), encoding);
+    }
+
+    /**
+     * This method determines whether the response indicates (using the Accept-Post
+     * header) that the server accepts requests with the supplied media type.
+     *
+     * @param connection The connection
+     * @param mediaType The media type
+     * @return Whether the media type is accepted
+     */
+    public static boolean isMediaTypeAccepted(HttpURLConnection connection, String mediaType) {
+        return isAccepted(connection.getHeaderField(ACCEPT_POST), mediaType);
+    }
+
+    private static boolean isAccepted(String accepted, String token) {
+        if (accepted != null) {
+            for (String value : accepted.split(",")) {
+                int index = value.indexOf(';');
+                if (index != -1) {
+                    value = value.substring(0, index);
+                }
+                if (value.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public void clear(String tenantId, String path) {
         if (log.isLoggable(Logger.Level.FINEST)) {
             log.finest(String.format("Clear service at path [%s] for tenant [%s]", path, tenantId));
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.utils.PropertyUtil;
+
+/**
+ * This class provides the HTTP transport shared by the REST clients. It bounds the
+ * number of concurrent connections, applies connect and read timeouts, and ensures
+ * that completed responses are fully consumed so that the underlying (HTTP/1.1
+ * keep-alive) connection is returned to the JVM's connection cache for reuse,
+ * rather than being closed.
+ *
+ * Connections used to publish information and those used for control requests (e.g.
+ * retrieving the configuration) are bounded separately, so that a burst of publishing
+ * cannot prevent control requests from being performed.
+ *
+ * Note that the JVM retains at most 'http.maxConnections' (default 5) idle connections
+ * per destination, so this system property should also be set if the total maximum number
+ * of connections is increased beyond that value.
+ *
+ * @author gbrown
+ */
+public class HttpTransport {
+    private static final Logger log = Logger.getLogger(HttpTransport.class.getName());
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 5;
+    private static final int DEFAULT_MAX_CONTROL_CONNECTIONS = 2;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private static volatile HttpTransport defaultTransport;
+
+    private final int maxConnections;
+    private final int maxControlConnections;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Semaphore publishPermits;
+    private final Semaphore controlPermits;
+
+    /**
+     * This constructor initialises the transport, with the default maximum number of
+     * control connections.
+     *
+     * @param maxConnections The maximum number of concurrent connections used to publish
+     * @param connectTimeout The connect timeout (in milliseconds), 0 means no timeout
+     * @param readTimeout The read timeout (in milliseconds), 0 means no timeout
+     */
+    public HttpTransport(int maxConnections, int connectTimeout, int readTimeout) {
+        this(maxConnections, DEFAULT_MAX_CONTROL_CONNECTIONS, connectTimeout, readTimeout);
+    }
+
+    /**
+     * This constructor initialises the transport.
+     *
+     * @param maxConnections The maximum number of concurrent connections used to publish
+     * @param maxControlConnections The maximum number of concurrent connections used for
+     *                  control requests
+     * @param connectTimeout The connect timeout (in milliseconds), 0 means no timeout
+     * @param readTimeout The read timeout (in milliseconds), 0 means no timeout
+     */
+    public HttpTransport(int maxConnections, int maxControlConnections, int connectTimeout, int readTimeout) {
+        if (maxConnections < 1 || maxControlConnections < 1) {
+            throw new IllegalArgumentException("Maximum connections must be greater than 0");
+        }
+        this.maxConnections = maxConnections;
+        this.maxControlConnections = maxControlConnections;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.publishPermits = new Semaphore(maxConnections, true);
+        this.controlPermits = new Semaphore(maxControlConnections, true);
+    }
+
+    /**
+     * This method returns the default transport, configured using the
+     * HAWKULAR_APM_HTTP_MAXCONNECTIONS, HAWKULAR_APM_HTTP_MAXCONTROLCONNECTIONS,
+     * HAWKULAR_APM_HTTP_CONNECTTIMEOUT and HAWKULAR_APM_HTTP_READTIMEOUT properties.
+     *
+     * @return The default transport
+     */
+    public static HttpTransport getDefault() {
+        if (defaultTransport == null) {
+            synchronized (HttpTransport.class) {
+                if (defaultTransport == null) {
+                    defaultTransport = new HttpTransport(
+                            PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_HTTP_MAXCONNECTIONS,
+                                    DEFAULT_MAX_CONNECTIONS),
+                            PropertyUtil.getPropertyAsInteger(
+                                    PropertyUtil.HAWKULAR_APM_HTTP_MAXCONTROLCONNECTIONS,
+                                    DEFAULT_MAX_CONTROL_CONNECTIONS),
+                            PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_HTTP_CONNECTTIMEOUT,
+                                    DEFAULT_CONNECT_TIMEOUT),
+                            PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_HTTP_READTIMEOUT,
+                                    DEFAULT_READ_TIMEOUT));
+                }
+            }
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * @return The maximum number of concurrent connections used to publish
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return The maximum number of concurrent connections used for control requests
+     */
+    public int getMaxControlConnections() {
+        return maxControlConnections;
+    }
+
+    /**
+     * @return The connect timeout (in milliseconds)
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return The read timeout (in milliseconds)
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return The number of connections currently in use
+     */
+    public int getActiveConnections() {
+        return getActiveConnections(Pool.Publish) + getActiveConnections(Pool.Control);
+    }
+
+    /**
+     * @param pool The connection pool
+     * @return The number of connections currently in use from the pool
+     */
+    public int getActiveConnections(Pool pool) {
+        return pool == Pool.Publish ? maxConnections - publishPermits.availablePermits()
+                : maxControlConnections - controlPermits.availablePermits();
+    }
+
+    /**
+     * This method opens a connection to the supplied URL, waiting (up to the connect
+     * timeout) if the maximum number of connections in the pool are already in use. The
+     * connection must be passed to {@link #release(HttpURLConnection, Pool, boolean)} when
+     * no longer required.
+     *
+     * @param url The URL
+     * @param method The HTTP method
+     * @param pool The connection pool
+     * @return The connection
+     * @throws IOException Failed to open the connection
+     */
+    public HttpURLConnection open(URL url, String method, Pool pool) throws IOException {
+        Semaphore permits = getPermits(pool);
+        try {
+            if (connectTimeout > 0) {
+                if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Timed out waiting for a connection to [" + url + "]");
+                }
+            } else {
+                permits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection to [" + url + "]", e);
+        }
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setUseCaches(false);
+            connection.setAllowUserInteraction(false);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * This method releases the supplied connection. If the exchange completed, then any
+     * remaining response content is consumed, to enable the underlying connection to be
+     * reused. Otherwise the underlying connection is closed.
+     *
+     * @param connection The connection
+     * @param pool The connection pool from which the connection was opened
+     * @param completed Whether the request/response exchange completed
+     */
+    public void release(HttpURLConnection connection, Pool pool, boolean completed) {
+        try {
+            if (completed) {
+                drain(connection);
+            } else {
+                connection.disconnect();
+            }
+        } finally {
+            getPermits(pool).release();
+        }
+    }
+
+    private Semaphore getPermits(Pool pool) {
+        return pool == Pool.Publish ? publishPermits : controlPermits;
+    }
+
+    protected static void drain(HttpURLConnection connection) {
+        InputStream is = null;
+        try {
+            is = connection.getInputStream();
+        } catch (IOException e) {
+            is = connection.getErrorStream();
+        }
+        if (is != null) {
+            try {
+                byte[] buf = new byte[DRAIN_BUFFER_SIZE];
+                while (is.read(buf) != -1) {
+                    continue;
+                }
+                is.close();
+            } catch (IOException e) {
+                // Stream has already been consumed and closed, or the connection
+                // has failed, in which case it will not be reused
+                if (log.isLoggable(Logger.Level.FINEST)) {
+                    log.finest("Unable to drain response: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * This enumerated type identifies the separately bounded pools of connections.
+     */
+    public enum Pool {
+
+        /* Connections used to publish information, such as trace fragments */
+        Publish,
+
+        /* Connections used for control requests, such as retrieving the configuration */
+        Control
+
+    }
+
+}
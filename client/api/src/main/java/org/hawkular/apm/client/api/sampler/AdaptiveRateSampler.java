@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hawkular.apm.client.api.sampler;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.apm.api.model.trace.Node;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.utils.EndpointUtil;
+
+/**
+ * This sampler reports up to a maximum number of traces per second, both globally
+ * and for each endpoint (identified by the URI and operation of the trace's top level node).
+ * When the load is below the budget, all traces are reported.
+ *
+ * Each budget is enforced using a lock-free token bucket, allowing bursts of up to one
+ * second's worth of traces. The global budget is shared fairly between the endpoints
+ * that have been active during the last second, so a small number of high volume
+ * endpoints cannot prevent traces for other endpoints being reported. The share is
+ * recalculated every second, so the per endpoint rate adapts as the load changes.
+ *
+ * @author gbrown
+ */
+public class AdaptiveRateSampler implements Sampler {
+
+    /** Maximum number of endpoints with their own budget, beyond which only the global budget applies */
+    private static final int MAX_ENDPOINTS = 1000;
+
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long ADJUST_INTERVAL = ONE_SECOND;
+
+    /** Endpoints that have been idle for this period are removed */
+    private static final long IDLE_PERIOD = TimeUnit.MINUTES.toNanos(1);
+
+    private final double tracesPerSecond;
+    private final double tracesPerEndpointPerSecond;
+
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> endpoints = new ConcurrentHashMap<String, TokenBucket>();
+    private final AtomicLong nextAdjustment;
+
+    protected AdaptiveRateSampler(double tracesPerSecond, double tracesPerEndpointPerSecond) {
+        this.tracesPerSecond = tracesPerSecond;
+        this.tracesPerEndpointPerSecond = tracesPerEndpointPerSecond;
+
+        long now = nanoTime();
+        global = new TokenBucket(tracesPerSecond, now);
+        nextAdjustment = new AtomicLong(now + ADJUST_INTERVAL);
+    }
+
+    /**
+     * @param tracesPerSecond The maximum number of traces to report per second
+     * @param tracesPerEndpointPerSecond The maximum number of traces to report per second for
+     *              an individual endpoint, or 0 if only limited by its share of the global budget
+     */
+    public static Sampler withRate(double tracesPerSecond, double tracesPerEndpointPerSecond) {
+        if (tracesPerSecond <= 0) {
+            return Sampler.NEVER_SAMPLE;
+        }
+        return new AdaptiveRateSampler(tracesPerSecond, tracesPerEndpointPerSecond);
+    }
+
+    @Override
+    public boolean isSampled(Trace trace) {
+        long now = nanoTime();
+
+        long adjustAt = nextAdjustment.get();
+        if (now - adjustAt >= 0 && nextAdjustment.compareAndSet(adjustAt, now + ADJUST_INTERVAL)) {
+            adjust(now);
+        }
+
+        String endpoint = getEndpoint(trace);
+        if (endpoint != null) {
+            TokenBucket bucket = endpoints.get(endpoint);
+            if (bucket == null && endpoints.size() < MAX_ENDPOINTS) {
+                bucket = endpoints.computeIfAbsent(endpoint,
+                        k -> new TokenBucket(getEndpointRate(endpoints.size() + 1), now));
+            }
+            if (bucket != null && !bucket.acquire(now)) {
+                return false;
+            }
+        }
+
+        return global.acquire(now);
+    }
+
+    /**
+     * This method returns the rate for each endpoint, when the supplied number
+     * of endpoints are active.
+     *
+     * @param active The number of active endpoints
+     * @return The rate per endpoint
+     */
+    protected double getEndpointRate(int active) {
+        double rate = tracesPerSecond / Math.max(1, active);
+        if (tracesPerEndpointPerSecond > 0 && tracesPerEndpointPerSecond < rate) {
+            rate = tracesPerEndpointPerSecond;
+        }
+        return rate;
+    }
+
+    /**
+     * This method recalculates the share of the global budget available to each
+     * active endpoint, and removes idle endpoints.
+     *
+     * @param now The current time (in nanoseconds)
+     */
+    protected void adjust(long now) {
+        int active = 0;
+        Iterator<TokenBucket> iter = endpoints.values().iterator();
+        while (iter.hasNext()) {
+            long lastUsed = iter.next().lastUsed;
+            if (now - lastUsed > IDLE_PERIOD) {
+                iter.remove();
+            } else if (now - lastUsed <= ADJUST_INTERVAL) {
+                active++;
+            }
+        }
+
+        double rate = getEndpointRate(active);
+        for (TokenBucket bucket : endpoints.values()) {
+            bucket.setRate(rate);
+        }
+    }
+
+    /**
+     * @param trace The trace
+     * @return The endpoint, or null if the trace has no nodes
+     */
+    protected static String getEndpoint(Trace trace) {
+        if (trace == null || trace.getNodes().isEmpty()) {
+            return null;
+        }
+        Node node = trace.getNodes().get(0);
+        return EndpointUtil.encodeEndpoint(node.getUri(), node.getOperation());
+    }
+
+    /**
+     * @return The current time (in nanoseconds)
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * This class provides a lock-free token bucket. Rather than maintaining a count of
+     * tokens, it records the theoretical time at which the bucket will next be full,
+     * with each acquired token advancing that time by the interval between tokens.
+     */
+    protected static class TokenBucket {
+
+        private final AtomicLong fullAt;
+        private volatile long interval;
+        private volatile long lastUsed;
+
+        protected TokenBucket(double rate, long now) {
+            setRate(rate);
+            fullAt = new AtomicLong(now);
+            lastUsed = now;
+        }
+
+        protected void setRate(double rate) {
+            interval = Math.max(1, (long) (ONE_SECOND / rate));
+        }
+
+        /**
+         * This method attempts to acquire a token from the bucket.
+         *
+         * @param now The current time (in nanoseconds)
+         * @return Whether a token was acquired
+         */
+        protected boolean acquire(long now) {
+            lastUsed = now;
+            long current;
+            long next;
+            do {
+                current = fullAt.get();
+                next = Math.max(current, now) + interval;
+
+                // Capacity is one second's worth of tokens, or a single token if the rate is lower
+                if (next - now > Math.max(ONE_SECOND, interval)) {
+                    return false;
+                }
+            } while (!fullAt.compareAndSet(current, next));
+            return true;
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package org.hawkular.apm.client.api.sampler;
 
 import java.util.BitSet;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.hawkular.apm.api.model.trace.Trace;
 
@@ -28,15 +29,22 @@ import org.hawkular.apm.api.model.trace.Trace;
  * attributes on given trace object, therefore sampling decision
  * is not idempotent.
  *
+ * Each thread iterates over the (immutable) set of sampling decisions independently,
+ * starting at a random position, so sampling decisions do not contend between threads.
+ *
  * @author Pavol Loffay
  */
 public class PercentageSampler implements Sampler {
 
-    private BitSet bitSet;
-    private int i;
+    private static final int SIZE = 100;
+
+    private final BitSet bitSet;
+
+    private final ThreadLocal<int[]> position = ThreadLocal.withInitial(
+            () -> new int[] { ThreadLocalRandom.current().nextInt(SIZE) });
 
     protected PercentageSampler(int percentage) {
-        bitSet = randomBitSet(100, percentage, new Random());
+        bitSet = randomBitSet(SIZE, percentage, new Random());
     }
 
     /**
@@ -53,9 +61,12 @@ public class PercentageSampler implements Sampler {
     }
 
     @Override
-    public synchronized boolean isSampled(Trace trace) {
-        boolean sample = bitSet.get(i++);
-        i = i == 100 ? 0 : i;
+    public boolean isSampled(Trace trace) {
+        int[] i = position.get();
+        boolean sample = bitSet.get(i[0]++);
+        if (i[0] == SIZE) {
+            i[0] = 0;
+        }
         return sample;
     }
 
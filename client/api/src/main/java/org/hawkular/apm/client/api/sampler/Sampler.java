@@ -24,6 +24,12 @@ import org.hawkular.apm.api.model.trace.Trace;
  */
 public interface Sampler {
 
+    /**
+     * This method determines whether the trace should be reported.
+     *
+     * @param trace The trace, or null if the decision is being made when the trace is started
+     * @return Whether the trace is sampled
+     */
     boolean isSampled(Trace trace);
 
     Sampler ALWAYS_SAMPLE = trace -> true;
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.api.services.RejectedException;
+import org.hawkular.apm.api.services.TracePublisher;
+import org.hawkular.apm.tests.common.Wait;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author gbrown
+ */
+public class BatchTraceRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLockFreeBatchSize() {
+        TestTracePublisher publisher = new TestTracePublisher();
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(10)
+                .withBatchTime(60000)
+                .withLockFree(true)
+                .build();
+
+        assertTrue(recorder.isLockFree());
+
+        for (int i = 0; i < 25; i++) {
+            recorder.record(createTrace(i));
+        }
+
+        Wait.until(() -> publisher.getTraceCount() == 20, 5, TimeUnit.SECONDS);
+
+        // Remaining traces should only be sent when batch time expires
+        assertEquals(2, publisher.getBatches().size());
+        assertEquals(10, publisher.getBatches().get(0).size());
+        assertEquals(10, publisher.getBatches().get(1).size());
+    }
+
+    @Test
+    public void testLockFreeBatchTime() {
+        TestTracePublisher publisher = new TestTracePublisher();
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(1000)
+                .withBatchTime(100)
+                .withLockFree(true)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            recorder.record(createTrace(i));
+        }
+
+        Wait.until(() -> publisher.getTraceCount() == 5, 5, TimeUnit.SECONDS);
+        assertEquals("0", publisher.getBatches().get(0).get(0).getFragmentId());
+    }
+
+    @Test
+    public void testLockFreeConcurrentProducers() throws InterruptedException {
+        final int producers = 8;
+        final int perProducer = 1000;
+        TestTracePublisher publisher = new TestTracePublisher();
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(100)
+                .withBatchTime(50)
+                .withLockFree(true)
+                .build();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    recorder.record(createTrace(i));
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Wait.until(() -> publisher.getTraceCount() + recorder.getDroppedTraces() == producers * perProducer,
+                5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testJournalSpillAndReplay() {
+        TestTracePublisher publisher = new TestTracePublisher();
+        publisher.setFail(true);
+
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(5)
+                .withBatchTime(100)
+                .withJournalDirectory(folder.getRoot().getAbsolutePath())
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            recorder.record(createTrace(i));
+        }
+
+        TraceJournal journal = recorder.getJournal();
+        Wait.until(() -> journal.getSpilledBatches() == 2, 5, TimeUnit.SECONDS);
+        assertEquals(0, publisher.getTraceCount());
+
+        publisher.setFail(false);
+
+        Wait.until(() -> publisher.getTraceCount() == 10, 10, TimeUnit.SECONDS);
+        assertEquals(2, journal.getReplayedBatches());
+        assertEquals(0, journal.getDroppedBatches());
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void testJournalDiscardsRejectedBatch() {
+        TestTracePublisher publisher = new TestTracePublisher();
+        publisher.setFail(true);
+
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(5)
+                .withBatchTime(100)
+                .withBatchPoolSize(1)
+                .withJournalDirectory(folder.getRoot().getAbsolutePath())
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            recorder.record(createTrace(i));
+        }
+
+        TraceJournal journal = recorder.getJournal();
+        Wait.until(() -> journal.getSpilledBatches() == 2, 5, TimeUnit.SECONDS);
+
+        // First batch will always be rejected, so should not prevent the second being replayed
+        publisher.setRejectFragmentId("0");
+        publisher.setFail(false);
+
+        Wait.until(() -> publisher.getTraceCount() == 5, 10, TimeUnit.SECONDS);
+        assertEquals(5, publisher.getTraceCount());
+        assertEquals("5", publisher.getBatches().get(0).get(0).getFragmentId());
+        assertEquals(1, journal.getReplayedBatches());
+        assertEquals(1, journal.getDroppedBatches());
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void testJournalNotOpenedWithoutPublisher() {
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(null)
+                .withJournalDirectory(folder.getRoot().getAbsolutePath())
+                .build();
+
+        assertFalse(recorder.isEnabled());
+        assertNull(recorder.getJournal());
+    }
+
+    @Test
+    public void testMemoryBudgetDisabledByDefault() {
+        TestTracePublisher publisher = new TestTracePublisher();
+        publisher.block();
+
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(2)
+                .withBatchTime(100)
+                .build();
+
+        recorder.record(createTrace(1));
+
+        assertEquals(0, recorder.getMemoryBudget());
+        assertEquals(0, recorder.getInFlightBytes());
+
+        publisher.release();
+    }
+
+    @Test
+    public void testLockFreeReleasesReservedMemory() {
+        TestTracePublisher publisher = new TestTracePublisher();
+        publisher.block();
+
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(2)
+                .withBatchTime(100)
+                .withLockFree(true)
+                .withMemoryBudget(1024 * 1024)
+                .build();
+
+        Trace trace1 = createTrace(1);
+        Trace trace2 = createTrace(2);
+        recorder.record(trace1);
+        recorder.record(trace2);
+        assertTrue(recorder.getInFlightBytes() > 0);
+
+        // Changing a trace after it has been recorded must not affect the memory released
+        trace1.getNodes().add(new Consumer("/changed/after/recording", "HTTP"));
+
+        publisher.release();
+
+        Wait.until(() -> publisher.getTraceCount() == 2, 5, TimeUnit.SECONDS);
+        Wait.until(() -> recorder.getInFlightBytes() == 0, 5, TimeUnit.SECONDS);
+        assertEquals(0, recorder.getInFlightBytes());
+    }
+
+    @Test
+    public void testMemoryBudgetDropNewest() throws Exception {
+        TestTracePublisher publisher = new TestTracePublisher();
+        BatchTraceRecorder recorder = createBudgetRecorder(publisher, OverflowPolicy.DropNewest, 3);
+
+        for (int i = 1; i < 5; i++) {
+            recorder.record(createTrace(i));
+        }
+
+        assertEquals(2, recorder.getDroppedTraces());
+
+        publisher.release();
+
+        Wait.until(() -> publisher.getTraceCount() == 3, 5, TimeUnit.SECONDS);
+        Wait.until(() -> recorder.getInFlightBytes() == 0, 5, TimeUnit.SECONDS);
+
+        assertEquals("0", publisher.getBatches().get(0).get(0).getFragmentId());
+        assertEquals("1", publisher.getBatches().get(1).get(0).getFragmentId());
+        assertEquals("2", publisher.getBatches().get(2).get(0).getFragmentId());
+    }
+
+    @Test
+    public void testMemoryBudgetDropOldest() throws Exception {
+        TestTracePublisher publisher = new TestTracePublisher();
+        BatchTraceRecorder recorder = createBudgetRecorder(publisher, OverflowPolicy.DropOldest, 3);
+
+        for (int i = 1; i < 5; i++) {
+            recorder.record(createTrace(i));
+        }
+
+        assertEquals(2, recorder.getDroppedTraces());
+
+        publisher.release();
+
+        Wait.until(() -> publisher.getTraceCount() == 3, 5, TimeUnit.SECONDS);
+        Wait.until(() -> recorder.getInFlightBytes() == 0, 5, TimeUnit.SECONDS);
+
+        // First trace was already being published, so oldest queued batches dropped
+        assertEquals("0", publisher.getBatches().get(0).get(0).getFragmentId());
+        assertEquals("3", publisher.getBatches().get(1).get(0).getFragmentId());
+        assertEquals("4", publisher.getBatches().get(2).get(0).getFragmentId());
+    }
+
+    @Test
+    public void testMemoryBudgetDegrade() throws Exception {
+        TestTracePublisher publisher = new TestTracePublisher();
+        BatchTraceRecorder recorder = createBudgetRecorder(publisher, OverflowPolicy.Degrade, 5);
+
+        for (int i = 1; i < 3; i++) {
+            recorder.record(createTrace(i));
+        }
+        assertFalse(recorder.isDegraded());
+
+        recorder.record(createTrace(3));
+        assertTrue(recorder.isDegraded());
+
+        publisher.release();
+
+        Wait.until(() -> recorder.getInFlightBytes() == 0, 5, TimeUnit.SECONDS);
+        assertFalse(recorder.isDegraded());
+        assertEquals(0, recorder.getDroppedTraces());
+    }
+
+    protected static BatchTraceRecorder createBudgetRecorder(TestTracePublisher publisher, OverflowPolicy policy,
+            int traces) throws Exception {
+        publisher.block();
+
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(publisher)
+                .withBatchSize(1)
+                .withBatchPoolSize(1)
+                .withMemoryBudget(TraceSizeEstimator.estimate(createTrace(0)) * traces)
+                .withOverflowPolicy(policy)
+                .build();
+
+        // Make sure the first batch is being published, so that subsequent batches are queued
+        recorder.record(createTrace(0));
+        publisher.awaitPublishing();
+        return recorder;
+    }
+
+    protected static Trace createTrace(int id) {
+        Trace trace = new Trace();
+        trace.setFragmentId(Integer.toString(id));
+        return trace;
+    }
+
+    public static class TestTracePublisher implements TracePublisher {
+
+        private List<List<Trace>> batches = new CopyOnWriteArrayList<>();
+        private volatile boolean fail = false;
+        private volatile String rejectFragmentId;
+        private volatile CountDownLatch gate;
+        private final CountDownLatch publishing = new CountDownLatch(1);
+
+        @Override
+        public int getInitialRetryCount() {
+            return 0;
+        }
+
+        @Override
+        public void publish(String tenantId, List<Trace> items) throws Exception {
+            publishing.countDown();
+            if (gate != null) {
+                gate.await();
+            }
+            if (fail) {
+                throw new Exception("Failed to publish");
+            }
+            for (Trace trace : items) {
+                if (trace.getFragmentId().equals(rejectFragmentId)) {
+                    throw new RejectedException("Rejected fragment " + rejectFragmentId);
+                }
+            }
+            batches.add(items);
+        }
+
+        @Override
+        public void publish(String tenantId, List<Trace> items, int retryCount, long delay) throws Exception {
+            publish(tenantId, items);
+        }
+
+        @Override
+        public void retry(String tenantId, List<Trace> items, String subscriber, int retryCount, long delay)
+                throws Exception {
+        }
+
+        @Override
+        public void setMetricHandler(PublisherMetricHandler<Trace> handler) {
+        }
+
+        public void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        public void release() {
+            gate.countDown();
+        }
+
+        public void awaitPublishing() throws InterruptedException {
+            publishing.await();
+        }
+
+        public void setFail(boolean fail) {
+            this.fail = fail;
+        }
+
+        public void setRejectFragmentId(String rejectFragmentId) {
+            this.rejectFragmentId = rejectFragmentId;
+        }
+
+        public List<List<Trace>> getBatches() {
+            return batches;
+        }
+
+        public int getTraceCount() {
+            return batches.stream().mapToInt(List::size).sum();
+        }
+    }
+}
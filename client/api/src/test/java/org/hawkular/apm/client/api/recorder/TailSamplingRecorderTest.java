@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.Constants;
+import org.hawkular.apm.api.model.Property;
+import org.hawkular.apm.api.model.config.txn.TailSampling;
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class TailSamplingRecorderTest {
+
+    private static final String TXN = "testtxn";
+
+    @Test
+    public void testNoPolicy() {
+        List<Trace> recorded = new ArrayList<>();
+        TailSamplingRecorder recorder = createRecorder(recorded, null);
+
+        Trace trace = createTrace("t1", TXN, 10);
+        recorder.record(trace);
+
+        assertEquals(1, recorded.size());
+        assertSame(trace, recorded.get(0));
+    }
+
+    @Test
+    public void testSlowReportedImmediately() {
+        List<Trace> recorded = new ArrayList<>();
+        TailSampling policy = new TailSampling();
+        policy.setDurationThreshold(500);
+        policy.setPercentage(0);
+        TailSamplingRecorder recorder = createRecorder(recorded, policy);
+
+        recorder.record(createTrace("t1", TXN, 100));
+        assertTrue(recorded.isEmpty());
+
+        recorder.record(createTrace("t2", TXN, 600));
+        assertEquals(1, recorded.size());
+        assertEquals("t2", recorded.get(0).getTraceId());
+
+        recorder.expire(System.currentTimeMillis() + 60000);
+        assertEquals(1, recorded.size());
+        assertEquals(1, recorder.getDiscardedCount());
+    }
+
+    @Test
+    public void testFaultReportsHeldFragments() {
+        List<Trace> recorded = new ArrayList<>();
+        TailSampling policy = new TailSampling();
+        policy.setPercentage(0);
+        TailSamplingRecorder recorder = createRecorder(recorded, policy);
+
+        recorder.record(createTrace("t1", TXN, 100));
+        assertTrue(recorded.isEmpty());
+
+        Trace fault = createTrace("t1", TXN, 100);
+        fault.getNodes().get(0).getProperties().add(new Property(Constants.PROP_FAULT, "Failed"));
+        recorder.record(fault);
+
+        // Both fragments of the trace are reported, as well as subsequent fragments
+        assertEquals(2, recorded.size());
+        recorder.record(createTrace("t1", TXN, 100));
+        assertEquals(3, recorded.size());
+        assertEquals(3, recorder.getReportedCount());
+    }
+
+    @Test
+    public void testPropertyMatch() {
+        List<Trace> recorded = new ArrayList<>();
+        TailSampling policy = new TailSampling();
+        policy.setPercentage(0);
+        policy.getProperties().put("customer", "gold.*");
+        policy.getProperties().put("debug", null);
+        TailSamplingRecorder recorder = createRecorder(recorded, policy);
+
+        Trace silver = createTrace("t1", TXN, 100);
+        silver.getNodes().get(0).getProperties().add(new Property("customer", "silver"));
+        recorder.record(silver);
+        assertTrue(recorded.isEmpty());
+
+        Trace gold = createTrace("t2", TXN, 100);
+        gold.getNodes().get(0).getProperties().add(new Property("customer", "gold-plus"));
+        recorder.record(gold);
+        assertEquals(1, recorded.size());
+
+        Trace debug = createTrace("t3", TXN, 100);
+        debug.getNodes().get(0).getProperties().add(new Property("debug", "true"));
+        recorder.record(debug);
+        assertEquals(2, recorded.size());
+    }
+
+    @Test
+    public void testPercentageOfRemaining() {
+        List<Trace> recorded = new ArrayList<>();
+        TailSampling policy = new TailSampling();
+        policy.setPercentage(10);
+        TailSamplingRecorder recorder = createRecorder(recorded, policy);
+
+        for (int i = 0; i < 1000; i++) {
+            recorder.record(createTrace("trace" + i, TXN, 100));
+        }
+        assertTrue(recorded.isEmpty());
+
+        recorder.expire(System.currentTimeMillis() + 60000);
+
+        assertTrue(recorded.size() > 50 && recorded.size() < 150);
+        assertEquals(1000, recorder.getReportedCount() + recorder.getDiscardedCount());
+    }
+
+    protected static TailSamplingRecorder createRecorder(List<Trace> recorded, TailSampling policy) {
+        TailSamplingRecorder recorder = new TailSamplingRecorder(1000);
+        recorder.setRecorder(recorded::add);
+        if (policy != null) {
+            recorder.setPolicy(TXN, policy);
+        }
+        return recorder;
+    }
+
+    protected static Trace createTrace(String traceId, String txn, long durationMillis) {
+        Trace trace = new Trace();
+        trace.setTraceId(traceId);
+        trace.setTransaction(txn);
+        Consumer consumer = new Consumer();
+        consumer.setDuration(TimeUnit.MILLISECONDS.toMicros(durationMillis));
+        trace.getNodes().add(consumer);
+        return trace;
+    }
+
+}
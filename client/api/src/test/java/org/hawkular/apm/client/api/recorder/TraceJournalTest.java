@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.apm.api.model.trace.Trace;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author gbrown
+ */
+public class TraceJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendPeekRemove() throws Exception {
+        TraceJournal journal = new TraceJournal(folder.getRoot(), 1024 * 1024, 64 * 1024);
+        assertTrue(journal.isEmpty());
+        assertNull(journal.peek());
+
+        assertTrue(journal.append(Arrays.asList(createTrace("1"), createTrace("2"))));
+        assertTrue(journal.append(Collections.singletonList(createTrace("3"))));
+        assertFalse(journal.isEmpty());
+        assertEquals(2, journal.getSpilledBatches());
+
+        List<Trace> batch = journal.peek();
+        assertEquals(2, batch.size());
+        assertEquals("1", batch.get(0).getFragmentId());
+
+        // Peek again should return same batch
+        assertEquals("1", journal.peek().get(0).getFragmentId());
+
+        journal.remove();
+        batch = journal.peek();
+        assertEquals(1, batch.size());
+        assertEquals("3", batch.get(0).getFragmentId());
+
+        journal.remove();
+        assertNull(journal.peek());
+        assertTrue(journal.isEmpty());
+        assertEquals(2, journal.getReplayedBatches());
+
+        // Consumed segment should have been deleted
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        TraceJournal journal = new TraceJournal(folder.getRoot(), 1024 * 1024, 64 * 1024);
+        journal.append(Collections.singletonList(createTrace("1")));
+        journal.append(Collections.singletonList(createTrace("2")));
+        journal.remove();
+
+        TraceJournal reopened = new TraceJournal(folder.getRoot(), 1024 * 1024, 64 * 1024);
+        List<Trace> batch = reopened.peek();
+        assertEquals("2", batch.get(0).getFragmentId());
+        reopened.remove();
+        assertNull(reopened.peek());
+
+        // Subsequent appends should continue in a new segment
+        reopened.append(Collections.singletonList(createTrace("3")));
+        assertEquals("3", reopened.peek().get(0).getFragmentId());
+    }
+
+    @Test
+    public void testSegmentRotation() throws Exception {
+        TraceJournal journal = new TraceJournal(folder.getRoot(), 1024 * 1024, 256);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(journal.append(Collections.singletonList(createTrace(Integer.toString(i)))));
+        }
+        assertTrue(folder.getRoot().list().length > 1);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.toString(i), journal.peek().get(0).getFragmentId());
+            journal.remove();
+        }
+        assertNull(journal.peek());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        TraceJournal journal = new TraceJournal(folder.getRoot(), 512, 256);
+        int appended = 0;
+        for (int i = 0; i < 20; i++) {
+            if (journal.append(Collections.singletonList(createTrace(Integer.toString(i))))) {
+                appended++;
+            }
+        }
+        assertTrue(appended > 0);
+        assertTrue(appended < 20);
+        assertEquals(20 - appended, journal.getDroppedBatches());
+        assertTrue(journal.getSize() <= 512);
+    }
+
+    @Test
+    public void testSegmentName() {
+        File file = new File(folder.getRoot(), TraceJournal.segmentName(42));
+        assertEquals(42, TraceJournal.segmentId(file));
+    }
+
+    protected static Trace createTrace(String id) {
+        Trace trace = new Trace();
+        trace.setFragmentId(id);
+        trace.setTraceId("trace" + id);
+        return trace;
+    }
+}
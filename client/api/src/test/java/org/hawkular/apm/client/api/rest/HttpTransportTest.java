@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author gbrown
+ */
+public class HttpTransportTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private AtomicInteger concurrent = new AtomicInteger();
+    private AtomicInteger maxConcurrent = new AtomicInteger();
+    private volatile long delay = 0;
+
+    @Before
+    public void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hawkular/apm/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        try {
+            int current = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(current, Math::max);
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+
+            try (InputStream is = exchange.getRequestBody()) {
+                while (is.read() != -1) {
+                    continue;
+                }
+            }
+
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+
+            // Request no longer active once the client can receive the response
+            concurrent.decrementAndGet();
+
+            byte[] response = "[\"hello\",\"world\"]".getBytes();
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    protected AbstractRESTClient createClient(HttpTransport transport) {
+        AbstractRESTClient client = new AbstractRESTClient(null, null,
+                "http://localhost:" + server.getAddress().getPort());
+        client.setTransport(transport);
+        return client;
+    }
+
+    @Test
+    public void testConnectionReused() {
+        HttpTransport transport = new HttpTransport(2, 5000, 5000);
+        AbstractRESTClient client = createClient(transport);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, client.postAsJsonTo(null, "test", Collections.singletonList("value" + i)));
+        }
+        for (int i = 0; i < 3; i++) {
+            List<String> result = client.getResultsForUrl(null, new TypeReference<List<String>>() {
+            }, "test");
+            assertEquals(2, result.size());
+        }
+
+        assertEquals(1, clientPorts.size());
+        assertEquals(0, transport.getActiveConnections());
+    }
+
+    @Test
+    public void testMaxConnections() throws InterruptedException {
+        delay = 100;
+        HttpTransport transport = new HttpTransport(2, 5000, 5000);
+        AbstractRESTClient client = createClient(transport);
+
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Thread t = new Thread(() -> {
+                if (client.postAsJsonTo(null, "test", "value") == 200) {
+                    succeeded.incrementAndGet();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(6, succeeded.get());
+        assertTrue("Max concurrent was " + maxConcurrent.get(), maxConcurrent.get() <= 2);
+        assertTrue(clientPorts.size() <= 2);
+        assertEquals(0, transport.getActiveConnections());
+    }
+
+    @Test
+    public void testControlNotBlockedByPublishing() throws InterruptedException {
+        delay = 1000;
+        HttpTransport transport = new HttpTransport(1, 1, 200, 5000);
+        AbstractRESTClient publisher = new AbstractRESTClient(null, null,
+                "http://localhost:" + server.getAddress().getPort()) {
+            @Override
+            protected HttpTransport.Pool getPool() {
+                return HttpTransport.Pool.Publish;
+            }
+        };
+        publisher.setTransport(transport);
+        AbstractRESTClient client = createClient(transport);
+
+        Thread t = new Thread(() -> publisher.postAsJsonTo(null, "test", "value"));
+        t.start();
+        while (transport.getActiveConnections(HttpTransport.Pool.Publish) == 0) {
+            Thread.sleep(10);
+        }
+
+        // Publish pool exhausted, so further publishing times out waiting for a connection
+        try {
+            publisher.postAsJsonTo(null, "test", "value");
+            fail("Should have timed out waiting for a connection");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // Control requests use their own pool
+        assertEquals(200, client.postAsJsonTo(null, "test", "value"));
+
+        t.join();
+        assertEquals(0, transport.getActiveConnections());
+    }
+
+    @Test
+    public void testReadTimeout() {
+        delay = 1000;
+        HttpTransport transport = new HttpTransport(1, 5000, 100);
+        AbstractRESTClient client = createClient(transport);
+
+        assertEquals(0, client.postAsJsonTo(null, "test", "value"));
+        assertEquals(0, transport.getActiveConnections());
+    }
+}
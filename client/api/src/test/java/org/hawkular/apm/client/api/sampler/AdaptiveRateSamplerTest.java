@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.sampler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class AdaptiveRateSamplerTest {
+
+    @Test
+    public void testGlobalRate() {
+        long[] time = { 0 };
+        AdaptiveRateSampler sampler = createSampler(10, 0, time);
+
+        assertEquals(10, count(sampler, createTrace("/a"), 100));
+
+        // Half a second later, half the budget is available again
+        time[0] += TimeUnit.MILLISECONDS.toNanos(500);
+        assertEquals(5, count(sampler, createTrace("/a"), 100));
+    }
+
+    @Test
+    public void testEndpointRate() {
+        long[] time = { 0 };
+        AdaptiveRateSampler sampler = createSampler(100, 5, time);
+
+        assertEquals(5, count(sampler, createTrace("/a"), 100));
+        assertEquals(5, count(sampler, createTrace("/b"), 100));
+    }
+
+    @Test
+    public void testEndpointShareAdapts() {
+        long[] time = { 0 };
+        AdaptiveRateSampler sampler = createSampler(10, 0, time);
+        Trace a = createTrace("/a");
+        Trace b = createTrace("/b");
+
+        // Only endpoint active, so has whole budget
+        assertEquals(10, count(sampler, a, 100));
+
+        // Once the share is recalculated with two active endpoints,
+        // each endpoint is limited to half the budget
+        time[0] += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(sampler.isSampled(a));
+        assertTrue(sampler.isSampled(b));
+        time[0] += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(5, count(sampler, a, 100));
+        assertEquals(5, count(sampler, b, 100));
+
+        // Once endpoint 'b' becomes idle, 'a' has the whole budget again
+        time[0] += TimeUnit.SECONDS.toNanos(2);
+        assertEquals(10, count(sampler, a, 100));
+    }
+
+    @Test
+    public void testNeverSampleWithoutBudget() {
+        assertFalse(AdaptiveRateSampler.withRate(0, 10).isSampled(createTrace("/a")));
+    }
+
+    protected static AdaptiveRateSampler createSampler(double rate, double endpointRate, long[] time) {
+        return new AdaptiveRateSampler(rate, endpointRate) {
+            @Override
+            protected long nanoTime() {
+                return time[0];
+            }
+        };
+    }
+
+    protected static int count(Sampler sampler, Trace trace, int attempts) {
+        int sampled = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (sampler.isSampled(trace)) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    protected static Trace createTrace(String uri) {
+        Trace trace = new Trace();
+        Consumer consumer = new Consumer();
+        consumer.setUri(uri);
+        trace.getNodes().add(consumer);
+        return trace;
+    }
+
+}
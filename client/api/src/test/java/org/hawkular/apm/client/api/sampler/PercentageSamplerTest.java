@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.api.sampler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class PercentageSamplerTest {
+
+    @Test
+    public void testPercentage() {
+        Sampler sampler = PercentageSampler.withPercentage(30);
+
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (sampler.isSampled(null)) {
+                sampled++;
+            }
+        }
+        assertEquals(300, sampled);
+    }
+
+    @Test
+    public void testPercentageConcurrent() throws Exception {
+        Sampler sampler = PercentageSampler.withPercentage(25);
+        AtomicInteger sampled = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (sampler.isSampled(null)) {
+                        sampled.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        assertEquals(8 * 2500, sampled.get());
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.collector.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class provides a buffer for capturing message content, up to a maximum size.
+ * Content beyond the maximum size is discarded, and the buffer marked as truncated.
+ *
+ * The content is stored in fixed size chunks, obtained from a shared pool, so the
+ * buffer does not need to be copied as it grows, and the chunks can be reused for
+ * subsequent messages once the content has been retrieved.
+ *
+ * NOTE: This class is not thread safe.
+ *
+ * @author gbrown
+ */
+public class CaptureBuffer {
+
+    /** The size of each chunk */
+    protected static final int CHUNK_SIZE = 8192;
+
+    /** The maximum number of chunks retained in the pool */
+    private static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final Queue<byte[]> pool = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final int maxSize;
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private int size = 0;
+    private boolean truncated = false;
+
+    /**
+     * This constructor initialises the buffer with the maximum size.
+     *
+     * @param maxSize The maximum number of bytes to capture
+     */
+    public CaptureBuffer(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * This method writes the supplied data to the buffer. Any data beyond
+     * the maximum size is discarded.
+     *
+     * @param b The bytes
+     * @param offset The offset
+     * @param len The length
+     */
+    public void write(byte[] b, int offset, int len) {
+        if (len > maxSize - size) {
+            len = maxSize - size;
+            truncated = true;
+        }
+        while (len > 0) {
+            int pos = size % CHUNK_SIZE;
+            if (pos == 0) {
+                chunks.add(acquire());
+            }
+            int n = Math.min(len, CHUNK_SIZE - pos);
+            System.arraycopy(b, offset, chunks.get(chunks.size() - 1), pos, n);
+            offset += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    /**
+     * @return The number of bytes captured
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether content was discarded due to the maximum size
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * This method returns the captured content and releases the chunks
+     * back to the pool. The buffer must not be used after calling this method.
+     *
+     * @return The captured content
+     */
+    public byte[] toByteArray() {
+        byte[] ret = (size == 0 ? EMPTY : new byte[size]);
+        int offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            int n = Math.min(CHUNK_SIZE, size - offset);
+            System.arraycopy(chunks.get(i), 0, ret, offset, n);
+            offset += n;
+        }
+        release();
+        return ret;
+    }
+
+    /**
+     * This method releases the chunks back to the pool, discarding the content.
+     */
+    public void release() {
+        for (int i = 0; i < chunks.size(); i++) {
+            if (pooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+                pool.offer(chunks.get(i));
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+        chunks.clear();
+        size = 0;
+    }
+
+    private static byte[] acquire() {
+        byte[] chunk = pool.poll();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * @return The number of chunks currently available in the pool
+     */
+    protected static int getPooledChunks() {
+        return pooled.get();
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.collector.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.logging.Logger.Level;
+
+/**
+ * This class maintains the association between correlation ids and the fragment
+ * builders in which they were initiated. The number of correlations is bounded, and
+ * each correlation expires if not completed within a timeout, so that correlations
+ * that are never completed (e.g. due to lost asynchronous callbacks) do not retain
+ * their fragment builders indefinitely.
+ *
+ * Expiry is managed using a hashed timing wheel, so registering and removing a
+ * correlation does not require any ordering of the entries. The wheel is advanced
+ * by a daemon thread, started when the first correlation is registered. Entries that
+ * are removed or replaced before they expire are compacted out of the wheel once they
+ * outnumber the live correlations, so they are not retained until the timeout.
+ *
+ * @author gbrown
+ */
+public class CorrelationRegistry {
+
+    private static final Logger log = Logger.getLogger(CorrelationRegistry.class.getName());
+
+    /** The number of slots in the timing wheel */
+    private static final int WHEEL_SIZE = 64;
+
+    /** The number of ticks (slots) spanned by the timeout */
+    private static final int TIMEOUT_TICKS = WHEEL_SIZE / 2;
+
+    /** The minimum number of removed entries held in the wheel before it is compacted */
+    private static final int MIN_COMPACTION_THRESHOLD = 1024;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final int maxSize;
+    private final long timeout;
+    private final long tickDuration;
+    private final ExpiryHandler handler;
+
+    private final Queue<Entry>[] wheel;
+    private long lastTick;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicInteger staleCount = new AtomicInteger();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * This constructor initialises the registry.
+     *
+     * @param maxSize The maximum number of correlations, or 0 if unbounded
+     * @param timeout The time after which an uncompleted correlation expires, or 0 if
+     *                  correlations should not expire
+     * @param unit The time unit
+     * @param handler The handler notified when a correlation expires
+     */
+    @SuppressWarnings("unchecked")
+    public CorrelationRegistry(int maxSize, long timeout, TimeUnit unit, ExpiryHandler handler) {
+        this.maxSize = maxSize;
+        this.timeout = unit.toMillis(timeout);
+        this.tickDuration = Math.max(1, this.timeout / TIMEOUT_TICKS);
+        this.handler = handler;
+
+        if (this.timeout > 0) {
+            wheel = new Queue[WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new ConcurrentLinkedQueue<Entry>();
+            }
+            lastTick = System.currentTimeMillis() / tickDuration;
+        } else {
+            wheel = null;
+        }
+    }
+
+    /**
+     * This method registers the fragment builder associated with a correlation id.
+     *
+     * @param id The correlation id
+     * @param builder The fragment builder
+     * @return Whether the correlation was registered, or false if the maximum number
+     *              of correlations has been reached
+     */
+    public boolean put(String id, FragmentBuilder builder) {
+        if (maxSize > 0 && entries.size() >= maxSize && !entries.containsKey(id)) {
+            if (rejectedCount.incrementAndGet() == 1 || log.isLoggable(Level.FINEST)) {
+                log.warning("Maximum number of correlations (" + maxSize
+                        + ") reached, so not registering correlation id '" + id + "'");
+            }
+            return false;
+        }
+
+        Entry entry = new Entry(id, builder);
+        Entry replaced = entries.put(id, entry);
+
+        if (wheel != null) {
+            if (replaced != null) {
+                replaced.builder = null;
+                stale();
+            }
+
+            entry.deadline = System.currentTimeMillis() + timeout;
+
+            // Round up, so the entry will have expired when its slot is processed
+            long tick = (entry.deadline + tickDuration - 1) / tickDuration;
+            wheel[(int) (tick % WHEEL_SIZE)].offer(entry);
+
+            if (!started.get() && started.compareAndSet(false, true)) {
+                start();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method returns the fragment builder associated with the correlation id.
+     *
+     * @param id The correlation id
+     * @return The fragment builder, or null if not found
+     */
+    public FragmentBuilder get(String id) {
+        Entry entry = entries.get(id);
+        return (entry == null ? null : entry.builder);
+    }
+
+    /**
+     * This method determines whether the correlation id is registered.
+     *
+     * @param id The correlation id
+     * @return Whether the correlation id is registered
+     */
+    public boolean containsKey(String id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * This method removes the correlation id.
+     *
+     * @param id The correlation id
+     * @return The fragment builder that was associated with the correlation id, or null
+     */
+    public FragmentBuilder remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            FragmentBuilder builder = entry.builder;
+
+            // Release builder, as entry remains in the wheel until its slot is processed
+            // or the wheel is compacted
+            entry.builder = null;
+            if (wheel != null) {
+                stale();
+            }
+            return builder;
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of live correlations
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * This method records that an entry in the wheel is no longer associated with a
+     * live correlation, and compacts the wheel if such entries outnumber the live
+     * correlations.
+     */
+    private void stale() {
+        if (staleCount.incrementAndGet() > Math.max(MIN_COMPACTION_THRESHOLD, entries.size())
+                && compacting.compareAndSet(false, true)) {
+            try {
+                compact();
+            } finally {
+                compacting.set(false);
+            }
+        }
+    }
+
+    /**
+     * This method removes the entries that are no longer associated with a live
+     * correlation from the wheel.
+     */
+    protected void compact() {
+        int removed = 0;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            Iterator<Entry> iter = wheel[i].iterator();
+            while (iter.hasNext()) {
+                if (iter.next().builder == null) {
+                    iter.remove();
+                    removed++;
+                }
+            }
+        }
+        staleCount.addAndGet(-removed);
+
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Compacted correlation wheel: removed=" + removed + " live=" + entries.size());
+        }
+    }
+
+    /**
+     * @return The number of entries held in the timing wheel, including those no longer
+     *              associated with a live correlation
+     */
+    protected int getWheelSize() {
+        int ret = 0;
+        if (wheel != null) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                ret += wheel[i].size();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return The number of correlations that have expired
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return The number of correlations not registered due to the maximum size
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * This method starts the daemon thread that advances the timing wheel.
+     */
+    protected void start() {
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        }).scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expire(System.currentTimeMillis());
+                } catch (Throwable t) {
+                    log.log(Level.SEVERE, "Failed to expire correlations", t);
+                }
+            }
+        }, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method advances the timing wheel to the supplied time, expiring any
+     * correlations whose deadline has passed.
+     *
+     * @param now The current time (in milliseconds)
+     */
+    protected synchronized void expire(long now) {
+        if (wheel == null) {
+            return;
+        }
+
+        long currentTick = now / tickDuration;
+        long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+        List<Entry> pending = null;
+
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            Queue<Entry> slot = wheel[(int) (tick % WHEEL_SIZE)];
+
+            for (Entry entry = slot.poll(); entry != null; entry = slot.poll()) {
+                if (entry.builder == null) {
+                    // Removed or replaced, so no longer needs to be held
+                    staleCount.decrementAndGet();
+                    continue;
+                }
+                if (entry.deadline > now) {
+                    if (pending == null) {
+                        pending = new ArrayList<Entry>();
+                    }
+                    pending.add(entry);
+                    continue;
+                }
+
+                FragmentBuilder builder = entry.builder;
+
+                // Only expire if still registered, and not replaced by a later registration
+                if (builder != null && entries.remove(entry.id, entry)) {
+                    entry.builder = null;
+                    expiredCount.incrementAndGet();
+
+                    if (log.isLoggable(Level.FINE)) {
+                        log.fine("Correlation id '" + entry.id + "' expired: live="
+                                + entries.size() + " expired=" + expiredCount.get());
+                    }
+
+                    try {
+                        handler.expired(entry.id, builder);
+                    } catch (Throwable t) {
+                        log.log(Level.SEVERE, "Failed to handle expired correlation id '" + entry.id + "'", t);
+                    }
+                }
+            }
+
+            if (pending != null) {
+                slot.addAll(pending);
+                pending.clear();
+            }
+        }
+
+        if (currentTick > lastTick) {
+            lastTick = currentTick;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CorrelationRegistry [live=" + entries.size() + ", expired=" + expiredCount.get()
+                + ", rejected=" + rejectedCount.get() + ", ids=" + entries.keySet() + "]";
+    }
+
+    /**
+     * This interface is notified when a correlation expires.
+     */
+    public interface ExpiryHandler {
+
+        /**
+         * This method handles the expired correlation.
+         *
+         * @param id The correlation id
+         * @param builder The fragment builder associated with the correlation id
+         */
+        void expired(String id, FragmentBuilder builder);
+
+    }
+
+    /**
+     * This class represents a registered correlation.
+     */
+    private static final class Entry {
+
+        private final String id;
+        private volatile FragmentBuilder builder;
+        private long deadline;
+
+        private Entry(String id, FragmentBuilder builder) {
+            this.id = id;
+            this.builder = builder;
+        }
+    }
+
+}
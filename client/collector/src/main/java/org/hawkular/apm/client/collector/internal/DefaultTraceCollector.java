@@ -19,13 +19,13 @@ package org.hawkular.apm.client.collector.internal;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
+import org.hawkular.apm.api.model.Constants;
 import org.hawkular.apm.api.model.Property;
 import org.hawkular.apm.api.model.config.CollectorConfiguration;
 import org.hawkular.apm.api.model.config.Direction;
@@ -47,6 +47,7 @@ import org.hawkular.apm.api.services.ServiceResolver;
 import org.hawkular.apm.api.utils.EndpointUtil;
 import org.hawkular.apm.api.utils.PropertyUtil;
 import org.hawkular.apm.client.api.recorder.BatchTraceRecorder;
+import org.hawkular.apm.client.api.recorder.TailSamplingRecorder;
 import org.hawkular.apm.client.collector.SessionManager;
 import org.hawkular.apm.client.collector.TraceCollector;
 
@@ -60,6 +61,12 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
     /** The number of seconds to wait before trying again to retrieve the collector config */
     private static final int DEFAULT_CONFIG_RETRY_INTERVAL = 10;
 
+    private static final int DEFAULT_CORRELATION_TIMEOUT = 300;
+
+    private static final int DEFAULT_CORRELATION_MAXSIZE = 10000;
+
+    private static final int DEFAULT_TAILSAMPLING_HOLDTIME = 2000;
+
     private FragmentManager fragmentManager = new FragmentManager();
 
     private FilterManager filterManager;
@@ -70,7 +77,18 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
 
     private BatchTraceRecorder recorder;
 
-    private Map<String, FragmentBuilder> correlations = new ConcurrentHashMap<String, FragmentBuilder>();
+    private TailSamplingRecorder tailSampler = new TailSamplingRecorder(PropertyUtil.getPropertyAsInteger(
+            PropertyUtil.HAWKULAR_APM_COLLECTOR_TAILSAMPLING_HOLDTIME, DEFAULT_TAILSAMPLING_HOLDTIME));
+
+    private CorrelationRegistry correlations = new CorrelationRegistry(
+            PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_COLLECTOR_CORRELATION_MAXSIZE,
+                    DEFAULT_CORRELATION_MAXSIZE),
+            PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_COLLECTOR_CORRELATION_TIMEOUT,
+                    DEFAULT_CORRELATION_TIMEOUT),
+            TimeUnit.SECONDS, this::correlationExpired);
+
+    private boolean flushExpiredCorrelations =
+            PropertyUtil.getPropertyAsBoolean(PropertyUtil.HAWKULAR_APM_COLLECTOR_CORRELATION_FLUSH);
 
     private static final Level warningLogLevel = Level.WARNING;
 
@@ -95,6 +113,7 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
 
     public DefaultTraceCollector(BatchTraceRecorder batchTraceRecorder) {
         this.recorder = batchTraceRecorder;
+        this.tailSampler.setRecorder(batchTraceRecorder);
     }
 
     /**
@@ -124,6 +143,7 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
             configLastUpdated = System.currentTimeMillis();
 
             filterManager = new FilterManager(config);
+            tailSampler.setPolicies(config.getTransactions());
             try {
                 processorManager = new ProcessorManager(config);
             } catch (Throwable t) {
@@ -185,6 +205,7 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
 
                                 filterManager.remove(stringBusinessTxnConfigEntry.getKey());
                                 processorManager.remove(stringBusinessTxnConfigEntry.getKey());
+                                tailSampler.setPolicy(stringBusinessTxnConfigEntry.getKey(), null);
                             } else {
                                 if (log.isLoggable(Level.FINER)) {
                                     log.finer("Changed config for btxn '" + stringBusinessTxnConfigEntry.getKey() + "' = " + btc);
@@ -192,6 +213,7 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
 
                                 filterManager.init(stringBusinessTxnConfigEntry.getKey(), btc);
                                 processorManager.init(stringBusinessTxnConfigEntry.getKey(), btc);
+                                tailSampler.setPolicy(stringBusinessTxnConfigEntry.getKey(), btc.getTailSampling());
                             }
 
                             if (btc.getLastUpdated() > configLastUpdated) {
@@ -893,6 +915,10 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
      */
     protected void processInContent(String location, FragmentBuilder builder, int hashCode) {
         if (builder.isInBufferActive(hashCode)) {
+            if (builder.isInBufferTruncated(hashCode) && builder.getCurrentNode() != null) {
+                builder.getCurrentNode().getProperties().add(
+                        new Property(Constants.PROP_CONTENT_TRUNCATED, Direction.In.name()));
+            }
             processIn(location, null, builder.getInData(hashCode));
         } else if (log.isLoggable(Level.FINEST)) {
             log.finest("processInContent: location=[" + location + "] hashCode=" + hashCode
@@ -1001,6 +1027,10 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
      */
     protected void processOutContent(String location, FragmentBuilder builder, int hashCode) {
         if (builder.isOutBufferActive(hashCode)) {
+            if (builder.isOutBufferTruncated(hashCode) && builder.getCurrentNode() != null) {
+                builder.getCurrentNode().getProperties().add(
+                        new Property(Constants.PROP_CONTENT_TRUNCATED, Direction.Out.name()));
+            }
             processOut(location, null, builder.getOutData(hashCode));
         } else if (log.isLoggable(Level.FINEST)) {
             log.finest("processOutContent: location=[" + location + "] hashCode=" + hashCode
@@ -1151,35 +1181,8 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
     protected void checkForCompletion(FragmentBuilder builder, Node node) {
         // Check if completed
         if (builder.isComplete()) {
-            if (node != null) {
-                Trace trace = builder.getTrace();
-
-                if (builder.getLevel().ordinal() <= ReportingLevel.None.ordinal()) {
-                    if (log.isLoggable(Level.FINEST)) {
-                        log.finest("Not recording trace (level="
-                                + builder.getLevel() + "): " + trace);
-                    }
-                } else {
-                    if (trace != null && !trace.getNodes().isEmpty()) {
-                        if (log.isLoggable(Level.FINEST)) {
-                            log.finest("Record trace: " + trace);
-                        }
-
-                        // Check if first top level node is an internal consumer
-                        // and if so move subsequent top level nodes within its scope
-                        if (trace.getNodes().size() > 1
-                                && trace.getNodes().get(0).getClass() == Consumer.class
-                                && ((Consumer)trace.getNodes().get(0)).getEndpointType() == null) {
-                            Consumer consumer=(Consumer)trace.getNodes().get(0);
-                            while (trace.getNodes().size() > 1) {
-                                consumer.getNodes().add(trace.getNodes().get(1));
-                                trace.getNodes().remove(1);
-                            }
-                        }
-
-                        recorder.record(trace);
-                    }
-                }
+            if (node != null && builder.markRecorded()) {
+                recordTrace(builder, builder.getTrace());
             }
 
             fragmentManager.clear();
@@ -1193,6 +1196,73 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
         }
     }
 
+    /**
+     * This method records the trace associated with the supplied fragment builder,
+     * unless the reporting level indicates it should not be recorded.
+     *
+     * @param builder The fragment builder
+     * @param trace The trace, or a snapshot of it
+     */
+    protected void recordTrace(FragmentBuilder builder, Trace trace) {
+        if (builder.getLevel().ordinal() <= ReportingLevel.None.ordinal()) {
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Not recording trace (level="
+                        + builder.getLevel() + "): " + trace);
+            }
+        } else {
+            if (trace != null && !trace.getNodes().isEmpty()) {
+                if (log.isLoggable(Level.FINEST)) {
+                    log.finest("Record trace: " + trace);
+                }
+
+                // Check if first top level node is an internal consumer
+                // and if so move subsequent top level nodes within its scope
+                if (trace.getNodes().size() > 1
+                        && trace.getNodes().get(0).getClass() == Consumer.class
+                        && ((Consumer)trace.getNodes().get(0)).getEndpointType() == null) {
+                    Consumer consumer=(Consumer)trace.getNodes().get(0);
+                    while (trace.getNodes().size() > 1) {
+                        consumer.getNodes().add(trace.getNodes().get(1));
+                        trace.getNodes().remove(1);
+                    }
+                }
+
+                tailSampler.record(trace);
+            }
+        }
+    }
+
+    /**
+     * This method handles a correlation that has not been completed within the
+     * configured timeout. Once the fragment builder has no remaining uncompleted
+     * correlations, the partial trace is recorded if configured to do so, otherwise
+     * it is discarded. As the fragment may still be in progress on another thread,
+     * a snapshot of the trace is recorded, and the builder is marked as recorded so
+     * that its later completion does not record it again.
+     *
+     * @param id The correlation id
+     * @param builder The fragment builder
+     */
+    protected void correlationExpired(String id, FragmentBuilder builder) {
+        builder.removeUncompletedCorrelationId(id);
+
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Correlation id '" + id + "' expired, flush=" + flushExpiredCorrelations
+                    + " builder=" + builder);
+        }
+
+        if (flushExpiredCorrelations && builder.getUncompletedCorrelationIds().isEmpty()
+                && builder.markRecorded()) {
+            try {
+                recordTrace(builder, builder.getTraceSnapshot());
+            } catch (Throwable t) {
+                if (log.isLoggable(warningLogLevel)) {
+                    log.log(warningLogLevel, "Failed to record expired fragment", t);
+                }
+            }
+        }
+    }
+
     @Override
     public boolean activate(String uri, String  operation) {
         return activate(uri, operation, null);
@@ -1262,6 +1332,22 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
                     }
                 }
 
+                // If the recorder is close to its memory budget, then new traces
+                // are only propagated, not reported
+                if (filterProcessor != null && !active && recorder.isDegraded()) {
+                    if (builder == null) {
+                        builder = fragmentManager.getFragmentBuilder();
+                    }
+                    if (builder.getLevel() == ReportingLevel.All) {
+                        builder.setLevel(ReportingLevel.None);
+                        recorder.traceDegraded();
+
+                        if (log.isLoggable(Level.FINEST)) {
+                            log.finest("activate: Recorder degraded, so trace will not be reported");
+                        }
+                    }
+                }
+
                 if (log.isLoggable(Level.FINEST)) {
                     if (filterProcessor != null) {
                         log.finest("activate: Endpoint[" + endpoint + "] transaction name="
@@ -1402,7 +1488,9 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
                 // 'spawn' internal link was later to be created
                 builder.addUncompletedCorrelationId(id, currentNode, pos);
 
-                correlations.put(id, builder);
+                if (!correlations.put(id, builder)) {
+                    builder.removeUncompletedCorrelationId(id);
+                }
             }
         } catch (Throwable t) {
             if (log.isLoggable(warningLogLevel)) {
@@ -1691,6 +1779,26 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
         return fragmentManager;
     }
 
+    /**
+     * This method provides access to the correlation registry, which reports the
+     * number of live and expired correlations.
+     *
+     * @return The correlation registry
+     */
+    protected CorrelationRegistry getCorrelationRegistry() {
+        return correlations;
+    }
+
+    /**
+     * This method sets whether the partial trace associated with an expired
+     * correlation should be recorded.
+     *
+     * @param flush Whether to record the partial trace
+     */
+    protected void setFlushExpiredCorrelations(boolean flush) {
+        this.flushExpiredCorrelations = flush;
+    }
+
     /**
      * This method reports diagnostic information to the log.
      */
@@ -1699,7 +1807,7 @@ public class DefaultTraceCollector implements TraceCollector, SessionManager {
             log.finest(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>");
             log.finest("COLLECTOR DIAGNOSTICS:");
             fragmentManager.diagnostics();
-            log.finest("Correlation (" + correlations.size() + "): " + correlations);
+            log.finest("Correlation: " + correlations);
             log.finest("<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<");
         }
     }
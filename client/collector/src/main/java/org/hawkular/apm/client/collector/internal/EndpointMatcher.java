@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.collector.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class finds the first filter processor (in configuration order) whose inclusion
+ * filters match an endpoint.
+ *
+ * Inclusion filters are typically anchored regular expressions with a literal prefix
+ * (e.g. "^/orders/"), so the literal prefixes of all inclusion filters are compiled into
+ * a single prefix trie. Walking the trie along the endpoint identifies the (usually
+ * small) set of candidate processors, so only their regular expressions need to be
+ * evaluated. Processors with an inclusion filter that has no literal prefix are always
+ * candidates.
+ *
+ * @author gbrown
+ */
+public class EndpointMatcher {
+
+    private static final String META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    private final FilterProcessor[] processors;
+    private final int[] unindexed;
+    private final Node root;
+
+    /**
+     * This constructor initialises the matcher with the transaction filter processors.
+     *
+     * @param processors The filter processors, in the order they should be checked
+     */
+    public EndpointMatcher(List<FilterProcessor> processors) {
+        this.processors = processors.toArray(new FilterProcessor[processors.size()]);
+
+        Builder rootBuilder = new Builder();
+        int[] others = new int[this.processors.length];
+        int numOthers = 0;
+
+        for (int i = 0; i < this.processors.length; i++) {
+            List<String> inclusions = this.processors[i].getConfig().getFilter().getInclusions();
+            String[] prefixes = new String[inclusions.size()];
+            boolean indexed = true;
+            for (int j = 0; indexed && j < prefixes.length; j++) {
+                prefixes[j] = getLiteralPrefix(inclusions.get(j));
+                indexed = (prefixes[j] != null && !prefixes[j].isEmpty());
+            }
+            if (indexed) {
+                for (String prefix : prefixes) {
+                    rootBuilder.add(prefix, 0, i);
+                }
+            } else {
+                others[numOthers++] = i;
+            }
+        }
+
+        unindexed = Arrays.copyOf(others, numOthers);
+        root = rootBuilder.build();
+    }
+
+    /**
+     * This method returns the first filter processor with an inclusion filter
+     * that matches the supplied endpoint.
+     *
+     * @param endpoint The endpoint
+     * @return The filter processor, or null if no inclusion filter matches
+     */
+    public FilterProcessor match(String endpoint) {
+        int[] candidates = new int[unindexed.length + 8];
+        System.arraycopy(unindexed, 0, candidates, 0, unindexed.length);
+        int numCandidates = unindexed.length;
+
+        Node node = root;
+        for (int pos = 0; node != null; pos++) {
+            if (node.processors.length > 0) {
+                if (numCandidates + node.processors.length > candidates.length) {
+                    candidates = Arrays.copyOf(candidates, (numCandidates + node.processors.length) * 2);
+                }
+                System.arraycopy(node.processors, 0, candidates, numCandidates, node.processors.length);
+                numCandidates += node.processors.length;
+            }
+            node = (pos < endpoint.length() ? node.getChild(endpoint.charAt(pos)) : null);
+        }
+
+        // Evaluate the candidates in configuration order, skipping duplicates
+        Arrays.sort(candidates, 0, numCandidates);
+        for (int i = 0; i < numCandidates; i++) {
+            if ((i == 0 || candidates[i] != candidates[i - 1])
+                    && processors[candidates[i]].isIncluded(endpoint)) {
+                return processors[candidates[i]];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method returns the literal text that must appear at the start of any
+     * value matched by the supplied regular expression.
+     *
+     * @param regex The regular expression
+     * @return The literal prefix, or null if the expression is not anchored to the start
+     */
+    protected static String getLiteralPrefix(String regex) {
+        if (!regex.startsWith("^")) {
+            return null;
+        }
+
+        // Alternation may apply to the anchor, so cannot be safely indexed
+        for (int i = 0; i < regex.length(); i++) {
+            if (regex.charAt(i) == '\\') {
+                i++;
+            } else if (regex.charAt(i) == '|') {
+                return null;
+            }
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 1; i < regex.length(); i++) {
+            char ch = regex.charAt(i);
+            if (ch == '\\' && i + 1 < regex.length()
+                    && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                ch = regex.charAt(++i);
+            } else if (ch == '\\' || META_CHARACTERS.indexOf(ch) != -1) {
+                // Preceding character is optional if followed by quantifier
+                if ((ch == '?' || ch == '*' || ch == '{') && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(ch);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * This class represents an immutable node in the prefix trie.
+     */
+    private static final class Node {
+
+        private final char[] keys;
+        private final Node[] children;
+        private final int[] processors;
+
+        private Node(char[] keys, Node[] children, int[] processors) {
+            this.keys = keys;
+            this.children = children;
+            this.processors = processors;
+        }
+
+        private Node getChild(char ch) {
+            int index = Arrays.binarySearch(keys, ch);
+            return (index >= 0 ? children[index] : null);
+        }
+    }
+
+    /**
+     * This class is used to construct the prefix trie.
+     */
+    private static final class Builder {
+
+        private final Map<Character, Builder> children = new TreeMap<Character, Builder>();
+        private int[] processors = new int[0];
+
+        private void add(String prefix, int pos, int processor) {
+            if (pos == prefix.length()) {
+                processors = Arrays.copyOf(processors, processors.length + 1);
+                processors[processors.length - 1] = processor;
+            } else {
+                children.computeIfAbsent(prefix.charAt(pos), k -> new Builder()).add(prefix, pos + 1, processor);
+            }
+        }
+
+        private Node build() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i++] = entry.getValue().build();
+            }
+            return new Node(keys, nodes, processors);
+        }
+    }
+
+}
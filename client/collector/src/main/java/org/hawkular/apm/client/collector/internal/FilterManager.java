@@ -17,32 +17,52 @@
 package org.hawkular.apm.client.collector.internal;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
 import org.hawkular.apm.api.model.config.CollectorConfiguration;
 import org.hawkular.apm.api.model.config.txn.TransactionConfig;
+import org.hawkular.apm.api.utils.PropertyUtil;
 
 /**
  * This class manages the filtering of URIs.
  *
+ * The filters are only changed when the configuration is updated, whereas they
+ * are checked for every activated trace. Therefore the filter processors are
+ * published as an immutable snapshot, rebuilt on each configuration change, so
+ * that {@link #getFilterProcessor(String)} does not need to acquire a lock.
+ *
+ * Each snapshot also compiles the transaction inclusion filters into an
+ * {@link EndpointMatcher}, and memoises the result for recently checked endpoints,
+ * so that the cost of activation does not grow with the number of transactions.
+ *
  * @author gbrown
  */
 public class FilterManager {
 
     private static final Logger log = Logger.getLogger(FilterManager.class.getName());
 
-    private Map<String, FilterProcessor> filterMap = new HashMap<String, FilterProcessor>();
-    private List<FilterProcessor> globalExclusionFilters = new ArrayList<FilterProcessor>();
-    private List<FilterProcessor> btxnFilters = new ArrayList<FilterProcessor>();
+    private Map<String, FilterProcessor> filterMap = new LinkedHashMap<String, FilterProcessor>();
 
-    private boolean onlyNamedTransactions = false;
+    private volatile Filters filters = Filters.EMPTY;
+
+    private volatile boolean onlyNamedTransactions = false;
 
     private static final FilterProcessor unnamedBTxn = new FilterProcessor();
 
+    /* Memoised result for an excluded endpoint */
+    private static final FilterProcessor excluded = new FilterProcessor();
+
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
     /**
      * This constructor initialises the filter manager with the configuration.
      *
@@ -58,6 +78,9 @@ public class FilterManager {
      * @param config The configuration
      */
     protected void init(CollectorConfiguration config) {
+        cacheSize = Integer.parseInt(config.getProperty(PropertyUtil.HAWKULAR_APM_COLLECTOR_FILTERCACHESIZE,
+                Integer.toString(DEFAULT_CACHE_SIZE)));
+
         for (String btxn : config.getTransactions().keySet()) {
             TransactionConfig btc = config.getTransactions().get(btxn);
             init(btxn, btc);
@@ -82,24 +105,14 @@ public class FilterManager {
         }
 
         synchronized (filterMap) {
-            // Check if old filter processor needs to be removed
-            FilterProcessor oldfp = filterMap.get(txn);
-            if (oldfp != null) {
-                globalExclusionFilters.remove(oldfp);
-                btxnFilters.remove(oldfp);
-            }
+            // Remove any old filter processor, so that the replacement is ordered last
+            filterMap.remove(txn);
 
             if (fp != null) {
-                // Add new filter processor
                 filterMap.put(txn, fp);
-                if (fp.isIncludeAll()) {
-                    globalExclusionFilters.add(fp);
-                } else {
-                    btxnFilters.add(fp);
-                }
-            } else {
-                filterMap.remove(txn);
             }
+
+            filters = new Filters(filterMap.values(), cacheSize);
         }
     }
 
@@ -110,11 +123,8 @@ public class FilterManager {
      */
     public void remove(String txn) {
         synchronized (filterMap) {
-            // Check if old filter processor needs to be removed
-            FilterProcessor oldfp = filterMap.get(txn);
-            if (oldfp != null) {
-                globalExclusionFilters.remove(oldfp);
-                btxnFilters.remove(oldfp);
+            if (filterMap.remove(txn) != null) {
+                filters = new Filters(filterMap.values(), cacheSize);
             }
         }
     }
@@ -129,84 +139,165 @@ public class FilterManager {
      *                  or null if endpoint should be excluded
      */
     public FilterProcessor getFilterProcessor(String endpoint) {
-        FilterProcessor ret = (onlyNamedTransactions ? null : unnamedBTxn);
+        // Use the same snapshot for all checks
+        Filters current = filters;
 
-        synchronized (filterMap) {
-            // First check if a global exclusion filter applies
-            for (int i = 0; i < globalExclusionFilters.size(); i++) {
-                if (globalExclusionFilters.get(i).isExcluded(endpoint)) {
-                    if (log.isLoggable(Level.FINEST)) {
-                        log.finest("Excluding endpoint=" + endpoint);
-                    }
-                    return null;
+        FilterProcessor ret = current.cache.get(endpoint);
+        if (ret == null) {
+            ret = findFilterProcessor(current, endpoint);
+            current.cache.put(endpoint, ret);
+        }
+
+        if (ret == excluded) {
+            return null;
+        } else if (ret == unnamedBTxn && onlyNamedTransactions) {
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * This method finds the filter processor for the supplied endpoint.
+     *
+     * @param current The filters
+     * @param endpoint The endpoint
+     * @return The filter processor, unnamed processor if endpoint globally valid,
+     *                  or excluded processor if endpoint should be excluded
+     */
+    private static FilterProcessor findFilterProcessor(Filters current, String endpoint) {
+        // First check if a global exclusion filter applies
+        FilterProcessor[] globalExclusionFilters = current.globalExclusionFilters;
+        for (int i = 0; i < globalExclusionFilters.length; i++) {
+            if (globalExclusionFilters[i].isExcluded(endpoint)) {
+                if (log.isLoggable(Level.FINEST)) {
+                    log.finest("Excluding endpoint=" + endpoint);
                 }
+                return excluded;
             }
+        }
 
-            // Check if transaction specific applies
-            for (int i = 0; i < btxnFilters.size(); i++) {
-                if (btxnFilters.get(i).isIncluded(endpoint)) {
-                    if (log.isLoggable(Level.FINEST)) {
-                        log.finest("Endpoint has passed inclusion filter: endpoint=" + endpoint);
-                    }
-                    if (btxnFilters.get(i).isExcluded(endpoint)) {
-                        if (log.isLoggable(Level.FINEST)) {
-                            log.finest("Endpoint has failed exclusion filter: endpoint=" + endpoint);
-                        }
-                        return null;
-                    }
-                    ret = btxnFilters.get(i);
+        // Check if transaction specific applies
+        FilterProcessor fp = current.matcher.match(endpoint);
+        if (fp == null) {
+            return unnamedBTxn;
+        }
 
-                    if (log.isLoggable(Level.FINEST)) {
-                        log.finest("Endpoint belongs to transaction '" + ret + ": endpoint=" + endpoint);
-                    }
-                    break;
-                }
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Endpoint has passed inclusion filter: endpoint=" + endpoint);
+        }
+        if (fp.isExcluded(endpoint)) {
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Endpoint has failed exclusion filter: endpoint=" + endpoint);
             }
+            return excluded;
         }
 
-        return ret;
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Endpoint belongs to transaction '" + fp + ": endpoint=" + endpoint);
+        }
+        return fp;
     }
 
     /**
      * @return the filterMap
      */
     protected Map<String, FilterProcessor> getFilterMap() {
-        return filterMap;
-    }
-
-    /**
-     * @param filterMap the filterMap to set
-     */
-    protected void setFilterMap(Map<String, FilterProcessor> filterMap) {
-        this.filterMap = filterMap;
+        synchronized (filterMap) {
+            return Collections.unmodifiableMap(new LinkedHashMap<String, FilterProcessor>(filterMap));
+        }
     }
 
     /**
      * @return the globalExclusionFilters
      */
     protected List<FilterProcessor> getGlobalExclusionFilters() {
-        return globalExclusionFilters;
+        return Collections.unmodifiableList(Arrays.asList(filters.globalExclusionFilters));
     }
 
     /**
-     * @param globalExclusionFilters the globalExclusionFilters to set
+     * @return the btxnFilters
      */
-    protected void setGlobalExclusionFilters(List<FilterProcessor> globalExclusionFilters) {
-        this.globalExclusionFilters = globalExclusionFilters;
+    protected List<FilterProcessor> getBtxnFilters() {
+        return Collections.unmodifiableList(Arrays.asList(filters.btxnFilters));
     }
 
     /**
-     * @return the btxnFilters
+     * This class represents an immutable snapshot of the global exclusion and
+     * transaction specific filters, with a cache of the results for recently
+     * checked endpoints.
      */
-    protected List<FilterProcessor> getBtxnFilters() {
-        return btxnFilters;
+    private static final class Filters {
+
+        private static final Filters EMPTY = new Filters(Collections.<FilterProcessor> emptyList(), 0);
+
+        private final FilterProcessor[] globalExclusionFilters;
+        private final FilterProcessor[] btxnFilters;
+        private final EndpointMatcher matcher;
+        private final EndpointCache cache;
+
+        private Filters(Iterable<FilterProcessor> processors, int cacheSize) {
+            List<FilterProcessor> exclusions = new ArrayList<FilterProcessor>();
+            List<FilterProcessor> inclusions = new ArrayList<FilterProcessor>();
+            for (FilterProcessor fp : processors) {
+                if (fp.isIncludeAll()) {
+                    exclusions.add(fp);
+                } else {
+                    inclusions.add(fp);
+                }
+            }
+            globalExclusionFilters = exclusions.toArray(new FilterProcessor[exclusions.size()]);
+            btxnFilters = inclusions.toArray(new FilterProcessor[inclusions.size()]);
+            matcher = new EndpointMatcher(inclusions);
+            cache = new EndpointCache(cacheSize);
+        }
     }
 
     /**
-     * @param btxnFilters the btxnFilters to set
+     * This class provides a bounded cache of endpoint to filter processor. To avoid
+     * locking on lookup, the least recently used entries are approximated using two
+     * generations. New entries are added to the current generation, and entries found
+     * in the previous generation are copied to the current generation. When the current
+     * generation is full, it replaces the previous generation, discarding any entries
+     * that have not been used in the meantime.
      */
-    protected void setBtxnFilters(List<FilterProcessor> btxnFilters) {
-        this.btxnFilters = btxnFilters;
+    private static final class EndpointCache {
+
+        private final int generationSize;
+        private volatile Map<String, FilterProcessor> current;
+        private volatile Map<String, FilterProcessor> previous;
+
+        private EndpointCache(int maxSize) {
+            generationSize = (maxSize > 0 ? Math.max(1, maxSize / 2) : 0);
+            current = new ConcurrentHashMap<String, FilterProcessor>();
+            previous = Collections.emptyMap();
+        }
+
+        private FilterProcessor get(String endpoint) {
+            FilterProcessor fp = current.get(endpoint);
+            if (fp == null) {
+                fp = previous.get(endpoint);
+                if (fp != null) {
+                    put(endpoint, fp);
+                }
+            }
+            return fp;
+        }
+
+        private void put(String endpoint, FilterProcessor fp) {
+            if (generationSize == 0) {
+                return;
+            }
+            Map<String, FilterProcessor> map = current;
+            map.put(endpoint, fp);
+            if (map.size() > generationSize) {
+                synchronized (this) {
+                    if (current == map) {
+                        previous = map;
+                        current = new ConcurrentHashMap<String, FilterProcessor>();
+                    }
+                }
+            }
+        }
     }
 
 }
@@ -16,16 +16,18 @@
  */
 package org.hawkular.apm.client.collector.internal;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hawkular.apm.api.logging.Logger;
@@ -36,33 +38,59 @@ import org.hawkular.apm.api.model.trace.Node;
 import org.hawkular.apm.api.model.trace.Trace;
 import org.hawkular.apm.api.utils.NodeUtil;
 import org.hawkular.apm.api.utils.PropertyUtil;
+import org.hawkular.apm.api.utils.WireFormat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
 
 /**
  * This class represents the builder for a trace fragment. NOTE: This
  * class is not thread safe as the sequence of events within a thread of execution
  * should be in sequence, and therefore should not result in any concurrent conflicts.
  *
+ * The node stacks are only locked once the builder is shared with a thread other than
+ * the one that created it (e.g. when associated with another thread through the
+ * {@link FragmentManager}, or when a fragment is spawned from it). Until then, the owning
+ * thread accesses the stacks without locking.
+ *
  * @author gbrown
  */
 public class FragmentBuilder {
 
     private static final Logger log = Logger.getLogger(FragmentBuilder.class.getName());
 
+    private static final int DEFAULT_CONTENT_MAXSIZE = 1024 * 1024;
+
+    private static final int contentMaxSize = PropertyUtil.getPropertyAsInteger(
+            PropertyUtil.HAWKULAR_APM_COLLECTOR_CONTENT_MAXSIZE, DEFAULT_CONTENT_MAXSIZE);
+
     private Trace trace;
 
     private long baseNanoseconds;
 
-    private Stack<Node> nodeStack = new Stack<Node>();
+    private Deque<Node> nodeStack = new ArrayDeque<Node>();
 
-    private Stack<Node> poppedNodes = new Stack<Node>();
+    private Deque<Node> poppedNodes = new ArrayDeque<Node>();
 
-    private Stack<Node> suppressedNodeStack = new Stack<Node>();
+    private Deque<Node> suppressedNodeStack = new ArrayDeque<Node>();
+
+    private final Thread owner = Thread.currentThread();
+
+    /* Set (permanently) once another thread has accessed the builder */
+    private volatile boolean shared = false;
+
+    /* Set while the owner thread is accessing the node stacks without locking */
+    private final AtomicBoolean ownerActive = new AtomicBoolean();
 
     private Map<String, Node> retainedNodes = new HashMap<String, Node>();
 
     private List<Node> ignoredNodes = new ArrayList<Node>();
 
-    private Map<String,NodePlaceholder> uncompletedCorrelationIdsNodeMap = new HashMap<String,NodePlaceholder>();
+    /* Concurrent, as correlations may be expired by the correlation registry's thread */
+    private Map<String,NodePlaceholder> uncompletedCorrelationIdsNodeMap =
+            new ConcurrentHashMap<String,NodePlaceholder>();
+
+    /* Set once the trace has been recorded, whether on completion or when flushed */
+    private final AtomicBoolean recorded = new AtomicBoolean();
 
     private Map<String,StateInformation> stateInformation = new HashMap<String,StateInformation>();
 
@@ -71,9 +99,9 @@ public class FragmentBuilder {
     private ReportingLevel level = ReportingLevel.All;
 
     private int inHashCode = 0;
-    private ByteArrayOutputStream inStream = null;
+    private CaptureBuffer inStream = null;
     private int outHashCode = 0;
-    private ByteArrayOutputStream outStream = null;
+    private CaptureBuffer outStream = null;
 
     private AtomicInteger threadCount = new AtomicInteger();
 
@@ -93,6 +121,14 @@ public class FragmentBuilder {
      * @return Whether the fragment is complete
      */
     public boolean isComplete() {
+        if (enterUnlocked()) {
+            try {
+                return nodeStack.isEmpty() && retainedNodes.isEmpty();
+            } finally {
+                exitUnlocked();
+            }
+        }
+        enterShared();
         synchronized (nodeStack) {
             return nodeStack.isEmpty() && retainedNodes.isEmpty();
         }
@@ -106,23 +142,35 @@ public class FragmentBuilder {
      *              ignored nodes
      */
     public boolean isCompleteExceptIgnoredNodes() {
+        if (enterUnlocked()) {
+            try {
+                return doIsCompleteExceptIgnoredNodes();
+            } finally {
+                exitUnlocked();
+            }
+        }
+        enterShared();
         synchronized (nodeStack) {
-            if (nodeStack.isEmpty() && retainedNodes.isEmpty()) {
-                return true;
-            } else {
-                // Check that remaining nodes can be ignored
-                for (int i=0; i < nodeStack.size(); i++) {
-                    if (!ignoredNodes.contains(nodeStack.get(i))) {
-                        return false;
-                    }
+            return doIsCompleteExceptIgnoredNodes();
+        }
+    }
+
+    private boolean doIsCompleteExceptIgnoredNodes() {
+        if (nodeStack.isEmpty() && retainedNodes.isEmpty()) {
+            return true;
+        } else {
+            // Check that remaining nodes can be ignored
+            for (Node node : nodeStack) {
+                if (!ignoredNodes.contains(node)) {
+                    return false;
                 }
-                for (int i=0; i < retainedNodes.size(); i++) {
-                    if (!ignoredNodes.contains(retainedNodes.get(i))) {
-                        return false;
-                    }
+            }
+            for (int i=0; i < retainedNodes.size(); i++) {
+                if (!ignoredNodes.contains(retainedNodes.get(i))) {
+                    return false;
                 }
-                return true;
             }
+            return true;
         }
     }
 
@@ -133,6 +181,34 @@ public class FragmentBuilder {
         return trace;
     }
 
+    /**
+     * This method returns a copy of the trace, taken while the node stacks are
+     * locked, so that the fragment can be recorded while still being built by
+     * another thread.
+     *
+     * @return The copy of the trace
+     * @throws Exception Failed to copy the trace
+     */
+    public Trace getTraceSnapshot() throws Exception {
+        enterShared();
+        synchronized (nodeStack) {
+            return WireFormat.Json.deserialize(WireFormat.Json.serialize(trace),
+                    new TypeReference<Trace>() {
+                    });
+        }
+    }
+
+    /**
+     * This method marks the trace as recorded, so that it is recorded at most
+     * once, regardless of whether this happens when the fragment completes or
+     * when its last uncompleted correlation expires.
+     *
+     * @return Whether the trace had not already been recorded
+     */
+    public boolean markRecorded() {
+        return recorded.compareAndSet(false, true);
+    }
+
     /**
      * @return the level
      */
@@ -154,25 +230,83 @@ public class FragmentBuilder {
      * @return The current node
      */
     public Node getCurrentNode() {
+        if (enterUnlocked()) {
+            try {
+                return nodeStack.peekLast();
+            } finally {
+                exitUnlocked();
+            }
+        }
+        enterShared();
         synchronized (nodeStack) {
-            return (nodeStack.isEmpty() ? null : nodeStack.peek());
+            return nodeStack.peekLast();
         }
     }
 
     /**
      * @return the nodeStack
      */
-    protected Stack<Node> getNodeStack() {
+    protected Deque<Node> getNodeStack() {
         return nodeStack;
     }
 
     /**
      * @return the poppedNodes
      */
-    protected Stack<Node> getPoppedNodes() {
+    protected Deque<Node> getPoppedNodes() {
         return poppedNodes;
     }
 
+    /**
+     * @return Whether the node stacks are locked, as the builder has been shared
+     *          with another thread
+     */
+    protected boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * This method determines whether the calling thread can access the node stacks
+     * without locking, i.e. it is the owner thread and the builder has not been shared.
+     * If true is returned, {@link #exitUnlocked()} must be called once the access
+     * has completed.
+     *
+     * @return Whether the node stacks can be accessed without locking
+     */
+    private boolean enterUnlocked() {
+        if (!shared && Thread.currentThread() == owner) {
+            ownerActive.set(true);
+
+            // Re-check, as another thread may have shared the builder concurrently
+            if (!shared) {
+                return true;
+            }
+            ownerActive.lazySet(false);
+        }
+        return false;
+    }
+
+    private void exitUnlocked() {
+        ownerActive.lazySet(false);
+    }
+
+    /**
+     * This method switches the builder to shared (locked) mode, waiting for any
+     * unlocked access by the owner thread to complete.
+     */
+    private void enterShared() {
+        if (!shared) {
+            shared = true;
+
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Fragment builder shared with thread: " + Thread.currentThread());
+            }
+        }
+        while (ownerActive.get()) {
+            Thread.yield();
+        }
+    }
+
     /**
      * This method returns the latest node of the specified type,
      * either on the stack, or on the 'popped' nodes.
@@ -182,27 +316,35 @@ public class FragmentBuilder {
      * @return The node, or null if not found
      */
     public Node getLatestNode(String nodeType, boolean onStack) {
-        Node node = null;
-
+        if (enterUnlocked()) {
+            try {
+                return doGetLatestNode(nodeType, onStack);
+            } finally {
+                exitUnlocked();
+            }
+        }
+        enterShared();
         synchronized (nodeStack) {
-            Stack<Node> stack = (onStack ? nodeStack : poppedNodes);
+            return doGetLatestNode(nodeType, onStack);
+        }
+    }
 
-            for (int i = 0; node == null && i < stack.size(); i++) {
-                Node n = stack.elementAt(i);
+    private Node doGetLatestNode(String nodeType, boolean onStack) {
+        Deque<Node> stack = (onStack ? nodeStack : poppedNodes);
 
-                if (log.isLoggable(Level.FINEST)) {
-                    log.finest("Get latest node: checking node type '" + nodeType
-                            + "' against '" + n.getClass().getSimpleName()
-                            + "' with node=" + n);
-                }
+        for (Node n : stack) {
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Get latest node: checking node type '" + nodeType
+                        + "' against '" + n.getClass().getSimpleName()
+                        + "' with node=" + n);
+            }
 
-                if (n.getClass().getSimpleName().equals(nodeType)) {
-                    node = n;
-                }
+            if (n.getClass().getSimpleName().equals(nodeType)) {
+                return n;
             }
         }
 
-        return node;
+        return null;
     }
 
     protected long currentTimeMicros() {
@@ -237,38 +379,53 @@ public class FragmentBuilder {
         initNode(node);
 
         // Reset in stream
-        inStream = null;
+        if (inStream != null) {
+            inStream.release();
+            inStream = null;
+        }
 
-        synchronized (nodeStack) {
+        if (enterUnlocked()) {
+            try {
+                doPushNode(node);
+            } finally {
+                exitUnlocked();
+            }
+        } else {
+            enterShared();
+            synchronized (nodeStack) {
+                doPushNode(node);
+            }
+        }
+    }
+
+    private void doPushNode(Node node) {
+        // Clear popped stack
+        poppedNodes.clear();
 
-            // Clear popped stack
-            poppedNodes.clear();
+        // Check if fragment is in suppression mode
+        if (suppress) {
+            suppressedNodeStack.addLast(node);
+            return;
+        }
 
-            // Check if fragment is in suppression mode
-            if (suppress) {
-                suppressedNodeStack.push(node);
-                return;
+        if (nodeStack.isEmpty()) {
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Pushing top level node: " + node + " for txn: " + trace);
             }
+            trace.getNodes().add(node);
+        } else {
+            Node parent = nodeStack.peekLast();
 
-            if (nodeStack.isEmpty()) {
+            if (parent instanceof ContainerNode) {
                 if (log.isLoggable(Level.FINEST)) {
-                    log.finest("Pushing top level node: " + node + " for txn: " + trace);
+                    log.finest("Add node: " + node + " to parent: " + parent + " in txn: " + trace);
                 }
-                trace.getNodes().add(node);
+                ((ContainerNode) parent).getNodes().add(node);
             } else {
-                Node parent = nodeStack.peek();
-
-                if (parent instanceof ContainerNode) {
-                    if (log.isLoggable(Level.FINEST)) {
-                        log.finest("Add node: " + node + " to parent: " + parent + " in txn: " + trace);
-                    }
-                    ((ContainerNode) parent).getNodes().add(node);
-                } else {
-                    log.severe("Attempt to add node '" + node + "' under non-container node '" + parent + "'");
-                }
+                log.severe("Attempt to add node '" + node + "' under non-container node '" + parent + "'");
             }
-            nodeStack.push(node);
         }
+        nodeStack.addLast(node);
     }
 
     /**
@@ -280,26 +437,37 @@ public class FragmentBuilder {
      * @return The node
      */
     public Node popNode(Class<? extends Node> cls, String uri) {
-
+        if (enterUnlocked()) {
+            try {
+                return doPopNode(cls, uri);
+            } finally {
+                exitUnlocked();
+            }
+        }
+        enterShared();
         synchronized (nodeStack) {
-            // Check if fragment is in suppression mode
-            if (suppress) {
-                if (!suppressedNodeStack.isEmpty()) {
-
-                    // Check if node is on the suppressed stack
-                    Node suppressed = popNode(suppressedNodeStack, cls, uri);
-                    if (suppressed != null) {
-                        // Popped node from suppressed stack
-                        return suppressed;
-                    }
-                } else {
-                    // If suppression parent popped, then cancel the suppress mode
-                    suppress = false;
+            return doPopNode(cls, uri);
+        }
+    }
+
+    private Node doPopNode(Class<? extends Node> cls, String uri) {
+        // Check if fragment is in suppression mode
+        if (suppress) {
+            if (!suppressedNodeStack.isEmpty()) {
+
+                // Check if node is on the suppressed stack
+                Node suppressed = popNode(suppressedNodeStack, cls, uri);
+                if (suppressed != null) {
+                    // Popped node from suppressed stack
+                    return suppressed;
                 }
+            } else {
+                // If suppression parent popped, then cancel the suppress mode
+                suppress = false;
             }
-
-            return popNode(nodeStack, cls, uri);
         }
+
+        return popNode(nodeStack, cls, uri);
     }
 
     /**
@@ -312,21 +480,24 @@ public class FragmentBuilder {
      * @param uri The optional uri to match
      * @return The node, or null if no suitable candidate is found
      */
-    protected Node popNode(Stack<Node> stack, Class<? extends Node> cls, String uri) {
-        Node top = stack.isEmpty() ? null : stack.peek();
+    protected Node popNode(Deque<Node> stack, Class<? extends Node> cls, String uri) {
+        Node top = stack.peekLast();
 
         if (top != null) {
             if (nodeMatches(top, cls, uri)) {
-                Node node = stack.pop();
-                poppedNodes.push(node);
+                Node node = stack.pollLast();
+                poppedNodes.addLast(node);
                 return node;
             } else {
-                // Scan for potential match, from -2 so don't repeat
-                // check of top node
-                for (int i = stack.size() - 2; i >= 0; i--) {
-                    if (nodeMatches(stack.get(i), cls, uri)) {
-                        Node node = stack.remove(i);
-                        poppedNodes.push(node);
+                // Scan for potential match, skipping the top node
+                // so don't repeat check
+                Iterator<Node> iter = stack.descendingIterator();
+                iter.next();
+                while (iter.hasNext()) {
+                    Node node = iter.next();
+                    if (nodeMatches(node, cls, uri)) {
+                        iter.remove();
+                        poppedNodes.addLast(node);
                         return node;
                     }
                 }
@@ -483,8 +654,11 @@ public class FragmentBuilder {
      * @param hashCode The hash code
      */
     public void initInBuffer(int hashCode) {
+        if (inStream != null) {
+            inStream.release();
+        }
         inHashCode = hashCode;
-        inStream = new ByteArrayOutputStream();
+        inStream = new CaptureBuffer(contentMaxSize);
     }
 
     /**
@@ -511,6 +685,17 @@ public class FragmentBuilder {
         }
     }
 
+    /**
+     * This method determines whether data written to the in buffer has been
+     * discarded, due to exceeding the maximum content size.
+     *
+     * @param hashCode The hash code, or -1 to ignore the hash code
+     * @return Whether the data has been truncated
+     */
+    public boolean isInBufferTruncated(int hashCode) {
+        return inStream != null && (hashCode == -1 || hashCode == inHashCode) && inStream.isTruncated();
+    }
+
     /**
      * This method returns the data associated with the in
      * buffer and resets the buffer to be inactive.
@@ -520,11 +705,6 @@ public class FragmentBuilder {
      */
     public byte[] getInData(int hashCode) {
         if (inStream != null && (hashCode == -1 || hashCode == inHashCode)) {
-            try {
-                inStream.close();
-            } catch (IOException e) {
-                log.severe("Failed to close in data stream: " + e);
-            }
             byte[] b = inStream.toByteArray();
             inStream = null;
             return b;
@@ -538,8 +718,11 @@ public class FragmentBuilder {
      * @param hashCode The hash code
      */
     public void initOutBuffer(int hashCode) {
+        if (outStream != null) {
+            outStream.release();
+        }
         outHashCode = hashCode;
-        outStream = new ByteArrayOutputStream();
+        outStream = new CaptureBuffer(contentMaxSize);
     }
 
     /**
@@ -566,6 +749,17 @@ public class FragmentBuilder {
         }
     }
 
+    /**
+     * This method determines whether data written to the out buffer has been
+     * discarded, due to exceeding the maximum content size.
+     *
+     * @param hashCode The hash code, or -1 to ignore the hash code
+     * @return Whether the data has been truncated
+     */
+    public boolean isOutBufferTruncated(int hashCode) {
+        return outStream != null && (hashCode == -1 || hashCode == outHashCode) && outStream.isTruncated();
+    }
+
     /**
      * This method returns the data associated with the out
      * buffer and resets the buffer to be inactive.
@@ -575,11 +769,6 @@ public class FragmentBuilder {
      */
     public byte[] getOutData(int hashCode) {
         if (outStream != null && (hashCode == -1 || hashCode == outHashCode)) {
-            try {
-                outStream.close();
-            } catch (IOException e) {
-                log.severe("Failed to close out data stream: " + e);
-            }
             byte[] b = outStream.toByteArray();
             outStream = null;
             return b;
@@ -633,6 +822,10 @@ public class FragmentBuilder {
      * @return The incremented thread count
      */
     protected int incrementThreadCount() {
+        if (Thread.currentThread() != owner) {
+            // Associated with a second thread, so switch to locked access
+            shared = true;
+        }
         return threadCount.incrementAndGet();
     }
 
@@ -659,17 +852,30 @@ public class FragmentBuilder {
         info.append(uncompletedCorrelationIdsNodeMap);
         info.append(" stack=\r\n");
 
-        synchronized (nodeStack) {
-            for (Node node : nodeStack) {
-                info.append("         node: ");
-                info.append(node);
-                info.append("\r\n");
+        if (enterUnlocked()) {
+            try {
+                appendNodeStack(info);
+            } finally {
+                exitUnlocked();
+            }
+        } else {
+            enterShared();
+            synchronized (nodeStack) {
+                appendNodeStack(info);
             }
         }
 
         return (info.toString());
     }
 
+    private void appendNodeStack(StringBuilder info) {
+        for (Node node : nodeStack) {
+            info.append("         node: ");
+            info.append(node);
+            info.append("\r\n");
+        }
+    }
+
     /**
      * This class provides information about a placeholder for
      * adding a child node to an existing parent.
@@ -17,6 +17,8 @@
 package org.hawkular.apm.client.collector.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +30,7 @@ import org.hawkular.apm.api.internal.actions.ExpressionHandler;
 import org.hawkular.apm.api.internal.actions.ExpressionHandlerFactory;
 import org.hawkular.apm.api.internal.actions.ProcessorActionHandler;
 import org.hawkular.apm.api.internal.actions.ProcessorActionHandlerFactory;
+import org.hawkular.apm.api.internal.actions.helpers.JSON;
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
 import org.hawkular.apm.api.model.Constants;
@@ -38,11 +41,18 @@ import org.hawkular.apm.api.model.config.txn.Processor;
 import org.hawkular.apm.api.model.config.txn.ProcessorAction;
 import org.hawkular.apm.api.model.config.txn.TransactionConfig;
 import org.hawkular.apm.api.model.trace.Node;
+import org.hawkular.apm.api.model.trace.NodeType;
 import org.hawkular.apm.api.model.trace.Trace;
 
 /**
  * This class manages the processors.
  *
+ * The processors are checked for the in and out message of every node, whereas they are
+ * only changed when the configuration is updated. Therefore the processors applicable
+ * to each transaction, node type and direction are published as immutable dispatch tables,
+ * rebuilt on each configuration change, so that they can be found without locking or
+ * checking each processor.
+ *
  * @author gbrown
  */
 public class ProcessorManager {
@@ -51,6 +61,8 @@ public class ProcessorManager {
 
     private Map<String, List<ProcessorWrapper>> processors = new HashMap<String, List<ProcessorWrapper>>();
 
+    private volatile Map<String, DispatchTable> dispatchTables = Collections.emptyMap();
+
     /**
      * This constructor initialises the processor manager with the configuration.
      *
@@ -94,11 +106,10 @@ public class ProcessorManager {
 
             synchronized (processors) {
                 processors.put(txn, procs);
+                buildDispatchTables();
             }
         } else {
-            synchronized (processors) {
-                processors.remove(txn);
-            }
+            remove(txn);
         }
     }
 
@@ -109,10 +120,43 @@ public class ProcessorManager {
      */
     public void remove(String txn) {
         synchronized (processors) {
-            processors.remove(txn);
+            if (processors.remove(txn) != null) {
+                buildDispatchTables();
+            }
         }
     }
 
+    /**
+     * This method rebuilds the dispatch tables from the current processors. It must
+     * be called while holding the lock on the processors.
+     */
+    private void buildDispatchTables() {
+        Map<String, DispatchTable> tables = new HashMap<String, DispatchTable>();
+        for (Map.Entry<String, List<ProcessorWrapper>> entry : processors.entrySet()) {
+            tables.put(entry.getKey(), new DispatchTable(entry.getValue()));
+        }
+        dispatchTables = tables;
+    }
+
+    /**
+     * This method returns the processors applicable to the supplied trace, node
+     * and direction.
+     *
+     * @param trace The trace
+     * @param node The node
+     * @param direction The direction
+     * @return The applicable processors, or null if none
+     */
+    private Dispatch getDispatch(Trace trace, Node node, Direction direction) {
+        if (trace.getTransaction() != null) {
+            DispatchTable table = dispatchTables.get(trace.getTransaction());
+            if (table != null) {
+                return table.get(node.getType(), direction);
+            }
+        }
+        return null;
+    }
+
     /**
      * This method determines whether the trace, for the supplied node
      * and in/out direction, will process available information.
@@ -125,17 +169,11 @@ public class ProcessorManager {
     public boolean isProcessed(Trace trace, Node node, Direction direction) {
         boolean ret = false;
 
-        if (trace.getTransaction() != null) {
-            List<ProcessorWrapper> procs = null;
-
-            synchronized (processors) {
-                procs = processors.get(trace.getTransaction());
-            }
+        Dispatch dispatch = getDispatch(trace, node, direction);
 
-            if (procs != null) {
-                for (int i = 0; !ret && i < procs.size(); i++) {
-                    ret = procs.get(i).isProcessed(trace, node, direction);
-                }
+        if (dispatch != null) {
+            for (int i = 0; !ret && i < dispatch.processors.length; i++) {
+                ret = dispatch.processors[i].isUriMatched(node.getUri());
             }
         }
 
@@ -159,18 +197,12 @@ public class ProcessorManager {
     public boolean isContentProcessed(Trace trace, Node node, Direction direction) {
         boolean ret = false;
 
-        if (trace.getTransaction() != null) {
-            List<ProcessorWrapper> procs = null;
-
-            synchronized (processors) {
-                procs = processors.get(trace.getTransaction());
-            }
+        Dispatch dispatch = getDispatch(trace, node, direction);
 
-            if (procs != null) {
-                for (int i = 0; !ret && i < procs.size(); i++) {
-                    ret = procs.get(i).isProcessed(trace, node, direction)
-                            && procs.get(i).usesContent();
-                }
+        if (dispatch != null && dispatch.usesContent) {
+            for (int i = 0; !ret && i < dispatch.processors.length; i++) {
+                ret = dispatch.processors[i].usesContent()
+                        && dispatch.processors[i].isUriMatched(node.getUri());
             }
         }
 
@@ -201,21 +233,22 @@ public class ProcessorManager {
                     + " : available processors=" + processors);
         }
 
-        if (trace.getTransaction() != null) {
-            List<ProcessorWrapper> procs = null;
-
-            synchronized (processors) {
-                procs = processors.get(trace.getTransaction());
-            }
+        Dispatch dispatch = getDispatch(trace, node, direction);
 
+        if (dispatch != null) {
             if (log.isLoggable(Level.FINEST)) {
-                log.finest("ProcessManager: trace name=" + trace.getTransaction() + " processors=" + procs);
+                log.finest("ProcessManager: trace name=" + trace.getTransaction() + " processors="
+                        + Arrays.toString(dispatch.processors));
             }
 
-            if (procs != null) {
-                for (int i = 0; i < procs.size(); i++) {
-                    procs.get(i).process(trace, node, direction, headers, values);
+            // Parse JSON values once for all expressions evaluated against this message
+            JSON.beginScope();
+            try {
+                for (int i = 0; i < dispatch.processors.length; i++) {
+                    dispatch.processors[i].process(trace, node, direction, headers, values);
                 }
+            } finally {
+                JSON.endScope();
             }
         }
     }
@@ -224,14 +257,60 @@ public class ProcessorManager {
      * @return the processors
      */
     protected Map<String, List<ProcessorWrapper>> getProcessors() {
-        return processors;
+        synchronized (processors) {
+            return Collections.unmodifiableMap(new HashMap<String, List<ProcessorWrapper>>(processors));
+        }
+    }
+
+    /**
+     * This class represents the immutable dispatch table for a transaction, providing
+     * the processors applicable to each node type and direction.
+     */
+    private static final class DispatchTable {
+
+        private static final int NUM_DIRECTIONS = Direction.values().length;
+
+        private final Dispatch[] dispatches = new Dispatch[NodeType.values().length * NUM_DIRECTIONS];
+
+        private DispatchTable(List<ProcessorWrapper> procs) {
+            for (NodeType nodeType : NodeType.values()) {
+                for (Direction direction : Direction.values()) {
+                    List<ProcessorWrapper> applicable = new ArrayList<ProcessorWrapper>();
+                    for (int i = 0; i < procs.size(); i++) {
+                        if (procs.get(i).getProcessor().getNodeType() == nodeType
+                                && procs.get(i).getProcessor().getDirection() == direction) {
+                            applicable.add(procs.get(i));
+                        }
+                    }
+                    if (!applicable.isEmpty()) {
+                        dispatches[nodeType.ordinal() * NUM_DIRECTIONS + direction.ordinal()] =
+                                new Dispatch(applicable);
+                    }
+                }
+            }
+        }
+
+        private Dispatch get(NodeType nodeType, Direction direction) {
+            if (nodeType == null || direction == null) {
+                return null;
+            }
+            return dispatches[nodeType.ordinal() * NUM_DIRECTIONS + direction.ordinal()];
+        }
     }
 
     /**
-     * @param processors the processors to set
+     * This class represents the processors applicable to a particular transaction,
+     * node type and direction, with whether any of them use content.
      */
-    protected void setProcessors(Map<String, List<ProcessorWrapper>> processors) {
-        this.processors = processors;
+    private static final class Dispatch {
+
+        private final ProcessorWrapper[] processors;
+        private final boolean usesContent;
+
+        private Dispatch(List<ProcessorWrapper> applicable) {
+            processors = applicable.toArray(new ProcessorWrapper[applicable.size()]);
+            usesContent = applicable.stream().anyMatch(ProcessorWrapper::usesContent);
+        }
     }
 
     /**
@@ -350,13 +429,7 @@ public class ProcessorManager {
 
             if (processor.getNodeType() == node.getType()
                     && processor.getDirection() == direction) {
-
-                // If URI filter regex expression defined, then verify whether
-                // node URI matches
-                if (uriFilter == null
-                        || uriFilter.test(node.getUri())) {
-                    ret = true;
-                }
+                ret = isUriMatched(node.getUri());
             }
 
             if (log.isLoggable(Level.FINEST)) {
@@ -367,6 +440,17 @@ public class ProcessorManager {
             return ret;
         }
 
+        /**
+         * This method checks whether the supplied URI matches the URI filter,
+         * if defined.
+         *
+         * @param uri The URI
+         * @return Whether the URI matches
+         */
+        protected boolean isUriMatched(String uri) {
+            return uriFilter == null || uriFilter.test(uri);
+        }
+
         /**
          * This method processes the supplied information to extract the relevant
          * details.
@@ -396,8 +480,7 @@ public class ProcessorManager {
 
                 // If URI filter regex expression defined, then verify whether
                 // node URI matches
-                if (uriFilter != null
-                        && !uriFilter.test(node.getUri())) {
+                if (!isUriMatched(node.getUri())) {
                     return;
                 }
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.collector.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class CaptureBufferTest {
+
+    @Test
+    public void testWriteAcrossChunks() {
+        byte[] data = new byte[CaptureBuffer.CHUNK_SIZE * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        CaptureBuffer buffer = new CaptureBuffer(data.length);
+        buffer.write(data, 0, 10);
+        buffer.write(data, 10, data.length - 10);
+
+        assertEquals(data.length, buffer.size());
+        assertFalse(buffer.isTruncated());
+        assertArrayEquals(data, buffer.toByteArray());
+    }
+
+    @Test
+    public void testTruncated() {
+        CaptureBuffer buffer = new CaptureBuffer(8);
+        buffer.write("Hello ".getBytes(), 0, 6);
+        buffer.write("World".getBytes(), 0, 5);
+
+        assertTrue(buffer.isTruncated());
+        assertEquals("Hello Wo", new String(buffer.toByteArray()));
+    }
+
+    @Test
+    public void testChunksReused() {
+        byte[] data = new byte[CaptureBuffer.CHUNK_SIZE * 3];
+        Arrays.fill(data, (byte) 1);
+
+        CaptureBuffer buffer = new CaptureBuffer(data.length);
+        buffer.write(data, 0, data.length);
+        buffer.toByteArray();
+
+        int pooled = CaptureBuffer.getPooledChunks();
+        assertTrue(pooled >= 3);
+
+        CaptureBuffer other = new CaptureBuffer(data.length);
+        other.write(data, 0, data.length);
+        assertEquals(pooled - 3, CaptureBuffer.getPooledChunks());
+        other.release();
+        assertEquals(pooled, CaptureBuffer.getPooledChunks());
+    }
+}
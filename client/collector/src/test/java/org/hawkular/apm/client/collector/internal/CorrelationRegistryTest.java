@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.collector.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class CorrelationRegistryTest {
+
+    @Test
+    public void testPutGetRemove() {
+        CorrelationRegistry registry = new CorrelationRegistry(0, 0, TimeUnit.SECONDS, (id, builder) -> { });
+        FragmentBuilder builder = new FragmentBuilder();
+
+        assertTrue(registry.put("c1", builder));
+        assertTrue(registry.containsKey("c1"));
+        assertSame(builder, registry.get("c1"));
+        assertEquals(1, registry.size());
+
+        assertSame(builder, registry.remove("c1"));
+        assertFalse(registry.containsKey("c1"));
+        assertNull(registry.remove("c1"));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testMaxSize() {
+        CorrelationRegistry registry = new CorrelationRegistry(2, 0, TimeUnit.SECONDS, (id, builder) -> { });
+        FragmentBuilder builder = new FragmentBuilder();
+
+        assertTrue(registry.put("c1", builder));
+        assertTrue(registry.put("c2", builder));
+        assertFalse(registry.put("c3", builder));
+
+        // Replacing an existing correlation is permitted
+        assertTrue(registry.put("c2", builder));
+
+        assertFalse(registry.containsKey("c3"));
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getRejectedCount());
+    }
+
+    @Test
+    public void testExpire() {
+        Map<String, FragmentBuilder> expired = new HashMap<String, FragmentBuilder>();
+        CorrelationRegistry registry = new CorrelationRegistry(0, 10, TimeUnit.SECONDS, expired::put);
+        FragmentBuilder builder1 = new FragmentBuilder();
+        FragmentBuilder builder2 = new FragmentBuilder();
+
+        long now = System.currentTimeMillis();
+        registry.put("c1", builder1);
+        registry.put("c2", builder2);
+        registry.put("c3", builder2);
+        registry.remove("c3");
+
+        // Not yet expired
+        registry.expire(now + 5000);
+        assertEquals(2, registry.size());
+        assertTrue(expired.isEmpty());
+
+        registry.expire(now + 11000);
+        assertEquals(0, registry.size());
+        assertEquals(2, registry.getExpiredCount());
+        assertEquals(2, expired.size());
+        assertSame(builder1, expired.get("c1"));
+        assertSame(builder2, expired.get("c2"));
+    }
+
+    @Test
+    public void testExpireReplaced() {
+        Map<String, FragmentBuilder> expired = new HashMap<String, FragmentBuilder>();
+        CorrelationRegistry registry = new CorrelationRegistry(0, 10, TimeUnit.SECONDS, expired::put);
+        FragmentBuilder builder1 = new FragmentBuilder();
+        FragmentBuilder builder2 = new FragmentBuilder();
+
+        long now = System.currentTimeMillis();
+        registry.put("c1", builder1);
+        registry.put("c1", builder2);
+
+        registry.expire(now + 11000);
+
+        // Only the replacement registration is expired
+        assertEquals(1, registry.getExpiredCount());
+        assertSame(builder2, expired.get("c1"));
+    }
+
+    @Test
+    public void testRemovedEntriesCompacted() {
+        CorrelationRegistry registry = new CorrelationRegistry(0, 10, TimeUnit.SECONDS, (id, builder) -> { });
+        FragmentBuilder builder = new FragmentBuilder();
+
+        registry.put("live", builder);
+
+        for (int i = 0; i < 100000; i++) {
+            registry.put("c" + i, builder);
+            registry.put("c" + i, builder);
+            assertSame(builder, registry.remove("c" + i));
+        }
+
+        assertEquals(1, registry.size());
+        assertTrue("Wheel size should be bounded: " + registry.getWheelSize(), registry.getWheelSize() <= 2048);
+        assertSame(builder, registry.get("live"));
+    }
+
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -27,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.apm.api.model.Constants;
 import org.hawkular.apm.api.model.config.CollectorConfiguration;
@@ -46,6 +48,7 @@ import org.hawkular.apm.api.services.ConfigurationService;
 import org.hawkular.apm.api.services.PublisherMetricHandler;
 import org.hawkular.apm.api.services.TracePublisher;
 import org.hawkular.apm.client.api.recorder.BatchTraceRecorder;
+import org.hawkular.apm.client.api.recorder.OverflowPolicy;
 import org.hawkular.apm.tests.common.Wait;
 import org.junit.Test;
 
@@ -300,6 +303,40 @@ public class DefaultTraceCollectorTest {
         assertEquals(0, traces.size());
     }
 
+    @Test
+    public void testReportingLevelNoneWhenRecorderDegraded() {
+        TestTraceService traceService = new TestTraceService();
+        BatchTraceRecorder recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(traceService)
+                .withMemoryBudget(1)
+                .withOverflowPolicy(OverflowPolicy.Degrade)
+                .build();
+        DefaultTraceCollector collector = new DefaultTraceCollector(recorder);
+
+        TestConfigurationService tcs = new TestConfigurationService();
+
+        CollectorConfiguration cc = new CollectorConfiguration();
+        tcs.setCollectorConfiguration(cc);
+
+        TransactionConfig btc = new TransactionConfig();
+        btc.setFilter(new Filter());
+        btc.getFilter().getInclusions().add("/test");
+        cc.getTransactions().put("testapp", btc);
+
+        collector.setConfigurationService(tcs);
+
+        assertTrue(collector.activate("/test", null));
+        assertEquals(ReportingLevel.None.name(), collector.getLevel());
+
+        collector.consumerStart(null, "/test", null, null, null);
+
+        collector.consumerEnd(null, null, null, null);
+
+        assertEquals(1, recorder.getDegradedTraces());
+        assertEquals(0, recorder.getInFlightBytes());
+        assertEquals(0, traceService.getTraces().size());
+    }
+
     @Test
     public void testReportingWithOpLevelNoneByFilter() {
         TestTraceService traceService = new TestTraceService();
@@ -834,6 +871,100 @@ public class DefaultTraceCollectorTest {
         assertEquals(TXN_NAME, spawnedTrace.getTransaction());
     }
 
+    @Test
+    public void testExpiredCorrelationFlushed() {
+        TestTraceService traceService = new TestTraceService();
+        DefaultTraceCollector collector = new DefaultTraceCollector(
+                new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                    .withTracePublisher(traceService)
+                    .build());
+
+        collector.setConfigurationService(new TestConfigurationService());
+        collector.setFlushExpiredCorrelations(true);
+
+        collector.consumerStart(null, URI, TYPE, OP, null);
+        collector.initiateCorrelation("c1");
+
+        // Thread completes without the correlation being completed
+        collector.getFragmentManager().clear();
+
+        assertTrue(collector.isCorrelated("c1"));
+
+        collector.getCorrelationRegistry().expire(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+
+        assertFalse(collector.isCorrelated("c1"));
+        assertEquals(0, collector.getCorrelationRegistry().size());
+        assertEquals(1, collector.getCorrelationRegistry().getExpiredCount());
+
+        Wait.until(() -> traceService.getTraces().size() == 1);
+
+        assertEquals(1, traceService.getTraces().size());
+        assertEquals(URI, traceService.getTraces().get(0).getNodes().get(0).getUri());
+    }
+
+    @Test
+    public void testExpiredCorrelationFlushedThenCompleted() {
+        TestTraceService traceService = new TestTraceService();
+        DefaultTraceCollector collector = new DefaultTraceCollector(
+                new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                    .withTracePublisher(traceService)
+                    .withBatchTime(100)
+                    .build());
+
+        collector.setConfigurationService(new TestConfigurationService());
+        collector.setFlushExpiredCorrelations(true);
+
+        collector.consumerStart(null, URI, TYPE, OP, null);
+        collector.initiateCorrelation("c1");
+
+        // Correlation expires while the fragment is still in progress
+        collector.getCorrelationRegistry().expire(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+
+        Wait.until(() -> traceService.getTraces().size() == 1);
+
+        collector.consumerEnd(null, URI, TYPE, OP);
+
+        assertFalse(collector.getFragmentManager().hasFragmentBuilder());
+
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            fail("Interrupted");
+        }
+
+        assertEquals(1, traceService.getTraces().size());
+        assertEquals(URI, traceService.getTraces().get(0).getNodes().get(0).getUri());
+    }
+
+    @Test
+    public void testExpiredCorrelationDiscarded() {
+        TestTraceService traceService = new TestTraceService();
+        DefaultTraceCollector collector = new DefaultTraceCollector(
+                new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                    .withTracePublisher(traceService)
+                    .withBatchTime(100)
+                    .build());
+
+        collector.setConfigurationService(new TestConfigurationService());
+
+        collector.consumerStart(null, URI, TYPE, OP, null);
+        collector.initiateCorrelation("c1");
+        collector.getFragmentManager().clear();
+
+        collector.getCorrelationRegistry().expire(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+
+        assertFalse(collector.isCorrelated("c1"));
+        assertEquals(1, collector.getCorrelationRegistry().getExpiredCount());
+
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            fail("Interrupted");
+        }
+
+        assertTrue(traceService.getTraces().isEmpty());
+    }
+
     @Test
     public void testSpawnFragmentSameTraceId() {
         DefaultTraceCollector collector = new DefaultTraceCollector();
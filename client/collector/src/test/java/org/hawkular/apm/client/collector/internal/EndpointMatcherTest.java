@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.collector.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.apm.api.model.config.txn.Filter;
+import org.hawkular.apm.api.model.config.txn.TransactionConfig;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class EndpointMatcherTest {
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("/orders/", EndpointMatcher.getLiteralPrefix("^/orders/"));
+        assertEquals("/orders/", EndpointMatcher.getLiteralPrefix("^/orders/\\d+$"));
+        assertEquals("/orders", EndpointMatcher.getLiteralPrefix("^/orders.*"));
+        assertEquals("/order", EndpointMatcher.getLiteralPrefix("^/orders?"));
+        assertEquals("/my-service.v1", EndpointMatcher.getLiteralPrefix("^/my-service\\.v1"));
+        assertEquals("", EndpointMatcher.getLiteralPrefix("^[a-z]+"));
+        assertNull(EndpointMatcher.getLiteralPrefix("/orders"));
+        assertNull(EndpointMatcher.getLiteralPrefix("^/orders|/customers"));
+    }
+
+    @Test
+    public void testMatchInConfigurationOrder() {
+        List<FilterProcessor> processors = new ArrayList<FilterProcessor>();
+        processors.add(createProcessor("general", "^/orders"));
+        processors.add(createProcessor("specific", "^/orders/1"));
+        processors.add(createProcessor("any", "[0-9]$"));
+        processors.add(createProcessor("customers", "^/customers/", "^/clients/"));
+
+        EndpointMatcher matcher = new EndpointMatcher(processors);
+
+        assertEquals("general", matcher.match("/orders/1").getTransaction());
+        assertEquals("any", matcher.match("/products/1").getTransaction());
+        assertEquals("customers", matcher.match("/clients/fred").getTransaction());
+        assertEquals("customers", matcher.match("/customers/fred").getTransaction());
+        assertNull(matcher.match("/products"));
+        assertNull(matcher.match(""));
+    }
+
+    protected static FilterProcessor createProcessor(String txn, String... inclusions) {
+        TransactionConfig btc = new TransactionConfig();
+        btc.setFilter(new Filter());
+        for (String inclusion : inclusions) {
+            btc.getFilter().getInclusions().add(inclusion);
+        }
+        return new FilterProcessor(txn, btc);
+    }
+}
@@ -17,6 +17,7 @@
 package org.hawkular.apm.client.collector.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -144,6 +145,100 @@ public class FilterManagerTest {
         assertNull(fm.getFilterProcessor("notrecognised"));
     }
 
+    @Test
+    public void testRemoveTransaction() {
+        CollectorConfiguration config = new CollectorConfiguration();
+        TransactionConfig btc1 = new TransactionConfig();
+        config.getTransactions().put("btc1", btc1);
+
+        Filter f1 = new Filter();
+        btc1.setFilter(f1);
+        f1.getInclusions().add("include");
+
+        FilterManager fm = new FilterManager(config);
+
+        assertEquals("btc1", fm.getFilterProcessor("include").getTransaction());
+
+        fm.remove("btc1");
+
+        assertNull(fm.getFilterProcessor("include").getTransaction());
+        assertFalse(fm.getFilterMap().containsKey("btc1"));
+        assertTrue(fm.getBtxnFilters().isEmpty());
+    }
+
+    @Test
+    public void testReplaceTransaction() {
+        CollectorConfiguration config = new CollectorConfiguration();
+        TransactionConfig btc1 = new TransactionConfig();
+        config.getTransactions().put("btc1", btc1);
+
+        Filter f1 = new Filter();
+        btc1.setFilter(f1);
+        f1.getInclusions().add("include");
+
+        FilterManager fm = new FilterManager(config);
+
+        // Replace with a global exclusion filter
+        TransactionConfig btc2 = new TransactionConfig();
+        Filter f2 = new Filter();
+        btc2.setFilter(f2);
+        f2.getExclusions().add("exclude");
+        fm.init("btc1", btc2);
+
+        assertEquals(1, fm.getGlobalExclusionFilters().size());
+        assertTrue(fm.getBtxnFilters().isEmpty());
+        assertNull(fm.getFilterProcessor("exclude"));
+        assertNull(fm.getFilterProcessor("include").getTransaction());
+    }
+
+    @Test
+    public void testCachedResultReplaced() {
+        CollectorConfiguration config = new CollectorConfiguration();
+        TransactionConfig btc1 = new TransactionConfig();
+        config.getTransactions().put("btc1", btc1);
+
+        Filter f1 = new Filter();
+        btc1.setFilter(f1);
+        f1.getInclusions().add("^/orders/");
+
+        FilterManager fm = new FilterManager(config);
+
+        assertEquals("btc1", fm.getFilterProcessor("/orders/1").getTransaction());
+        assertEquals("btc1", fm.getFilterProcessor("/orders/1").getTransaction());
+
+        TransactionConfig btc2 = new TransactionConfig();
+        Filter f2 = new Filter();
+        btc2.setFilter(f2);
+        f2.getInclusions().add("^/orders/");
+        f2.getExclusions().add("/1$");
+        fm.init("btc1", btc2);
+
+        assertNull(fm.getFilterProcessor("/orders/1"));
+        assertEquals("btc1", fm.getFilterProcessor("/orders/2").getTransaction());
+    }
+
+    @Test
+    public void testTransactionOrderWithoutCache() {
+        CollectorConfiguration config = new CollectorConfiguration();
+        config.getProperties().put("HAWKULAR_APM_COLLECTOR_FILTERCACHESIZE", "0");
+
+        FilterManager fm = new FilterManager(config);
+
+        // Transactions are checked in the order they are defined
+        for (String[] txn : new String[][] { { "unanchored", "/details$" }, { "specific", "^/orders/\\d+" },
+                { "general", "^/orders" } }) {
+            TransactionConfig btc = new TransactionConfig();
+            btc.setFilter(new Filter());
+            btc.getFilter().getInclusions().add(txn[1]);
+            fm.init(txn[0], btc);
+        }
+
+        assertEquals("unanchored", fm.getFilterProcessor("/orders/1/details").getTransaction());
+        assertEquals("specific", fm.getFilterProcessor("/orders/1").getTransaction());
+        assertEquals("general", fm.getFilterProcessor("/orders/list").getTransaction());
+        assertNull(fm.getFilterProcessor("/customers").getTransaction());
+    }
+
     public void testInit() {
         CollectorConfiguration config = new CollectorConfiguration();
         TransactionConfig btc1 = new TransactionConfig();
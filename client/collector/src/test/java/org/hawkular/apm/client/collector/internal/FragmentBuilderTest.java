@@ -452,6 +452,21 @@ public class FragmentBuilderTest {
         assertFalse(builder.isOutBufferActive(1));
     }
 
+    @Test
+    public void testWriteInDataTruncated() {
+        FragmentBuilder builder = new FragmentBuilder();
+        builder.initInBuffer(1);
+
+        byte[] data = new byte[1024];
+        for (int i = 0; i <= 1024; i++) {
+            builder.writeInData(1, data, 0, data.length);
+        }
+
+        assertTrue(builder.isInBufferTruncated(1));
+        assertEquals(1024 * 1024, builder.getInData(1).length);
+        assertFalse(builder.isInBufferTruncated(1));
+    }
+
     @Test
     public void testWriteInDataIgnoreHashcode() {
         FragmentBuilder builder = new FragmentBuilder();
@@ -486,4 +501,42 @@ public class FragmentBuilderTest {
         assertFalse(builder.isOutBufferActive(1));
     }
 
+    @Test
+    public void testSharedWhenAccessedByOtherThread() throws Exception {
+        FragmentBuilder builder = new FragmentBuilder();
+        Component c1 = new Component();
+        builder.pushNode(c1);
+
+        assertFalse(builder.isShared());
+
+        Thread other = new Thread(() -> {
+            builder.pushNode(new Consumer());
+            builder.popNode(Consumer.class, null);
+        });
+        other.start();
+        other.join();
+
+        assertTrue(builder.isShared());
+        assertEquals(c1, builder.getCurrentNode());
+        assertEquals(1, c1.getNodes().size());
+
+        builder.popNode(Component.class, null);
+        assertTrue(builder.isComplete());
+    }
+
+    @Test
+    public void testSharedWhenAssociatedWithOtherThread() throws Exception {
+        FragmentManager fm = new FragmentManager();
+        FragmentBuilder builder = fm.getFragmentBuilder();
+
+        assertFalse(builder.isShared());
+
+        Thread other = new Thread(() -> fm.setFragmentBuilder(builder));
+        other.start();
+        other.join();
+
+        assertTrue(builder.isShared());
+        assertEquals(2, builder.getThreadCount());
+    }
+
 }
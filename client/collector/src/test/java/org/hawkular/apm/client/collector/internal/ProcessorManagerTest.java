@@ -1132,4 +1132,51 @@ public class ProcessorManagerTest {
         assertEquals(p2, pm.getProcessors().get("testapp").get(0).getProcessor());
     }
 
+    @Test
+    public void testDispatchByNodeTypeAndDirection() {
+        CollectorConfiguration cc = new CollectorConfiguration();
+
+        TransactionConfig btc = new TransactionConfig();
+        cc.getTransactions().put("testapp", btc);
+
+        Processor p1 = new Processor();
+        p1.setNodeType(NodeType.Component);
+        p1.setDirection(Direction.Out);
+        p1.setUriFilter("^/included");
+        btc.getProcessors().add(p1);
+
+        SetPropertyAction pa1 = new SetPropertyAction();
+        pa1.setName("test");
+        TextExpression expr = new TextExpression();
+        expr.setSource(DataSource.Content);
+        expr.setKey("0");
+        pa1.setExpression(expr);
+        p1.getActions().add(pa1);
+
+        ProcessorManager pm = new ProcessorManager(cc);
+
+        Trace trace = new Trace();
+        trace.setTransaction("testapp");
+        Component included = new Component();
+        included.setUri("/included");
+        Component excluded = new Component();
+        excluded.setUri("/excluded");
+        Consumer consumer = new Consumer();
+        consumer.setUri("/included");
+
+        assertTrue(pm.isProcessed(trace, included, Direction.Out));
+        assertTrue(pm.isContentProcessed(trace, included, Direction.Out));
+        assertFalse(pm.isProcessed(trace, included, Direction.In));
+        assertFalse(pm.isProcessed(trace, excluded, Direction.Out));
+        assertFalse(pm.isProcessed(trace, consumer, Direction.Out));
+
+        pm.remove("testapp");
+
+        assertFalse(pm.isProcessed(trace, included, Direction.Out));
+
+        pm.process(trace, included, Direction.Out, null, "value");
+
+        assertFalse(included.hasProperty("test"));
+    }
+
 }
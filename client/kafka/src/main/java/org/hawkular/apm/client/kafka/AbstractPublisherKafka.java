@@ -18,20 +18,32 @@ package org.hawkular.apm.client.kafka;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.hawkular.apm.api.logging.Logger;
+import org.hawkular.apm.api.logging.Logger.Level;
 import org.hawkular.apm.api.services.Publisher;
 import org.hawkular.apm.api.services.PublisherMetricHandler;
 import org.hawkular.apm.api.services.ServiceStatus;
 import org.hawkular.apm.api.utils.PropertyUtil;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hawkular.apm.api.utils.WireFormat;
 
 /**
- * This class represents an abstract Kafka producer.
+ * This class represents an abstract Kafka producer. Records are serialized using the
+ * wire format defined by the HAWKULAR_APM_KAFKA_PRODUCER_FORMAT property (JSON by default),
+ * which consumers of the topic must be configured to use.
+ *
+ * Unless disabled using the HAWKULAR_APM_KAFKA_PRODUCER_KEYED property, records are keyed
+ * (see {@link #getKey(Object)}) so that related items are delivered to the same partition.
+ * Delayed publication is handled by a scheduler, rather than blocking the calling thread.
  *
  * @author gbrown
  *
@@ -39,14 +51,24 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public abstract class AbstractPublisherKafka<T> implements Publisher<T>, ServiceStatus {
 
-    private static ObjectMapper mapper = new ObjectMapper();
+    private static final Logger log = Logger.getLogger(AbstractPublisherKafka.class.getName());
+
+    private static final WireFormat format = WireFormat.fromProperty(
+            PropertyUtil.HAWKULAR_APM_KAFKA_PRODUCER_FORMAT, WireFormat.Json);
 
-    private Producer<String, String> producer;
+    private static final String DEFAULT_COMPRESSION = "gzip";
+
+    private Producer<String, byte[]> producer;
 
     private String topic;
 
     private PublisherMetricHandler<T> handler = null;
 
+    private boolean keyed = Boolean.parseBoolean(
+            PropertyUtil.getProperty(PropertyUtil.HAWKULAR_APM_KAFKA_PRODUCER_KEYED, "true"));
+
+    private volatile ScheduledExecutorService scheduler;
+
     /**
      * This constructor initialises the topic.
      *
@@ -59,6 +81,17 @@ public abstract class AbstractPublisherKafka<T> implements Publisher<T>, Service
         }
     }
 
+    /**
+     * This constructor initialises the topic and producer.
+     *
+     * @param topic The topic
+     * @param producer The producer
+     */
+    protected AbstractPublisherKafka(String topic, Producer<String, byte[]> producer) {
+        this.topic = topic;
+        this.producer = producer;
+    }
+
     @Override
     public boolean isAvailable() {
         String uri = PropertyUtil.getProperty(PropertyUtil.HAWKULAR_APM_URI_PUBLISHER,
@@ -79,12 +112,40 @@ public abstract class AbstractPublisherKafka<T> implements Publisher<T>, Service
         props.put("batch.size", 16384);
         props.put("linger.ms", 1);
         props.put("buffer.memory", 33554432);
+        props.put("compression.type", PropertyUtil.getProperty(PropertyUtil.HAWKULAR_APM_KAFKA_PRODUCER_COMPRESSION,
+                DEFAULT_COMPRESSION));
         props.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        props.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        props.put("value.serializer", "org.apache.kafka.common.serialization.ByteArraySerializer");
 
         producer = new KafkaProducer<>(props);
     }
 
+    /**
+     * This method returns the key to be used for the record associated with the
+     * supplied item. By default no key is used, in which case records are
+     * distributed across the topic's partitions.
+     *
+     * @param item The item
+     * @return The key, or null if no key
+     */
+    protected String getKey(T item) {
+        return null;
+    }
+
+    /**
+     * @return Whether records are keyed
+     */
+    public boolean isKeyed() {
+        return keyed;
+    }
+
+    /**
+     * @param keyed Whether records are keyed
+     */
+    public void setKeyed(boolean keyed) {
+        this.keyed = keyed;
+    }
+
     @Override
     public int getInitialRetryCount() {
         return 0;
@@ -97,34 +158,62 @@ public abstract class AbstractPublisherKafka<T> implements Publisher<T>, Service
 
     @Override
     public void publish(String tenantId, List<T> items, int retryCount, long delay) throws Exception {
-        // Check if delay is required
-        // TODO: May need to check if delay is excessive and schedule message publish in separate thread
         if (delay > 0) {
-            try {
-                synchronized (this) {
-                    wait(delay);
+            getScheduler().schedule(() -> {
+                try {
+                    send(tenantId, items);
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Failed to publish delayed items to topic [" + topic + "]", e);
                 }
-            } catch (Exception e) {
-                // Ignore
-            }
+            }, delay, TimeUnit.MILLISECONDS);
+        } else {
+            send(tenantId, items);
         }
+    }
 
-        long startTime = 0;
-        if (handler != null) {
-            startTime = System.nanoTime();
+    /**
+     * This method sends the supplied items. Records are sent asynchronously, with failures
+     * handled by Kafka's own retry mechanism, which has been configured for 3 attempts
+     * (at 100ms intervals) by default. If a metric handler has been registered, it will
+     * be notified once all of the records in the batch have been acknowledged.
+     *
+     * @param tenantId The tenant
+     * @param items The items
+     * @throws Exception Failed to send the items
+     */
+    protected void send(String tenantId, List<T> items) throws Exception {
+        Callback callback = null;
+        if (handler != null && !items.isEmpty()) {
+            callback = new BatchCallback(tenantId, items);
+        } else if (log.isLoggable(Level.FINER)) {
+            callback = (metadata, exception) -> {
+                if (exception != null) {
+                    log.finer("Failed to publish record to topic [" + topic + "]: " + exception);
+                }
+            };
         }
 
         for (int i = 0; i < items.size(); i++) {
-            String data = mapper.writeValueAsString(items.get(i));
-            // Sending record asynchronously without waiting for response. Failures
-            // should be handled by Kafka's own retry mechanism, which has been
-            // configured for 3 attempts (at 100ms intervals) by default
-            producer.send(new ProducerRecord<String, String>(topic, data));
+            T item = items.get(i);
+            producer.send(new ProducerRecord<String, byte[]>(topic, keyed ? getKey(item) : null,
+                    format.serialize(item)), callback);
         }
+    }
 
-        if (handler != null) {
-            handler.published(tenantId, items, (TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime)));
+    protected ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = Executors.defaultThreadFactory().newThread(r);
+                        t.setDaemon(true);
+                        t.setName("Hawkular-APM-Kafka-" + topic);
+                        return t;
+                    });
+                }
+            }
         }
+        return scheduler;
     }
 
     @Override
@@ -137,4 +226,39 @@ public abstract class AbstractPublisherKafka<T> implements Publisher<T>, Service
         this.handler = handler;
     }
 
+    /**
+     * This callback reports the time taken (in microseconds) to publish a batch of
+     * items, once all of the associated records have been acknowledged.
+     */
+    private class BatchCallback implements Callback {
+
+        private final String tenantId;
+        private final List<T> items;
+        private final long startTime = System.nanoTime();
+        private final AtomicInteger remaining;
+        private volatile boolean failed = false;
+
+        BatchCallback(String tenantId, List<T> items) {
+            this.tenantId = tenantId;
+            this.items = items;
+            this.remaining = new AtomicInteger(items.size());
+        }
+
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            if (exception != null) {
+                failed = true;
+                if (log.isLoggable(Level.FINER)) {
+                    log.finer("Failed to publish record to topic [" + topic + "]: " + exception);
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                PublisherMetricHandler<T> h = handler;
+                if (h != null && !failed) {
+                    h.published(tenantId, items, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+                }
+            }
+        }
+    }
+
 }
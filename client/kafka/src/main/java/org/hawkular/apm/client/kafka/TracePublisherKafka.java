@@ -16,11 +16,14 @@
  */
 package org.hawkular.apm.client.kafka;
 
+import org.apache.kafka.clients.producer.Producer;
 import org.hawkular.apm.api.model.trace.Trace;
 import org.hawkular.apm.api.services.TracePublisher;
 
 /**
- * This class provides the Kafka based TracePublisher implementation.
+ * This class provides the Kafka based TracePublisher implementation. Trace fragments
+ * are keyed by their trace id, so that all fragments for a trace are delivered to
+ * the same partition.
  *
  * @author gbrown
  */
@@ -35,4 +38,18 @@ public class TracePublisherKafka extends AbstractPublisherKafka<Trace> implement
         super(TOPIC);
     }
 
+    /**
+     * This constructor initialises the producer.
+     *
+     * @param producer The producer
+     */
+    protected TracePublisherKafka(Producer<String, byte[]> producer) {
+        super(TOPIC, producer);
+    }
+
+    @Override
+    protected String getKey(Trace item) {
+        return item.getTraceId();
+    }
+
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class TracePublisherKafkaTest {
+
+    @Test
+    public void testKeyedByTraceId() throws Exception {
+        MockProducer<String, byte[]> producer = createProducer(true);
+        TracePublisherKafka publisher = new TracePublisherKafka(producer);
+
+        publisher.publish(null, Arrays.asList(createTrace("t1", "f1"), createTrace("t2", "f2"),
+                createTrace("t1", "f3")));
+
+        List<ProducerRecord<String, byte[]>> records = producer.history();
+        assertEquals(3, records.size());
+        assertEquals("Traces", records.get(0).topic());
+        assertEquals("t1", records.get(0).key());
+        assertEquals("t2", records.get(1).key());
+        assertEquals("t1", records.get(2).key());
+    }
+
+    @Test
+    public void testNotKeyed() throws Exception {
+        MockProducer<String, byte[]> producer = createProducer(true);
+        TracePublisherKafka publisher = new TracePublisherKafka(producer);
+        publisher.setKeyed(false);
+
+        publisher.publish(null, Arrays.asList(createTrace("t1", "f1")));
+
+        assertNull(producer.history().get(0).key());
+    }
+
+    @Test
+    public void testDelayedPublishDoesNotBlock() throws Exception {
+        MockProducer<String, byte[]> producer = createProducer(true);
+        TracePublisherKafka publisher = new TracePublisherKafka(producer);
+
+        long start = System.currentTimeMillis();
+        publisher.publish(null, Arrays.asList(createTrace("t1", "f1")), 0, 500);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertTrue(producer.history().isEmpty());
+
+        for (int i = 0; i < 50 && producer.history().isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, producer.history().size());
+    }
+
+    @Test
+    public void testBatchMetrics() throws Exception {
+        MockProducer<String, byte[]> producer = createProducer(false);
+        TracePublisherKafka publisher = new TracePublisherKafka(producer);
+
+        List<List<Trace>> published = new CopyOnWriteArrayList<>();
+        publisher.setMetricHandler((tenantId, items, metric) -> published.add(items));
+
+        publisher.publish(null, Arrays.asList(createTrace("t1", "f1"), createTrace("t1", "f2")));
+
+        assertTrue(producer.completeNext());
+        assertTrue(published.isEmpty());
+
+        assertTrue(producer.completeNext());
+        assertEquals(1, published.size());
+        assertEquals(2, published.get(0).size());
+    }
+
+    protected static MockProducer<String, byte[]> createProducer(boolean autoComplete) {
+        return new MockProducer<>(autoComplete, new StringSerializer(), new ByteArraySerializer());
+    }
+
+    protected static Trace createTrace(String traceId, String fragmentId) {
+        Trace trace = new Trace();
+        trace.setTraceId(traceId);
+        trace.setFragmentId(fragmentId);
+        return trace;
+    }
+}
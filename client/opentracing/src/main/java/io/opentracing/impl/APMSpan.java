@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -35,6 +36,7 @@ import org.hawkular.apm.api.utils.TimeUtil;
 import org.hawkular.apm.client.api.recorder.TraceRecorder;
 import org.hawkular.apm.client.api.sampler.ContextSampler;
 import org.hawkular.apm.client.opentracing.NodeBuilder;
+import org.hawkular.apm.client.opentracing.NodeProcessor;
 import org.hawkular.apm.client.opentracing.TraceContext;
 
 import io.opentracing.PropagableState;
@@ -45,6 +47,10 @@ import io.opentracing.tag.Tags;
 /**
  * The APM span.
  *
+ * If the tracer makes the sampling decision when a trace is started (head sampling), spans
+ * associated with unsampled traces only retain the state necessary to propagate the trace
+ * context to child spans and other services, without building the trace fragment.
+ *
  * @author gbrown
  */
 public class APMSpan extends AbstractSpan implements PropagableState {
@@ -54,10 +60,18 @@ public class APMSpan extends AbstractSpan implements PropagableState {
     private TraceContext traceContext;
 
     private NodeBuilder nodeBuilder;
-    private String nodePath;
+
+    // Retained once the span has completed, so the node path can be derived when referenced
+    private NodeBuilder node;
 
     private String interactionId;
 
+    private Unsampled unsampled;
+    private boolean finished;
+
+    // Retained until the tags of an unsampled span have been checked
+    private APMSpanBuilder unsampledBuilder;
+
     /**
      * @param builder  The span builder
      * @param recorder The trace recorder
@@ -70,6 +84,22 @@ public class APMSpan extends AbstractSpan implements PropagableState {
 
     protected void init(APMSpanBuilder builder, TraceRecorder recorder, ContextSampler sampler) {
 
+        if (builder.isHeadSampling() && initUnsampled(builder, sampler)) {
+            return;
+        }
+
+        initTraceState(builder, recorder, sampler);
+    }
+
+    /**
+     * This method initialises the node builder and trace context used to build
+     * the trace fragment associated with the span.
+     *
+     * @param builder The span builder
+     * @param recorder The trace recorder
+     * @param sampler The sampler
+     */
+    protected void initTraceState(APMSpanBuilder builder, TraceRecorder recorder, ContextSampler sampler) {
         if (!builder.references.isEmpty()) {
             initReferences(builder, recorder, sampler);
         }
@@ -80,12 +110,102 @@ public class APMSpan extends AbstractSpan implements PropagableState {
             initTopLevelState(this, recorder, sampler);
         }
 
-        // Initialise node path
-        nodePath = nodeBuilder.getNodePath();
+        initSampled(builder);
+
+        node = nodeBuilder;
 
         traceContext.startProcessingNode();
     }
 
+    /**
+     * This method makes the sampling decision when the span is started, based on
+     * the primary reference. If the trace is not sampled, the span is initialised
+     * with just the state required to propagate the trace context.
+     *
+     * As the builder's tags are only applied to the span once it has been created,
+     * where the sampler decides not to sample the trace the span's tags are checked
+     * when the span is first used (see {@link #checkUnsampledTags()}).
+     *
+     * @param builder The span builder
+     * @param sampler The sampler
+     * @return Whether the span is unsampled
+     */
+    protected boolean initUnsampled(APMSpanBuilder builder, ContextSampler sampler) {
+        Reference primaryRef = (builder.references.isEmpty() ? null
+                : findPrimaryReference(builder.references));
+
+        if (primaryRef == null) {
+            if (!builder.references.isEmpty()) {
+                // Join of multiple references, so sampling decided by those references
+                return false;
+            }
+            if (!sampler.isSampled(null, null)) {
+                unsampled = new Unsampled(UUID.randomUUID().toString(), null);
+                unsampledBuilder = builder;
+                return true;
+            }
+            builder.setSampled(true);
+
+        } else if (primaryRef.getReferredTo() instanceof APMSpan) {
+            APMSpan referenced = (APMSpan) primaryRef.getReferredTo();
+            if (referenced.isUnsampled()) {
+                unsampled = referenced.unsampled;
+                return true;
+            }
+
+        } else if (primaryRef.getReferredTo() instanceof APMSpanBuilder) {
+            Map<String, Object> state = ((APMSpanBuilder) primaryRef.getReferredTo()).state();
+            Object level = state.get(Constants.HAWKULAR_APM_LEVEL);
+            Object traceId = state.get(Constants.HAWKULAR_APM_TRACEID);
+
+            if (!sampler.isSampled(null, level == null ? null : ReportingLevel.valueOf(level.toString()))) {
+                Object txn = state.get(Constants.HAWKULAR_APM_TXN);
+                unsampled = new Unsampled(traceId == null ? UUID.randomUUID().toString() : traceId.toString(),
+                        txn == null ? null : txn.toString());
+                unsampledBuilder = builder;
+                return true;
+            }
+            builder.setSampled(level == null);
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Whether the span belongs to a trace that has not been sampled, and
+     *              therefore is not building a trace fragment
+     */
+    protected boolean isUnsampled() {
+        checkUnsampledTags();
+        return unsampled != null;
+    }
+
+    /**
+     * This method checks the tags of a span that was not sampled when started. If the
+     * 'sampling.priority' tag requests that the trace be sampled, the span is initialised
+     * to build a trace fragment after all. Otherwise the transaction name tag, if defined,
+     * is retained so that it is propagated with the unsampled trace state.
+     */
+    private synchronized void checkUnsampledTags() {
+        if (unsampledBuilder == null) {
+            return;
+        }
+        APMSpanBuilder builder = unsampledBuilder;
+        unsampledBuilder = null;
+
+        if (ReportingLevel.parse(getTags().get(Tags.SAMPLING_PRIORITY.getKey())) == ReportingLevel.All) {
+            unsampled = null;
+            builder.setSampled(true);
+            initTraceState(builder, builder.getRecorder(), builder.getSampler());
+            return;
+        }
+
+        Object txn = getTags().get(Constants.PROP_TRANSACTION_NAME);
+        if (txn != null && unsampled.transaction == null) {
+            unsampled = new Unsampled(unsampled.traceId, txn.toString());
+        }
+    }
+
     protected void initReferences(APMSpanBuilder builder, TraceRecorder recorder, ContextSampler sampler) {
         // Find primary reference
         Reference primaryRef = findPrimaryReference(builder.references);
@@ -168,6 +288,18 @@ public class APMSpan extends AbstractSpan implements PropagableState {
         traceContext = new TraceContext(topSpan, nodeBuilder, recorder, sampler);
     }
 
+    /**
+     * This method records the head sampling decision, if made when the span was
+     * started, so the trace is reported on completion.
+     *
+     * @param builder The span builder
+     */
+    protected void initSampled(APMSpanBuilder builder) {
+        if (builder.isSampled() && traceContext.getReportingLevel() == null) {
+            traceContext.setReportingLevel(ReportingLevel.All);
+        }
+    }
+
     /**
      * This method initialises the span based on extracted trace state.
      *
@@ -263,7 +395,7 @@ public class APMSpan extends AbstractSpan implements PropagableState {
 
         Set<String> traceIds = builder.references.stream().map(ref -> {
             if (ref.getReferredTo() instanceof APMSpan) {
-                return ((APMSpan) ref.getReferredTo()).getTraceContext().getTraceId();
+                return ((APMSpan) ref.getReferredTo()).getTraceId();
             } else if (ref.getReferredTo() instanceof APMSpanBuilder) {
                 return ((APMSpanBuilder) ref.getReferredTo()).state().get(Constants.HAWKULAR_APM_TRACEID).toString();
             }
@@ -302,6 +434,10 @@ public class APMSpan extends AbstractSpan implements PropagableState {
             if (ref.getReferredTo() instanceof APMSpan) {
                 APMSpan referenced = (APMSpan) ref.getReferredTo();
 
+                // Unsampled spans do not have a node to reference
+                if (referenced.isUnsampled()) {
+                    continue;
+                }
                 String nodeId = referenced.getNodePath();
                 getNodeBuilder().addCorrelationId(new CorrelationIdentifier(Scope.CausedBy, nodeId));
 
@@ -339,7 +475,9 @@ public class APMSpan extends AbstractSpan implements PropagableState {
 
     protected void setInteractionId(String id) {
         interactionId = id;
-        getNodeBuilder().addCorrelationId(new CorrelationIdentifier(Scope.Interaction, id));
+        if (getNodeBuilder() != null) {
+            getNodeBuilder().addCorrelationId(new CorrelationIdentifier(Scope.Interaction, id));
+        }
     }
 
     protected String getInteractionId() {
@@ -347,22 +485,30 @@ public class APMSpan extends AbstractSpan implements PropagableState {
     }
 
     protected String getNodePath() {
-        return nodePath;
+        return (node == null ? null : node.getNodePath());
     }
 
     @Override
     public void finish() {
+        checkUnsampledTags();
         if (!isCompleted()) {
             super.finish();
             completeNode();
+        } else if (unsampled != null && !finished) {
+            finished = true;
+            super.finish();
         }
     }
 
     @Override
     public void finish(long finishMicros) {
+        checkUnsampledTags();
         if (!isCompleted()) {
             super.finish(finishMicros);
             completeNode();
+        } else if (unsampled != null && !finished) {
+            finished = true;
+            super.finish(finishMicros);
         }
     }
 
@@ -380,7 +526,10 @@ public class APMSpan extends AbstractSpan implements PropagableState {
         nodeBuilder.setDuration(TimeUnit.NANOSECONDS.toMicros(getDuration().toNanos()));
 
         // Process the span to initialise the node
-        traceContext.getNodeProcessors().forEach(np -> np.process(traceContext, this, nodeBuilder));
+        List<NodeProcessor> processors = traceContext.getNodeProcessors();
+        for (int i = 0; i < processors.size(); i++) {
+            processors.get(i).process(traceContext, this, nodeBuilder);
+        }
 
         traceContext.endProcessingNode();
         nodeBuilder = null;
@@ -413,9 +562,29 @@ public class APMSpan extends AbstractSpan implements PropagableState {
         return traceContext;
     }
 
+    /**
+     * This method returns the id of the trace associated with the span.
+     *
+     * @return The trace id
+     */
+    protected String getTraceId() {
+        checkUnsampledTags();
+        return (unsampled != null ? unsampled.traceId : traceContext.getTraceId());
+    }
+
     @Override
     public Map<String, Object> state() {
         Map<String, Object> state = new HashMap<>();
+
+        if (isUnsampled()) {
+            state.put(Constants.HAWKULAR_APM_TRACEID, unsampled.traceId);
+            state.put(Constants.HAWKULAR_APM_LEVEL, ReportingLevel.None.toString());
+            if (unsampled.transaction != null) {
+                state.put(Constants.HAWKULAR_APM_TXN, unsampled.transaction);
+            }
+            return state;
+        }
+
         state.put(Constants.HAWKULAR_APM_TRACEID, traceContext.getTraceId());
 
         Object reportingLevelFromTags = ReportingLevel.parse(getTags().get(Tags.SAMPLING_PRIORITY.getKey()));
@@ -435,4 +604,18 @@ public class APMSpan extends AbstractSpan implements PropagableState {
         }
         return state;
     }
+
+    /**
+     * This class represents the trace state shared by the spans of an unsampled trace.
+     */
+    private static final class Unsampled {
+
+        private final String traceId;
+        private final String transaction;
+
+        private Unsampled(String traceId, String transaction) {
+            this.traceId = traceId;
+            this.transaction = transaction;
+        }
+    }
 }
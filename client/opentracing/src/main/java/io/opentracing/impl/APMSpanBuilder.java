@@ -17,6 +17,7 @@
 
 package io.opentracing.impl;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,19 +34,60 @@ import io.opentracing.PropagableState;
  */
 public class APMSpanBuilder extends AbstractSpanBuilder implements PropagableState {
 
-    private Map<String, Object> state = new HashMap<>();
+    // Only created when trace state is extracted
+    private Map<String, Object> state;
 
     private TraceRecorder recorder;
     private ContextSampler sampler;
+    private boolean headSampling;
+    private boolean sampled;
 
     /**
      * @param operationName The operation name
      * @param recorder The trace recorder
+     * @param sampler The sampler
+     * @param headSampling Whether the sampling decision is made when the trace is started
      */
-    APMSpanBuilder(String operationName, TraceRecorder recorder, ContextSampler sampler) {
+    APMSpanBuilder(String operationName, TraceRecorder recorder, ContextSampler sampler, boolean headSampling) {
         super(operationName);
         this.recorder = recorder;
         this.sampler = sampler;
+        this.headSampling = headSampling;
+    }
+
+    /**
+     * @return Whether the sampling decision is made when the trace is started
+     */
+    boolean isHeadSampling() {
+        return headSampling;
+    }
+
+    /**
+     * @return Whether the trace was sampled when the span was started
+     */
+    boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @param sampled Whether the trace was sampled when the span was started
+     */
+    void setSampled(boolean sampled) {
+        this.sampled = sampled;
+    }
+
+    /**
+     * @return The trace recorder
+     */
+    TraceRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return The sampler
+     */
+    ContextSampler getSampler() {
+        return sampler;
     }
 
     @Override
@@ -55,6 +97,9 @@ public class APMSpanBuilder extends AbstractSpanBuilder implements PropagableSta
 
     @Override
     AbstractSpanBuilder withStateItem(String key, Object value) {
+        if (state == null) {
+            state = new HashMap<>();
+        }
         state.put(key.toUpperCase(), value);
         return this;
     }
@@ -66,7 +111,7 @@ public class APMSpanBuilder extends AbstractSpanBuilder implements PropagableSta
 
     @Override
     public Map<String, Object> state() {
-        return state;
+        return (state == null ? Collections.emptyMap() : state);
     }
 
 }
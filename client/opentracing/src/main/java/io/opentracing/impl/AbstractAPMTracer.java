@@ -24,6 +24,7 @@ import java.util.UUID;
 import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.model.Constants;
 import org.hawkular.apm.api.model.trace.NodeType;
+import org.hawkular.apm.api.utils.PropertyUtil;
 import org.hawkular.apm.client.api.recorder.BatchTraceRecorder;
 import org.hawkular.apm.client.api.recorder.TraceRecorder;
 import org.hawkular.apm.client.api.sampler.ContextSampler;
@@ -42,6 +43,7 @@ public abstract class AbstractAPMTracer extends AbstractTracer {
 
     private TraceRecorder recorder;
     private ContextSampler sampler;
+    private boolean headSampling = PropertyUtil.getPropertyAsBoolean(PropertyUtil.HAWKULAR_APM_OPENTRACING_HEADSAMPLING);
 
     public AbstractAPMTracer() {
         this(new BatchTraceRecorder(), Sampler.ALWAYS_SAMPLE);
@@ -67,16 +69,39 @@ public abstract class AbstractAPMTracer extends AbstractTracer {
         return this.sampler.getDelegate();
     }
 
+    /**
+     * This method determines whether the sampling decision is made when a trace is
+     * started, so that spans for unsampled traces do not build a trace fragment. In this
+     * case the sampler is not supplied with the trace.
+     *
+     * @param headSampling Whether to sample when the trace is started
+     */
+    public void setHeadSampling(boolean headSampling) {
+        this.headSampling = headSampling;
+    }
+
+    /**
+     * @return Whether the sampling decision is made when the trace is started
+     */
+    public boolean isHeadSampling() {
+        return headSampling;
+    }
+
     @Override
     APMSpanBuilder createSpanBuilder(String operationName) {
-        return new APMSpanBuilder(operationName, recorder, sampler);
+        return new APMSpanBuilder(operationName, recorder, sampler, headSampling);
     }
 
     @Override
     public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
         if (spanContext instanceof APMSpan) {
-            ((APMSpan) spanContext).setInteractionId(UUID.randomUUID().toString());
-            ((APMSpan) spanContext).getNodeBuilder().setNodeType(NodeType.Producer);
+            APMSpan span = (APMSpan) spanContext;
+            // Determine whether unsampled before associating the interaction id with the node
+            boolean unsampled = span.isUnsampled();
+            span.setInteractionId(UUID.randomUUID().toString());
+            if (!unsampled) {
+                span.getNodeBuilder().setNodeType(NodeType.Producer);
+            }
         }
         super.inject(spanContext, format, carrier);
     }
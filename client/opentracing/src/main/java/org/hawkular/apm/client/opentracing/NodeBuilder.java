@@ -37,6 +37,10 @@ import org.hawkular.apm.api.utils.NodeUtil;
  * this process. So instead a tree of node builders is constructed, and only converted into
  * a node tree as a final step.
  *
+ * To minimise the allocation cost per span, the collections are only created when
+ * first used, and the node path is derived from the parent's path and the node's
+ * position only when requested.
+ *
  * @author gbrown
  */
 public class NodeBuilder {
@@ -50,9 +54,9 @@ public class NodeBuilder {
      * Duration in microseconds
      */
     private long duration;
-    private Set<Property> properties = new HashSet<>();
-    private List<CorrelationIdentifier> correlationIds = new ArrayList<>();
-    private List<NodeBuilder> nodes = new ArrayList<>();
+    private Set<Property> properties;
+    private List<CorrelationIdentifier> correlationIds;
+    private List<NodeBuilder> nodes;
 
     /**
      * Timestamp in microseconds
@@ -61,7 +65,9 @@ public class NodeBuilder {
 
     private NodeType nodeType = NodeType.Component;
 
-    private String nodePath;
+    private NodeBuilder parent;
+    private int position;
+    private volatile String nodePath;
 
     /**
      * The default constructor.
@@ -75,8 +81,8 @@ public class NodeBuilder {
      * @param parent The parent
      */
     public NodeBuilder(NodeBuilder parent) {
-        int pos = parent.addChildNode(this);
-        nodePath = String.format("%s:%d", parent.getNodePath(), pos);
+        this.parent = parent;
+        this.position = parent.addChildNode(this);
     }
 
     /**
@@ -87,7 +93,10 @@ public class NodeBuilder {
      * @return The position of the child node
      */
     protected int addChildNode(NodeBuilder child) {
-        synchronized (nodes) {
+        synchronized (this) {
+            if (nodes == null) {
+                nodes = new ArrayList<>(4);
+            }
             nodes.add(child);
             return nodes.size() - 1;
         }
@@ -99,7 +108,14 @@ public class NodeBuilder {
      * @return The node path
      */
     public String getNodePath() {
-        return nodePath;
+        String ret = nodePath;
+        if (ret == null && parent != null) {
+            String parentPath = parent.getNodePath();
+            ret = new StringBuilder(parentPath.length() + 4).append(parentPath)
+                    .append(':').append(position).toString();
+            nodePath = ret;
+        }
+        return ret;
     }
 
     /**
@@ -170,7 +186,10 @@ public class NodeBuilder {
      * @return The node builder
      */
     public NodeBuilder addProperty(Property property) {
-        this.properties.add(property);
+        if (properties == null) {
+            properties = new HashSet<>();
+        }
+        properties.add(property);
         return this;
     }
 
@@ -179,7 +198,10 @@ public class NodeBuilder {
      * @return The node builder
      */
     public NodeBuilder addCorrelationId(CorrelationIdentifier cid) {
-        this.correlationIds.add(cid);
+        if (correlationIds == null) {
+            correlationIds = new ArrayList<>(2);
+        }
+        correlationIds.add(cid);
         return this;
     }
 
@@ -212,15 +234,25 @@ public class NodeBuilder {
             ret = new Producer();
             ((Producer) ret).setEndpointType(endpointType);
         }
-        ret.setCorrelationIds(correlationIds);
+        if (correlationIds != null) {
+            ret.setCorrelationIds(correlationIds);
+        }
         ret.setOperation(operation);
-        ret.setProperties(properties);
+        if (properties != null) {
+            ret.setProperties(properties);
+        }
         ret.setUri(uri);
         ret.setDuration(duration);
         ret.setTimestamp(timestamp);
 
-        for (int i = 0; i < nodes.size(); i++) {
-            ret.getNodes().add(nodes.get(i).build());
+        List<NodeBuilder> children;
+        synchronized (this) {
+            children = nodes;
+        }
+        if (children != null) {
+            for (int i = 0; i < children.size(); i++) {
+                ret.getNodes().add(children.get(i).build());
+            }
         }
 
         // Check if template has been supplied for URI
@@ -88,7 +88,7 @@ public class TraceContext {
         trace.setHostAddress(PropertyUtil.getHostAddress());
 
         // Initialise the root node's path
-        rootNode.setNodePath(String.format("%s:0", trace.getFragmentId()));
+        rootNode.setNodePath(trace.getFragmentId() + ":0");
 
     }
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.client.opentracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.hawkular.apm.api.model.Property;
+import org.hawkular.apm.api.model.trace.Component;
+import org.hawkular.apm.api.model.trace.ContainerNode;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier.Scope;
+import org.hawkular.apm.api.model.trace.Node;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class NodeBuilderTest {
+
+    @Test
+    public void testNodePath() {
+        NodeBuilder root = new NodeBuilder();
+        root.setNodePath("frag:0");
+
+        NodeBuilder child1 = new NodeBuilder(root);
+        NodeBuilder child2 = new NodeBuilder(root);
+        NodeBuilder grandchild = new NodeBuilder(child2);
+
+        assertEquals("frag:0", root.getNodePath());
+        assertEquals("frag:0:0", child1.getNodePath());
+        assertEquals("frag:0:1", child2.getNodePath());
+        assertEquals("frag:0:1:0", grandchild.getNodePath());
+    }
+
+    @Test
+    public void testBuildWithoutOptionalInformation() {
+        NodeBuilder root = new NodeBuilder();
+        new NodeBuilder(root);
+
+        Node node = root.build();
+
+        assertTrue(node instanceof Component);
+        assertTrue(node.getProperties().isEmpty());
+        assertTrue(node.getCorrelationIds().isEmpty());
+        assertEquals(1, ((ContainerNode) node).getNodes().size());
+        assertTrue(((ContainerNode) ((ContainerNode) node).getNodes().get(0)).getNodes().isEmpty());
+    }
+
+    @Test
+    public void testBuild() {
+        NodeBuilder root = new NodeBuilder();
+        root.addProperty(new Property("prop", "value"));
+        root.addCorrelationId(new CorrelationIdentifier(Scope.Interaction, "id"));
+
+        Node node = root.build();
+
+        assertEquals(1, node.getProperties("prop").size());
+        assertEquals(1, node.getCorrelationIds().size());
+        assertEquals("id", node.getCorrelationIds().get(0).getValue());
+    }
+
+}
@@ -177,6 +177,169 @@ public class SamplingTest {
         Assert.assertEquals(2, traceRecorder.getTraces().size());
     }
 
+    @Test
+    public void testHeadSamplingNeverSample() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.NEVER_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span rootSpan = tracer.buildSpan("foo")
+                .start();
+
+        Span descendant = tracer.buildSpan("foo")
+                .asChildOf(rootSpan)
+                .start();
+
+        Map<String, String> carrier = new HashMap<>();
+        tracer.inject(descendant.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrier));
+        Assert.assertEquals(ReportingLevel.None.name(), carrier.get(Constants.HAWKULAR_APM_LEVEL));
+        Assert.assertNotNull(carrier.get(Constants.HAWKULAR_APM_TRACEID));
+        Assert.assertNotNull(carrier.get(Constants.HAWKULAR_APM_ID));
+
+        Map<String, String> rootCarrier = new HashMap<>();
+        tracer.inject(rootSpan.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(rootCarrier));
+        Assert.assertEquals(rootCarrier.get(Constants.HAWKULAR_APM_TRACEID),
+                carrier.get(Constants.HAWKULAR_APM_TRACEID));
+
+        Span spawned = tracer.buildSpan("foo")
+                .addReference(References.FOLLOWS_FROM, descendant.context())
+                .start();
+
+        descendant.finish();
+        rootSpan.finish();
+        rootSpan.finish();
+        spawned.finish();
+
+        Assert.assertEquals(0, traceRecorder.getTraces().size());
+    }
+
+    @Test
+    public void testHeadSamplingNeverSampleSamplingPriorityTag() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.NEVER_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span rootSpan = tracer.buildSpan("foo")
+                .withTag(Tags.SAMPLING_PRIORITY.getKey(), 1)
+                .start();
+
+        Span descendant = tracer.buildSpan("foo")
+                .asChildOf(rootSpan)
+                .start();
+
+        Map<String, String> carrier = new HashMap<>();
+        tracer.inject(descendant.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrier));
+        Assert.assertEquals(ReportingLevel.All.name(), carrier.get(Constants.HAWKULAR_APM_LEVEL));
+
+        descendant.finish();
+        rootSpan.finish();
+
+        Assert.assertEquals(1, traceRecorder.getTraces().size());
+        Assert.assertEquals(1, traceRecorder.getTraces().get(0).getNodes().size());
+    }
+
+    @Test
+    public void testHeadSamplingExtractedSampleNoneContextSamplingPriorityTag() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.ALWAYS_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span span = tracer.buildSpan("foo")
+                .asChildOf(extractedTraceState(tracer, ReportingLevel.None))
+                .withTag(Tags.SAMPLING_PRIORITY.getKey(), 1)
+                .start();
+
+        span.finish();
+        Assert.assertEquals(1, traceRecorder.getTraces().size());
+        Assert.assertEquals("foo", traceRecorder.getTraces().get(0).getTraceId());
+    }
+
+    @Test
+    public void testHeadSamplingNeverSampleTransactionTag() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.NEVER_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span rootSpan = tracer.buildSpan("foo")
+                .withTag(Constants.PROP_TRANSACTION_NAME, "myTxn")
+                .start();
+
+        Span descendant = tracer.buildSpan("foo")
+                .asChildOf(rootSpan)
+                .start();
+
+        Map<String, String> rootCarrier = new HashMap<>();
+        tracer.inject(rootSpan.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(rootCarrier));
+        Assert.assertEquals(ReportingLevel.None.name(), rootCarrier.get(Constants.HAWKULAR_APM_LEVEL));
+        Assert.assertEquals("myTxn", rootCarrier.get(Constants.HAWKULAR_APM_TXN));
+
+        Map<String, String> carrier = new HashMap<>();
+        tracer.inject(descendant.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrier));
+        Assert.assertEquals("myTxn", carrier.get(Constants.HAWKULAR_APM_TXN));
+
+        descendant.finish();
+        rootSpan.finish();
+
+        Assert.assertEquals(0, traceRecorder.getTraces().size());
+    }
+
+    @Test
+    public void testHeadSamplingAlwaysSample() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.ALWAYS_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span rootSpan = tracer.buildSpan("foo")
+                .start();
+
+        Span descendant = tracer.buildSpan("foo")
+                .asChildOf(rootSpan)
+                .start();
+
+        Map<String, String> carrier = new HashMap<>();
+        tracer.inject(descendant.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrier));
+        Assert.assertEquals(ReportingLevel.All.name(), carrier.get(Constants.HAWKULAR_APM_LEVEL));
+
+        descendant.finish();
+        rootSpan.finish();
+
+        Assert.assertEquals(1, traceRecorder.getTraces().size());
+        Assert.assertEquals(1, traceRecorder.getTraces().get(0).getNodes().size());
+    }
+
+    @Test
+    public void testHeadSamplingExtractedSampleNoneContext() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.ALWAYS_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span span = tracer.buildSpan("foo")
+                .asChildOf(extractedTraceState(tracer, ReportingLevel.None))
+                .start();
+
+        Map<String, String> carrier = new HashMap<>();
+        tracer.inject(span.context(), Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrier));
+        Assert.assertEquals("foo", carrier.get(Constants.HAWKULAR_APM_TRACEID));
+        Assert.assertEquals(ReportingLevel.None.name(), carrier.get(Constants.HAWKULAR_APM_LEVEL));
+
+        span.finish();
+        Assert.assertEquals(0, traceRecorder.getTraces().size());
+    }
+
+    @Test
+    public void testHeadSamplingNeverSampleExtractedSampleAllContext() {
+        APMTracerTest.TestTraceRecorder traceRecorder = new APMTracerTest.TestTraceRecorder();
+        APMTracer tracer = new APMTracer(traceRecorder, Sampler.NEVER_SAMPLE);
+        tracer.setHeadSampling(true);
+
+        Span span = tracer.buildSpan("foo")
+                .asChildOf(extractedTraceState(tracer, ReportingLevel.All))
+                .start();
+
+        span.finish();
+        Assert.assertEquals(1, traceRecorder.getTraces().size());
+    }
+
     private SpanContext extractedTraceState(Tracer tracer, ReportingLevel reportingLevel) {
         Map<String, String> headers = new HashMap<>();
         headers.put(Constants.HAWKULAR_APM_TRACEID, "foo");
@@ -16,6 +16,8 @@
  */
 package org.hawkular.apm.trace.publisher.rest.client;
 
+import java.io.IOException;
+import java.net.URL;
 import java.time.Clock;
 import java.util.List;
 
@@ -23,14 +25,23 @@ import org.hawkular.apm.api.logging.Logger;
 import org.hawkular.apm.api.logging.Logger.Level;
 import org.hawkular.apm.api.model.trace.Trace;
 import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.api.services.RejectedException;
 import org.hawkular.apm.api.services.TracePublisher;
 import org.hawkular.apm.api.utils.PropertyUtil;
+import org.hawkular.apm.api.utils.WireFormat;
 import org.hawkular.apm.client.api.rest.AbstractRESTClient;
+import org.hawkular.apm.client.api.rest.HttpTransport;
 
 /**
  * This class provides the REST client implementation for the Trace Publisher
  * API.
  *
+ * Trace fragments are initially published as uncompressed JSON. If the server's response
+ * advertises (using the Accept-Encoding header) that it accepts gzip compressed
+ * requests, then subsequent fragments will be compressed. Similarly, if the server
+ * advertises (using the Accept-Post header) that it accepts the preferred binary
+ * wire format, then subsequent fragments will be sent using that format.
+ *
  * @author gbrown
  */
 public class TracePublisherRESTClient extends AbstractRESTClient implements TracePublisher {
@@ -38,6 +49,16 @@ public class TracePublisherRESTClient extends AbstractRESTClient implements Trac
     private PublisherMetricHandler<Trace> handler = null;
     private Clock clock = Clock.systemUTC();
 
+    private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+
+    private final boolean compressionEnabled = Boolean.parseBoolean(
+            PropertyUtil.getProperty(PropertyUtil.HAWKULAR_APM_PUBLISHER_COMPRESSION, "true"));
+    private volatile boolean compress = false;
+
+    private final WireFormat preferredFormat = WireFormat.fromProperty(PropertyUtil.HAWKULAR_APM_PUBLISHER_FORMAT,
+            WireFormat.Smile);
+    private volatile WireFormat format = WireFormat.Json;
+
     public TracePublisherRESTClient() {
         super(PropertyUtil.HAWKULAR_APM_URI_PUBLISHER);
     }
@@ -46,6 +67,11 @@ public class TracePublisherRESTClient extends AbstractRESTClient implements Trac
         super(username, password, url);
     }
 
+    @Override
+    protected HttpTransport.Pool getPool() {
+        return HttpTransport.Pool.Publish;
+    }
+
     @Override
     public int getInitialRetryCount() {
         return 0;
@@ -54,7 +80,15 @@ public class TracePublisherRESTClient extends AbstractRESTClient implements Trac
     @Override
     public void publish(String tenantId, List<Trace> traces) throws Exception {
         long startTime = clock.millis();
-        int statusCode = postAsJsonTo(tenantId, "traces/fragments", traces);
+        boolean compressed = compress;
+        WireFormat wireFormat = format;
+        int statusCode = postTraces(tenantId, traces, wireFormat, compressed);
+        if (statusCode == UNSUPPORTED_MEDIA_TYPE && (compressed || wireFormat != WireFormat.Json)) {
+            // Server no longer accepts compressed or binary requests, so resend as plain JSON
+            compress = false;
+            format = WireFormat.Json;
+            statusCode = postTraces(tenantId, traces, WireFormat.Json, false);
+        }
         if (log.isLoggable(Level.FINEST)) {
             log.finest("Status code is: " + statusCode);
         }
@@ -67,10 +101,75 @@ public class TracePublisherRESTClient extends AbstractRESTClient implements Trac
             if (log.isLoggable(Level.FINER)) {
                 log.finer("Failed to publish trace fragments: status=[" + statusCode + "]");
             }
+            if (statusCode == 0) {
+                throw new IOException("Failed to publish trace fragments: server unavailable");
+            } else if (isRejected(statusCode)) {
+                throw new RejectedException("Trace fragments rejected: status=[" + statusCode + "]");
+            }
             throw new Exception("Failed to publish trace fragments: status=[" + statusCode + "]");
         }
     }
 
+    /**
+     * This method determines whether the status code indicates that the request was
+     * rejected, so would also fail if sent again. Client errors related to authorization,
+     * timeouts and rate limiting are not considered to be rejections, as they may
+     * succeed later.
+     *
+     * @param statusCode The status code
+     * @return Whether the request was rejected
+     */
+    protected static boolean isRejected(int statusCode) {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 401 && statusCode != 403
+                && statusCode != 408 && statusCode != 429;
+    }
+
+    /**
+     * This method posts the trace fragments, and determines from the response whether
+     * subsequent requests can be compressed and use the preferred wire format.
+     *
+     * @param tenantId The tenant
+     * @param traces The trace fragments
+     * @param wireFormat The wire format
+     * @param compressed Whether to compress the request
+     * @return The status code, or 0 if the request failed
+     */
+    protected int postTraces(String tenantId, List<Trace> traces, WireFormat wireFormat, boolean compressed) {
+        URL url = getUrl("traces/fragments");
+        Integer statusCode = withPayloadAndResults("POST", tenantId, url, traces, wireFormat,
+                compressed ? GZIP : null, (connection) -> {
+                    try {
+                        int code = connection.getResponseCode();
+                        if (compressionEnabled) {
+                            compress = isEncodingAccepted(connection, GZIP);
+                        }
+                        if (preferredFormat != WireFormat.Json) {
+                            format = isMediaTypeAccepted(connection, preferredFormat.getContentType())
+                                    ? preferredFormat : WireFormat.Json;
+                        }
+                        return code;
+                    } catch (IOException e) {
+                        log.log(Level.SEVERE, String.format("Failed to post to [%s]", url), e);
+                    }
+                    return 0;
+                });
+        return statusCode == null ? 0 : statusCode;
+    }
+
+    /**
+     * @return Whether trace fragments will be compressed when published
+     */
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    /**
+     * @return The wire format that will be used when trace fragments are published
+     */
+    public WireFormat getWireFormat() {
+        return format;
+    }
+
     @Override
     public void publish(String tenantId, List<Trace> items, int retryCount, long delay) throws Exception {
         throw new UnsupportedOperationException("Cannot set the retry count and delay");
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.trace.publisher.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.RejectedException;
+import org.hawkular.apm.api.utils.WireFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author gbrown
+ */
+public class TracePublisherRESTClientTest {
+
+    private HttpServer server;
+    private List<String> encodings = new ArrayList<>();
+    private List<String> contentTypes = new ArrayList<>();
+    private List<Trace> received = new ArrayList<>();
+    private volatile String acceptEncoding;
+    private volatile String acceptPost;
+    private volatile boolean rejectCompressed;
+    private volatile int failureStatus;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hawkular/apm/traces/fragments", this::handle);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        encodings.add(encoding);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        contentTypes.add(contentType);
+
+        if (failureStatus != 0) {
+            exchange.sendResponseHeaders(failureStatus, -1);
+            exchange.close();
+            return;
+        }
+
+        if ((encoding != null || !contentType.equals("application/json")) && rejectCompressed) {
+            exchange.sendResponseHeaders(415, -1);
+            exchange.close();
+            return;
+        }
+
+        InputStream is = exchange.getRequestBody();
+        if ("gzip".equals(encoding)) {
+            is = new GZIPInputStream(is);
+        }
+        received.addAll(WireFormat.fromContentType(contentType).getMapper().readValue(is,
+                new TypeReference<List<Trace>>() {
+                }));
+
+        if (acceptEncoding != null) {
+            exchange.getResponseHeaders().add("Accept-Encoding", acceptEncoding);
+        }
+        if (acceptPost != null) {
+            exchange.getResponseHeaders().add("Accept-Post", acceptPost);
+        }
+        exchange.sendResponseHeaders(204, -1);
+        exchange.close();
+    }
+
+    protected TracePublisherRESTClient createClient() {
+        return new TracePublisherRESTClient(null, null, "http://localhost:" + server.getAddress().getPort());
+    }
+
+    @Test
+    public void testFailureClassification() throws Exception {
+        TracePublisherRESTClient client = createClient();
+        List<Trace> traces = Collections.singletonList(createTrace("1"));
+
+        failureStatus = 400;
+        try {
+            client.publish(null, traces);
+            fail("Should have been rejected");
+        } catch (RejectedException e) {
+            // Expected
+        }
+
+        failureStatus = 503;
+        try {
+            client.publish(null, traces);
+            fail("Should have failed");
+        } catch (RejectedException | IOException e) {
+            fail("Should not be classified as rejected or unavailable: " + e);
+        } catch (Exception e) {
+            // Expected
+        }
+
+        server.stop(0);
+        try {
+            client.publish(null, traces);
+            fail("Should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCompressionNegotiated() throws Exception {
+        acceptEncoding = "gzip";
+        TracePublisherRESTClient client = createClient();
+        assertFalse(client.isCompressed());
+
+        client.publish(null, Collections.singletonList(createTrace("1")));
+        assertTrue(client.isCompressed());
+
+        client.publish(null, Collections.singletonList(createTrace("2")));
+
+        assertEquals(2, encodings.size());
+        assertNull(encodings.get(0));
+        assertEquals("gzip", encodings.get(1));
+
+        assertEquals(2, received.size());
+        assertEquals("1", received.get(0).getFragmentId());
+        assertEquals("2", received.get(1).getFragmentId());
+    }
+
+    @Test
+    public void testCompressionNotAdvertised() throws Exception {
+        TracePublisherRESTClient client = createClient();
+
+        client.publish(null, Collections.singletonList(createTrace("1")));
+        client.publish(null, Collections.singletonList(createTrace("2")));
+
+        assertFalse(client.isCompressed());
+        assertNull(encodings.get(0));
+        assertNull(encodings.get(1));
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    public void testCompressionRejected() throws Exception {
+        acceptEncoding = "gzip";
+        TracePublisherRESTClient client = createClient();
+
+        client.publish(null, Collections.singletonList(createTrace("1")));
+        assertTrue(client.isCompressed());
+
+        // Server no longer supports compression, so should resend uncompressed
+        rejectCompressed = true;
+        acceptEncoding = null;
+
+        client.publish(null, Collections.singletonList(createTrace("2")));
+        assertFalse(client.isCompressed());
+
+        assertEquals(3, encodings.size());
+        assertEquals("gzip", encodings.get(1));
+        assertNull(encodings.get(2));
+        assertEquals(2, received.size());
+        assertEquals("2", received.get(1).getFragmentId());
+    }
+
+    @Test
+    public void testWireFormatNegotiated() throws Exception {
+        acceptEncoding = "gzip";
+        acceptPost = "application/json, application/x-jackson-smile";
+        TracePublisherRESTClient client = createClient();
+        assertEquals(WireFormat.Json, client.getWireFormat());
+
+        client.publish(null, Collections.singletonList(createTrace("1")));
+        assertEquals(WireFormat.Smile, client.getWireFormat());
+
+        client.publish(null, Collections.singletonList(createTrace("2")));
+
+        assertEquals("application/json", contentTypes.get(0));
+        assertEquals("application/x-jackson-smile", contentTypes.get(1));
+        assertEquals("gzip", encodings.get(1));
+
+        assertEquals(2, received.size());
+        assertEquals("2", received.get(1).getFragmentId());
+
+        // Server no longer supports binary format, so should resend as JSON
+        rejectCompressed = true;
+        acceptEncoding = null;
+        acceptPost = null;
+
+        client.publish(null, Collections.singletonList(createTrace("3")));
+        assertEquals(WireFormat.Json, client.getWireFormat());
+        assertEquals("application/json", contentTypes.get(3));
+        assertEquals(3, received.size());
+    }
+
+    protected static Trace createTrace(String id) {
+        Trace trace = new Trace();
+        trace.setFragmentId(id);
+        trace.setTraceId(id);
+        return trace;
+    }
+}
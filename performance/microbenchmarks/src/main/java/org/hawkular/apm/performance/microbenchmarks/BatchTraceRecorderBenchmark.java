@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.api.services.TracePublisher;
+import org.hawkular.apm.client.api.recorder.BatchTraceRecorder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark compares the lock based and lock-free modes of the
+ * {@link BatchTraceRecorder} with varying numbers of producer threads.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchTraceRecorderBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean lockFree;
+
+    private BatchTraceRecorder recorder;
+
+    private final Trace trace = new Trace();
+
+    @Setup
+    public void setup() {
+        recorder = new BatchTraceRecorder.BatchTraceRecorderBuilder()
+                .withTracePublisher(new NoOpTracePublisher())
+                .withBatchSize(1000)
+                .withBatchTime(500)
+                .withLockFree(lockFree)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (recorder.getDroppedTraces() > 0) {
+            System.out.println("\nDropped traces: " + recorder.getDroppedTraces());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void record1() {
+        recorder.record(trace);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void record4() {
+        recorder.record(trace);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void record16() {
+        recorder.record(trace);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void record64() {
+        recorder.record(trace);
+    }
+
+    public static class NoOpTracePublisher implements TracePublisher {
+
+        @Override
+        public int getInitialRetryCount() {
+            return 0;
+        }
+
+        @Override
+        public void publish(String tenantId, List<Trace> items) throws Exception {
+        }
+
+        @Override
+        public void publish(String tenantId, List<Trace> items, int retryCount, long delay) throws Exception {
+        }
+
+        @Override
+        public void retry(String tenantId, List<Trace> items, String subscriber, int retryCount, long delay)
+                throws Exception {
+        }
+
+        @Override
+        public void setMetricHandler(PublisherMetricHandler<Trace> handler) {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.config.CollectorConfiguration;
+import org.hawkular.apm.api.model.config.txn.Filter;
+import org.hawkular.apm.api.model.config.txn.TransactionConfig;
+import org.hawkular.apm.client.collector.internal.FilterManager;
+import org.hawkular.apm.client.collector.internal.FilterProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the throughput of {@link FilterManager#getFilterProcessor(String)},
+ * which is invoked whenever a trace is activated, with 1 and 64 concurrently activating threads.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterManagerBenchmark {
+
+    @Param({ "10", "400" })
+    public int transactions;
+
+    private FilterManager filterManager;
+
+    private String[] endpoints;
+
+    @Setup
+    public void setup() {
+        CollectorConfiguration config = new CollectorConfiguration();
+
+        // Global exclusion of static resources
+        TransactionConfig exclusions = new TransactionConfig();
+        exclusions.setFilter(new Filter());
+        exclusions.getFilter().getExclusions().add("\\.(css|js|png)$");
+        config.getTransactions().put("exclusions", exclusions);
+
+        for (int i = 0; i < transactions; i++) {
+            TransactionConfig txn = new TransactionConfig();
+            txn.setFilter(new Filter());
+            txn.getFilter().getInclusions().add("^/service" + i + "/");
+            config.getTransactions().put("txn" + i, txn);
+        }
+
+        filterManager = new FilterManager(config);
+
+        endpoints = new String[] {
+                "/service0/orders",
+                "/service" + (transactions / 2) + "/orders/123",
+                "/service" + (transactions - 1) + "/inventory",
+                "/unknown/path",
+                "/static/app.js"
+        };
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public FilterProcessor activate1(ThreadState state) {
+        return filterManager.getFilterProcessor(endpoints[state.index++ % endpoints.length]);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public FilterProcessor activate64(ThreadState state) {
+        return filterManager.getFilterProcessor(endpoints[state.index++ % endpoints.length]);
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.trace.Component;
+import org.hawkular.apm.api.model.trace.Node;
+import org.hawkular.apm.client.collector.internal.FragmentBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This benchmark measures the time taken by a single thread to build a trace fragment
+ * with a hierarchy of nested nodes, pushing and popping each node and obtaining the
+ * current node, as performed by the collector for each instrumented activity.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FragmentBuilderBenchmark {
+
+    @Param({ "50" })
+    public int depth;
+
+    @Benchmark
+    public boolean buildFragment(Blackhole bh) {
+        FragmentBuilder builder = new FragmentBuilder();
+
+        for (int i = 0; i < depth; i++) {
+            bh.consume(builder.getCurrentNode());
+            builder.pushNode(new Component());
+        }
+
+        for (int i = 0; i < depth; i++) {
+            Node node = builder.getCurrentNode();
+            bh.consume(builder.popNode(Component.class, node.getUri()));
+        }
+
+        return builder.isComplete();
+    }
+
+}
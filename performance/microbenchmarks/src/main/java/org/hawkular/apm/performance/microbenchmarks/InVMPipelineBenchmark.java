@@ -0,0 +1,314 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.hawkular.apm.api.model.events.CommunicationDetails;
+import org.hawkular.apm.api.model.events.NodeDetails;
+import org.hawkular.apm.api.model.events.SourceInfo;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.AnalyticsService;
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.api.services.TraceService;
+import org.hawkular.apm.api.utils.WireFormat;
+import org.hawkular.apm.server.api.services.CommunicationDetailsCache;
+import org.hawkular.apm.server.api.services.SourceInfoCache;
+import org.hawkular.apm.server.api.task.AbstractProcessor;
+import org.hawkular.apm.server.api.task.ProcessingUnit;
+import org.hawkular.apm.server.api.task.Processor;
+import org.hawkular.apm.server.api.task.Processor.ProcessorType;
+import org.hawkular.apm.server.api.task.RetryAttemptException;
+import org.hawkular.apm.server.api.utils.SourceInfoUtil;
+import org.hawkular.apm.server.processor.communicationdetails.CommunicationDetailsDeriver;
+import org.hawkular.apm.server.processor.invm.TraceProcessingPipeline;
+import org.hawkular.apm.server.processor.nodedetails.NodeDetailsDeriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * This benchmark measures the time for a batch of trace fragments to be processed by the
+ * trace, node details and communication details processors, using the in-VM
+ * {@link TraceProcessingPipeline}, compared with passing the events between the same processors
+ * serialized, with each subscriber deserializing its own copy, as when they are connected
+ * via JMS topics (excluding the broker itself). The stores are no-ops.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InVMPipelineBenchmark {
+
+    private static final WireFormat FORMAT = WireFormat.Smile;
+
+    @Param({ "100" })
+    public int batchSize;
+
+    @Param({ "1", "2" })
+    public int workers;
+
+    private List<Trace> traces;
+
+    private final AtomicLong stored = new AtomicLong();
+
+    private TraceProcessingPipeline pipeline;
+
+    private SerializedTopic<Trace> serialized;
+
+    @Setup
+    public void setup() {
+        traces = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            Trace trace = WireFormatBenchmark.createTrace(i);
+
+            // Link each fragment to the producer in the previous fragment, so communication
+            // details are derived without retries
+            List<CorrelationIdentifier> cids = trace.getNodes().get(0).getCorrelationIds();
+            cids.clear();
+            if (i > 0) {
+                cids.add(new CorrelationIdentifier(CorrelationIdentifier.Scope.Interaction, "pid" + (i - 1)));
+            }
+            traces.add(trace);
+        }
+
+        TraceService traceService = service(TraceService.class);
+        AnalyticsService analyticsService = service(AnalyticsService.class);
+        SourceInfoCache sourceInfoCache = new SourceInfoCacheMap();
+        CommunicationDetailsCache communicationDetailsCache = new CommunicationDetailsCacheMap();
+
+        pipeline = new TraceProcessingPipeline(traceService, analyticsService, sourceInfoCache,
+                communicationDetailsCache, workers, 1024, 3);
+        pipeline.start();
+
+        serialized = new SerializedTopic<>(new TypeReference<List<Trace>>() {
+        });
+        SerializedTopic<NodeDetails> nodeDetails = new SerializedTopic<>(new TypeReference<List<NodeDetails>>() {
+        });
+        SerializedTopic<CommunicationDetails> communicationDetails = new SerializedTopic<>(
+                new TypeReference<List<CommunicationDetails>>() {
+                });
+
+        serialized.subscribe(() -> new Store<Trace>(traceService::storeFragments), null);
+        serialized.subscribe(() -> new Store<Trace>((tenantId, items) ->
+                sourceInfoCache.store(tenantId, SourceInfoUtil.getSourceInfo(tenantId, items))), null);
+        serialized.subscribe(() -> new NodeDetailsDeriver(), nodeDetails);
+        serialized.subscribe(() -> {
+            CommunicationDetailsDeriver deriver = new CommunicationDetailsDeriver();
+            deriver.setSourceInfoCache(sourceInfoCache);
+            return deriver;
+        }, communicationDetails);
+        nodeDetails.subscribe(() -> new Store<NodeDetails>(analyticsService::storeNodeDetails), null);
+        communicationDetails.subscribe(() -> new Store<CommunicationDetails>(
+                analyticsService::storeCommunicationDetails), null);
+        communicationDetails.subscribe(() -> new Store<CommunicationDetails>(communicationDetailsCache::store),
+                null);
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException {
+        pipeline.stop(1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public long inVM() throws Exception {
+        pipeline.getTracePublisher().publish(null, traces);
+        if (!pipeline.getPipeline().awaitIdle(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Pipeline did not complete");
+        }
+        return stored.get();
+    }
+
+    @Benchmark
+    public long serialized() throws Exception {
+        serialized.publish(null, traces);
+        return stored.get();
+    }
+
+    protected <T> T service(Class<T> intf) {
+        return intf.cast(Proxy.newProxyInstance(intf.getClassLoader(), new Class<?>[] { intf },
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("store")) {
+                        stored.addAndGet(((List<?>) args[1]).size());
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * This interface represents the operation used to store a list of items.
+     */
+    @FunctionalInterface
+    protected interface StoreOperation<T> {
+
+        void store(String tenantId, List<T> items) throws Exception;
+
+    }
+
+    /**
+     * This processor stores the items.
+     */
+    protected static class Store<T> extends AbstractProcessor<T, Void> {
+
+        private final StoreOperation<T> operation;
+
+        public Store(StoreOperation<T> operation) {
+            super(ProcessorType.ManyToMany);
+            this.operation = operation;
+        }
+
+        @Override
+        public List<Void> processManyToMany(String tenantId, List<T> items) throws RetryAttemptException {
+            try {
+                operation.store(tenantId, items);
+            } catch (Exception e) {
+                throw new RetryAttemptException(e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * This class synchronously delivers the published items to each subscribed processor,
+     * serialized once by the publisher and deserialized by each subscriber.
+     */
+    protected static class SerializedTopic<T> implements Publisher<T> {
+
+        private final TypeReference<List<T>> typeReference;
+        private final List<Subscriber<T, ?>> subscribers = new ArrayList<>();
+
+        public SerializedTopic(TypeReference<List<T>> typeReference) {
+            this.typeReference = typeReference;
+        }
+
+        public <R> void subscribe(Supplier<Processor<T, R>> processor, Publisher<R> publisher) {
+            subscribers.add(new Subscriber<T, R>(processor.get(), publisher));
+        }
+
+        @Override
+        public int getInitialRetryCount() {
+            return 0;
+        }
+
+        @Override
+        public void publish(String tenantId, List<T> items) throws Exception {
+            publish(tenantId, items, 0, 0);
+        }
+
+        @Override
+        public void publish(String tenantId, List<T> items, int retryCount, long delay) throws Exception {
+            byte[] data = FORMAT.serialize(items);
+            for (int i = 0; i < subscribers.size(); i++) {
+                subscribers.get(i).process(this, tenantId, deserialize(data));
+            }
+        }
+
+        @Override
+        public void retry(String tenantId, List<T> items, String subscriber, int retryCount, long delay) {
+        }
+
+        @Override
+        public void setMetricHandler(PublisherMetricHandler<T> handler) {
+        }
+
+        protected List<T> deserialize(byte[] data) throws IOException {
+            return FORMAT.deserialize(data, typeReference);
+        }
+    }
+
+    private static final class Subscriber<T, R> {
+
+        private final Processor<T, R> processor;
+        private final Publisher<R> publisher;
+
+        private Subscriber(Processor<T, R> processor, Publisher<R> publisher) {
+            this.processor = processor;
+            this.publisher = publisher;
+        }
+
+        private void process(Publisher<T> topic, String tenantId, List<T> items) throws Exception {
+            ProcessingUnit.create(processor, publisher, topic, null, 0).handle(tenantId, items);
+        }
+    }
+
+    private static final class SourceInfoCacheMap implements SourceInfoCache {
+
+        private final Map<String, SourceInfo> cache = new ConcurrentHashMap<>();
+
+        @Override
+        public SourceInfo get(String tenantId, String id) {
+            return cache.get(id);
+        }
+
+        @Override
+        public void store(String tenantId, List<SourceInfo> sourceInfoList) {
+            for (int i = 0; i < sourceInfoList.size(); i++) {
+                cache.put(sourceInfoList.get(i).getId(), sourceInfoList.get(i));
+            }
+        }
+    }
+
+    private static final class CommunicationDetailsCacheMap implements CommunicationDetailsCache {
+
+        private final Map<String, CommunicationDetails> cache = new ConcurrentHashMap<>();
+
+        @Override
+        public CommunicationDetails get(String tenantId, String id) {
+            return cache.get(id);
+        }
+
+        @Override
+        public List<CommunicationDetails> getById(String tenantId, String id) {
+            CommunicationDetails cd = cache.get(id);
+            return (cd == null ? Collections.emptyList() : Collections.singletonList(cd));
+        }
+
+        @Override
+        public void store(String tenantId, List<CommunicationDetails> details) {
+            for (int i = 0; i < details.size(); i++) {
+                cache.put(details.get(i).getLinkId(), details.get(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.internal.actions.helpers.JSON;
+import org.hawkular.apm.api.model.config.CollectorConfiguration;
+import org.hawkular.apm.api.model.config.Direction;
+import org.hawkular.apm.api.model.config.txn.DataSource;
+import org.hawkular.apm.api.model.config.txn.JSONExpression;
+import org.hawkular.apm.api.model.config.txn.Processor;
+import org.hawkular.apm.api.model.config.txn.SetPropertyAction;
+import org.hawkular.apm.api.model.config.txn.TransactionConfig;
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.NodeType;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.client.collector.internal.ProcessorManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This benchmark measures the time taken to process a REST request payload (of 10 or 50 KB)
+ * with a processor containing five JSON expression actions. The 'unscoped' benchmark evaluates
+ * the same expressions without a parse scope, so the payload is parsed by each expression.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONExpressionBenchmark {
+
+    private static final String[] JSONPATHS = {
+            "$.orderId",
+            "$.customer.id",
+            "$.customer.address.country",
+            "$.items[0].sku",
+            "$.payment.method"
+    };
+
+    @Param({ "10", "50" })
+    public int payloadKB;
+
+    private String payload;
+
+    private ProcessorManager processorManager;
+
+    private Trace trace;
+
+    @Setup
+    public void setup() {
+        payload = createPayload(payloadKB * 1024);
+
+        Processor processor = new Processor();
+        processor.setNodeType(NodeType.Consumer);
+        processor.setDirection(Direction.In);
+
+        for (int i = 0; i < JSONPATHS.length; i++) {
+            JSONExpression expr = new JSONExpression();
+            expr.setSource(DataSource.Content);
+            expr.setKey("0");
+            expr.setJsonpath(JSONPATHS[i]);
+
+            SetPropertyAction action = new SetPropertyAction();
+            action.setName("prop" + i);
+            action.setExpression(expr);
+            processor.getActions().add(action);
+        }
+
+        TransactionConfig btc = new TransactionConfig();
+        btc.getProcessors().add(processor);
+
+        CollectorConfiguration config = new CollectorConfiguration();
+        config.getTransactions().put("orders", btc);
+
+        processorManager = new ProcessorManager(config);
+
+        trace = new Trace();
+        trace.setTransaction("orders");
+    }
+
+    @Benchmark
+    public Consumer process() {
+        Consumer consumer = new Consumer();
+        consumer.setUri("/orders");
+        processorManager.process(trace, consumer, Direction.In, null, payload);
+        return consumer;
+    }
+
+    @Benchmark
+    public void unscoped(Blackhole bh) {
+        for (int i = 0; i < JSONPATHS.length; i++) {
+            bh.consume(JSON.evaluate(JSONPATHS[i], payload));
+        }
+    }
+
+    protected static String createPayload(int size) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("{\"orderId\":\"ord-1234567\",\"customer\":{\"id\":\"cust-98765\",\"name\":\"Joe Bloggs\",")
+                .append("\"address\":{\"street\":\"1 Main Street\",\"city\":\"Springfield\",\"country\":\"UK\"}},")
+                .append("\"payment\":{\"method\":\"card\",\"currency\":\"GBP\"},\"items\":[");
+        for (int i = 0; buf.length() < size; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append("{\"sku\":\"sku-").append(i).append("\",\"description\":\"Item number ").append(i)
+                    .append("\",\"quantity\":").append(i % 5 + 1).append(",\"price\":").append(i * 1.25)
+                    .append(",\"tags\":[\"new\",\"sale\"]}");
+        }
+        buf.append("]}");
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.client.api.recorder.TraceRecorder;
+import org.hawkular.apm.client.api.sampler.Sampler;
+import org.hawkular.apm.client.opentracing.APMTracer;
+import org.hawkular.apm.client.opentracing.DeploymentMetaData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+
+/**
+ * This benchmark measures the cost of creating and finishing the spans for a service
+ * invocation using the OpenTracing tracer, including building the node hierarchy when
+ * the trace fragment is completed. Run with '-prof gc' to report the allocation per
+ * fragment.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpenTracingSpanBenchmark {
+
+    @Param({ "8" })
+    public int children;
+
+    @Param({ "4" })
+    public int grandchildren;
+
+    private Tracer tracer;
+    private Trace last;
+
+    @Setup
+    public void setup() {
+        TraceRecorder recorder = trace -> last = trace;
+        tracer = new APMTracer(recorder, Sampler.ALWAYS_SAMPLE, new DeploymentMetaData(null, null));
+    }
+
+    @Benchmark
+    public Trace buildSpans() {
+        Span root = tracer.buildSpan("root")
+                .withTag("http.url", "http://localhost/orders")
+                .start();
+
+        for (int i = 0; i < children; i++) {
+            Span child = tracer.buildSpan("child")
+                    .asChildOf(root)
+                    .withTag("component", "jdbc")
+                    .start();
+
+            for (int j = 0; j < grandchildren; j++) {
+                Span grandchild = tracer.buildSpan("grandchild")
+                        .asChildOf(child)
+                        .withTag("customer", "joe")
+                        .start();
+                grandchild.finish();
+            }
+            child.finish();
+        }
+        root.finish();
+
+        return last;
+    }
+
+}
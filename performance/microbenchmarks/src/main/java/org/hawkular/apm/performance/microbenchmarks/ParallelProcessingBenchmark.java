@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.events.NodeDetails;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.server.api.task.ProcessingUnit;
+import org.hawkular.apm.server.processor.nodedetails.NodeDetailsDeriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the throughput of a {@link ProcessingUnit} deriving node details
+ * from a batch of trace fragments, with the items processed sequentially or, as the
+ * {@link NodeDetailsDeriver} is parallel safe, concurrently.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelProcessingBenchmark {
+
+    @Param({ "1000" })
+    public int batchSize;
+
+    private List<Trace> traces;
+
+    private NodeDetailsDeriver deriver = new NodeDetailsDeriver();
+
+    @Setup
+    public void setup() {
+        traces = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            traces.add(WireFormatBenchmark.createTrace(i));
+        }
+    }
+
+    @Benchmark
+    public int sequential() throws Exception {
+        return process(0);
+    }
+
+    @Benchmark
+    public int parallel() throws Exception {
+        return process(batchSize);
+    }
+
+    protected int process(int parallelThreshold) throws Exception {
+        List<NodeDetails> results = new ArrayList<>();
+
+        ProcessingUnit<Trace, NodeDetails> pu = new ProcessingUnit<>();
+        pu.setProcessor(deriver);
+        pu.setParallelThreshold(parallelThreshold);
+        pu.setResultHandler((tenantId, items) -> results.addAll(items));
+        pu.handle(null, traces);
+
+        return results.size();
+    }
+
+}
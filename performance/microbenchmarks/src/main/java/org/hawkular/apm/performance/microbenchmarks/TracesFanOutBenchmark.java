@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.trace.ContainerNode;
+import org.hawkular.apm.api.model.trace.Node;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.utils.WireFormat;
+import org.hawkular.apm.server.api.task.AbstractProcessor;
+import org.hawkular.apm.server.api.task.FanOutHandler;
+import org.hawkular.apm.server.api.task.Processor;
+import org.hawkular.apm.server.api.task.Processor.ProcessorType;
+import org.hawkular.apm.server.api.task.ProcessingUnit;
+import org.hawkular.apm.server.api.task.RetryAttemptException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * This benchmark compares the cost of ingesting a batch of trace fragments, published to the
+ * Traces topic, by the trace processors when each processor deserializes the batch itself, with
+ * deserializing the batch once and dispatching it to the processors using a {@link FanOutHandler}.
+ * The processors derive information from each node, to represent the work performed by the
+ * node and communication details derivers.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TracesFanOutBenchmark {
+
+    private static final TypeReference<List<Trace>> TRACE_LIST = new TypeReference<List<Trace>>() {
+    };
+
+    private static final WireFormat FORMAT = WireFormat.Smile;
+
+    @Param({ "100" })
+    public int batchSize;
+
+    @Param({ "4" })
+    public int processors;
+
+    private byte[] data;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Trace> traces = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            traces.add(WireFormatBenchmark.createTrace(i));
+        }
+        data = FORMAT.serialize(traces);
+
+        executor = Executors.newFixedThreadPool(processors);
+    }
+
+    @TearDown
+    public void teardown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int separate() throws Exception {
+        int count = 0;
+        for (int i = 0; i < processors; i++) {
+            List<Trace> items = FORMAT.deserialize(data, TRACE_LIST);
+            List<String> results = new ArrayList<>();
+            createProcessingUnit(results).handle(null, items);
+            count += results.size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int fused() throws Exception {
+        return fanOut(null);
+    }
+
+    @Benchmark
+    public int fusedParallel() throws Exception {
+        return fanOut(executor);
+    }
+
+    protected int fanOut(ExecutorService executor) throws Exception {
+        List<Trace> items = FORMAT.deserialize(data, TRACE_LIST);
+
+        FanOutHandler<Trace> fanOut = new FanOutHandler<>();
+        fanOut.setExecutor(executor);
+
+        List<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < processors; i++) {
+            List<String> processorResults = new ArrayList<>();
+            results.add(processorResults);
+            fanOut.addHandler(createProcessingUnit(processorResults));
+        }
+
+        fanOut.handle(null, items);
+
+        int count = 0;
+        for (int i = 0; i < results.size(); i++) {
+            count += results.get(i).size();
+        }
+        return count;
+    }
+
+    protected static ProcessingUnit<Trace, String> createProcessingUnit(List<String> results) {
+        ProcessingUnit<Trace, String> pu = new ProcessingUnit<>();
+        pu.setProcessor(PROCESSOR);
+        pu.setResultHandler((tenantId, items) -> results.addAll(items));
+        return pu;
+    }
+
+    private static final Processor<Trace, String> PROCESSOR = new AbstractProcessor<Trace, String>(
+            ProcessorType.OneToMany) {
+
+        @Override
+        public List<String> processOneToMany(String tenantId, Trace item) throws RetryAttemptException {
+            List<String> ret = new ArrayList<>();
+            derive(item.getNodes(), ret);
+            return ret;
+        }
+
+        private void derive(List<Node> nodes, List<String> ret) {
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                ret.add(node.getUri() + "[" + node.getOperation() + "]");
+                if (node instanceof ContainerNode) {
+                    derive(((ContainerNode) node).getNodes(), ret);
+                }
+            }
+        }
+    };
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.performance.microbenchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.Property;
+import org.hawkular.apm.api.model.trace.Component;
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier.Scope;
+import org.hawkular.apm.api.model.trace.Producer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.utils.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * This benchmark compares the cost of serializing and deserializing a batch of
+ * trace fragments using the JSON and binary (Smile) wire formats.
+ *
+ * @author gbrown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    private static final TypeReference<List<Trace>> TRACE_LIST = new TypeReference<List<Trace>>() {
+    };
+
+    @Param({ "Json", "Smile" })
+    public WireFormat format;
+
+    @Param({ "10", "100" })
+    public int batchSize;
+
+    private List<Trace> traces;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        traces = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            traces.add(createTrace(i));
+        }
+        data = format.serialize(traces);
+
+        System.out.println("\n" + format + " batch size: " + data.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return format.serialize(traces);
+    }
+
+    @Benchmark
+    public List<Trace> deserialize() throws IOException {
+        return format.deserialize(data, TRACE_LIST);
+    }
+
+    @Benchmark
+    public List<Trace> roundTrip() throws IOException {
+        return format.deserialize(format.serialize(traces), TRACE_LIST);
+    }
+
+    protected static Trace createTrace(int id) {
+        Trace trace = new Trace();
+        trace.setTraceId("trace" + id);
+        trace.setFragmentId("fragment" + id);
+        trace.setTransaction("placeOrder");
+        trace.setHostName("host1.example.com");
+        trace.setHostAddress("10.0.0.1");
+        trace.setTimestamp(System.currentTimeMillis() * 1000);
+
+        Consumer consumer = new Consumer("/orders/place", "HTTP");
+        consumer.setOperation("POST");
+        consumer.setDuration(1500000);
+        consumer.getProperties().add(new Property("http.method", "POST"));
+        consumer.getProperties().add(new Property("customer", "customer" + (id % 10)));
+        consumer.getCorrelationIds().add(new CorrelationIdentifier(Scope.Interaction, "cid" + id));
+        trace.getNodes().add(consumer);
+
+        for (int i = 0; i < 5; i++) {
+            Component component = new Component("jdbc:postgresql://db:5432/orders", "Database");
+            component.setOperation("SELECT * FROM ORDERS WHERE ID = ?");
+            component.setDuration(20000);
+            consumer.getNodes().add(component);
+        }
+
+        Producer producer = new Producer("/inventory/reserve", "HTTP");
+        producer.setOperation("POST");
+        producer.setDuration(400000);
+        producer.getCorrelationIds().add(new CorrelationIdentifier(Scope.Interaction, "pid" + id));
+        consumer.getNodes().add(producer);
+
+        return trace;
+    }
+}
@@ -31,12 +31,19 @@ public abstract class AbstractProcessor<T, R> implements Processor<T,R> {
 
     private static final int DEFAULT_LAST_RETRY_DELAY = 10000;
 
+    private static final int DEFAULT_MAX_RETRY_COUNT = 3;
+
     private long retryDelay = PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_PROCESSOR_RETRY_DELAY,
             DEFAULT_RETRY_DELAY);
 
     private long lastRetryDelay = PropertyUtil.getPropertyAsInteger(
             PropertyUtil.HAWKULAR_APM_PROCESSOR_LAST_RETRY_DELAY, DEFAULT_LAST_RETRY_DELAY);
 
+    private int maxRetryCount = PropertyUtil.getPropertyAsInteger(
+            PropertyUtil.HAWKULAR_APM_PROCESSOR_MAX_RETRY_COUNT, DEFAULT_MAX_RETRY_COUNT);
+
+    private RetryBackoff retryBackoff;
+
     private ProcessorType type;
 
     /**
@@ -62,14 +69,42 @@ public abstract class AbstractProcessor<T, R> implements Processor<T,R> {
         return 0;
     }
 
+    /**
+     * @return The backoff policy used to determine the retry delay, or null if
+     *                  the configured retry delays should be used
+     */
+    public RetryBackoff getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * This method sets the backoff policy used to determine the retry delay. The
+     * retry attempt is derived from the remaining retry count of the failed items,
+     * relative to the configured maximum retry count.
+     *
+     * @param retryBackoff The backoff policy, or null if the configured retry delays
+     *                  should be used
+     */
+    public void setRetryBackoff(RetryBackoff retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
     @Override
     public long getRetryDelay(List<T> items, int retryCount) {
+        if (retryBackoff != null) {
+            return retryBackoff.getDelay(Math.max(1, maxRetryCount - retryCount));
+        }
         if (retryCount == 0) {
             return lastRetryDelay;
         }
         return retryDelay;
     }
 
+    @Override
+    public boolean isParallelSafe() {
+        return false;
+    }
+
     @Override
     public boolean isReportRetryExpirationAsWarning() {
         return true;
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+
+/**
+ * This class wraps a publisher, recording the items published by any number of
+ * threads, so that they can be published later by a single thread using the
+ * {@link #flush()} method. This enables a publisher that does not support concurrent
+ * use (e.g. one that holds a JMS session) to be shared by handlers that are invoked
+ * in parallel, such as those dispatched by a {@link FanOutHandler}.
+ *
+ * @author gbrown
+ */
+public class DeferredPublisher<T> implements Publisher<T> {
+
+    private final Publisher<T> publisher;
+
+    private final List<Deferred<T>> pending = new ArrayList<Deferred<T>>();
+
+    /**
+     * This constructor initialises the deferred publisher.
+     *
+     * @param publisher The publisher that will be used when flushed
+     */
+    public DeferredPublisher(Publisher<T> publisher) {
+        this.publisher = publisher;
+    }
+
+    @Override
+    public int getInitialRetryCount() {
+        return publisher.getInitialRetryCount();
+    }
+
+    @Override
+    public void publish(String tenantId, List<T> items) throws Exception {
+        defer(p -> p.publish(tenantId, items));
+    }
+
+    @Override
+    public void publish(String tenantId, List<T> items, int retryCount, long delay) throws Exception {
+        defer(p -> p.publish(tenantId, items, retryCount, delay));
+    }
+
+    @Override
+    public void retry(String tenantId, List<T> items, String subscriber, int retryCount, long delay)
+            throws Exception {
+        defer(p -> p.retry(tenantId, items, subscriber, retryCount, delay));
+    }
+
+    @Override
+    public void setMetricHandler(PublisherMetricHandler<T> handler) {
+        publisher.setMetricHandler(handler);
+    }
+
+    /**
+     * @return The number of deferred publications
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * This method publishes the deferred items, in the order they were recorded, using
+     * the calling thread. All publications are attempted, with the first failure being
+     * thrown once they have completed, and any others added as suppressed exceptions.
+     *
+     * @throws Exception Failed to publish
+     */
+    public void flush() throws Exception {
+        List<Deferred<T>> deferred;
+        synchronized (this) {
+            deferred = new ArrayList<Deferred<T>>(pending);
+            pending.clear();
+        }
+
+        Exception failure = null;
+        for (Deferred<T> d : deferred) {
+            try {
+                d.publish(publisher);
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized void defer(Deferred<T> d) {
+        pending.add(d);
+    }
+
+    /**
+     * This interface represents a deferred publication.
+     */
+    private interface Deferred<T> {
+
+        void publish(Publisher<T> publisher) throws Exception;
+
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class provides an exponential backoff policy, where the delay doubles
+ * with each retry attempt up to a maximum. A random jitter can be applied, so that
+ * items that failed together are not all retried at the same time.
+ *
+ * @author gbrown
+ */
+public class ExponentialBackoff implements RetryBackoff {
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double jitter;
+
+    /**
+     * This constructor initialises the backoff policy.
+     *
+     * @param initialDelay The delay (in milliseconds) before the first retry
+     * @param maxDelay The maximum delay (in milliseconds)
+     * @param jitter The fraction (between 0 and 1) of the delay that may be randomly
+     *                  removed from it
+     */
+    public ExponentialBackoff(long initialDelay, long maxDelay, double jitter) {
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid delays: initial=" + initialDelay + " max=" + maxDelay);
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+    }
+
+    @Override
+    public long getDelay(int attempt) {
+        long delay = initialDelay;
+        for (int i = 1; i < attempt && delay < maxDelay; i++) {
+            delay <<= 1;
+        }
+        if (delay > maxDelay) {
+            delay = maxDelay;
+        }
+        if (jitter > 0 && delay > 0) {
+            delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return delay;
+    }
+
+    @Override
+    public String toString() {
+        return "ExponentialBackoff [initialDelay=" + initialDelay + ", maxDelay=" + maxDelay
+                + ", jitter=" + jitter + "]";
+    }
+}
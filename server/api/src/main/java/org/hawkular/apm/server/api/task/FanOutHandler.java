@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * This class dispatches the same list of items to a number of handlers, so that
+ * items that have been received and deserialized once can be processed by
+ * multiple processing units. When an executor is supplied, the handlers are invoked
+ * in parallel, with the calling thread invoking the first handler. The list supplied to
+ * the handlers cannot be modified.
+ *
+ * Each handler is responsible for its own result and retry handling. If one or more
+ * handlers fail, the remaining handlers are still invoked, and the first failure is
+ * thrown once all have completed, with any others added as suppressed exceptions.
+ *
+ * @author gbrown
+ */
+public class FanOutHandler<T> implements Handler<T> {
+
+    private final List<Handler<T>> handlers = new ArrayList<Handler<T>>();
+
+    private Executor executor;
+
+    /**
+     * @return the handlers
+     */
+    public List<Handler<T>> getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * @param handler The handler to add
+     * @return The fan out handler
+     */
+    public FanOutHandler<T> addHandler(Handler<T> handler) {
+        handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor The executor used to invoke the handlers in parallel, or null
+     *                  if they should be invoked sequentially by the calling thread
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void handle(String tenantId, List<T> items) throws Exception {
+        List<T> shared = Collections.unmodifiableList(items);
+        Exception failure = null;
+
+        List<CompletableFuture<Void>> futures = null;
+        if (executor != null && handlers.size() > 1) {
+            futures = new ArrayList<CompletableFuture<Void>>(handlers.size() - 1);
+            for (int i = 1; i < handlers.size(); i++) {
+                Handler<T> handler = handlers.get(i);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        handler.handle(tenantId, shared);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+        }
+
+        for (int i = 0; i < handlers.size(); i++) {
+            if (futures == null || i == 0) {
+                try {
+                    handlers.get(i).handle(tenantId, shared);
+                } catch (Exception e) {
+                    failure = addFailure(failure, e);
+                }
+            } else {
+                try {
+                    futures.get(i - 1).join();
+                } catch (CompletionException e) {
+                    failure = addFailure(failure, e.getCause() instanceof Exception
+                            ? (Exception) e.getCause() : e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Exception addFailure(Exception failure, Exception e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class provides a broker-free pipeline, connecting processors within the same
+ * VM using {@link InVMPublisher} topics. Items are passed between processors by
+ * reference, without serialization, using bounded ring buffers per worker thread.
+ *
+ * The topics and their subscriptions should be created before the pipeline is started.
+ * Delayed deliveries and retries are scheduled using a single daemon thread.
+ *
+ * @author gbrown
+ */
+public class InVMPipeline {
+
+    private static final Logger log = Logger.getLogger(InVMPipeline.class.getName());
+
+    /** The default capacity (in batches) of each worker's buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final int bufferSize;
+    private final int initialRetryCount;
+
+    private final List<InVMPublisher<?>> topics = new CopyOnWriteArrayList<InVMPublisher<?>>();
+    private final AtomicLong pending = new AtomicLong();
+
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    /**
+     * This constructor initialises the pipeline.
+     *
+     * @param bufferSize The capacity (in batches) of each worker's buffer
+     * @param initialRetryCount The retry count associated with newly published items
+     */
+    public InVMPipeline(int bufferSize, int initialRetryCount) {
+        this.bufferSize = bufferSize;
+        this.initialRetryCount = initialRetryCount;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName("hawkular-apm-invm-scheduler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * This method creates a new topic within the pipeline.
+     *
+     * @param name The topic name
+     * @return The topic
+     */
+    public <T> InVMPublisher<T> createTopic(String name) {
+        InVMPublisher<T> topic = new InVMPublisher<T>(this, name);
+        topics.add(topic);
+        return topic;
+    }
+
+    /**
+     * @return The topics
+     */
+    public List<InVMPublisher<?>> getTopics() {
+        return topics;
+    }
+
+    /**
+     * This method starts the worker threads for all subscriptions.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            for (InVMPublisher<?> topic : topics) {
+                topic.start();
+            }
+        }
+    }
+
+    /**
+     * This method stops the pipeline, allowing the workers to complete any batches
+     * already in their buffers. Any deliveries that have not yet reached their scheduled
+     * time are discarded.
+     *
+     * @param timeout The maximum time to wait for each worker to stop
+     * @param unit The time unit
+     * @throws InterruptedException Interrupted while waiting for the workers to stop
+     */
+    public synchronized void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        if (running) {
+            running = false;
+
+            List<Runnable> discarded = scheduler.shutdownNow();
+            if (!discarded.isEmpty()) {
+                log.warning("In-VM pipeline stopped with " + discarded.size() + " scheduled deliveries");
+            }
+
+            for (InVMPublisher<?> topic : topics) {
+                topic.stop(unit.toMillis(timeout));
+            }
+        }
+    }
+
+    /**
+     * @return Whether the pipeline is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * This method waits until all published batches, including results and retries
+     * derived from them, have been processed.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The time unit
+     * @return Whether the pipeline became idle within the timeout
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending.get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of batches that have been published but not yet processed
+     */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * @return The capacity (in batches) of each worker's buffer
+     */
+    protected int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The retry count associated with newly published items
+     */
+    protected int getInitialRetryCount() {
+        return initialRetryCount;
+    }
+
+    /**
+     * This method records that a batch has been accepted for processing.
+     */
+    protected void accepted() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * This method records that a batch has been processed.
+     */
+    protected void completed() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * This method schedules a delivery to be performed after the supplied delay. The
+     * delivery is counted as pending until it has been performed.
+     *
+     * @param delivery The delivery
+     * @param delay The delay (in milliseconds)
+     */
+    protected void schedule(Runnable delivery, long delay) {
+        accepted();
+        scheduler.schedule(() -> {
+            try {
+                delivery.run();
+            } catch (Throwable t) {
+                log.log(Level.SEVERE, "Failed to perform scheduled delivery", t);
+            } finally {
+                completed();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+}
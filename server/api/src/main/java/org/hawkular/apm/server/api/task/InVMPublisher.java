@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.api.utils.MpscRingBuffer;
+
+/**
+ * This class represents a topic within an {@link InVMPipeline}. Each published batch
+ * is delivered, by reference, to every subscription, and a retry to only the named
+ * subscription. The list of items must therefore not be modified once published.
+ *
+ * Each subscription is processed by one or more worker threads, with their own processor
+ * instance, and batches distributed between them in turn. A worker's buffer is bounded,
+ * so a publisher is blocked while the buffer is full, applying backpressure to the
+ * upstream processors. The exception is a batch published by the worker itself (e.g.
+ * a processor that publishes to its own topic), which is held locally to avoid deadlock.
+ *
+ * @author gbrown
+ */
+public class InVMPublisher<T> implements Publisher<T> {
+
+    private static final Logger log = Logger.getLogger(InVMPublisher.class.getName());
+
+    /** The maximum number of batches drained from a worker's buffer at a time */
+    private static final int DRAIN_SIZE = 16;
+
+    /**
+     * The maximum time an idle worker will wait before checking for a batch again. Workers are
+     * unparked when a batch is offered and when the pipeline is stopped, so this only bounds the
+     * delay resulting from a wakeup being missed (e.g. if unparked before the thread started).
+     */
+    private static final long IDLE_WAIT = TimeUnit.SECONDS.toNanos(1);
+
+    /** The time a publisher waits before attempting to add to a full buffer again */
+    private static final long FULL_WAIT = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final InVMPipeline pipeline;
+    private final String name;
+
+    private final List<Subscription<?>> subscriptions = new CopyOnWriteArrayList<Subscription<?>>();
+
+    private PublisherMetricHandler<T> metricHandler;
+
+    /**
+     * This constructor initialises the topic.
+     *
+     * @param pipeline The pipeline
+     * @param name The topic name
+     */
+    protected InVMPublisher(InVMPipeline pipeline, String name) {
+        this.pipeline = pipeline;
+        this.name = name;
+    }
+
+    /**
+     * @return The topic name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This method subscribes a processor to the topic.
+     *
+     * @param subscriber The subscriber name, used to direct retries
+     * @param processorFactory The factory used to create the processor for each worker
+     * @param resultPublisher The publisher for the processor's results, or null if
+     *                  the processor does not produce results
+     * @param workers The number of worker threads
+     */
+    public <R> void subscribe(String subscriber, Supplier<Processor<T, R>> processorFactory,
+            Publisher<R> resultPublisher, int workers) {
+        subscribe(subscriber, processorFactory, resultPublisher, workers, null);
+    }
+
+    /**
+     * This method subscribes a processor, that modifies the items it receives, to the topic.
+     * The items are copied before being supplied to the processor, so that the changes are
+     * not visible to other subscriptions.
+     *
+     * @param subscriber The subscriber name, used to direct retries
+     * @param processorFactory The factory used to create the processor for each worker
+     * @param resultPublisher The publisher for the processor's results, or null if
+     *                  the processor does not produce results
+     * @param workers The number of worker threads
+     * @param copier The function used to copy the items, or null if the processor does
+     *                  not modify the items
+     */
+    public <R> void subscribe(String subscriber, Supplier<Processor<T, R>> processorFactory,
+            Publisher<R> resultPublisher, int workers, UnaryOperator<List<T>> copier) {
+        Subscription<R> subscription = new Subscription<R>(subscriber, processorFactory,
+                resultPublisher, workers, copier);
+        subscriptions.add(subscription);
+
+        if (pipeline.isRunning()) {
+            subscription.start();
+        }
+    }
+
+    @Override
+    public int getInitialRetryCount() {
+        return pipeline.getInitialRetryCount();
+    }
+
+    @Override
+    public void publish(String tenantId, List<T> items) throws Exception {
+        publish(tenantId, items, getInitialRetryCount(), 0);
+    }
+
+    @Override
+    public void publish(String tenantId, List<T> items, int retryCount, long delay) throws Exception {
+        long startTime = 0;
+        if (metricHandler != null) {
+            startTime = System.currentTimeMillis();
+        }
+
+        dispatch(tenantId, items, null, retryCount, delay);
+
+        if (metricHandler != null) {
+            metricHandler.published(tenantId, items, (System.currentTimeMillis() - startTime));
+        }
+    }
+
+    @Override
+    public void retry(String tenantId, List<T> items, String subscriber, int retryCount, long delay)
+            throws Exception {
+        dispatch(tenantId, items, subscriber, retryCount, delay);
+    }
+
+    @Override
+    public void setMetricHandler(PublisherMetricHandler<T> handler) {
+        this.metricHandler = handler;
+    }
+
+    /**
+     * This method delivers the items to the subscriptions, either immediately or
+     * after the supplied delay.
+     *
+     * @param tenantId The tenant
+     * @param items The items
+     * @param subscriber The subscriber, or null for all subscriptions
+     * @param retryCount The retry count
+     * @param delay The delay (in milliseconds)
+     */
+    protected void dispatch(String tenantId, List<T> items, String subscriber, int retryCount, long delay) {
+        if (!pipeline.isRunning()) {
+            throw new IllegalStateException("In-VM pipeline is not running");
+        }
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+
+        Batch<T> batch = new Batch<T>(tenantId, items, retryCount);
+
+        if (delay > 0) {
+            pipeline.schedule(() -> deliver(batch, subscriber), delay);
+        } else {
+            deliver(batch, subscriber);
+        }
+    }
+
+    /**
+     * This method delivers the batch to the subscriptions.
+     *
+     * @param batch The batch
+     * @param subscriber The subscriber, or null for all subscriptions
+     */
+    protected void deliver(Batch<T> batch, String subscriber) {
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription<?> subscription = subscriptions.get(i);
+            if (subscriber == null || subscriber.equals(subscription.name)) {
+                subscription.offer(batch);
+            }
+        }
+    }
+
+    /**
+     * This method starts the worker threads for the subscriptions.
+     */
+    protected void start() {
+        for (Subscription<?> subscription : subscriptions) {
+            subscription.start();
+        }
+    }
+
+    /**
+     * This method waits for the worker threads for the subscriptions to stop.
+     *
+     * @param timeout The maximum time (in milliseconds) to wait for each worker
+     * @throws InterruptedException Interrupted while waiting
+     */
+    protected void stop(long timeout) throws InterruptedException {
+        for (Subscription<?> subscription : subscriptions) {
+            subscription.stop(timeout);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InVMPublisher [name=" + name + ", subscriptions=" + subscriptions + "]";
+    }
+
+    /**
+     * This class represents a batch of items delivered to a subscription.
+     */
+    protected static final class Batch<T> {
+
+        private final String tenantId;
+        private final List<T> items;
+        private final int retryCount;
+
+        private Batch(String tenantId, List<T> items, int retryCount) {
+            this.tenantId = tenantId;
+            this.items = items;
+            this.retryCount = retryCount;
+        }
+    }
+
+    /**
+     * This class represents a processor's subscription to the topic.
+     */
+    private final class Subscription<R> {
+
+        private final String name;
+        private final Publisher<R> resultPublisher;
+        private final UnaryOperator<List<T>> copier;
+        private final List<Worker> workers;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Subscription(String name, Supplier<Processor<T, R>> processorFactory,
+                Publisher<R> resultPublisher, int workers, UnaryOperator<List<T>> copier) {
+            this.name = name;
+            this.resultPublisher = resultPublisher;
+            this.copier = copier;
+            this.workers = new ArrayList<Worker>(Math.max(1, workers));
+            for (int i = 0; i < Math.max(1, workers); i++) {
+                this.workers.add(new Worker(processorFactory.get(), i));
+            }
+        }
+
+        private void offer(Batch<T> batch) {
+            // A batch published by one of the subscription's own workers is kept by that worker,
+            // as it may otherwise block waiting for a worker that is itself blocked publishing
+            Thread current = Thread.currentThread();
+            for (int i = 0; i < workers.size(); i++) {
+                if (workers.get(i).thread == current) {
+                    workers.get(i).offerLocal(batch);
+                    return;
+                }
+            }
+
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE) % workers.size();
+            workers.get(index).offer(batch);
+        }
+
+        private void start() {
+            for (Worker worker : workers) {
+                worker.thread.start();
+            }
+        }
+
+        private void stop(long timeout) throws InterruptedException {
+            for (Worker worker : workers) {
+                LockSupport.unpark(worker.thread);
+                worker.thread.join(timeout);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + workers.size() + ")";
+        }
+
+        /**
+         * This class processes the batches delivered to a single worker thread.
+         */
+        private final class Worker implements Runnable {
+
+            private final Processor<T, R> processor;
+            private final Thread thread;
+            private final MpscRingBuffer<Batch<T>> buffer;
+
+            // Only accessed by the worker thread
+            private final ArrayDeque<Batch<T>> local = new ArrayDeque<Batch<T>>();
+            private final List<Batch<T>> drained = new ArrayList<Batch<T>>(DRAIN_SIZE);
+
+            private Worker(Processor<T, R> processor, int index) {
+                this.processor = processor;
+                this.buffer = new MpscRingBuffer<Batch<T>>(pipeline.getBufferSize());
+                this.thread = new Thread(this, "hawkular-apm-invm-" + InVMPublisher.this.name + "-"
+                        + Subscription.this.name + "-" + index);
+                this.thread.setDaemon(true);
+            }
+
+            private void offerLocal(Batch<T> batch) {
+                pipeline.accepted();
+                local.add(batch);
+            }
+
+            private void offer(Batch<T> batch) {
+                pipeline.accepted();
+
+                while (buffer.offer(batch) == -1) {
+                    if (!pipeline.isRunning()) {
+                        pipeline.completed();
+                        throw new IllegalStateException("In-VM pipeline is not running");
+                    }
+                    LockSupport.parkNanos(FULL_WAIT);
+                }
+                LockSupport.unpark(thread);
+            }
+
+            @Override
+            public void run() {
+                while (pipeline.isRunning() || !buffer.isEmpty() || !local.isEmpty()) {
+                    buffer.drain(drained, DRAIN_SIZE);
+
+                    if (drained.isEmpty() && local.isEmpty()) {
+                        // Re-check whether the pipeline is still running after each wakeup
+                        LockSupport.parkNanos(this, IDLE_WAIT);
+                        continue;
+                    }
+
+                    for (int i = 0; i < drained.size(); i++) {
+                        process(drained.get(i));
+                    }
+                    drained.clear();
+
+                    for (Batch<T> batch = local.poll(); batch != null; batch = local.poll()) {
+                        process(batch);
+                    }
+                }
+            }
+
+            private void process(Batch<T> batch) {
+                try {
+                    List<T> items = (copier == null ? batch.items : copier.apply(batch.items));
+
+                    ProcessingUnit.create(processor, resultPublisher, InVMPublisher.this, name,
+                            batch.retryCount).handle(batch.tenantId, items);
+                } catch (RetryAttemptException e) {
+                    if (processor.isReportRetryExpirationAsWarning()) {
+                        log.log(Level.WARNING, "Maximum retry reached for subscriber '" + name
+                                + "' on topic '" + InVMPublisher.this.name + "'", e);
+                    } else if (log.isLoggable(Level.FINEST)) {
+                        log.log(Level.FINEST, "Maximum retry reached. Last exception to occur ....", e);
+                    }
+                } catch (Throwable t) {
+                    log.log(Level.SEVERE, "Failed to process batch for subscriber '" + name
+                            + "' on topic '" + InVMPublisher.this.name + "'", t);
+                } finally {
+                    pipeline.completed();
+                }
+            }
+        }
+    }
+
+}
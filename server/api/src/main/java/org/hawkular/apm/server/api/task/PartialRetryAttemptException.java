@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This exception class can be thrown by a many-to-many processor to indicate that
+ * only some of the supplied items failed, and therefore only those items should be
+ * retried. Any results derived from the successfully processed items are also
+ * supplied, so that they can be delivered without waiting for the retry. The retried
+ * items share the remaining retry count of the batch they were received in.
+ *
+ * The store processors do not use this exception, as the store services report a
+ * failure for the whole batch rather than identifying the items that failed.
+ *
+ * @author gbrown
+ */
+public class PartialRetryAttemptException extends RetryAttemptException {
+
+    private static final long serialVersionUID = 4216893051298377415L;
+
+    private final transient List<?> retryItems;
+
+    private final transient List<?> results;
+
+    /**
+     * This constructor initialises the message, the items to be retried and the results
+     * derived from the successfully processed items.
+     *
+     * @param mesg The message
+     * @param retryItems The items to be retried
+     * @param results The results, or null if none
+     */
+    public PartialRetryAttemptException(String mesg, List<?> retryItems, List<?> results) {
+        super(mesg);
+        this.retryItems = retryItems;
+        this.results = results;
+    }
+
+    /**
+     * This constructor initialises the message, associated exception, the items to be retried
+     * and the results derived from the successfully processed items.
+     *
+     * @param mesg The message
+     * @param t The associated exception
+     * @param retryItems The items to be retried
+     * @param results The results, or null if none
+     */
+    public PartialRetryAttemptException(String mesg, Throwable t, List<?> retryItems, List<?> results) {
+        super(mesg, t);
+        this.retryItems = retryItems;
+        this.results = results;
+    }
+
+    /**
+     * @return The items to be retried
+     */
+    public List<?> getRetryItems() {
+        return retryItems == null ? Collections.emptyList() : retryItems;
+    }
+
+    /**
+     * @return The results derived from the successfully processed items, or null if none
+     */
+    public List<?> getResults() {
+        return results;
+    }
+}
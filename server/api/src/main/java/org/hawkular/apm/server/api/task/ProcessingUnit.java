@@ -18,10 +18,16 @@ package org.hawkular.apm.server.api.task;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.utils.PropertyUtil;
 import org.hawkular.apm.server.api.task.Processor.ProcessorType;
 
 /**
@@ -35,6 +41,14 @@ public class ProcessingUnit<T, R> implements Handler<T> {
 
     private static final Logger perfLog = Logger.getLogger("org.hawkular.apm.performance");
 
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 256;
+
+    private static final int PARALLEL_THRESHOLD = PropertyUtil.getPropertyAsInteger(
+            PropertyUtil.HAWKULAR_APM_PROCESSOR_PARALLEL_THRESHOLD, DEFAULT_PARALLEL_THRESHOLD);
+
+    /** The minimum number of items processed by each thread when processing concurrently */
+    private static final int MIN_PARALLEL_CHUNK = 32;
+
     private Processor<T, R> processor;
 
     private int retryCount;
@@ -43,6 +57,42 @@ public class ProcessingUnit<T, R> implements Handler<T> {
     private Handler<R> resultHandler;
     private Handler<T> retryHandler;
 
+    private int parallelThreshold = PARALLEL_THRESHOLD;
+
+    private Executor executor;
+
+    /**
+     * This method creates a processing unit to process a received list of items, publishing
+     * the results, and resubmitting failed items to the named subscriber.
+     *
+     * @param processor The processor
+     * @param publisher The publisher for the results
+     * @param retryPublisher The publisher for failed items
+     * @param retrySubscriber The subscriber that should receive failed items
+     * @param retryCount The remaining retry count
+     * @return The processing unit
+     */
+    public static <T, R> ProcessingUnit<T, R> create(Processor<T, R> processor, Publisher<R> publisher,
+            Publisher<T> retryPublisher, String retrySubscriber, int retryCount) {
+        ProcessingUnit<T, R> pu = new ProcessingUnit<T, R>();
+
+        pu.setProcessor(processor);
+        pu.setRetrySubscriber(retrySubscriber);
+        pu.setRetryCount(retryCount);
+
+        pu.setResultHandler(
+                (tid, events) -> publisher.publish(tid, events, publisher.getInitialRetryCount(),
+                                processor.getDeliveryDelay(events))
+        );
+
+        pu.setRetryHandler(
+                (tid, events) -> retryPublisher.retry(tid, events, pu.getRetrySubscriber(),
+                        pu.getRetryCount() - 1, processor.getRetryDelay(events, pu.getRetryCount() - 1))
+        );
+
+        return pu;
+    }
+
     /**
      * @return the processor
      */
@@ -113,6 +163,44 @@ public class ProcessingUnit<T, R> implements Handler<T> {
         this.retryHandler = retryHandler;
     }
 
+    /**
+     * @return The minimum number of items in a batch, for the items to be processed
+     *                  concurrently if supported by the processor, or 0 if always sequential
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param parallelThreshold The minimum number of items in a batch, for the items to be
+     *                  processed concurrently if supported by the processor, or 0 if always sequential
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * This method sets the executor used to process a batch concurrently. As the calling
+     * thread waits for the chunks to complete, the executor should not be the bounded pool
+     * that is running the caller, otherwise the pool can be exhausted by callers waiting for
+     * their own chunks. Callers already running on such a pool should instead set the
+     * parallel threshold to 0.
+     *
+     * @param executor The executor used to process a batch concurrently (e.g. a managed
+     *                  executor service), or null if the common fork/join pool should be used
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @SuppressWarnings("unchecked")
     @Override
     public void handle(String tenantId, List<T> items) throws Exception {
         List<R> results = null;
@@ -129,38 +217,21 @@ public class ProcessingUnit<T, R> implements Handler<T> {
             }
 
             if (processor.getType() == ProcessorType.ManyToMany) {
-                results = processor.processManyToMany(tenantId, items);
+                try {
+                    results = processor.processManyToMany(tenantId, items);
+                } catch (PartialRetryAttemptException e) {
+                    // Only retry the failed items, and deliver the results for the others
+                    results = (List<R>) e.getResults();
+                    retries = (List<T>) e.getRetryItems();
+                    lastException = e;
+                }
 
             } else {
-                for (int i = 0; i < items.size(); i++) {
-                    try {
-                        if (processor.getType() == ProcessorType.OneToMany) {
-                            List<R> result = processor.processOneToMany(tenantId, items.get(i));
-                            if (resultHandler != null && result != null && !result.isEmpty()) {
-                                if (results == null) {
-                                    results = new ArrayList<R>();
-                                }
-                                results.addAll(result);
-                            }
-                        } else {
-                            R result = processor.processOneToOne(tenantId, items.get(i));
-                            if (resultHandler != null && result != null) {
-                                if (results == null) {
-                                    results = new ArrayList<R>();
-                                }
-                                results.add(result);
-                            }
-                        }
-                    } catch (RetryAttemptException e) {
-                        if (retryHandler != null) {
-                            if (retries == null) {
-                                retries = new ArrayList<T>();
-                            }
-                            retries.add(items.get(i));
-                            lastException = e;
-                        }
-                    }
-                }
+                Outcome<T, R> outcome = (isParallel(items) ? processParallel(tenantId, items)
+                        : process(tenantId, items, 0, items.size()));
+                results = outcome.results;
+                retries = outcome.retries;
+                lastException = outcome.lastException;
             }
 
             // If performance logging enabled, log the duration associated with the event processing
@@ -189,4 +260,160 @@ public class ProcessingUnit<T, R> implements Handler<T> {
         }
     }
 
+    /**
+     * This method determines whether the supplied items should be processed
+     * concurrently.
+     *
+     * @param items The items
+     * @return Whether the items should be processed concurrently
+     */
+    protected boolean isParallel(List<T> items) {
+        return parallelThreshold > 0 && items.size() >= parallelThreshold
+                && items.size() >= MIN_PARALLEL_CHUNK * 2 && getParallelism() > 1
+                && processor.isParallelSafe();
+    }
+
+    /**
+     * @return The maximum number of threads used to process a batch concurrently
+     */
+    protected int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * This method processes the supplied items concurrently, by splitting them into
+     * contiguous chunks. The first chunk is processed by the calling thread, and the
+     * others using the executor, or the common fork/join pool if no executor has been
+     * set. The outcomes are combined in the order of the chunks, so the results and
+     * retries are in the same order as if the items had been processed sequentially.
+     * If processing a chunk fails, the chunks that have not yet started are cancelled.
+     *
+     * @param tenantId The optional tenant id
+     * @param items The items
+     * @return The outcome
+     */
+    protected Outcome<T, R> processParallel(String tenantId, List<T> items) {
+        int chunks = Math.max(1, Math.min(getParallelism(), items.size() / MIN_PARALLEL_CHUNK));
+        int chunkSize = (items.size() + chunks - 1) / chunks;
+
+        Executor exec = (executor == null ? ForkJoinPool.commonPool() : executor);
+
+        List<CompletableFuture<Outcome<T, R>>> tasks = new ArrayList<CompletableFuture<Outcome<T, R>>>(chunks - 1);
+        Outcome<T, R> outcome;
+        try {
+            for (int from = chunkSize; from < items.size(); from += chunkSize) {
+                int start = from;
+                int end = Math.min(items.size(), from + chunkSize);
+                tasks.add(CompletableFuture.supplyAsync(() -> process(tenantId, items, start, end), exec));
+            }
+
+            outcome = process(tenantId, items, 0, chunkSize);
+        } catch (RuntimeException | Error e) {
+            cancel(tasks, 0);
+            throw e;
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            Outcome<T, R> other;
+            try {
+                other = tasks.get(i).join();
+            } catch (CompletionException e) {
+                cancel(tasks, i + 1);
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+            if (other.results != null) {
+                if (outcome.results == null) {
+                    outcome.results = other.results;
+                } else {
+                    outcome.results.addAll(other.results);
+                }
+            }
+            if (other.retries != null) {
+                if (outcome.retries == null) {
+                    outcome.retries = other.retries;
+                } else {
+                    outcome.retries.addAll(other.retries);
+                }
+                outcome.lastException = other.lastException;
+            }
+        }
+
+        return outcome;
+    }
+
+    /**
+     * This method cancels the tasks, from the supplied index, so that those that have
+     * not yet started are not run.
+     *
+     * @param tasks The tasks
+     * @param from The index of the first task to cancel
+     */
+    private static void cancel(List<? extends CompletableFuture<?>> tasks, int from) {
+        for (int i = from; i < tasks.size(); i++) {
+            tasks.get(i).cancel(false);
+        }
+    }
+
+    /**
+     * This method processes a range of the supplied items individually, using a
+     * one-to-one or one-to-many processor.
+     *
+     * @param tenantId The optional tenant id
+     * @param items The items
+     * @param from The index of the first item to process
+     * @param to The index after the last item to process
+     * @return The outcome
+     */
+    protected Outcome<T, R> process(String tenantId, List<T> items, int from, int to) {
+        Outcome<T, R> outcome = new Outcome<T, R>();
+
+        for (int i = from; i < to; i++) {
+            try {
+                if (processor.getType() == ProcessorType.OneToMany) {
+                    List<R> result = processor.processOneToMany(tenantId, items.get(i));
+                    if (resultHandler != null && result != null && !result.isEmpty()) {
+                        if (outcome.results == null) {
+                            outcome.results = new ArrayList<R>();
+                        }
+                        outcome.results.addAll(result);
+                    }
+                } else {
+                    R result = processor.processOneToOne(tenantId, items.get(i));
+                    if (resultHandler != null && result != null) {
+                        if (outcome.results == null) {
+                            outcome.results = new ArrayList<R>();
+                        }
+                        outcome.results.add(result);
+                    }
+                }
+            } catch (RetryAttemptException e) {
+                if (retryHandler != null) {
+                    if (outcome.retries == null) {
+                        outcome.retries = new ArrayList<T>();
+                    }
+                    outcome.retries.add(items.get(i));
+                    outcome.lastException = e;
+                }
+            }
+        }
+
+        return outcome;
+    }
+
+    /**
+     * This class represents the outcome of processing a range of items.
+     */
+    protected static final class Outcome<T, R> {
+
+        private List<R> results;
+        private List<T> retries;
+        private RetryAttemptException lastException;
+
+    }
+
 }
@@ -67,7 +67,11 @@ public interface Processor<T, R> {
 
     /**
      * This method processes the supplied items to
-     * generate zero or more resulting values.
+     * generate zero or more resulting values. If only some of the
+     * items fail, a {@link PartialRetryAttemptException} can be thrown
+     * to identify the items to be retried, along with the results derived
+     * from the other items. Any other {@link RetryAttemptException} results
+     * in all of the items being retried.
      *
      * @param tenantId The optional tenant id
      * @param items The items
@@ -76,6 +80,16 @@ public interface Processor<T, R> {
      */
     List<R> processManyToMany(String tenantId, List<T> items) throws RetryAttemptException;
 
+    /**
+     * This method determines whether the items in a batch can be processed
+     * concurrently. This only applies to one-to-one and one-to-many processors,
+     * and requires that processing an item does not depend upon, or modify, state
+     * shared with the processing of other items in the batch.
+     *
+     * @return Whether items can be processed concurrently
+     */
+    boolean isParallelSafe();
+
     /**
      * This method determines the delivery delay (in milliseconds)
      * associated with the supplied list of results.
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+/**
+ * This interface represents a policy for determining the delay before failed items
+ * are retried.
+ *
+ * @author gbrown
+ */
+@FunctionalInterface
+public interface RetryBackoff {
+
+    /**
+     * This method returns the delay (in milliseconds) before performing the supplied
+     * retry attempt.
+     *
+     * @param attempt The retry attempt, starting at 1 for the first retry
+     * @return The delay (in milliseconds)
+     */
+    long getDelay(int attempt);
+
+}
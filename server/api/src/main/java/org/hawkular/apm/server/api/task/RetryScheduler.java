@@ -0,0 +1,522 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class holds items that are to be retried after a delay in memory, rather than
+ * resubmitting them to the messaging system, which would require them to be serialized,
+ * persisted and deserialized again. When the delay has elapsed, the items are returned
+ * to the target that scheduled them.
+ *
+ * The number of items held is bounded. Once the limit is reached, further retries are
+ * spilled to the target's fallback (e.g. the broker), with their original delay. Items held
+ * for a target are also spilled, with their remaining delay, when the target is shut down.
+ * Once the scheduler itself has been shut down, all held items are spilled, as are any
+ * further retries, including those already dispatched but not yet returned to their target.
+ *
+ * The delays are managed using a hashed timing wheel, advanced by a ticker (e.g. a managed
+ * scheduled executor service, or by default a daemon thread) only while items are held.
+ * Items whose delay has elapsed are returned to their targets using an executor (e.g. a
+ * managed executor service), so that a slow target does not delay the retries for others.
+ * If the executor rejects the retry, the items are spilled to the target's fallback.
+ *
+ * @author gbrown
+ */
+public class RetryScheduler {
+
+    private static final Logger log = Logger.getLogger(RetryScheduler.class.getName());
+
+    /** The number of slots in the timing wheel */
+    private static final int WHEEL_SIZE = 512;
+
+    /** The time (in seconds) after which an idle thread in the default executor terminates */
+    private static final long DEFAULT_EXECUTOR_KEEPALIVE = 60;
+
+    private final int maxItems;
+    private final long tickDuration;
+
+    @SuppressWarnings("unchecked")
+    private final List<Entry<?>>[] wheel = new List[WHEEL_SIZE];
+    private long lastTick;
+    private int heldItems;
+    private boolean ticking;
+    private volatile boolean shutdown;
+    private ScheduledExecutorService ticker;
+    private ScheduledExecutorService defaultTicker;
+    private ScheduledFuture<?> tickTask;
+    private volatile Executor executor;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    /**
+     * This constructor initialises the scheduler.
+     *
+     * @param maxItems The maximum number of items held in memory, or 0 if all retries
+     *                  should be spilled
+     * @param tickDuration The resolution (in milliseconds) of the retry delays
+     */
+    public RetryScheduler(int maxItems, long tickDuration) {
+        this.maxItems = maxItems;
+        this.tickDuration = Math.max(1, tickDuration);
+
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<Entry<?>>();
+        }
+    }
+
+    /**
+     * @return The executor used to return the items to their targets
+     */
+    public Executor getExecutor() {
+        Executor ret = executor;
+        if (ret == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = createDefaultExecutor();
+                }
+                ret = executor;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * This method sets the executor used to return the items to their targets. If not
+     * set, a pool of daemon threads, that terminate when idle, is used.
+     *
+     * @param executor The executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return The scheduled executor used to advance the timing wheel, or null if a
+     *                  daemon thread is created when required
+     */
+    public synchronized ScheduledExecutorService getTicker() {
+        return ticker;
+    }
+
+    /**
+     * This method sets the scheduled executor used to advance the timing wheel. If not
+     * set, a daemon thread is created while items are held.
+     *
+     * @param ticker The scheduled executor
+     */
+    public synchronized void setTicker(ScheduledExecutorService ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * This method creates the executor used if none has been set.
+     *
+     * @return The executor
+     */
+    protected Executor createDefaultExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor ret = new ThreadPoolExecutor(threads, threads, DEFAULT_EXECUTOR_KEEPALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = Executors.defaultThreadFactory().newThread(r);
+                        t.setName("hawkular-apm-retry");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        ret.allowCoreThreadTimeOut(true);
+        return ret;
+    }
+
+    /**
+     * This method schedules the retry of the supplied items. If the maximum number of
+     * items are already held, then the items are spilled to the target's fallback.
+     *
+     * @param tenantId The tenant
+     * @param items The items to retry
+     * @param retryCount The remaining retry count
+     * @param delay The delay (in milliseconds)
+     * @param target The target that will retry the items
+     * @throws Exception Failed to spill the items
+     */
+    public <T> void schedule(String tenantId, List<T> items, int retryCount, long delay, Target<T> target)
+            throws Exception {
+        boolean full = false;
+
+        synchronized (this) {
+            if (!shutdown && heldItems + items.size() <= maxItems) {
+                if (heldItems == 0) {
+                    lastTick = currentTimeMillis() / tickDuration;
+                }
+                if (!ticking) {
+                    try {
+                        start();
+                        ticking = true;
+                    } catch (RejectedExecutionException e) {
+                        if (log.isLoggable(Level.FINEST)) {
+                            log.log(Level.FINEST, "Retry ticker rejected by executor, so spilling", e);
+                        }
+                    }
+                }
+
+                if (ticking) {
+                    add(new Entry<T>(tenantId, items, retryCount, currentTimeMillis() + delay, target));
+                    heldItems += items.size();
+                    scheduledCount.addAndGet(items.size());
+                    return;
+                }
+            } else {
+                full = !shutdown;
+            }
+        }
+
+        long previouslySpilled = spilledCount.getAndAdd(items.size());
+        if (full && (previouslySpilled == 0 || log.isLoggable(Level.FINEST))) {
+            log.warning("Maximum number of retry items held in memory (" + maxItems
+                    + ") reached, so spilling retries");
+        }
+        target.spill(tenantId, items, retryCount, delay);
+    }
+
+    /**
+     * This method spills any items held for the supplied target, with their remaining
+     * delay. It should be called before the target is shut down.
+     *
+     * @param target The target
+     */
+    public void spill(Target<?> target) {
+        spillHeld(target);
+    }
+
+    /**
+     * This method shuts down the scheduler, spilling all held items with their remaining
+     * delay, and stopping the ticker. Any further retries are spilled, including those
+     * that have already been dispatched to the executor but not yet returned to their
+     * target. It should be called before the targets are shut down.
+     */
+    public void shutdown() {
+        shutdown = true;
+        spillHeld(null);
+    }
+
+    /**
+     * @return Whether the scheduler has been shut down
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * This method spills the items held for the supplied target, or all targets,
+     * with their remaining delay.
+     *
+     * @param target The target, or null for all targets
+     */
+    private void spillHeld(Target<?> target) {
+        List<Entry<?>> removed = new ArrayList<Entry<?>>();
+
+        synchronized (this) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Iterator<Entry<?>> iter = wheel[i].iterator();
+                while (iter.hasNext()) {
+                    Entry<?> entry = iter.next();
+                    if (target == null || entry.target == target) {
+                        iter.remove();
+                        heldItems -= entry.items.size();
+                        removed.add(entry);
+                    }
+                }
+            }
+
+            if (heldItems == 0 && ticking) {
+                stop();
+                ticking = false;
+            }
+        }
+
+        long now = currentTimeMillis();
+        for (int i = 0; i < removed.size(); i++) {
+            Entry<?> entry = removed.get(i);
+            spill(entry, Math.max(0, entry.deadline - now));
+        }
+    }
+
+    /**
+     * @return The number of items currently held
+     */
+    public synchronized int size() {
+        return heldItems;
+    }
+
+    /**
+     * @return The number of items that have been held for retry
+     */
+    public long getScheduledCount() {
+        return scheduledCount.get();
+    }
+
+    /**
+     * @return The number of held items that have been returned to their target
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * @return The number of items that have been spilled to the fallback
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * This method starts advancing the timing wheel, using the ticker if set, otherwise
+     * a daemon thread.
+     *
+     * @throws RejectedExecutionException The ticker rejected the task
+     */
+    protected void start() {
+        ScheduledExecutorService exec = ticker;
+        if (exec == null) {
+            defaultTicker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setName("hawkular-apm-retry-scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            exec = defaultTicker;
+        }
+        tickTask = exec.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expire(currentTimeMillis());
+                } catch (Throwable t) {
+                    log.log(Level.SEVERE, "Failed to process scheduled retries", t);
+                }
+            }
+        }, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method stops advancing the timing wheel.
+     */
+    protected void stop() {
+        if (tickTask != null) {
+            tickTask.cancel(false);
+            tickTask = null;
+        }
+        if (defaultTicker != null) {
+            defaultTicker.shutdown();
+            defaultTicker = null;
+        }
+    }
+
+    /**
+     * This method advances the timing wheel to the supplied time, and dispatches the items
+     * whose delay has elapsed to the executor, to be returned to their targets.
+     *
+     * @param now The current time (in milliseconds)
+     */
+    protected void expire(long now) {
+        List<Entry<?>> due = new ArrayList<Entry<?>>();
+
+        synchronized (this) {
+            long currentTick = now / tickDuration;
+            long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+
+            for (long tick = firstTick; tick <= currentTick; tick++) {
+                Iterator<Entry<?>> iter = wheel[(int) (tick % WHEEL_SIZE)].iterator();
+                while (iter.hasNext()) {
+                    Entry<?> entry = iter.next();
+                    if (entry.deadline <= now) {
+                        iter.remove();
+                        heldItems -= entry.items.size();
+                        due.add(entry);
+                    }
+                }
+            }
+
+            if (currentTick > lastTick) {
+                lastTick = currentTick;
+            }
+
+            // Stop the ticker while there is nothing to retry
+            if (heldItems == 0 && ticking) {
+                stop();
+                ticking = false;
+            }
+        }
+
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Executor exec = getExecutor();
+        for (int i = 0; i < due.size(); i++) {
+            Entry<?> entry = due.get(i);
+            try {
+                exec.execute(() -> retry(entry));
+            } catch (RejectedExecutionException e) {
+                if (log.isLoggable(Level.FINEST)) {
+                    log.log(Level.FINEST, "Retry rejected by executor, so spilling", e);
+                }
+                spill(entry, 0);
+            }
+        }
+    }
+
+    /**
+     * This method returns the items associated with the supplied entry to its target.
+     *
+     * @param entry The entry
+     */
+    private void retry(Entry<?> entry) {
+        if (shutdown) {
+            // The target may already have been shut down
+            spill(entry, 0);
+            return;
+        }
+        retriedCount.addAndGet(entry.items.size());
+        try {
+            entry.retry();
+        } catch (Throwable t) {
+            log.log(Level.SEVERE, "Failed to retry " + entry.items.size() + " items", t);
+        }
+    }
+
+    /**
+     * This method spills the items associated with the supplied entry to its target's
+     * fallback.
+     *
+     * @param entry The entry
+     * @param delay The remaining delay (in milliseconds)
+     */
+    private void spill(Entry<?> entry, long delay) {
+        spilledCount.addAndGet(entry.items.size());
+        try {
+            entry.spill(delay);
+        } catch (Throwable t) {
+            log.log(Level.SEVERE, "Failed to spill " + entry.items.size() + " retry items", t);
+        }
+    }
+
+    /**
+     * This method adds the entry to the wheel slot associated with its deadline.
+     *
+     * @param entry The entry
+     */
+    private void add(Entry<?> entry) {
+        // Round up, so the entry will be due when its slot is processed
+        long tick = (entry.deadline + tickDuration - 1) / tickDuration;
+        if (tick <= lastTick) {
+            tick = lastTick + 1;
+        }
+        wheel[(int) (tick % WHEEL_SIZE)].add(entry);
+    }
+
+    /**
+     * @return The current time (in milliseconds)
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryScheduler [held=" + size() + ", scheduled=" + scheduledCount.get()
+                + ", retried=" + retriedCount.get() + ", spilled=" + spilledCount.get() + "]";
+    }
+
+    /**
+     * This interface represents the target that retries the items.
+     *
+     * @param <T> The item type
+     */
+    public interface Target<T> {
+
+        /**
+         * This method retries the items held in memory.
+         *
+         * @param tenantId The tenant
+         * @param items The items
+         * @param retryCount The remaining retry count
+         */
+        void retry(String tenantId, List<T> items, int retryCount);
+
+        /**
+         * This method resubmits the items via the fallback mechanism.
+         *
+         * @param tenantId The tenant
+         * @param items The items
+         * @param retryCount The remaining retry count
+         * @param delay The remaining delay (in milliseconds)
+         * @throws Exception Failed to resubmit the items
+         */
+        void spill(String tenantId, List<T> items, int retryCount, long delay) throws Exception;
+
+    }
+
+    /**
+     * This class represents the items scheduled for retry.
+     */
+    private static final class Entry<T> {
+
+        private final String tenantId;
+        private final List<T> items;
+        private final int retryCount;
+        private final long deadline;
+        private final Target<T> target;
+
+        private Entry(String tenantId, List<T> items, int retryCount, long deadline, Target<T> target) {
+            this.tenantId = tenantId;
+            this.items = items;
+            this.retryCount = retryCount;
+            this.deadline = deadline;
+            this.target = target;
+        }
+
+        private void retry() {
+            target.retry(tenantId, items, retryCount);
+        }
+
+        private void spill(long delay) throws Exception {
+            target.spill(tenantId, items, retryCount, delay);
+        }
+    }
+
+}
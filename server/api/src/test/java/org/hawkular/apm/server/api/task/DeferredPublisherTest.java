@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.server.api.task.Processor.ProcessorType;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class DeferredPublisherTest {
+
+    @Test
+    public void testConcurrentRetriesPublishedByFlushingThread() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TestPublisher retryPublisher = new TestPublisher();
+            DeferredPublisher<String> deferred = new DeferredPublisher<String>(retryPublisher);
+
+            // Both processors wait for each other, so that the handlers retry at the same time
+            CyclicBarrier barrier = new CyclicBarrier(2);
+
+            FanOutHandler<String> fanOut = new FanOutHandler<String>();
+            fanOut.setExecutor(executor);
+            fanOut.addHandler(ProcessingUnit.create(new RetryProcessor(barrier), null, deferred, "first", 3));
+            fanOut.addHandler(ProcessingUnit.create(new RetryProcessor(barrier), null, deferred, "second", 3));
+
+            fanOut.handle("tenant", Arrays.asList("hello"));
+
+            assertEquals(2, deferred.getPendingCount());
+            assertTrue(retryPublisher.subscribers.isEmpty());
+
+            deferred.flush();
+
+            assertEquals(0, deferred.getPendingCount());
+            assertEquals(2, retryPublisher.subscribers.size());
+            assertTrue(retryPublisher.subscribers.containsAll(Arrays.asList("first", "second")));
+            assertEquals(Collections.singleton(Thread.currentThread()),
+                    new HashSet<Thread>(retryPublisher.threads));
+            assertEquals(1, retryPublisher.maxActive.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFlushAttemptsAllPublications() throws Exception {
+        TestPublisher publisher = new TestPublisher();
+        publisher.fail = true;
+
+        DeferredPublisher<String> deferred = new DeferredPublisher<String>(publisher);
+        deferred.retry(null, Arrays.asList("hello"), "first", 2, 0);
+        deferred.publish(null, Arrays.asList("world"), 1, 0);
+
+        try {
+            deferred.flush();
+            fail("Should have failed");
+        } catch (Exception e) {
+            assertEquals("first", e.getMessage());
+            assertEquals(1, e.getSuppressed().length);
+        }
+
+        assertEquals(Arrays.asList("first", null), publisher.subscribers);
+        assertEquals(0, deferred.getPendingCount());
+    }
+
+    public static class RetryProcessor extends AbstractProcessor<String, String> {
+
+        private final CyclicBarrier barrier;
+
+        public RetryProcessor(CyclicBarrier barrier) {
+            super(ProcessorType.OneToOne);
+            this.barrier = barrier;
+        }
+
+        @Override
+        public String processOneToOne(String tenantId, String item) throws RetryAttemptException {
+            try {
+                barrier.await(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                fail("Handlers not invoked concurrently: " + e);
+            }
+            throw new RetryAttemptException("PLEASE RETRY");
+        }
+    }
+
+    public static class TestPublisher implements Publisher<String> {
+
+        private final List<String> subscribers = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private boolean fail = false;
+
+        @Override
+        public int getInitialRetryCount() {
+            return 3;
+        }
+
+        @Override
+        public void publish(String tenantId, List<String> items) throws Exception {
+            publish(tenantId, items, 0, 0);
+        }
+
+        @Override
+        public void publish(String tenantId, List<String> items, int retryCount, long delay) throws Exception {
+            retry(tenantId, items, null, retryCount, delay);
+        }
+
+        @Override
+        public void retry(String tenantId, List<String> items, String subscriber, int retryCount, long delay)
+                throws Exception {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                subscribers.add(subscriber);
+                threads.add(Thread.currentThread());
+                if (fail) {
+                    throw new Exception(subscriber);
+                }
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void setMetricHandler(PublisherMetricHandler<String> handler) {
+        }
+    }
+
+}
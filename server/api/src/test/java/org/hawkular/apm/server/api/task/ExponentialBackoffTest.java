@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.hawkular.apm.server.api.task.Processor.ProcessorType;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class ExponentialBackoffTest {
+
+    @Test
+    public void testDelayDoublesUpToMaximum() {
+        ExponentialBackoff backoff = new ExponentialBackoff(1000, 5000, 0);
+
+        assertEquals(1000, backoff.getDelay(1));
+        assertEquals(2000, backoff.getDelay(2));
+        assertEquals(4000, backoff.getDelay(3));
+        assertEquals(5000, backoff.getDelay(4));
+        assertEquals(5000, backoff.getDelay(40));
+    }
+
+    @Test
+    public void testJitter() {
+        ExponentialBackoff backoff = new ExponentialBackoff(1000, 5000, 0.5);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.getDelay(2);
+            assertTrue("Delay " + delay, delay > 1000 && delay <= 2000);
+        }
+    }
+
+    @Test
+    public void testProcessorRetryDelay() {
+        AbstractProcessor<String, String> proc = new AbstractProcessor<String, String>(ProcessorType.OneToOne) {
+        };
+        proc.setRetryBackoff(new ExponentialBackoff(1000, 5000, 0));
+
+        // Default maximum retry count is 3, so first retry has remaining count of 2
+        assertEquals(1000, proc.getRetryDelay(null, 2));
+        assertEquals(2000, proc.getRetryDelay(null, 1));
+        assertEquals(4000, proc.getRetryDelay(null, 0));
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class FanOutHandlerTest {
+
+    @Test
+    public void testSequential() throws Exception {
+        testDispatch(null);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            testDispatch(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    protected void testDispatch(ExecutorService executor) throws Exception {
+        FanOutHandler<String> fanOut = new FanOutHandler<String>();
+        fanOut.setExecutor(executor);
+
+        List<List<String>> received = Collections.synchronizedList(new ArrayList<List<String>>());
+        for (int i = 0; i < 3; i++) {
+            fanOut.addHandler((tenantId, items) -> {
+                assertEquals("tenant", tenantId);
+                received.add(items);
+            });
+        }
+
+        fanOut.handle("tenant", Arrays.asList("hello", "world"));
+
+        assertEquals(3, received.size());
+        for (List<String> items : received) {
+            assertEquals(Arrays.asList("hello", "world"), items);
+            assertSame(received.get(0), items);
+        }
+    }
+
+    @Test
+    public void testItemsNotModifiable() throws Exception {
+        FanOutHandler<String> fanOut = new FanOutHandler<String>();
+        fanOut.addHandler((tenantId, items) -> items.add("other"));
+
+        try {
+            fanOut.handle(null, new ArrayList<String>(Arrays.asList("hello")));
+            fail("Should have failed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailureDoesNotPreventOtherHandlers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FanOutHandler<String> fanOut = new FanOutHandler<String>();
+            fanOut.setExecutor(executor);
+
+            List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+            fanOut.addHandler((tenantId, items) -> {
+                throw new RetryAttemptException("first");
+            });
+            fanOut.addHandler((tenantId, items) -> handled.add("second"));
+            fanOut.addHandler((tenantId, items) -> {
+                throw new RetryAttemptException("third");
+            });
+
+            try {
+                fanOut.handle(null, Arrays.asList("hello"));
+                fail("Should have failed");
+            } catch (RetryAttemptException e) {
+                assertEquals("first", e.getMessage());
+                assertEquals(1, e.getSuppressed().length);
+                assertEquals("third", e.getSuppressed()[0].getMessage());
+            }
+
+            assertEquals(Arrays.asList("second"), handled);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
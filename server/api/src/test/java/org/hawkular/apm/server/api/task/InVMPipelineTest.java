@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.apm.server.api.task.Processor.ProcessorType;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class InVMPipelineTest {
+
+    @Test
+    public void testPublishToChainedProcessors() throws Exception {
+        InVMPipeline pipeline = new InVMPipeline(4, 3);
+        InVMPublisher<String> words = pipeline.createTopic("Words");
+        InVMPublisher<String> upper = pipeline.createTopic("Upper");
+
+        List<String> lengths = Collections.synchronizedList(new ArrayList<String>());
+        List<String> results = Collections.synchronizedList(new ArrayList<String>());
+
+        words.subscribe("Upper", () -> new AbstractProcessor<String, String>(ProcessorType.OneToOne) {
+            @Override
+            public String processOneToOne(String tenantId, String item) throws RetryAttemptException {
+                return item.toUpperCase();
+            }
+        }, upper, 2);
+        words.subscribe("Length", () -> collector(lengths), null, 1);
+        upper.subscribe("Collector", () -> collector(results), null, 1);
+
+        pipeline.start();
+        try {
+            for (int i = 0; i < 100; i++) {
+                words.publish("tenant", Arrays.asList("hello" + i, "world" + i));
+            }
+
+            assertTrue(pipeline.awaitIdle(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.stop(1, TimeUnit.SECONDS);
+        }
+
+        assertEquals(200, lengths.size());
+        assertEquals(200, results.size());
+        assertTrue(results.contains("HELLO99"));
+        assertTrue(results.contains("WORLD0"));
+    }
+
+    @Test
+    public void testRetryOnlyToSubscriber() throws Exception {
+        InVMPipeline pipeline = new InVMPipeline(4, 3);
+        InVMPublisher<String> words = pipeline.createTopic("Words");
+
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        List<String> other = Collections.synchronizedList(new ArrayList<String>());
+
+        words.subscribe("Retry", () -> new AbstractProcessor<String, Void>(ProcessorType.OneToOne) {
+            @Override
+            public Void processOneToOne(String tenantId, String item) throws RetryAttemptException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new RetryAttemptException("PLEASE RETRY");
+                }
+                results.add(item);
+                return null;
+            }
+
+            @Override
+            public long getRetryDelay(List<String> items, int retryCount) {
+                return 10;
+            }
+        }, null, 1);
+        words.subscribe("Other", () -> collector(other), null, 1);
+
+        pipeline.start();
+        try {
+            words.publish("tenant", Arrays.asList("hello"));
+
+            assertTrue(pipeline.awaitIdle(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.stop(1, TimeUnit.SECONDS);
+        }
+
+        assertEquals(3, attempts.get());
+        assertEquals(Arrays.asList("hello"), results);
+        assertEquals(Arrays.asList("hello"), other);
+    }
+
+    @Test
+    public void testPublishToOwnTopicWhenFull() throws Exception {
+        InVMPipeline pipeline = new InVMPipeline(2, 3);
+        InVMPublisher<Integer> counts = pipeline.createTopic("Counts");
+
+        List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+
+        counts.subscribe("Countdown", () -> new AbstractProcessor<Integer, Integer>(ProcessorType.OneToOne) {
+            @Override
+            public Integer processOneToOne(String tenantId, Integer item) throws RetryAttemptException {
+                if (item == 0) {
+                    results.add(item);
+                    return null;
+                }
+                return item - 1;
+            }
+        }, counts, 2);
+
+        pipeline.start();
+        try {
+            for (int i = 0; i < 50; i++) {
+                counts.publish(null, Arrays.asList(10));
+            }
+
+            assertTrue(pipeline.awaitIdle(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.stop(1, TimeUnit.SECONDS);
+        }
+
+        assertEquals(50, results.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPublishNotRunning() throws Exception {
+        InVMPipeline pipeline = new InVMPipeline(4, 3);
+        InVMPublisher<String> words = pipeline.createTopic("Words");
+
+        words.publish("tenant", Arrays.asList("hello"));
+    }
+
+    protected static Processor<String, Void> collector(List<String> results) {
+        return new AbstractProcessor<String, Void>(ProcessorType.ManyToMany) {
+            @Override
+            public List<Void> processManyToMany(String tenantId, List<String> items)
+                    throws RetryAttemptException {
+                results.addAll(items);
+                return null;
+            }
+        };
+    }
+
+}
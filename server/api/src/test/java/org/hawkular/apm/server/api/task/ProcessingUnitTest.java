@@ -17,10 +17,14 @@
 package org.hawkular.apm.server.api.task;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hawkular.apm.server.api.task.Processor.ProcessorType;
 import org.junit.Test;
@@ -263,4 +267,328 @@ public class ProcessingUnitTest {
         assertEquals("hello", results.get(1));
     }
 
+    @Test
+    public void testManyToManyPartialRetry() {
+        ProcessingUnit<String, String> pu = new ProcessingUnit<String, String>();
+
+        Processor<String, String> proc = new AbstractProcessor<String, String>(ProcessorType.ManyToMany) {
+
+            @Override
+            public List<String> processManyToMany(String tenantId, List<String> items)
+                    throws RetryAttemptException {
+                List<String> ret = new ArrayList<String>();
+                List<String> failed = new ArrayList<String>();
+                for (String item : items) {
+                    if (item.equals("world")) {
+                        failed.add(item);
+                    } else {
+                        ret.add(item.toUpperCase());
+                    }
+                }
+                if (!failed.isEmpty()) {
+                    throw new PartialRetryAttemptException("PLEASE RETRY", failed, ret);
+                }
+                return ret;
+            }
+        };
+
+        pu.setProcessor(proc);
+        pu.setRetryCount(1);
+
+        List<String> results = new ArrayList<String>();
+        List<String> retries = new ArrayList<String>();
+
+        pu.setResultHandler(new Handler<String>() {
+            @Override
+            public void handle(String tenantId, List<String> items) throws Exception {
+                results.addAll(items);
+            }
+        });
+
+        pu.setRetryHandler(new Handler<String>() {
+            @Override
+            public void handle(String tenantId, List<String> items) throws Exception {
+                retries.addAll(items);
+            }
+        });
+
+        List<String> source = new ArrayList<String>();
+        source.add("hello");
+        source.add("world");
+        source.add("again");
+
+        try {
+            pu.handle(null, source);
+        } catch (Exception e) {
+            fail("Failed to process: " + e);
+        }
+
+        assertEquals(2, results.size());
+        assertEquals("HELLO", results.get(0));
+        assertEquals("AGAIN", results.get(1));
+        assertEquals(1, retries.size());
+        assertEquals("world", retries.get(0));
+    }
+
+    @Test
+    public void testManyToManyRetryAll() {
+        ProcessingUnit<String, String> pu = new ProcessingUnit<String, String>();
+
+        Processor<String, String> proc = new AbstractProcessor<String, String>(ProcessorType.ManyToMany) {
+
+            @Override
+            public List<String> processManyToMany(String tenantId, List<String> items)
+                    throws RetryAttemptException {
+                throw new RetryAttemptException("PLEASE RETRY");
+            }
+        };
+
+        pu.setProcessor(proc);
+        pu.setRetryCount(1);
+
+        List<String> retries = new ArrayList<String>();
+
+        pu.setRetryHandler(new Handler<String>() {
+            @Override
+            public void handle(String tenantId, List<String> items) throws Exception {
+                retries.addAll(items);
+            }
+        });
+
+        List<String> source = new ArrayList<String>();
+        source.add("hello");
+        source.add("world");
+
+        try {
+            pu.handle(null, source);
+        } catch (Exception e) {
+            fail("Failed to process: " + e);
+        }
+
+        assertEquals(source, retries);
+    }
+
+    @Test
+    public void testParallelPreservesOrder() {
+        ProcessingUnit<Integer, String> pu = new ProcessingUnit<Integer, String>() {
+            @Override
+            protected int getParallelism() {
+                return 4;
+            }
+        };
+
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        Processor<Integer, String> proc = new AbstractProcessor<Integer, String>(ProcessorType.OneToOne) {
+
+            @Override
+            public boolean isParallelSafe() {
+                return true;
+            }
+
+            @Override
+            public String processOneToOne(String tenantId, Integer item) throws RetryAttemptException {
+                threads.add(Thread.currentThread());
+                if (item % 10 == 0) {
+                    throw new RetryAttemptException("PLEASE RETRY");
+                }
+                return "item" + item;
+            }
+        };
+
+        pu.setProcessor(proc);
+        pu.setRetryCount(1);
+        pu.setParallelThreshold(100);
+
+        List<String> results = new ArrayList<String>();
+        List<Integer> retries = new ArrayList<Integer>();
+
+        pu.setResultHandler(new Handler<String>() {
+            @Override
+            public void handle(String tenantId, List<String> items) throws Exception {
+                results.addAll(items);
+            }
+        });
+
+        pu.setRetryHandler(new Handler<Integer>() {
+            @Override
+            public void handle(String tenantId, List<Integer> items) throws Exception {
+                retries.addAll(items);
+            }
+        });
+
+        List<Integer> source = new ArrayList<Integer>();
+        List<String> expectedResults = new ArrayList<String>();
+        List<Integer> expectedRetries = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            source.add(i);
+            if (i % 10 == 0) {
+                expectedRetries.add(i);
+            } else {
+                expectedResults.add("item" + i);
+            }
+        }
+
+        try {
+            pu.handle(null, source);
+        } catch (Exception e) {
+            fail("Failed to process: " + e);
+        }
+
+        assertEquals(expectedResults, results);
+        assertEquals(expectedRetries, retries);
+        assertTrue(threads.size() > 1);
+    }
+
+    @Test
+    public void testParallelUsesExecutor() throws Exception {
+        ProcessingUnit<Integer, String> pu = new ProcessingUnit<Integer, String>() {
+            @Override
+            protected int getParallelism() {
+                return 4;
+            }
+        };
+
+        Processor<Integer, String> proc = new AbstractProcessor<Integer, String>(ProcessorType.OneToOne) {
+
+            @Override
+            public boolean isParallelSafe() {
+                return true;
+            }
+
+            @Override
+            public String processOneToOne(String tenantId, Integer item) throws RetryAttemptException {
+                return "item" + item;
+            }
+        };
+
+        AtomicInteger submitted = new AtomicInteger();
+
+        pu.setProcessor(proc);
+        pu.setParallelThreshold(100);
+        pu.setExecutor(r -> {
+            submitted.incrementAndGet();
+            new Thread(r).start();
+        });
+
+        List<String> results = new ArrayList<String>();
+        pu.setResultHandler((tenantId, items) -> results.addAll(items));
+
+        List<Integer> source = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            source.add(i);
+        }
+
+        pu.handle(null, source);
+
+        assertEquals(3, submitted.get());
+        assertEquals(1000, results.size());
+        assertEquals("item999", results.get(999));
+    }
+
+    @Test
+    public void testParallelCancelledOnFailure() {
+        ProcessingUnit<Integer, String> pu = new ProcessingUnit<Integer, String>() {
+            @Override
+            protected int getParallelism() {
+                return 4;
+            }
+        };
+
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+
+        Processor<Integer, String> proc = new AbstractProcessor<Integer, String>(ProcessorType.OneToOne) {
+
+            @Override
+            public boolean isParallelSafe() {
+                return true;
+            }
+
+            @Override
+            public String processOneToOne(String tenantId, Integer item) throws RetryAttemptException {
+                processed.add(item);
+                if (item == 10) {
+                    throw new IllegalStateException("FAILED");
+                }
+                return "item" + item;
+            }
+        };
+
+        // Forked chunks are only run once the caller's chunk has failed
+        List<Runnable> tasks = new ArrayList<Runnable>();
+
+        pu.setProcessor(proc);
+        pu.setParallelThreshold(100);
+        pu.setExecutor(tasks::add);
+        pu.setResultHandler((tenantId, items) -> fail("Should not publish results"));
+
+        List<Integer> source = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            source.add(i);
+        }
+
+        try {
+            pu.handle(null, source);
+            fail("Should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals("FAILED", e.getMessage());
+        } catch (Exception e) {
+            fail("Unexpected exception: " + e);
+        }
+
+        assertEquals(3, tasks.size());
+        tasks.forEach(Runnable::run);
+
+        assertEquals(11, processed.size());
+        assertTrue(processed.stream().allMatch(i -> i <= 10));
+    }
+
+    @Test
+    public void testParallelNotSafe() {
+        ProcessingUnit<Integer, String> pu = new ProcessingUnit<Integer, String>() {
+            @Override
+            protected int getParallelism() {
+                return 4;
+            }
+        };
+
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        Processor<Integer, String> proc = new AbstractProcessor<Integer, String>(ProcessorType.OneToOne) {
+
+            @Override
+            public String processOneToOne(String tenantId, Integer item) throws RetryAttemptException {
+                threads.add(Thread.currentThread());
+                return "item" + item;
+            }
+        };
+
+        pu.setProcessor(proc);
+        pu.setParallelThreshold(100);
+
+        List<String> results = new ArrayList<String>();
+
+        pu.setResultHandler(new Handler<String>() {
+            @Override
+            public void handle(String tenantId, List<String> items) throws Exception {
+                results.addAll(items);
+            }
+        });
+
+        List<Integer> source = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            source.add(i);
+        }
+
+        try {
+            pu.handle(null, source);
+        } catch (Exception e) {
+            fail("Failed to process: " + e);
+        }
+
+        assertEquals(1000, results.size());
+        assertEquals(1, threads.size());
+        assertTrue(threads.contains(Thread.currentThread()));
+    }
+
 }
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.api.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class RetrySchedulerTest {
+
+    @Test
+    public void testRetryAfterDelay() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target = new TestTarget();
+
+        scheduler.schedule("tenant", Arrays.asList("a", "b"), 2, 500, target);
+        assertEquals(2, scheduler.size());
+
+        scheduler.expire(scheduler.now + 400);
+        assertTrue(target.retried.isEmpty());
+
+        scheduler.expire(scheduler.now + 500);
+        assertEquals(Arrays.asList("tenant:[a, b]:2"), target.retried);
+        assertEquals(0, scheduler.size());
+        assertEquals(2, scheduler.getRetriedCount());
+        assertTrue(target.spilled.isEmpty());
+    }
+
+    @Test
+    public void testRetryAfterDelayLongerThanWheel() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target = new TestTarget();
+
+        // Wheel covers 51.2 seconds with the 100ms tick
+        scheduler.schedule(null, Arrays.asList("a"), 1, 60000, target);
+
+        for (long time = scheduler.now; time < scheduler.now + 60000; time += 100) {
+            scheduler.expire(time);
+        }
+        assertTrue(target.retried.isEmpty());
+
+        scheduler.expire(scheduler.now + 60000);
+        assertEquals(Arrays.asList("null:[a]:1"), target.retried);
+    }
+
+    @Test
+    public void testSpillWhenFull() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(3);
+        TestTarget target = new TestTarget();
+
+        scheduler.schedule("tenant", Arrays.asList("a", "b"), 2, 500, target);
+        scheduler.schedule("tenant", Arrays.asList("c", "d"), 2, 500, target);
+
+        assertEquals(2, scheduler.size());
+        assertEquals(Arrays.asList("tenant:[c, d]:2:500"), target.spilled);
+        assertEquals(2, scheduler.getSpilledCount());
+
+        scheduler.expire(scheduler.now + 500);
+        assertEquals(Arrays.asList("tenant:[a, b]:2"), target.retried);
+    }
+
+    @Test
+    public void testSpillTarget() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target1 = new TestTarget();
+        TestTarget target2 = new TestTarget();
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 500, target1);
+        scheduler.schedule("tenant", Arrays.asList("b"), 2, 500, target2);
+
+        scheduler.now += 200;
+        scheduler.spill(target1);
+
+        assertEquals(Arrays.asList("tenant:[a]:2:300"), target1.spilled);
+        assertEquals(1, scheduler.size());
+
+        scheduler.expire(scheduler.now + 300);
+        assertTrue(target1.retried.isEmpty());
+        assertEquals(Arrays.asList("tenant:[b]:2"), target2.retried);
+    }
+
+    @Test
+    public void testNoItemsHeld() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(0);
+        TestTarget target = new TestTarget();
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 500, target);
+
+        assertEquals(0, scheduler.size());
+        assertEquals(Arrays.asList("tenant:[a]:2:500"), target.spilled);
+    }
+
+    @Test
+    public void testRetryDispatchedToExecutor() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target = new TestTarget();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        scheduler.setExecutor(tasks::add);
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 500, target);
+        scheduler.schedule("tenant", Arrays.asList("b"), 2, 500, target);
+
+        scheduler.expire(scheduler.now + 500);
+        assertEquals(2, tasks.size());
+        assertTrue(target.retried.isEmpty());
+        assertEquals(0, scheduler.size());
+
+        tasks.forEach(Runnable::run);
+        assertEquals(Arrays.asList("tenant:[a]:2", "tenant:[b]:2"), target.retried);
+        assertEquals(2, scheduler.getRetriedCount());
+    }
+
+    @Test
+    public void testSpillWhenExecutorRejects() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target = new TestTarget();
+        scheduler.setExecutor(r -> {
+            throw new RejectedExecutionException();
+        });
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 500, target);
+
+        scheduler.expire(scheduler.now + 500);
+        assertTrue(target.retried.isEmpty());
+        assertEquals(Arrays.asList("tenant:[a]:2:0"), target.spilled);
+        assertEquals(1, scheduler.getSpilledCount());
+    }
+
+    @Test
+    public void testShutdownSpillsHeldItems() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target1 = new TestTarget();
+        TestTarget target2 = new TestTarget();
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 500, target1);
+        scheduler.schedule("tenant", Arrays.asList("b"), 1, 800, target2);
+
+        scheduler.now += 200;
+        scheduler.shutdown();
+
+        assertTrue(scheduler.isShutdown());
+        assertEquals(0, scheduler.size());
+        assertEquals(Arrays.asList("tenant:[a]:2:300"), target1.spilled);
+        assertEquals(Arrays.asList("tenant:[b]:1:600"), target2.spilled);
+        assertEquals(1, scheduler.stopped.size());
+
+        // Further retries are spilled rather than held
+        scheduler.schedule("tenant", Arrays.asList("c"), 2, 500, target1);
+        assertEquals(0, scheduler.size());
+        assertEquals(Arrays.asList("tenant:[a]:2:300", "tenant:[c]:2:500"), target1.spilled);
+
+        scheduler.expire(scheduler.now + 1000);
+        assertTrue(target1.retried.isEmpty());
+        assertTrue(target2.retried.isEmpty());
+    }
+
+    @Test
+    public void testDispatchedRetrySpilledAfterShutdown() throws Exception {
+        TestRetryScheduler scheduler = new TestRetryScheduler(10);
+        TestTarget target = new TestTarget();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        scheduler.setExecutor(tasks::add);
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 500, target);
+        scheduler.expire(scheduler.now + 500);
+        assertEquals(1, tasks.size());
+
+        scheduler.shutdown();
+        tasks.forEach(Runnable::run);
+
+        assertTrue(target.retried.isEmpty());
+        assertEquals(Arrays.asList("tenant:[a]:2:0"), target.spilled);
+        assertEquals(0, scheduler.getRetriedCount());
+    }
+
+    @Test
+    public void testTickerUsedAndStoppedWhenIdle() throws Exception {
+        ScheduledThreadPoolExecutor ticker = new ScheduledThreadPoolExecutor(1);
+        ticker.setRemoveOnCancelPolicy(true);
+        try {
+            RetryScheduler scheduler = new RetryScheduler(10, 10);
+            scheduler.setTicker(ticker);
+            scheduler.setExecutor(Runnable::run);
+            TestTarget target = new TestTarget();
+
+            scheduler.schedule("tenant", Arrays.asList("a"), 2, 50, target);
+            assertEquals(1, ticker.getQueue().size());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((target.getRetriedCount() == 0 || !ticker.getQueue().isEmpty())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            synchronized (target) {
+                assertEquals(Arrays.asList("tenant:[a]:2"), target.retried);
+            }
+            assertEquals(0, scheduler.size());
+            assertTrue(ticker.getQueue().isEmpty());
+            assertFalse(ticker.isShutdown());
+        } finally {
+            ticker.shutdown();
+        }
+    }
+
+    @Test
+    public void testSpillWhenTickerRejects() throws Exception {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.shutdown();
+
+        RetryScheduler scheduler = new RetryScheduler(10, 10);
+        scheduler.setTicker(ticker);
+        TestTarget target = new TestTarget();
+
+        scheduler.schedule("tenant", Arrays.asList("a"), 2, 50, target);
+
+        assertEquals(0, scheduler.size());
+        assertEquals(Arrays.asList("tenant:[a]:2:50"), target.spilled);
+    }
+
+    private static class TestRetryScheduler extends RetryScheduler {
+
+        private long now = 1000000;
+
+        public TestRetryScheduler(int maxItems) {
+            super(maxItems, 100);
+            setExecutor(Runnable::run);
+        }
+
+        private final List<Long> stopped = new ArrayList<Long>();
+
+        @Override
+        protected void start() {
+            // Advanced explicitly by the tests
+        }
+
+        @Override
+        protected void stop() {
+            stopped.add(now);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static class TestTarget implements RetryScheduler.Target<String> {
+
+        private final List<String> retried = new ArrayList<String>();
+        private final List<String> spilled = new ArrayList<String>();
+
+        public synchronized int getRetriedCount() {
+            return retried.size();
+        }
+
+        @Override
+        public synchronized void retry(String tenantId, List<String> items, int retryCount) {
+            retried.add(tenantId + ":" + items + ":" + retryCount);
+        }
+
+        @Override
+        public void spill(String tenantId, List<String> items, int retryCount, long delay) {
+            spilled.add(tenantId + ":" + items + ":" + retryCount + ":" + delay);
+        }
+    }
+
+}
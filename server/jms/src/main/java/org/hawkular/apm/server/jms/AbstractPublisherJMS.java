@@ -25,9 +25,9 @@ import javax.annotation.PreDestroy;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
+import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
-import javax.jms.TextMessage;
 import javax.naming.InitialContext;
 
 import org.hawkular.apm.api.services.Publisher;
@@ -35,10 +35,9 @@ import org.hawkular.apm.api.services.PublisherMetricHandler;
 import org.hawkular.apm.api.services.ServiceLifecycle;
 import org.hawkular.apm.api.services.ServiceStatus;
 import org.hawkular.apm.api.utils.PropertyUtil;
+import org.hawkular.apm.api.utils.WireFormat;
 import org.hawkular.apm.server.jms.log.MsgLogger;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 /**
  * This abstract class represents a JMS publisher.
  *
@@ -52,7 +51,8 @@ public abstract class AbstractPublisherJMS<T> implements Publisher<T>, ServiceLi
 
     private final MsgLogger msgLog = MsgLogger.LOGGER;
 
-    private static ObjectMapper mapper = new ObjectMapper();
+    private static final WireFormat format = WireFormat.fromProperty(PropertyUtil.HAWKULAR_APM_PROCESSOR_FORMAT,
+            WireFormat.Smile);
 
     private Connection connection;
     private Session session;
@@ -116,9 +116,7 @@ public abstract class AbstractPublisherJMS<T> implements Publisher<T>, ServiceLi
      */
     protected void doPublish(String tenantId, List<T> items, String subscriber,
             int retryCount, long delay) throws Exception {
-        String data = mapper.writeValueAsString(items);
-
-        TextMessage tm = session.createTextMessage(data);
+        Message tm = JMSMessageUtil.createMessage(session, items, format);
 
         if (tenantId != null) {
             tm.setStringProperty("tenant", tenantId);
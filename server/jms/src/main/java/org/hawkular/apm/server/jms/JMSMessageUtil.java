@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.jms;
+
+import java.io.IOException;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.hawkular.apm.api.utils.WireFormat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * This class provides utility functions for encoding and decoding the events
+ * exchanged using JMS. Binary wire formats are sent as a {@link BytesMessage},
+ * with the content type identified by a message property, and JSON is sent as
+ * a {@link TextMessage}.
+ *
+ * @author gbrown
+ */
+public class JMSMessageUtil {
+
+    /** The message property identifying the content type of a bytes message */
+    public static final String CONTENT_TYPE = "contentType";
+
+    /**
+     * This method creates a message containing the supplied value.
+     *
+     * @param session The session
+     * @param value The value
+     * @param format The wire format
+     * @return The message
+     * @throws IOException Failed to serialize the value
+     * @throws JMSException Failed to create the message
+     */
+    public static Message createMessage(Session session, Object value, WireFormat format)
+            throws IOException, JMSException {
+        if (format.isBinary()) {
+            BytesMessage bm = session.createBytesMessage();
+            bm.writeBytes(format.serialize(value));
+            bm.setStringProperty(CONTENT_TYPE, format.getContentType());
+            return bm;
+        }
+        return session.createTextMessage(format.getMapper().writeValueAsString(value));
+    }
+
+    /**
+     * This method reads the value contained in the supplied message.
+     *
+     * @param message The message
+     * @param typeReference The type of the value
+     * @return The value
+     * @throws IOException Failed to deserialize the value
+     * @throws JMSException Failed to read the message
+     */
+    public static <T> T readMessage(Message message, TypeReference<T> typeReference)
+            throws IOException, JMSException {
+        if (message instanceof BytesMessage) {
+            BytesMessage bm = (BytesMessage) message;
+            WireFormat format = WireFormat.fromContentType(bm.getStringProperty(CONTENT_TYPE));
+            if (format == null) {
+                throw new IOException("Unknown content type: " + bm.getStringProperty(CONTENT_TYPE));
+            }
+            byte[] data = new byte[(int) bm.getBodyLength()];
+            bm.readBytes(data);
+            return format.deserialize(data, typeReference);
+        }
+        return WireFormat.Json.getMapper().readValue(((TextMessage) message).getText(), typeReference);
+    }
+
+}
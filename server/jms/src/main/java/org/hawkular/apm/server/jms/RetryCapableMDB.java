@@ -20,17 +20,20 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.TextMessage;
 
 import org.hawkular.apm.api.services.Publisher;
 import org.hawkular.apm.api.utils.PropertyUtil;
 import org.hawkular.apm.server.api.task.ProcessingUnit;
 import org.hawkular.apm.server.api.task.Processor;
+import org.hawkular.apm.server.api.task.RetryScheduler;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This class represents a MDB based class to handle processing of events, publication
@@ -41,15 +44,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * @param <S> Source event type
  * @param <T> Target event type
  */
-public abstract class RetryCapableMDB<S,T> implements MessageListener {
+public abstract class RetryCapableMDB<S,T> implements MessageListener, RetryScheduler.Target<S> {
 
     private static final Logger log = Logger.getLogger(RetryCapableMDB.class.getName());
 
     private static final org.hawkular.apm.server.api.log.MsgLogger serverMsgLogger =
             org.hawkular.apm.server.api.log.MsgLogger.LOGGER;
 
-    private static final ObjectMapper mapper = new ObjectMapper();
-
     private TypeReference<java.util.List<S>> typeReference;
 
     private AbstractPublisherJMS<S> retryPublisher;
@@ -62,6 +63,28 @@ public abstract class RetryCapableMDB<S,T> implements MessageListener {
 
     private static final int DEFAULT_MAX_RETRY_COUNT = 3;
 
+    private static final int DEFAULT_RETRY_MAX_ITEMS = 1000;
+
+    /** The resolution (in milliseconds) of the delay for retries held in memory */
+    private static final long RETRY_TICK_DURATION = 100;
+
+    /**
+     * Retries are held in memory by this instance, rather than being resubmitted via the broker,
+     * and returned using the managed executor so they are processed within the application's context
+     */
+    private RetryScheduler retryScheduler;
+
+    /**
+     * Serializes the processing of received messages and in memory retries by this instance. The
+     * container does not invoke an instance concurrently, but in memory retries are returned on
+     * another thread, and neither the processor nor the publishers injected into the instance
+     * (as dependent beans, i.e. not shared with other instances) are thread safe.
+     */
+    private final Object processLock = new Object();
+
+    @Resource
+    private ManagedScheduledExecutorService executor;
+
     private int maxRetryCount = PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_PROCESSOR_MAX_RETRY_COUNT,
             DEFAULT_MAX_RETRY_COUNT);
 
@@ -74,6 +97,21 @@ public abstract class RetryCapableMDB<S,T> implements MessageListener {
         retrySubscriber = subscriberName;
     }
 
+    /**
+     * This method creates the instance's retry scheduler, which uses the managed executor
+     * to advance its timing wheel and to return retries, so that they are processed within
+     * the application's context. If the managed executor is not available, all retries are
+     * resubmitted via the broker.
+     */
+    @PostConstruct
+    public void initRetryScheduler() {
+        retryScheduler = new RetryScheduler(executor == null ? 0
+                : PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_PROCESSOR_RETRY_MAXITEMS,
+                        DEFAULT_RETRY_MAX_ITEMS), RETRY_TICK_DURATION);
+        retryScheduler.setTicker(executor);
+        retryScheduler.setExecutor(executor);
+    }
+
     /**
      * @return the processor
      */
@@ -147,18 +185,50 @@ public abstract class RetryCapableMDB<S,T> implements MessageListener {
                 retryCount = maxRetryCount;
             }
 
-            String data = ((TextMessage) message).getText();
+            List<S> items = JMSMessageUtil.readMessage(message, getTypeReference());
 
-            List<S> items = mapper.readValue(data, getTypeReference());
+            process(tenantId, items, retryCount, true);
 
-            process(tenantId, items, retryCount);
+        } catch (Exception e) {
+            reportFailure(e);
+        }
+    }
 
+    @Override
+    public void retry(String tenantId, List<S> items, int retryCount) {
+        try {
+            // Retries are returned on a managed executor thread, so must not wait on
+            // chunks queued to the same pool
+            process(tenantId, items, retryCount, false);
         } catch (Exception e) {
-            if (processor.isReportRetryExpirationAsWarning()) {
-                serverMsgLogger.warnMaxRetryReached(e);
-            } else if (log.isLoggable(Level.FINEST)) {
-                log.log(Level.FINEST, "Maximum retry reached. Last exception to occur ....", e);
-            }
+            reportFailure(e);
+        }
+    }
+
+    @Override
+    public void spill(String tenantId, List<S> items, int retryCount, long delay) throws Exception {
+        getRetryPublisher().retry(tenantId, items, retrySubscriber, retryCount, delay);
+    }
+
+    /**
+     * This method shuts down the retry scheduler, resubmitting any retries held in memory
+     * for this MDB via the broker before the retry publisher is closed.
+     */
+    @PreDestroy
+    public void spillRetries() {
+        retryScheduler.shutdown();
+    }
+
+    /**
+     * This method reports the failure to process items, once the retries have been exhausted.
+     *
+     * @param e The last exception to occur
+     */
+    protected void reportFailure(Exception e) {
+        if (processor.isReportRetryExpirationAsWarning()) {
+            serverMsgLogger.warnMaxRetryReached(e);
+        } else if (log.isLoggable(Level.FINEST)) {
+            log.log(Level.FINEST, "Maximum retry reached. Last exception to occur ....", e);
         }
     }
 
@@ -168,27 +238,26 @@ public abstract class RetryCapableMDB<S,T> implements MessageListener {
      * @param tenantId The optional tenant id
      * @param items The items
      * @param retryCount The remaining retry count
+     * @param parallel Whether the items can be processed concurrently using the managed executor
      * @throws Failed to process items
      */
-    protected void process(String tenantId, List<S> items, int retryCount) throws Exception {
-        ProcessingUnit<S, T> pu =
-                new ProcessingUnit<S, T>();
-
-        pu.setProcessor(getProcessor());
-        pu.setRetrySubscriber(retrySubscriber);
-        pu.setRetryCount(retryCount);
-
-        pu.setResultHandler(
-                (tid, events) -> getPublisher().publish(tid, events, getPublisher().getInitialRetryCount(),
-                                getProcessor().getDeliveryDelay(events))
-        );
+    protected void process(String tenantId, List<S> items, int retryCount, boolean parallel) throws Exception {
+        ProcessingUnit<S, T> pu = ProcessingUnit.create(getProcessor(), getPublisher(), getRetryPublisher(),
+                retrySubscriber, retryCount);
+        if (parallel) {
+            pu.setExecutor(executor);
+        } else {
+            pu.setParallelThreshold(0);
+        }
 
         pu.setRetryHandler(
-                (tid, events) -> getRetryPublisher().retry(tid, events, pu.getRetrySubscriber(),
-                        pu.getRetryCount() - 1, getProcessor().getRetryDelay(events, pu.getRetryCount() - 1))
+                (tid, events) -> retryScheduler.schedule(tid, events, pu.getRetryCount() - 1,
+                        getProcessor().getRetryDelay(events, pu.getRetryCount() - 1), this)
         );
 
-        pu.handle(tenantId, items);
+        synchronized (processLock) {
+            pu.handle(tenantId, items);
+        }
     }
 
 }
@@ -28,15 +28,14 @@ import javax.inject.Inject;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.TextMessage;
 
 import org.hawkular.apm.server.api.model.zipkin.Span;
 import org.hawkular.apm.server.api.services.CacheException;
 import org.hawkular.apm.server.api.services.SpanCache;
 import org.hawkular.apm.server.api.utils.zipkin.SpanUniqueIdGenerator;
+import org.hawkular.apm.server.jms.JMSMessageUtil;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This MDB receives all published Spans and stores them in a local cache for use by other processors.
@@ -56,8 +55,6 @@ public class SpanCacheMDB implements MessageListener {
 
     public static final String SUBSCRIBER = "SpanCache";
 
-    private static final ObjectMapper mapper = new ObjectMapper();
-
     @Inject
     private SpanCache spanCache;
 
@@ -73,9 +70,7 @@ public class SpanCacheMDB implements MessageListener {
         try {
             String tenantId = message.getStringProperty("tenant");
 
-            String data = ((TextMessage) message).getText();
-
-            List<Span> items = mapper.readValue(data, typeRef);
+            List<Span> items = JMSMessageUtil.readMessage(message, typeRef);
 
             spanCache.store(tenantId, items, SpanUniqueIdGenerator::toUnique);
 
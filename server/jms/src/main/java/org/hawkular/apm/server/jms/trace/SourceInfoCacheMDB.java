@@ -27,7 +27,6 @@ import javax.inject.Inject;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.TextMessage;
 
 import org.hawkular.apm.api.model.events.SourceInfo;
 import org.hawkular.apm.api.model.trace.Trace;
@@ -35,9 +34,9 @@ import org.hawkular.apm.server.api.services.CacheException;
 import org.hawkular.apm.server.api.services.SourceInfoCache;
 import org.hawkular.apm.server.api.task.RetryAttemptException;
 import org.hawkular.apm.server.api.utils.SourceInfoUtil;
+import org.hawkular.apm.server.jms.JMSMessageUtil;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This MDB is provided to populate the SourceInfoCache with Source Information derived from the
@@ -63,8 +62,6 @@ public class SourceInfoCacheMDB implements MessageListener {
     @Inject
     private SourceInfoCache sourceInfoCache;
 
-    private static final ObjectMapper mapper = new ObjectMapper();
-
     private TypeReference<java.util.List<Trace>> typeRef = new TypeReference<java.util.List<Trace>>() {
     };
 
@@ -77,9 +74,7 @@ public class SourceInfoCacheMDB implements MessageListener {
         try {
             String tenantId = message.getStringProperty("tenant");
 
-            String data = ((TextMessage) message).getText();
-
-            List<Trace> items = mapper.readValue(data, typeRef);
+            List<Trace> items = JMSMessageUtil.readMessage(message, typeRef);
 
             List<SourceInfo> sourceInfoList = SourceInfoUtil.getSourceInfo(tenantId, items);
 
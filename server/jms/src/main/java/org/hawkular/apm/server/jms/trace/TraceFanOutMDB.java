@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.jms.trace;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.MessageDriven;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.inject.Inject;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.TraceService;
+import org.hawkular.apm.api.utils.PropertyUtil;
+import org.hawkular.apm.server.api.task.DeferredPublisher;
+import org.hawkular.apm.server.api.task.FanOutHandler;
+import org.hawkular.apm.server.api.task.Handler;
+import org.hawkular.apm.server.api.task.ProcessingUnit;
+import org.hawkular.apm.server.api.task.Processor;
+import org.hawkular.apm.server.jms.CommunicationDetailsPublisherJMS;
+import org.hawkular.apm.server.jms.JMSMessageUtil;
+import org.hawkular.apm.server.jms.NodeDetailsPublisherJMS;
+import org.hawkular.apm.server.processor.communicationdetails.CommunicationDetailsDeriver;
+import org.hawkular.apm.server.processor.nodedetails.NodeDetailsDeriver;
+import org.hawkular.apm.server.processor.tracecompletiontime.TraceCompletionInformationInitiator;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * This MDB consumes trace fragments published to the Traces topic when the
+ * {@link PropertyUtil#HAWKULAR_APM_PROCESSOR_TRACES_FUSED} property is set. Each batch is
+ * deserialized once and dispatched, in parallel, to the processors that would otherwise
+ * be invoked by the {@link TraceStoreMDB}, {@link NodeDetailsDeriverMDB},
+ * {@link CommunicationDetailsDeriverMDB} and {@link TraceCompletionInformationInitiatorMDB}.
+ * Items that fail to be processed by a processor are resubmitted to that processor's own
+ * subscriber, so retries are handled as before.
+ *
+ * @author gbrown
+ */
+@MessageDriven(name = "Trace_FanOut", messageListenerInterface = MessageListener.class, activationConfig = {
+        @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Topic"),
+        @ActivationConfigProperty(propertyName = "destination", propertyValue = "Traces"),
+        @ActivationConfigProperty(propertyName = "subscriptionDurability", propertyValue = "Durable"),
+        @ActivationConfigProperty(propertyName = "clientID", propertyValue = TraceFanOutMDB.SUBSCRIBER),
+        @ActivationConfigProperty(propertyName = "subscriptionName", propertyValue = TraceFanOutMDB.SUBSCRIBER),
+        @ActivationConfigProperty(propertyName = "messageSelector", propertyValue = "subscriber = '"+TraceFanOutMDB.SUBSCRIBER+"'")
+})
+public class TraceFanOutMDB implements MessageListener {
+
+    private static final Logger log = Logger.getLogger(TraceFanOutMDB.class.getName());
+
+    private static final org.hawkular.apm.server.api.log.MsgLogger serverMsgLogger =
+            org.hawkular.apm.server.api.log.MsgLogger.LOGGER;
+
+    public static final String SUBSCRIBER = "TraceFanOut";
+
+    private static final int DEFAULT_MAX_RETRY_COUNT = 3;
+
+    @Inject
+    private TracePublisherJMS tracePublisher;
+
+    @Inject
+    private TraceService traceService;
+
+    @Inject
+    private NodeDetailsPublisherJMS nodeDetailsPublisher;
+
+    @Inject
+    private CommunicationDetailsPublisherJMS communicationDetailsPublisher;
+
+    @Inject
+    private CommunicationDetailsDeriver communicationDetailsDeriver;
+
+    @Inject
+    private TraceCompletionInformationPublisherJMS traceCompletionInformationPublisher;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private TypeReference<java.util.List<Trace>> typeRef = new TypeReference<java.util.List<Trace>>() {
+    };
+
+    private Processor<Trace, Void> traceStore;
+    private NodeDetailsDeriver nodeDetailsDeriver;
+    private TraceCompletionInformationInitiator traceCompletionInformationInitiator;
+
+    private int maxRetryCount = PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_PROCESSOR_MAX_RETRY_COUNT,
+            DEFAULT_MAX_RETRY_COUNT);
+
+    @PostConstruct
+    public void init() {
+        traceStore = TraceStoreMDB.createProcessor(traceService);
+        nodeDetailsDeriver = new NodeDetailsDeriver();
+        traceCompletionInformationInitiator = new TraceCompletionInformationInitiator();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Message received=" + message);
+        }
+
+        try {
+            String tenantId = message.getStringProperty("tenant");
+
+            int retryCount;
+
+            if (message.propertyExists("retryCount")) {
+                retryCount = message.getIntProperty("retryCount");
+            } else {
+                retryCount = maxRetryCount;
+            }
+
+            List<Trace> items = JMSMessageUtil.readMessage(message, typeRef);
+
+            // The handlers run concurrently, so their retries are collected and then published
+            // by this thread, as the trace publisher's session must not be shared between threads
+            DeferredPublisher<Trace> retryPublisher = new DeferredPublisher<Trace>(tracePublisher);
+
+            FanOutHandler<Trace> fanOut = new FanOutHandler<Trace>();
+            fanOut.setExecutor(executor);
+
+            fanOut.addHandler(createHandler(traceStore, null, retryPublisher, TraceStoreMDB.SUBSCRIBER, retryCount));
+            fanOut.addHandler(createHandler(nodeDetailsDeriver, nodeDetailsPublisher, retryPublisher,
+                    NodeDetailsDeriverMDB.SUBSCRIBER, retryCount));
+            fanOut.addHandler(createHandler(communicationDetailsDeriver, communicationDetailsPublisher,
+                    retryPublisher, CommunicationDetailsDeriverMDB.SUBSCRIBER, retryCount));
+            fanOut.addHandler(createHandler(traceCompletionInformationInitiator, traceCompletionInformationPublisher,
+                    retryPublisher, TraceCompletionInformationInitiatorMDB.SUBSCRIBER, retryCount));
+
+            try {
+                fanOut.handle(tenantId, items);
+            } finally {
+                retryPublisher.flush();
+            }
+
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to handle message", e);
+        }
+    }
+
+    /**
+     * This method creates the handler for a processor, which processes the items using
+     * a processing unit and reports failures once the retries have been exhausted.
+     *
+     * @param processor The processor
+     * @param publisher The publisher for the results
+     * @param retryPublisher The publisher for failed items
+     * @param retrySubscriber The subscriber that will process any retries
+     * @param retryCount The remaining retry count
+     * @return The handler
+     */
+    protected <T> Handler<Trace> createHandler(Processor<Trace, T> processor, Publisher<T> publisher,
+            Publisher<Trace> retryPublisher, String retrySubscriber, int retryCount) {
+        return (tenantId, items) -> {
+            try {
+                ProcessingUnit<Trace, T> pu = ProcessingUnit.create(processor, publisher, retryPublisher,
+                        retrySubscriber, retryCount);
+                // The handlers already run concurrently on the managed executor, so process the
+                // items on the handler's thread rather than waiting on chunks queued to the same pool
+                pu.setParallelThreshold(0);
+                pu.handle(tenantId, items);
+            } catch (Exception e) {
+                if (processor.isReportRetryExpirationAsWarning()) {
+                    serverMsgLogger.warnMaxRetryReached(e);
+                } else if (log.isLoggable(Level.FINEST)) {
+                    log.log(Level.FINEST, "Maximum retry reached. Last exception to occur ....", e);
+                }
+            }
+        };
+    }
+
+}
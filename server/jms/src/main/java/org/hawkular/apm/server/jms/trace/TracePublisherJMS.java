@@ -16,8 +16,11 @@
  */
 package org.hawkular.apm.server.jms.trace;
 
+import java.util.List;
+
 import org.hawkular.apm.api.model.trace.Trace;
 import org.hawkular.apm.api.services.TracePublisher;
+import org.hawkular.apm.api.utils.PropertyUtil;
 import org.hawkular.apm.server.jms.AbstractPublisherJMS;
 
 /**
@@ -30,9 +33,29 @@ public class TracePublisherJMS extends AbstractPublisherJMS<Trace>
 
     private static final String DESTINATION = "java:/Traces";
 
+    private static final boolean fused = PropertyUtil.getPropertyAsBoolean(
+            PropertyUtil.HAWKULAR_APM_PROCESSOR_TRACES_FUSED);
+
+    @Override
+    public boolean isAvailable() {
+        // Trace fragments are not published via JMS when processed by the in-VM pipeline
+        return super.isAvailable() && !PropertyUtil.getPropertyAsBoolean(PropertyUtil.HAWKULAR_APM_PROCESSOR_INVM);
+    }
+
     @Override
     protected String getDestinationURI() {
         return DESTINATION;
     }
 
+    @Override
+    public void publish(String tenantId, List<Trace> items, int retryCount, long delay) throws Exception {
+        // When fused, only deliver new trace fragments to the fan out subscriber
+        doPublish(tenantId, items, (fused ? TraceFanOutMDB.SUBSCRIBER : null), retryCount, delay);
+    }
+
+    @Override
+    public void publish(String tenantId, List<Trace> items) throws Exception {
+        publish(tenantId, items, getInitialRetryCount(), 0);
+    }
+
 }
@@ -28,6 +28,7 @@ import org.hawkular.apm.api.model.trace.Trace;
 import org.hawkular.apm.api.services.StoreException;
 import org.hawkular.apm.api.services.TraceService;
 import org.hawkular.apm.server.api.task.AbstractProcessor;
+import org.hawkular.apm.server.api.task.Processor;
 import org.hawkular.apm.server.api.task.Processor.ProcessorType;
 import org.hawkular.apm.server.api.task.RetryAttemptException;
 import org.hawkular.apm.server.jms.RetryCapableMDB;
@@ -65,7 +66,17 @@ public class TraceStoreMDB extends RetryCapableMDB<Trace, Void> {
         setTypeReference(new TypeReference<java.util.List<Trace>>() {
         });
 
-        setProcessor(new AbstractProcessor<Trace, Void>(ProcessorType.ManyToMany) {
+        setProcessor(createProcessor(traceService));
+    }
+
+    /**
+     * This method creates the processor that stores trace fragments.
+     *
+     * @param traceService The trace service
+     * @return The processor
+     */
+    static Processor<Trace, Void> createProcessor(TraceService traceService) {
+        return new AbstractProcessor<Trace, Void>(ProcessorType.ManyToMany) {
 
             @Override
             public List<Void> processManyToMany(String tenantId, List<Trace> items)
@@ -77,7 +88,7 @@ public class TraceStoreMDB extends RetryCapableMDB<Trace, Void> {
                 }
                 return null;
             }
-        });
+        };
     }
 
 }
@@ -27,12 +27,11 @@ import javax.inject.Inject;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.TextMessage;
 
 import org.hawkular.apm.api.model.events.NodeDetails;
+import org.hawkular.apm.server.jms.JMSMessageUtil;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * @author Juraci Paixão Kröhling
@@ -48,7 +47,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class InvocationAlertsPublisherMDB implements MessageListener {
     static final String SUBSCRIBER = "InvocationAlertsPublisher";
     private static final MsgLogger logger = MsgLogger.LOGGER;
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     @Inject
     AlertsPublisher publisher;
@@ -57,8 +55,8 @@ public class InvocationAlertsPublisherMDB implements MessageListener {
     public void onMessage(Message message) {
         logger.invocationDetailsReceived();
         try {
-            String data = ((TextMessage) message).getText();
-            List<NodeDetails> items = mapper.readValue(data, new TypeReference<List<NodeDetails>>() {});
+            List<NodeDetails> items = JMSMessageUtil.readMessage(message,
+                    new TypeReference<List<NodeDetails>>() {});
 
             // The list of NodeDetails is filtered to extract the ones with the
             // 'initial' flag set. These NodeDetails represent the handling of
@@ -27,12 +27,11 @@ import javax.inject.Inject;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.TextMessage;
 
 import org.hawkular.apm.api.model.events.CompletionTime;
+import org.hawkular.apm.server.jms.JMSMessageUtil;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * @author Juraci Paixão Kröhling
@@ -48,7 +47,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class TraceCompletionAlertsPublisherMDB implements MessageListener {
     static final String SUBSCRIBER = "TraceCompletionAlertsPublisher";
     private static final MsgLogger logger = MsgLogger.LOGGER;
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     @Inject
     AlertsPublisher publisher;
@@ -57,8 +55,8 @@ public class TraceCompletionAlertsPublisherMDB implements MessageListener {
     public void onMessage(Message message) {
         logger.traceCompletionTimeReceived();
         try {
-            String data = ((TextMessage) message).getText();
-            List<CompletionTime> items = mapper.readValue(data, new TypeReference<List<CompletionTime>>() {});
+            List<CompletionTime> items = JMSMessageUtil.readMessage(message,
+                    new TypeReference<List<CompletionTime>>() {});
             List<Event> events = items.stream()
                     .map(TraceCompletionAlertsPublisherMDB::toEvent)
                     .collect(Collectors.toList());
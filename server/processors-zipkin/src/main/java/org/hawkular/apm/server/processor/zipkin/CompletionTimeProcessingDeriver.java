@@ -27,7 +27,9 @@ import org.hawkular.apm.server.api.model.zipkin.Annotation;
 import org.hawkular.apm.server.api.model.zipkin.Span;
 import org.hawkular.apm.server.api.services.SpanCache;
 import org.hawkular.apm.server.api.task.AbstractProcessor;
+import org.hawkular.apm.server.api.task.ExponentialBackoff;
 import org.hawkular.apm.server.api.task.RetryAttemptException;
+import org.hawkular.apm.server.api.task.RetryBackoff;
 import org.hawkular.apm.server.api.utils.zipkin.SpanUniqueIdGenerator;
 import org.jboss.logging.Logger;
 
@@ -40,12 +42,16 @@ public class CompletionTimeProcessingDeriver extends AbstractProcessor<Completio
 
     private static final Logger log = Logger.getLogger(CompletionTimeProcessingDeriver.class);
 
+    /** Retries wait for late spans to be cached, so start at the previous fixed delay and increase it */
+    private static final RetryBackoff RETRY_BACKOFF = new ExponentialBackoff(5000, 20000, 0.2);
+
     private final SpanCache spanCache;
 
 
     public CompletionTimeProcessingDeriver(SpanCache spanCache) {
         super(ProcessorType.OneToOne);
         this.spanCache = spanCache;
+        setRetryBackoff(RETRY_BACKOFF);
     }
 
 
@@ -106,12 +112,6 @@ public class CompletionTimeProcessingDeriver extends AbstractProcessor<Completio
         return completionTimeProcessing;
     }
 
-    @Override
-    public long getRetryDelay(List<CompletionTimeProcessing> completionTimeProcessings, int retryCount) {
-        // TODO HWKAPM-348
-        return 5000;
-    }
-
     @Override
     public long getDeliveryDelay(List<CompletionTimeProcessing> completionTimeProcessings) {
         // TODO HWKAPM-348
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.processor.invm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.events.CommunicationDetails;
+import org.hawkular.apm.api.model.events.CompletionTime;
+import org.hawkular.apm.api.model.events.NodeDetails;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.AnalyticsService;
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.TraceService;
+import org.hawkular.apm.api.utils.WireFormat;
+import org.hawkular.apm.server.api.services.CommunicationDetailsCache;
+import org.hawkular.apm.server.api.services.SourceInfoCache;
+import org.hawkular.apm.server.api.task.AbstractProcessor;
+import org.hawkular.apm.server.api.task.InVMPipeline;
+import org.hawkular.apm.server.api.task.InVMPublisher;
+import org.hawkular.apm.server.api.task.RetryAttemptException;
+import org.hawkular.apm.server.api.utils.SourceInfoUtil;
+import org.hawkular.apm.server.processor.communicationdetails.CommunicationDetailsDeriver;
+import org.hawkular.apm.server.processor.nodedetails.NodeDetailsDeriver;
+import org.hawkular.apm.server.processor.tracecompletiontime.TraceCompletionDeriver;
+import org.hawkular.apm.server.processor.tracecompletiontime.TraceCompletionInformation;
+import org.hawkular.apm.server.processor.tracecompletiontime.TraceCompletionInformationInitiator;
+import org.hawkular.apm.server.processor.tracecompletiontime.TraceCompletionInformationProcessor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * This class wires the trace processors into an {@link InVMPipeline}, with the same
+ * topology as the JMS topics and message driven beans, but without a message broker.
+ * Trace fragments published to the pipeline are stored, and used to derive and store
+ * the node details, communication details and trace completion times.
+ *
+ * @author gbrown
+ */
+public class TraceProcessingPipeline {
+
+    private static final TypeReference<List<TraceCompletionInformation>> TRACE_COMPLETION_INFORMATION_LIST =
+            new TypeReference<List<TraceCompletionInformation>>() {
+            };
+
+    private final InVMPipeline pipeline;
+
+    private final InVMPublisher<Trace> traces;
+    private final InVMPublisher<NodeDetails> nodeDetails;
+    private final InVMPublisher<CommunicationDetails> communicationDetails;
+    private final InVMPublisher<TraceCompletionInformation> traceCompletionInformation;
+    private final InVMPublisher<CompletionTime> traceCompletions;
+
+    /**
+     * This constructor initialises the pipeline.
+     *
+     * @param traceService The trace service
+     * @param analyticsService The analytics service
+     * @param sourceInfoCache The source info cache
+     * @param communicationDetailsCache The communication details cache
+     * @param workers The number of worker threads per processor
+     * @param bufferSize The capacity (in batches) of each worker's buffer
+     * @param retryCount The retry count associated with newly published items
+     */
+    public TraceProcessingPipeline(TraceService traceService, AnalyticsService analyticsService,
+            SourceInfoCache sourceInfoCache, CommunicationDetailsCache communicationDetailsCache,
+            int workers, int bufferSize, int retryCount) {
+        pipeline = new InVMPipeline(bufferSize, retryCount);
+
+        traces = pipeline.createTopic("Traces");
+        nodeDetails = pipeline.createTopic("NodeDetails");
+        communicationDetails = pipeline.createTopic("CommunicationDetails");
+        traceCompletionInformation = pipeline.createTopic("TraceCompletionInformation");
+        traceCompletions = pipeline.createTopic("TraceCompletions");
+
+        traces.subscribe("TraceStore", () -> new StoreProcessor<Trace>(traceService::storeFragments),
+                null, workers);
+        traces.subscribe("SourceInfoCache", () -> new StoreProcessor<Trace>((tenantId, items) ->
+                sourceInfoCache.store(tenantId, SourceInfoUtil.getSourceInfo(tenantId, items))),
+                null, workers);
+        traces.subscribe("NodeDetailsDeriver", () -> new NodeDetailsDeriver(), nodeDetails, workers);
+        traces.subscribe("CommunicationDetailsDeriver", () -> {
+            CommunicationDetailsDeriver deriver = new CommunicationDetailsDeriver();
+            deriver.setSourceInfoCache(sourceInfoCache);
+            return deriver;
+        }, communicationDetails, workers);
+        traces.subscribe("TraceCompletionInformationInitiator",
+                () -> new TraceCompletionInformationInitiator(), traceCompletionInformation, workers);
+
+        nodeDetails.subscribe("NodeDetailsStore",
+                () -> new StoreProcessor<NodeDetails>(analyticsService::storeNodeDetails), null, workers);
+
+        communicationDetails.subscribe("CommunicationDetailsStore",
+                () -> new StoreProcessor<CommunicationDetails>(analyticsService::storeCommunicationDetails),
+                null, workers);
+        communicationDetails.subscribe("CommunicationDetailsCache",
+                () -> new StoreProcessor<CommunicationDetails>(communicationDetailsCache::store), null, workers);
+
+        traceCompletionInformation.subscribe("TraceCompletionInformationProcessor", () -> {
+            TraceCompletionInformationProcessor processor = new TraceCompletionInformationProcessor();
+            processor.setCommunicationDetailsCache(communicationDetailsCache);
+            return processor;
+        }, traceCompletionInformation, workers, TraceProcessingPipeline::copy);
+        traceCompletionInformation.subscribe("TraceCompletionDeriver",
+                () -> new TraceCompletionDeriver(), traceCompletions, workers);
+
+        traceCompletions.subscribe("TraceCompletionStore",
+                () -> new StoreProcessor<CompletionTime>(analyticsService::storeTraceCompletions), null, workers);
+    }
+
+    /**
+     * @return The publisher for trace fragments
+     */
+    public Publisher<Trace> getTracePublisher() {
+        return traces;
+    }
+
+    /**
+     * @return The underlying pipeline
+     */
+    public InVMPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * This method starts the pipeline.
+     */
+    public void start() {
+        pipeline.start();
+    }
+
+    /**
+     * This method stops the pipeline.
+     *
+     * @param timeout The maximum time to wait for each processor to stop
+     * @param unit The time unit
+     * @throws InterruptedException Interrupted while waiting for the processors to stop
+     */
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        pipeline.stop(timeout, unit);
+    }
+
+    /**
+     * This method copies the trace completion information, as it is updated by the
+     * processor while also being delivered to the trace completion deriver.
+     *
+     * @param items The trace completion information
+     * @return The copy
+     */
+    protected static List<TraceCompletionInformation> copy(List<TraceCompletionInformation> items) {
+        try {
+            return WireFormat.Smile.deserialize(WireFormat.Smile.serialize(items), TRACE_COMPLETION_INFORMATION_LIST);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * This interface represents the operation used to store a list of items.
+     */
+    @FunctionalInterface
+    protected interface Store<T> {
+
+        /**
+         * @param tenantId The tenant
+         * @param items The items to store
+         * @throws Exception Failed to store the items
+         */
+        void store(String tenantId, List<T> items) throws Exception;
+
+    }
+
+    /**
+     * This processor stores the items, retrying if the store fails.
+     */
+    protected static class StoreProcessor<T> extends AbstractProcessor<T, Void> {
+
+        private final Store<T> store;
+
+        public StoreProcessor(Store<T> store) {
+            super(ProcessorType.ManyToMany);
+            this.store = store;
+        }
+
+        @Override
+        public List<Void> processManyToMany(String tenantId, List<T> items) throws RetryAttemptException {
+            try {
+                store.store(tenantId, items);
+            } catch (RetryAttemptException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RetryAttemptException(e);
+            }
+            return null;
+        }
+    }
+
+}
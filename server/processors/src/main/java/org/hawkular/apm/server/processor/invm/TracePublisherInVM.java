@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.processor.invm;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.AnalyticsService;
+import org.hawkular.apm.api.services.Publisher;
+import org.hawkular.apm.api.services.PublisherMetricHandler;
+import org.hawkular.apm.api.services.ServiceLifecycle;
+import org.hawkular.apm.api.services.ServiceResolver;
+import org.hawkular.apm.api.services.ServiceStatus;
+import org.hawkular.apm.api.services.TracePublisher;
+import org.hawkular.apm.api.services.TraceService;
+import org.hawkular.apm.api.utils.PropertyUtil;
+import org.hawkular.apm.server.api.services.CommunicationDetailsCache;
+import org.hawkular.apm.server.api.services.SourceInfoCache;
+import org.hawkular.apm.server.api.task.InVMPipeline;
+
+/**
+ * This class provides the trace publisher used when trace fragments are processed by
+ * an in-VM {@link TraceProcessingPipeline}, rather than via JMS. It is only available
+ * when the {@link PropertyUtil#HAWKULAR_APM_PROCESSOR_INVM} property is set, and resolves
+ * the services and caches used by the processors when initialised.
+ *
+ * @author gbrown
+ */
+public class TracePublisherInVM implements TracePublisher, ServiceLifecycle, ServiceStatus {
+
+    private static final Logger log = Logger.getLogger(TracePublisherInVM.class.getName());
+
+    private static final int DEFAULT_INITIAL_RETRY_COUNT = 3;
+
+    private static final int DEFAULT_WORKERS = 1;
+
+    private TraceProcessingPipeline pipeline;
+
+    @Override
+    public boolean isAvailable() {
+        return PropertyUtil.getPropertyAsBoolean(PropertyUtil.HAWKULAR_APM_PROCESSOR_INVM);
+    }
+
+    @Override
+    public void init() {
+        TraceService traceService = ServiceResolver.getSingletonService(TraceService.class);
+        AnalyticsService analyticsService = ServiceResolver.getSingletonService(AnalyticsService.class);
+        SourceInfoCache sourceInfoCache = ServiceResolver.getSingletonService(SourceInfoCache.class);
+        CommunicationDetailsCache communicationDetailsCache =
+                ServiceResolver.getSingletonService(CommunicationDetailsCache.class);
+
+        if (traceService == null || analyticsService == null || sourceInfoCache == null
+                || communicationDetailsCache == null) {
+            log.severe("Unable to initialise in-VM pipeline: traceService=" + traceService
+                    + " analyticsService=" + analyticsService + " sourceInfoCache=" + sourceInfoCache
+                    + " communicationDetailsCache=" + communicationDetailsCache);
+            return;
+        }
+
+        pipeline = new TraceProcessingPipeline(traceService, analyticsService, sourceInfoCache,
+                communicationDetailsCache,
+                PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_PROCESSOR_INVM_WORKERS,
+                        DEFAULT_WORKERS),
+                InVMPipeline.DEFAULT_BUFFER_SIZE,
+                PropertyUtil.getPropertyAsInteger(PropertyUtil.HAWKULAR_APM_PROCESSOR_MAX_RETRY_COUNT,
+                        DEFAULT_INITIAL_RETRY_COUNT));
+        pipeline.start();
+
+        if (log.isLoggable(Level.FINER)) {
+            log.finer("Started in-VM pipeline: " + pipeline.getPipeline().getTopics());
+        }
+    }
+
+    /**
+     * @return The pipeline, or null if not initialised
+     */
+    public TraceProcessingPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline The pipeline
+     */
+    public void setPipeline(TraceProcessingPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public int getInitialRetryCount() {
+        return getTopic().getInitialRetryCount();
+    }
+
+    @Override
+    public void publish(String tenantId, List<Trace> items) throws Exception {
+        getTopic().publish(tenantId, items);
+    }
+
+    @Override
+    public void publish(String tenantId, List<Trace> items, int retryCount, long delay) throws Exception {
+        getTopic().publish(tenantId, items, retryCount, delay);
+    }
+
+    @Override
+    public void retry(String tenantId, List<Trace> items, String subscriber, int retryCount, long delay)
+            throws Exception {
+        getTopic().retry(tenantId, items, subscriber, retryCount, delay);
+    }
+
+    @Override
+    public void setMetricHandler(PublisherMetricHandler<Trace> handler) {
+        getTopic().setMetricHandler(handler);
+    }
+
+    /**
+     * @return The topic to which trace fragments are published
+     */
+    protected Publisher<Trace> getTopic() {
+        if (pipeline == null) {
+            throw new IllegalStateException("In-VM pipeline has not been initialised");
+        }
+        return pipeline.getTracePublisher();
+    }
+
+}
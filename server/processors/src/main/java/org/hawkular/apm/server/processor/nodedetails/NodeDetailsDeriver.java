@@ -53,6 +53,11 @@ public class NodeDetailsDeriver extends AbstractProcessor<Trace, NodeDetails> {
         super(ProcessorType.OneToMany);
     }
 
+    @Override
+    public boolean isParallelSafe() {
+        return true;
+    }
+
     @Override
     public List<NodeDetails> processOneToMany(String tenantId, Trace item) throws RetryAttemptException {
         List<NodeDetails> ret = new ArrayList<NodeDetails>();
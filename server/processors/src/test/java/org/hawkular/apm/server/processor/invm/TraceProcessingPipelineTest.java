@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.processor.invm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.apm.api.model.events.CommunicationDetails;
+import org.hawkular.apm.api.model.events.CompletionTime;
+import org.hawkular.apm.api.model.events.SourceInfo;
+import org.hawkular.apm.api.model.trace.Consumer;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier;
+import org.hawkular.apm.api.model.trace.CorrelationIdentifier.Scope;
+import org.hawkular.apm.api.model.trace.Producer;
+import org.hawkular.apm.api.model.trace.Trace;
+import org.hawkular.apm.api.services.AnalyticsService;
+import org.hawkular.apm.api.services.TraceService;
+import org.hawkular.apm.server.api.services.CommunicationDetailsCache;
+import org.hawkular.apm.server.api.services.SourceInfoCache;
+import org.junit.Test;
+
+/**
+ * @author gbrown
+ */
+public class TraceProcessingPipelineTest {
+
+    @Test
+    public void testProcessLinkedFragments() throws Exception {
+        Map<String, List<Object>> stored = new ConcurrentHashMap<String, List<Object>>();
+
+        TraceProcessingPipeline pipeline = new TraceProcessingPipeline(service(TraceService.class, stored),
+                service(AnalyticsService.class, stored), new SourceInfoCacheMap(),
+                new CommunicationDetailsCacheMap(), 1, 16, 3);
+
+        long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+        Trace trace1 = new Trace();
+        trace1.setTraceId("trace1");
+        trace1.setFragmentId("trace1");
+        trace1.setTimestamp(now);
+
+        Consumer c1 = new Consumer();
+        c1.setUri("/a");
+        c1.setEndpointType("HTTP");
+        c1.setTimestamp(now);
+        c1.setDuration(1000);
+        trace1.getNodes().add(c1);
+
+        Producer p1 = new Producer();
+        p1.setUri("/b");
+        p1.setEndpointType("HTTP");
+        p1.setTimestamp(now + 100);
+        p1.setDuration(800);
+        p1.getCorrelationIds().add(new CorrelationIdentifier(Scope.Interaction, "id1"));
+        c1.getNodes().add(p1);
+
+        Trace trace2 = new Trace();
+        trace2.setTraceId("trace1");
+        trace2.setFragmentId("frag2");
+        trace2.setTimestamp(now + 200);
+
+        Consumer c2 = new Consumer();
+        c2.setUri("/b");
+        c2.setEndpointType("HTTP");
+        c2.setTimestamp(now + 200);
+        c2.setDuration(2000);
+        c2.getCorrelationIds().add(new CorrelationIdentifier(Scope.Interaction, "id1"));
+        trace2.getNodes().add(c2);
+
+        pipeline.start();
+        try {
+            pipeline.getTracePublisher().publish(null, Arrays.asList(trace1, trace2));
+
+            assertTrue(pipeline.getPipeline().awaitIdle(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.stop(1, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, stored.get("storeFragments").size());
+        assertEquals(1, stored.get("storeCommunicationDetails").size());
+        assertEquals(1, stored.get("storeTraceCompletions").size());
+
+        CompletionTime ct = (CompletionTime) stored.get("storeTraceCompletions").get(0);
+        assertEquals("trace1", ct.getId());
+        assertEquals("/a", ct.getUri());
+
+        // Duration should include the linked fragment
+        assertTrue(ct.getDuration() > 1000);
+    }
+
+    protected static <T> T service(Class<T> intf, Map<String, List<Object>> stored) {
+        return intf.cast(Proxy.newProxyInstance(intf.getClassLoader(), new Class<?>[] { intf },
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("store")) {
+                        stored.computeIfAbsent(method.getName(),
+                                k -> Collections.synchronizedList(new ArrayList<Object>()))
+                                .addAll((List<?>) args[1]);
+                    }
+                    return null;
+                }));
+    }
+
+    public static class SourceInfoCacheMap implements SourceInfoCache {
+
+        private final Map<String, SourceInfo> cache = new ConcurrentHashMap<String, SourceInfo>();
+
+        @Override
+        public SourceInfo get(String tenantId, String id) {
+            return cache.get(id);
+        }
+
+        @Override
+        public void store(String tenantId, List<SourceInfo> sourceInfoList) {
+            for (SourceInfo si : sourceInfoList) {
+                cache.put(si.getId(), si);
+            }
+        }
+    }
+
+    public static class CommunicationDetailsCacheMap implements CommunicationDetailsCache {
+
+        private final Map<String, List<CommunicationDetails>> cache =
+                new ConcurrentHashMap<String, List<CommunicationDetails>>();
+
+        @Override
+        public CommunicationDetails get(String tenantId, String id) {
+            List<CommunicationDetails> details = getById(tenantId, id);
+            return (details.isEmpty() ? null : details.get(0));
+        }
+
+        @Override
+        public List<CommunicationDetails> getById(String tenantId, String id) {
+            return cache.getOrDefault(id, Collections.emptyList());
+        }
+
+        @Override
+        public void store(String tenantId, List<CommunicationDetails> details) {
+            for (CommunicationDetails cd : details) {
+                cache.computeIfAbsent(cd.getLinkId(),
+                        k -> new CopyOnWriteArrayList<CommunicationDetails>()).add(cd);
+            }
+        }
+    }
+
+}
@@ -30,6 +30,7 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 import org.hawkular.apm.api.model.trace.Trace;
@@ -39,6 +40,8 @@ import org.hawkular.apm.api.services.TraceService;
 import org.hawkular.apm.server.rest.entity.CriteriaRequest;
 import org.hawkular.apm.server.rest.entity.GetByIdRequest;
 import org.hawkular.apm.server.rest.entity.TenantRequest;
+import org.hawkular.apm.server.rest.filter.ContentEncodingInterceptor;
+import org.hawkular.apm.server.rest.filter.SmileReaderProvider;
 import org.hawkular.jaxrs.filter.tenant.TenantRequired;
 import org.jboss.logging.Logger;
 
@@ -61,6 +64,12 @@ import io.swagger.annotations.ApiResponses;
 @TenantRequired(false)
 public class TraceHandler extends BaseHandler {
     private static final Logger log = Logger.getLogger(TraceHandler.class);
+
+    /** Response header used to advertise the media types accepted when posting trace fragments */
+    public static final String ACCEPT_POST = "Accept-Post";
+
+    private static final String ACCEPTED_MEDIA_TYPES = APPLICATION_JSON + ", " + SmileReaderProvider.APPLICATION_SMILE;
+
     TracePublisher tracePublisher;
 
     @Inject
@@ -77,6 +86,7 @@ public class TraceHandler extends BaseHandler {
 
     @POST
     @Path("fragments")
+    @Consumes({ APPLICATION_JSON, SmileReaderProvider.APPLICATION_SMILE })
     @ApiOperation(value = "Add a list of trace fragments")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Adding traces succeeded."),
@@ -85,7 +95,12 @@ public class TraceHandler extends BaseHandler {
                               @ApiParam(value = "List of traces", required = true) List<Trace> traces) {
         return withErrorHandler(() -> {
             tracePublisher.publish(getTenant(request), traces);
-            return Response.status(Response.Status.NO_CONTENT).build();
+
+            // Advertise that compressed (RFC 7694) and binary encoded trace fragments are accepted
+            return Response.status(Response.Status.NO_CONTENT)
+                    .header(HttpHeaders.ACCEPT_ENCODING, ContentEncodingInterceptor.SUPPORTED_ENCODINGS)
+                    .header(ACCEPT_POST, ACCEPTED_MEDIA_TYPES)
+                    .build();
         });
     }
 
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.rest.filter;
+
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Priority;
+import javax.ws.rs.NotSupportedException;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+
+/**
+ * This interceptor transparently decompresses request entities that have been
+ * sent with a gzip content encoding. Requests with any other (non identity)
+ * content encoding are rejected as unsupported.
+ *
+ * @author gbrown
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class ContentEncodingInterceptor implements ReaderInterceptor {
+
+    /** The content encodings supported for requests, as advertised in the Accept-Encoding response header */
+    public static final String SUPPORTED_ENCODINGS = "gzip";
+
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String IDENTITY = "identity";
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+
+        if (encoding != null) {
+            encoding = encoding.trim();
+            if (encoding.equalsIgnoreCase(GZIP) || encoding.equalsIgnoreCase(X_GZIP)) {
+                context.setInputStream(new GZIPInputStream(context.getInputStream()));
+                // Entity has been decoded, so prevent any further decoding
+                context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+            } else if (!encoding.equalsIgnoreCase(IDENTITY)) {
+                throw new NotSupportedException("Unsupported content encoding: " + encoding);
+            }
+        }
+
+        return context.proceed();
+    }
+}
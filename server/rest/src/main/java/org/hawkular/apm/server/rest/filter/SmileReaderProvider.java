@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.apm.server.rest.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+
+import org.hawkular.apm.api.utils.WireFormat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This provider reads request entities that have been sent using the binary
+ * Smile wire format.
+ *
+ * @author gbrown
+ */
+@Provider
+@Consumes(SmileReaderProvider.APPLICATION_SMILE)
+public class SmileReaderProvider implements MessageBodyReader<Object> {
+
+    /** The Smile media type */
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+    private static final MediaType APPLICATION_SMILE_TYPE = MediaType.valueOf(APPLICATION_SMILE);
+
+    private static final ObjectMapper mapper = WireFormat.Smile.getMapper();
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return APPLICATION_SMILE_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+            throws IOException, WebApplicationException {
+        return mapper.readValue(entityStream, mapper.getTypeFactory().constructType(genericType));
+    }
+
+}